@@ -1,14 +1,22 @@
 package org.ehcache.extensions.io;
 
 import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Status;
 import org.ehcache.extensions.io.impl.readers.EhcacheStreamReadersFactory;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsFactory;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+import org.ehcache.extensions.io.impl.writers.EhcacheMultipartUpload;
 import org.ehcache.extensions.io.impl.writers.EhcacheStreamWritersFactory;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by fabien.sanglier on 7/27/18.
@@ -63,6 +71,99 @@ public class EhcacheIOStreams {
         return EhcacheStreamUtilsFactory.getUtils(cache).getAllStreamEntryKeys(excludeExpiredKeys, includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
     }
 
+    /**
+     * Get a page of the cache entry keys, to go through the stream entries of a big cache page by page:
+     * start with a cursor of 0, then get the next pages with the next cursor of the previous page, until there is no more.
+     * The stream entries added or removed while paging may or may not be listed.
+     *
+     * @param      cache  the backend cache
+     * @param      excludeExpiredKeys  make sure no expired keys are returned
+     * @param      cursor  the next cursor of the previous page (0 for the first page)
+     * @param      pageSize  the max number of keys in the page
+     * @return     the page of stream entry keys
+     * @exception  EhcacheStreamException if cache or pageSize are not valid
+     */
+    public static EhcacheStreamKeyPage getStreamEntryKeys(Ehcache cache, boolean excludeExpiredKeys, long cursor, int pageSize) {
+        checkValid(cache);
+
+        if(pageSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Page size must be greater than 0");
+
+        return EhcacheStreamUtilsFactory.getUtils(cache).getStreamEntryKeys(excludeExpiredKeys, cursor, pageSize);
+    }
+
+    /**
+     * Get a lazy iterator over the stream entries in cache, along with their metadata (size, chunk count, readers, writers, last read/write times).
+     * The stream entry metadata gets fetched from cache by batches, as the iteration goes.
+     *
+     * @param      cache  the backend cache
+     * @param      excludeExpiredKeys  make sure no expired entries are returned
+     * @return     the iterator of stream entry infos
+     * @exception  EhcacheStreamException if cache is not valid
+     */
+    public static Iterator<EhcacheStreamEntryInfo> getStreamEntries(Ehcache cache, boolean excludeExpiredKeys) {
+        return getStreamEntries(cache, excludeExpiredKeys, PropertyUtils.DEFAULT_STREAM_ENTRIES_BATCH_SIZE);
+    }
+
+    /**
+     * Get a lazy iterator over the stream entries in cache, along with their metadata (size, chunk count, readers, writers, last read/write times).
+     * The stream entry metadata gets fetched from cache by batches, as the iteration goes.
+     *
+     * @param      cache  the backend cache
+     * @param      excludeExpiredKeys  make sure no expired entries are returned
+     * @param      batchSize  the number of stream entries fetched from cache at once
+     * @return     the iterator of stream entry infos
+     * @exception  EhcacheStreamException if cache or batchSize are not valid
+     */
+    public static Iterator<EhcacheStreamEntryInfo> getStreamEntries(Ehcache cache, boolean excludeExpiredKeys, int batchSize) {
+        checkValid(cache);
+
+        if(batchSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Batch size must be greater than 0");
+
+        return EhcacheStreamUtilsFactory.getUtils(cache).getStreamEntries(excludeExpiredKeys, batchSize);
+    }
+
+    /**
+     * Get the stream entry infos of many cache keys at once (size, chunk count, readers, writers, last read/write times),
+     * with one batched cache call per batch of keys instead of one cache call per key.
+     *
+     * @param      cache  the backend cache
+     * @param      cacheKeys  the public cache keys of the stream entries
+     * @return     the stream entry info of each key (in the key collection order), or null for the keys with no stream entry
+     * @exception  EhcacheStreamException if cache or cacheKeys are not valid
+     */
+    public static Map<Object, EhcacheStreamEntryInfo> getStreamInfos(Ehcache cache, Collection cacheKeys) {
+        return getStreamInfos(cache, cacheKeys, PropertyUtils.DEFAULT_STREAM_ENTRIES_BATCH_SIZE);
+    }
+
+    /**
+     * Get the stream entry infos of many cache keys at once (size, chunk count, readers, writers, last read/write times),
+     * with one batched cache call per batch of keys instead of one cache call per key.
+     *
+     * @param      cache  the backend cache
+     * @param      cacheKeys  the public cache keys of the stream entries
+     * @param      batchSize  the number of stream entries fetched from cache at once
+     * @return     the stream entry info of each key (in the key collection order), or null for the keys with no stream entry
+     * @exception  EhcacheStreamException if cache, cacheKeys or batchSize are not valid
+     */
+    public static Map<Object, EhcacheStreamEntryInfo> getStreamInfos(Ehcache cache, Collection cacheKeys, int batchSize) {
+        checkValid(cache);
+
+        if(cacheKeys == null)
+            throw new EhcacheStreamIllegalArgumentException("cacheKeys may not be null");
+
+        for (Object cacheKey : cacheKeys) {
+            if(cacheKey == null)
+                throw new EhcacheStreamIllegalArgumentException("cacheKey may not be null");
+        }
+
+        if(batchSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Batch size must be greater than 0");
+
+        return EhcacheStreamUtilsFactory.getUtils(cache).getStreamEntryInfos(cacheKeys, batchSize);
+    }
+
     /**
      * Remove a stream entry from cache
      *
@@ -72,7 +173,9 @@ public class EhcacheIOStreams {
      * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, OR if the remove operation was not successful
      */
     public static boolean removeStreamEntry(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
-        return removeStreamEntry(cache, cacheKey, PropertyUtils.getOutputStreamOpenTimeout());
+        checkValid(cache, cacheKey);
+
+        return removeStreamEntry(cache, cacheKey, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
     }
 
     /**
@@ -90,18 +193,136 @@ public class EhcacheIOStreams {
         return EhcacheStreamUtilsFactory.getUtils(cache).removeStreamEntry(cacheKey, openTimeout);
     }
 
+    /**
+     * Remove many stream entries from cache, by batches: the deletes get acquired on a whole batch of entries,
+     * then all the chunks of the batch get removed at once, which is much faster than removing the entries one by one.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKeys       the underlying cache keys of the stream entries to remove
+     * @return      the number of stream entries removed (the keys with no stream entry are not counted)
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKeys are not valid, OR if some of the stream entries could not be removed (the other ones are still removed)
+     */
+    public static int removeStreamEntries(Ehcache cache, Collection cacheKeys) throws EhcacheStreamException {
+        checkValid(cache);
+
+        return removeStreamEntries(cache, cacheKeys, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Remove many stream entries from cache, by batches: the deletes get acquired on a whole batch of entries,
+     * then all the chunks of the batch get removed at once, which is much faster than removing the entries one by one.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKeys       the underlying cache keys of the stream entries to remove
+     * @param       openTimeout     the timeout to acquire the deletes on each batch of stream entries
+     * @return      the number of stream entries removed (the keys with no stream entry are not counted)
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKeys are not valid, OR if some of the stream entries could not be removed (the other ones are still removed)
+     */
+    public static int removeStreamEntries(Ehcache cache, Collection cacheKeys, long openTimeout) throws EhcacheStreamException {
+        return removeStreamEntries(cache, cacheKeys, PropertyUtils.DEFAULT_STREAM_ENTRIES_BATCH_SIZE, openTimeout);
+    }
+
+    /**
+     * Remove many stream entries from cache, by batches: the deletes get acquired on a whole batch of entries,
+     * then all the chunks of the batch get removed at once, which is much faster than removing the entries one by one.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKeys       the underlying cache keys of the stream entries to remove
+     * @param       batchSize       the number of stream entries removed at once
+     * @param       openTimeout     the timeout to acquire the deletes on each batch of stream entries
+     * @return      the number of stream entries removed (the keys with no stream entry are not counted)
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKeys or batchSize are not valid, OR if some of the stream entries could not be removed (the other ones are still removed)
+     */
+    public static int removeStreamEntries(Ehcache cache, Collection cacheKeys, int batchSize, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache);
+
+        if(cacheKeys == null)
+            throw new EhcacheStreamIllegalArgumentException("cacheKeys may not be null");
+
+        for (Object cacheKey : cacheKeys) {
+            if(cacheKey == null)
+                throw new EhcacheStreamIllegalArgumentException("cacheKey may not be null");
+        }
+
+        if(batchSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Batch size must be greater than 0");
+
+        return EhcacheStreamUtilsFactory.getUtils(cache).removeStreamEntries(cacheKeys, batchSize, openTimeout);
+    }
+
+    /**
+     * Sweep the orphan chunks of a cache now: the chunk entries that no stream entry references anymore (eg. left behind by failed writes),
+     * which would otherwise stay in cache until evicted (or forever in a pinned cache).
+     * The stream entries busy with reads, writes, appends or uploads during the sweep are left for a later sweep.
+     *
+     * @param       cache           the underlying cache to sweep
+     * @return      the number of orphan chunks removed, and the bytes reclaimed
+     * @exception   EhcacheStreamException if cache is null or disabled
+     */
+    public static EhcacheStreamSweepResult sweepOrphanChunks(Ehcache cache) throws EhcacheStreamException {
+        checkValid(cache);
+
+        return EhcacheStreamManager.getInstance(cache).getOrphanChunkSweeper().sweep();
+    }
+
+    /**
+     * Compact a stream entry: rewrites the runs of small chunks (eg. produced by many small appends) into full size chunks
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to compact
+     * @return      true if some chunks were rewritten, false if there was nothing to compact or no such stream entry
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, OR if the compaction was not successful
+     */
+    public static boolean compactStreamEntry(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        return compactStreamEntry(cache, cacheKey, ehcacheStreamManager.getOutputStreamBufferSize(), ehcacheStreamManager.getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Compact a stream entry: rewrites the runs of small chunks (eg. produced by many small appends) into full size chunks
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to compact
+     * @param       chunkSize       the target size of the rewritten chunk entries
+     * @param       openTimeout     the timeout for the stream exclusive open operation (write lock timeout)
+     * @return      true if some chunks were rewritten, false if there was nothing to compact or no such stream entry
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, OR if the compaction was not successful
+     */
+    public static boolean compactStreamEntry(Ehcache cache, Object cacheKey, int chunkSize, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        if(chunkSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Chunk size <= 0");
+
+        //a missing stream entry does not get created just to compact it (checked once the write is acquired)
+        return EhcacheStreamWritersFactory.compactStream(
+                cache,
+                cacheKey,
+                chunkSize,
+                openTimeout
+        );
+    }
+
     //////////////////////////// InputStream
 
     public static InputStream getInputStream(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
-        return getInputStream(cache, cacheKey, PropertyUtils.getInputStreamAllowNulls());
+        checkValid(cache, cacheKey);
+
+        return getInputStream(cache, cacheKey, EhcacheStreamManager.getInstance(cache).getInputStreamAllowNulls());
     }
 
     public static InputStream getInputStream(Ehcache cache, Object cacheKey, boolean allowNullStream) throws EhcacheStreamException {
-        return getInputStream(cache, cacheKey, allowNullStream, PropertyUtils.getInputStreamBufferSize());
+        checkValid(cache, cacheKey);
+
+        return getInputStream(cache, cacheKey, allowNullStream, EhcacheStreamManager.getInstance(cache).getInputStreamBufferSize());
     }
 
     public static InputStream getInputStream(Ehcache cache, Object cacheKey, boolean allowNullStream, int bufferSize) throws EhcacheStreamException {
-        return getInputStream(cache, cacheKey, allowNullStream, bufferSize, PropertyUtils.getInputStreamOpenTimeout());
+        checkValid(cache, cacheKey);
+
+        return getInputStream(cache, cacheKey, allowNullStream, bufferSize, EhcacheStreamManager.getInstance(cache).getInputStreamOpenTimeout());
     }
 
     /**
@@ -118,30 +339,33 @@ public class EhcacheIOStreams {
     public static InputStream getInputStream(Ehcache cache, Object cacheKey, boolean allowNullStream, int bufferSize, long openTimeout) throws EhcacheStreamException {
         checkValid(cache, cacheKey);
 
-        if(!allowNullStream || allowNullStream && containStreamEntry(cache, cacheKey)){
-            return EhcacheStreamReadersFactory.getStream(
-                    cache,
-                    cacheKey,
-                    openTimeout,
-                    bufferSize
-                    );
-        } else {
-            return null;
-        }
+        return EhcacheStreamReadersFactory.getStream(
+                cache,
+                cacheKey,
+                openTimeout,
+                bufferSize,
+                allowNullStream
+        );
     }
 
     //////////////////////////// OutputStream
 
     public static OutputStream getOutputStream(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
-        return getOutputStream(cache, cacheKey, PropertyUtils.getOutputStreamDefaultOverride());
+        checkValid(cache, cacheKey);
+
+        return getOutputStream(cache, cacheKey, EhcacheStreamManager.getInstance(cache).getOutputStreamDefaultOverride());
     }
 
     public static OutputStream getOutputStream(Ehcache cache, Object cacheKey, boolean override) throws EhcacheStreamException {
-        return getOutputStream(cache, cacheKey, override, PropertyUtils.getOutputStreamBufferSize());
+        checkValid(cache, cacheKey);
+
+        return getOutputStream(cache, cacheKey, override, EhcacheStreamManager.getInstance(cache).getOutputStreamBufferSize());
     }
 
     public static OutputStream getOutputStream(Ehcache cache, Object cacheKey, boolean override, int bufferSize) throws EhcacheStreamException {
-        return getOutputStream(cache, cacheKey, override, bufferSize, PropertyUtils.getOutputStreamOpenTimeout());
+        checkValid(cache, cacheKey);
+
+        return getOutputStream(cache, cacheKey, override, bufferSize, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
     }
 
     /**
@@ -167,6 +391,170 @@ public class EhcacheIOStreams {
         );
     }
 
+    public static OutputStream getConcurrentAppendOutputStream(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return getConcurrentAppendOutputStream(cache, cacheKey, EhcacheStreamManager.getInstance(cache).getOutputStreamBufferSize());
+    }
+
+    public static OutputStream getConcurrentAppendOutputStream(Ehcache cache, Object cacheKey, int bufferSize) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return getConcurrentAppendOutputStream(cache, cacheKey, bufferSize, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Get an OutputStream object backed by Ehcache, that appends its data to the cache entry
+     * concurrently with the other concurrent append streams on that same cache key (no exclusive write needed).
+     * The data of each stream is published as a whole on close, in the order the streams were opened.
+     * Until then, it is not visible to the readers.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to append data to
+     * @param       bufferSize      the outputStream underlying buffer size. This essentially specify a max size for each of the underlying cache "chunk entries" created in Ehcache.
+     * @param       openTimeout     the timeout for the stream open operation (waiting for any exclusive writer to finish)
+     * @return      a Valid OutputStream object
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, OR if the EhcacheOutputStream creation was not successful
+     */
+    public static OutputStream getConcurrentAppendOutputStream(Ehcache cache, Object cacheKey, int bufferSize, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return EhcacheStreamWritersFactory.getConcurrentAppendStream(
+                cache,
+                cacheKey,
+                bufferSize,
+                openTimeout
+        );
+    }
+
+    public static long putFile(Ehcache cache, Object cacheKey, Path file) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        return putFile(cache, cacheKey, file, ehcacheStreamManager.getOutputStreamBufferSize(), PropertyUtils.getOutputStreamPutFileThreads(), ehcacheStreamManager.getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Put the content of a file into a stream entry (replacing the current content, if any).
+     * The file is split into chunk size regions that are read and saved into the cache in parallel,
+     * and the stream entry is updated once all of them are saved.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to write data to
+     * @param       file            the file to put into the cache
+     * @param       chunkSize       the size of the underlying cache "chunk entries" created in Ehcache
+     * @param       threadCount     the number of threads reading and saving the chunks
+     * @param       openTimeout     the timeout for the stream exclusive open operation (write lock timeout)
+     * @return      the number of bytes written
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, if the file is not a readable file, OR if the put was not successful
+     */
+    public static long putFile(Ehcache cache, Object cacheKey, Path file, int chunkSize, int threadCount, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        if(null == file || !Files.isRegularFile(file) || !Files.isReadable(file))
+            throw new EhcacheStreamIllegalArgumentException(String.format("File [%s] is not a readable file", file));
+
+        if(chunkSize <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Chunk size <= 0");
+
+        if(threadCount <= 0)
+            throw new EhcacheStreamIllegalArgumentException("Thread count <= 0");
+
+        return EhcacheStreamWritersFactory.putFile(
+                cache,
+                cacheKey,
+                file,
+                chunkSize,
+                threadCount,
+                openTimeout
+        );
+    }
+
+    //////////////////////////// Multipart upload
+
+    public static EhcacheMultipartUpload createMultipartUpload(Ehcache cache, Object cacheKey) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return createMultipartUpload(cache, cacheKey, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Open a multipart upload on a cache entry: the parts of the stream can then be uploaded in parallel (see EhcacheMultipartUpload),
+     * and get added to the cache entry all at once when the upload is completed.
+     * The stream entry is created (empty) if it does not exist yet.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to upload data to
+     * @param       openTimeout     the timeout for each of the multipart upload operations (waiting for any exclusive writer to finish)
+     * @return      a Valid EhcacheMultipartUpload object
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null, OR if the multipart upload could not be opened
+     */
+    public static EhcacheMultipartUpload createMultipartUpload(Ehcache cache, Object cacheKey, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return EhcacheStreamWritersFactory.createMultipartUpload(
+                cache,
+                cacheKey,
+                openTimeout
+        );
+    }
+
+    public static EhcacheMultipartUpload getMultipartUpload(Ehcache cache, Object cacheKey, long uploadId) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return getMultipartUpload(cache, cacheKey, uploadId, EhcacheStreamManager.getInstance(cache).getOutputStreamOpenTimeout());
+    }
+
+    /**
+     * Attach to a multipart upload already opened on a cache entry (eg. by another node), to upload some of its parts.
+     *
+     * @param       cache           the underlying cache to access
+     * @param       cacheKey        the underlying cache key to upload data to
+     * @param       uploadId        the id of the multipart upload (see EhcacheMultipartUpload.getUploadId())
+     * @param       openTimeout     the timeout for each of the multipart upload operations (waiting for any exclusive writer to finish)
+     * @return      a Valid EhcacheMultipartUpload object
+     * @exception   EhcacheStreamException if cache is null, disabled, or cacheKey is null
+     */
+    public static EhcacheMultipartUpload getMultipartUpload(Ehcache cache, Object cacheKey, long uploadId, long openTimeout) throws EhcacheStreamException {
+        checkValid(cache, cacheKey);
+
+        return EhcacheStreamWritersFactory.getMultipartUpload(
+                cache,
+                cacheKey,
+                uploadId,
+                openTimeout
+        );
+    }
+
+    //////////////////////////// Configuration
+
+    /**
+     * Set the stream settings of a cache, overriding the global settings (system properties) for the streams on that cache.
+     * The settings left unset in the configuration keep following the global settings.
+     *
+     * @param       cache           the underlying cache to configure
+     * @param       configuration   the stream settings for that cache
+     * @exception   EhcacheStreamIllegalArgumentException if cache is null, disabled or not alive, or configuration is null
+     */
+    public static void configure(Ehcache cache, EhcacheStreamConfiguration configuration) {
+        checkValid(cache);
+
+        EhcacheStreamManager.getInstance(cache).setConfiguration(configuration);
+    }
+
+    /**
+     * Get the stream settings of a cache (a copy)
+     *
+     * @param       cache           the underlying cache
+     * @return      the stream settings set for that cache (the unset settings being null)
+     * @exception   EhcacheStreamIllegalArgumentException if cache is null, disabled or not alive
+     */
+    public static EhcacheStreamConfiguration getConfiguration(Ehcache cache) {
+        checkValid(cache);
+
+        return EhcacheStreamManager.getInstance(cache).getConfiguration();
+    }
+
     //////////////////////////// Internal Validators
 
     private static void checkValid(Ehcache cache) {
@@ -176,6 +564,9 @@ public class EhcacheIOStreams {
         if(cache.isDisabled())
             throw new EhcacheStreamIllegalArgumentException("Cache is disabled");
 
+        //a disposed cache would otherwise get a new stream manager, never dropped
+        if(cache.getStatus() != Status.STATUS_ALIVE)
+            throw new EhcacheStreamIllegalArgumentException("Cache is not alive");
     }
 
     private static void checkValid(Ehcache cache, Object cacheKey) {
@@ -0,0 +1,202 @@
+package org.ehcache.extensions.io;
+
+import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+
+/**
+ * Created by fabien.sanglier on 11/14/18.
+ */
+
+/*
+ * The stream settings of a cache (see EhcacheIOStreams.configure()), overriding the global settings (system properties) for that cache.
+ * The settings left unset (null) keep following the global settings.
+ */
+public class EhcacheStreamConfiguration {
+    private PropertyUtils.ConcurrencyMode concurrencyMode;
+    private Integer inputStreamBufferSize;
+    private Integer outputStreamBufferSize;
+    private Boolean outputStreamAdaptiveChunkSize;
+    private Long inputStreamOpenTimeout;
+    private Long outputStreamOpenTimeout;
+    private Boolean inputStreamAllowNulls;
+    private Boolean outputStreamDefaultOverride;
+    private Boolean removeAsyncReclaim;
+    private Long orphanSweepInterval;
+    private Long lockLeaseDuration;
+    private Long inputStreamReadTimeFlushInterval;
+    private Boolean chunksOffHeap;
+    private Integer outputStreamInlineThreshold;
+    private Boolean inputStreamNearCache;
+    private Boolean inputStreamFetchCoalescing;
+
+    public EhcacheStreamConfiguration() {
+    }
+
+    public EhcacheStreamConfiguration(EhcacheStreamConfiguration configuration) {
+        this.concurrencyMode = configuration.concurrencyMode;
+        this.inputStreamBufferSize = configuration.inputStreamBufferSize;
+        this.outputStreamBufferSize = configuration.outputStreamBufferSize;
+        this.outputStreamAdaptiveChunkSize = configuration.outputStreamAdaptiveChunkSize;
+        this.inputStreamOpenTimeout = configuration.inputStreamOpenTimeout;
+        this.outputStreamOpenTimeout = configuration.outputStreamOpenTimeout;
+        this.inputStreamAllowNulls = configuration.inputStreamAllowNulls;
+        this.outputStreamDefaultOverride = configuration.outputStreamDefaultOverride;
+        this.removeAsyncReclaim = configuration.removeAsyncReclaim;
+        this.orphanSweepInterval = configuration.orphanSweepInterval;
+        this.lockLeaseDuration = configuration.lockLeaseDuration;
+        this.inputStreamReadTimeFlushInterval = configuration.inputStreamReadTimeFlushInterval;
+        this.chunksOffHeap = configuration.chunksOffHeap;
+        this.outputStreamInlineThreshold = configuration.outputStreamInlineThreshold;
+        this.inputStreamNearCache = configuration.inputStreamNearCache;
+        this.inputStreamFetchCoalescing = configuration.inputStreamFetchCoalescing;
+    }
+
+    public PropertyUtils.ConcurrencyMode getConcurrencyMode() {
+        return concurrencyMode;
+    }
+
+    public void setConcurrencyMode(PropertyUtils.ConcurrencyMode concurrencyMode) {
+        this.concurrencyMode = concurrencyMode;
+    }
+
+    public Integer getInputStreamBufferSize() {
+        return inputStreamBufferSize;
+    }
+
+    public void setInputStreamBufferSize(Integer inputStreamBufferSize) {
+        this.inputStreamBufferSize = inputStreamBufferSize;
+    }
+
+    public Integer getOutputStreamBufferSize() {
+        return outputStreamBufferSize;
+    }
+
+    public void setOutputStreamBufferSize(Integer outputStreamBufferSize) {
+        this.outputStreamBufferSize = outputStreamBufferSize;
+    }
+
+    public Boolean getOutputStreamAdaptiveChunkSize() {
+        return outputStreamAdaptiveChunkSize;
+    }
+
+    public void setOutputStreamAdaptiveChunkSize(Boolean outputStreamAdaptiveChunkSize) {
+        this.outputStreamAdaptiveChunkSize = outputStreamAdaptiveChunkSize;
+    }
+
+    public Long getInputStreamOpenTimeout() {
+        return inputStreamOpenTimeout;
+    }
+
+    public void setInputStreamOpenTimeout(Long inputStreamOpenTimeout) {
+        this.inputStreamOpenTimeout = inputStreamOpenTimeout;
+    }
+
+    public Long getOutputStreamOpenTimeout() {
+        return outputStreamOpenTimeout;
+    }
+
+    public void setOutputStreamOpenTimeout(Long outputStreamOpenTimeout) {
+        this.outputStreamOpenTimeout = outputStreamOpenTimeout;
+    }
+
+    public Boolean getInputStreamAllowNulls() {
+        return inputStreamAllowNulls;
+    }
+
+    public void setInputStreamAllowNulls(Boolean inputStreamAllowNulls) {
+        this.inputStreamAllowNulls = inputStreamAllowNulls;
+    }
+
+    public Boolean getOutputStreamDefaultOverride() {
+        return outputStreamDefaultOverride;
+    }
+
+    public void setOutputStreamDefaultOverride(Boolean outputStreamDefaultOverride) {
+        this.outputStreamDefaultOverride = outputStreamDefaultOverride;
+    }
+
+    public Boolean getRemoveAsyncReclaim() {
+        return removeAsyncReclaim;
+    }
+
+    public void setRemoveAsyncReclaim(Boolean removeAsyncReclaim) {
+        this.removeAsyncReclaim = removeAsyncReclaim;
+    }
+
+    public Long getOrphanSweepInterval() {
+        return orphanSweepInterval;
+    }
+
+    public void setOrphanSweepInterval(Long orphanSweepInterval) {
+        this.orphanSweepInterval = orphanSweepInterval;
+    }
+
+    public Long getLockLeaseDuration() {
+        return lockLeaseDuration;
+    }
+
+    public void setLockLeaseDuration(Long lockLeaseDuration) {
+        this.lockLeaseDuration = lockLeaseDuration;
+    }
+
+    public Long getInputStreamReadTimeFlushInterval() {
+        return inputStreamReadTimeFlushInterval;
+    }
+
+    public void setInputStreamReadTimeFlushInterval(Long inputStreamReadTimeFlushInterval) {
+        this.inputStreamReadTimeFlushInterval = inputStreamReadTimeFlushInterval;
+    }
+
+    public Boolean getChunksOffHeap() {
+        return chunksOffHeap;
+    }
+
+    public void setChunksOffHeap(Boolean chunksOffHeap) {
+        this.chunksOffHeap = chunksOffHeap;
+    }
+
+    public Integer getOutputStreamInlineThreshold() {
+        return outputStreamInlineThreshold;
+    }
+
+    public void setOutputStreamInlineThreshold(Integer outputStreamInlineThreshold) {
+        this.outputStreamInlineThreshold = outputStreamInlineThreshold;
+    }
+
+    public Boolean getInputStreamNearCache() {
+        return inputStreamNearCache;
+    }
+
+    public void setInputStreamNearCache(Boolean inputStreamNearCache) {
+        this.inputStreamNearCache = inputStreamNearCache;
+    }
+
+    public Boolean getInputStreamFetchCoalescing() {
+        return inputStreamFetchCoalescing;
+    }
+
+    public void setInputStreamFetchCoalescing(Boolean inputStreamFetchCoalescing) {
+        this.inputStreamFetchCoalescing = inputStreamFetchCoalescing;
+    }
+
+    @Override
+    public String toString() {
+        return "EhcacheStreamConfiguration{" +
+                "concurrencyMode=" + concurrencyMode +
+                ", inputStreamBufferSize=" + inputStreamBufferSize +
+                ", outputStreamBufferSize=" + outputStreamBufferSize +
+                ", outputStreamAdaptiveChunkSize=" + outputStreamAdaptiveChunkSize +
+                ", inputStreamOpenTimeout=" + inputStreamOpenTimeout +
+                ", outputStreamOpenTimeout=" + outputStreamOpenTimeout +
+                ", inputStreamAllowNulls=" + inputStreamAllowNulls +
+                ", outputStreamDefaultOverride=" + outputStreamDefaultOverride +
+                ", removeAsyncReclaim=" + removeAsyncReclaim +
+                ", orphanSweepInterval=" + orphanSweepInterval +
+                ", lockLeaseDuration=" + lockLeaseDuration +
+                ", inputStreamReadTimeFlushInterval=" + inputStreamReadTimeFlushInterval +
+                ", chunksOffHeap=" + chunksOffHeap +
+                ", outputStreamInlineThreshold=" + outputStreamInlineThreshold +
+                ", inputStreamNearCache=" + inputStreamNearCache +
+                ", inputStreamFetchCoalescing=" + inputStreamFetchCoalescing +
+                '}';
+    }
+}
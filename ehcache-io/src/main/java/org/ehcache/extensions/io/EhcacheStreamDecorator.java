@@ -6,6 +6,8 @@ import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
 import net.sf.ehcache.loader.CacheLoader;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamBufferPool;
+import org.ehcache.extensions.io.impl.utils.PooledBufferedInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,7 +58,7 @@ public class EhcacheStreamDecorator extends EhcacheDecoratorAdapter {
             OutputStream os = null;
             try {
                 if (cacheValue instanceof InputStream) {
-                    is = new BufferedInputStream((InputStream) cacheValue, bufferSizeOnPuts);
+                    is = new PooledBufferedInputStream((InputStream) cacheValue, bufferSizeOnPuts);
                 } else if (cacheValue instanceof byte[]) {
                     is = new ByteArrayInputStream((byte[]) cacheValue);
                 }
@@ -144,9 +146,13 @@ public class EhcacheStreamDecorator extends EhcacheDecoratorAdapter {
 
     void pipeStreamsWithBuffer(InputStream is, OutputStream os, int bufferSize) throws IOException {
         int n;
-        byte[] buffer = new byte[bufferSize];
-        while ((n = is.read(buffer)) > -1) {
-            os.write(buffer, 0, n);   // Don't allow any extra bytes to creep in, final write
+        byte[] buffer = EhcacheStreamBufferPool.getInstance().acquire(bufferSize);
+        try {
+            while ((n = is.read(buffer, 0, bufferSize)) > -1) {
+                os.write(buffer, 0, n);   // Don't allow any extra bytes to creep in, final write
+            }
+        } finally {
+            EhcacheStreamBufferPool.getInstance().release(buffer);
         }
     }
 
@@ -247,8 +253,10 @@ public class EhcacheStreamDecorator extends EhcacheDecoratorAdapter {
 
     @Override
     public void removeAll(Collection<?> keys) throws IllegalStateException {
-        for(Object key:keys){
-            remove(key);
+        try {
+            EhcacheIOStreams.removeStreamEntries(underlyingCache, keys);
+        } catch (EhcacheStreamException e) {
+            throw new IllegalStateException(e);
         }
     }
 
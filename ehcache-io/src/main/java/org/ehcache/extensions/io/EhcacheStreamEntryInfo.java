@@ -0,0 +1,81 @@
+package org.ehcache.extensions.io;
+
+/**
+ * Created by fabien.sanglier on 11/17/18.
+ */
+
+/*
+ * A stream entry key along with the metadata of that stream entry (a snapshot of its stream master entry, at the time it was fetched).
+ */
+public class EhcacheStreamEntryInfo {
+    private final Object cacheKey;
+    private final long sizeInBytes;
+    private final int chunkCount;
+    private final int readers;
+    private final int writers;
+    private final long lastReadTime;
+    private final long lastWrittenTime;
+
+    public EhcacheStreamEntryInfo(Object cacheKey, long sizeInBytes, int chunkCount, int readers, int writers, long lastReadTime, long lastWrittenTime) {
+        this.cacheKey = cacheKey;
+        this.sizeInBytes = sizeInBytes;
+        this.chunkCount = chunkCount;
+        this.readers = readers;
+        this.writers = writers;
+        this.lastReadTime = lastReadTime;
+        this.lastWrittenTime = lastWrittenTime;
+    }
+
+    /**
+     * @return    the public cache key of the stream entry
+     */
+    public Object getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * @return    the size of the stream entry data
+     */
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return    the number of readers holding a read lock on the stream entry
+     */
+    public int getReaders() {
+        return readers;
+    }
+
+    /**
+     * @return    the number of writers holding a write lock on the stream entry
+     */
+    public int getWriters() {
+        return writers;
+    }
+
+    public long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    public long getLastWrittenTime() {
+        return lastWrittenTime;
+    }
+
+    @Override
+    public String toString() {
+        return "EhcacheStreamEntryInfo{" +
+                "cacheKey=" + cacheKey +
+                ", sizeInBytes=" + sizeInBytes +
+                ", chunkCount=" + chunkCount +
+                ", readers=" + readers +
+                ", writers=" + writers +
+                ", lastReadTime=" + lastReadTime +
+                ", lastWrittenTime=" + lastWrittenTime +
+                '}';
+    }
+}
@@ -0,0 +1,55 @@
+package org.ehcache.extensions.io;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by fabien.sanglier on 11/16/18.
+ */
+
+/*
+ * A page of stream entry keys (see EhcacheIOStreams.getStreamEntryKeys() with a cursor).
+ * The next page starts at the next cursor of this page, until there is no more.
+ */
+public class EhcacheStreamKeyPage {
+    private final List keys;
+    private final long nextCursor;
+    private final boolean hasMore;
+
+    public EhcacheStreamKeyPage(List keys, long nextCursor, boolean hasMore) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * @return    the public cache keys of the stream entries in this page (may be less than the page size, even empty, while there are more pages;
+     *            or a few more than the page size, when paging without the key index and some keys share the same hash)
+     */
+    public List getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return    the cursor to get the next page with
+     */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return    true if there may be more stream entries after this page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    @Override
+    public String toString() {
+        return "EhcacheStreamKeyPage{" +
+                "keys=" + keys.size() +
+                ", nextCursor=" + nextCursor +
+                ", hasMore=" + hasMore +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package org.ehcache.extensions.io;
+
+/**
+ * Created by fabien.sanglier on 11/20/18.
+ */
+
+/*
+ * The outcome of an orphan chunk sweep (see EhcacheIOStreams.sweepOrphanChunks()):
+ * the chunk entries removed because no stream master referenced them, and the memory they were using.
+ */
+public class EhcacheStreamSweepResult {
+    private final int orphanChunkCount;
+    private final long reclaimedBytes;
+    private final int skippedStreamEntryCount;
+    private final long durationMillis;
+
+    public EhcacheStreamSweepResult(int orphanChunkCount, long reclaimedBytes, int skippedStreamEntryCount, long durationMillis) {
+        this.orphanChunkCount = orphanChunkCount;
+        this.reclaimedBytes = reclaimedBytes;
+        this.skippedStreamEntryCount = skippedStreamEntryCount;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return    the number of orphan chunk entries removed
+     */
+    public int getOrphanChunkCount() {
+        return orphanChunkCount;
+    }
+
+    /**
+     * @return    the size of the chunk data of the removed orphan chunk entries
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    /**
+     * @return    the number of stream entries with possible orphan chunks left for a later sweep (busy with reads, writes, appends or uploads)
+     */
+    public int getSkippedStreamEntryCount() {
+        return skippedStreamEntryCount;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "EhcacheStreamSweepResult{" +
+                "orphanChunkCount=" + orphanChunkCount +
+                ", reclaimedBytes=" + reclaimedBytes +
+                ", skippedStreamEntryCount=" + skippedStreamEntryCount +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
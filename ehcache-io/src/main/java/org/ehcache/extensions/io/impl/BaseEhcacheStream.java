@@ -1,6 +1,7 @@
 package org.ehcache.extensions.io.impl;
 
 import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
 
 /**
@@ -14,7 +15,7 @@ public abstract class BaseEhcacheStream {
     private final Object publicCacheKey;
 
     protected BaseEhcacheStream(Ehcache cache, Object publicCacheKey) {
-        this.ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        this.ehcacheStreamUtils = EhcacheStreamManager.getInstance(cache).newEhcacheStreamUtils();
         this.publicCacheKey = publicCacheKey;
     }
 
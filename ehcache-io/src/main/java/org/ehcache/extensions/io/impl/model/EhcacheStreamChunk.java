@@ -20,27 +20,38 @@ public class EhcacheStreamChunk implements Serializable {
         return chunk;
     }
 
+    //a copy of the chunk bytes, that the caller is free to keep
+    public byte[] copyChunk() {
+        return (null != chunk)?Arrays.copyOf(chunk, chunk.length):null;
+    }
+
+    public int getChunkLength() {
+        return (null != chunk)?chunk.length:0;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        //same bytes, whether held on heap or in the slab store
+        if (!(o instanceof EhcacheStreamChunk)) return false;
 
         EhcacheStreamChunk that = (EhcacheStreamChunk) o;
 
-        if (!Arrays.equals(chunk, that.chunk)) return false;
+        if (!Arrays.equals(getChunk(), that.getChunk())) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        return chunk != null ? Arrays.hashCode(chunk) : 0;
+        byte[] bytes = getChunk();
+        return bytes != null ? Arrays.hashCode(bytes) : 0;
     }
 
     @Override
     public String toString() {
-        return "EhcacheStreamChunk{" +
-                "chunk=" + ((null!= chunk)?chunk.length + " bytes":"null") +
+        return getClass().getSimpleName() + "{" +
+                "chunk=" + getChunkLength() + " bytes" +
                 '}' +
                 ", hashcode=" + hashCode();
     }
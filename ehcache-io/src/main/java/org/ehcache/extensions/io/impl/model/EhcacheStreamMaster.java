@@ -1,7 +1,13 @@
 package org.ehcache.extensions.io.impl.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by Fabien Sanglier on 5/6/15.
@@ -16,6 +22,41 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
     private long lastReadTime = 0;
     private long lastWrittenTime = 0;
 
+    //the leases of the readers (resp. writers) counted above, by lease holder (one per stream, see EhcacheStreamUtilsInternal):
+    //each holder renews its own lease, and only the holders whose lease expired are considered gone (eg. their JVM died while holding the stream):
+    //their counts can be released by the waiting readers and writers, while the other holders keep theirs.
+    //Once released, a holder does not hold this master anymore: its close (or commit) is a no-op.
+    //(not final either: see readObject)
+    private TreeMap<Long, HolderLease> readerLeases;
+    private TreeMap<Long, HolderLease> writerLeases;
+
+    //bumped on every write (same as the last written time, but never equal for 2 writes within the same millisecond)
+    private long version = 0;
+
+    //small payloads are stored inline in this master value (instead of in separate chunk entries)
+    //when set, the chunk descriptor list holds a single descriptor for these inline bytes
+    private byte[] inlineChunk = null;
+
+    //next chunk entry index to allocate: only ever grows, so that a chunk entry index is never reused
+    //while a previous chunk entry with that same index could still be around (eg. chunks superseded by an append merge or a compaction)
+    private int nextChunkIndex = 0;
+
+    //concurrent appends: each append gets a sequence number when reserved, and its chunks get published in that sequence order
+    //the pending appends are the ones reserved but not published yet (ordered by sequence)
+    //the appends not completed yet are leased like the readers and writers: an append whose lease expired is dropped (its appender is gone)
+    //(the staging lists are not final: they get set on deserialization for the masters serialized before they existed, see readObject)
+    private long nextAppendSequence = 0;
+    private ArrayList<PendingAppend> pendingAppendList;
+
+    //multipart uploads in progress: the uploaded parts are staged here until the upload gets completed (or aborted)
+    //the uploads are leased too: an upload whose lease expired is dropped with its staged parts (its uploaders are gone)
+    private long nextUploadId = 0;
+    private ArrayList<MultipartUpload> multipartUploadList;
+
+    //cumulative chunk sizes (chunkEndOffsets[i] = total size of the chunks 0 to i), for the O(1) size and offset lookups
+    //computed on first use after any chunk list change: the masters are not changed once in cache (copy on write), so it is computed once per master
+    private transient volatile long[] chunkEndOffsets;
+
     public EhcacheStreamMaster() {
         this(0, 0);
     }
@@ -26,24 +67,300 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
 
     private EhcacheStreamMaster(int writers, int readers, long lastReadNanos, long lastWrittenTime) {
         this.chunkDescriptorList = new ArrayList<ChunkDescriptor>();
+        this.pendingAppendList = new ArrayList<PendingAppend>();
+        this.multipartUploadList = new ArrayList<MultipartUpload>();
+        this.readerLeases = new TreeMap<Long, HolderLease>();
+        this.writerLeases = new TreeMap<Long, HolderLease>();
         this.writers = writers;
         this.readers = readers;
         this.lastReadTime = lastReadNanos;
         this.lastWrittenTime = lastWrittenTime;
     }
 
+    //the masters serialized before the pending appends, the multipart uploads or the holder leases (same serialVersionUID, eg. still in a clustered cache) come back without them
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if(null == readerLeases)
+            readerLeases = new TreeMap<Long, HolderLease>();
+
+        if(null == writerLeases)
+            writerLeases = new TreeMap<Long, HolderLease>();
+
+        if(null == pendingAppendList)
+            pendingAppendList = new ArrayList<PendingAppend>();
+
+        if(null == multipartUploadList)
+            multipartUploadList = new ArrayList<MultipartUpload>();
+    }
+
+    //NOTE: the next chunk index is not reset here on purpose (see nextChunkIndex)
     public void resetChunkCount() {
         chunkDescriptorList.clear();
+        chunkEndOffsets = null;
+        inlineChunk = null;
+    }
+
+    public void setInlineChunk(byte[] chunk, long checksum) {
+        resetChunkCount();
+        addChunk(0, chunk.length, checksum);
+        inlineChunk = chunk;
+    }
+
+    public byte[] getInlineChunk() {
+        return inlineChunk;
+    }
+
+    public boolean hasInlineChunk() {
+        return null != inlineChunk;
+    }
+
+    //drop the inline bytes but keep the chunk descriptor (eg. once the bytes have been moved to the chunk entry 0)
+    public void clearInlineChunk() {
+        inlineChunk = null;
     }
 
     public void addChunk(int chunkIndex, long size, long checksum){
         chunkDescriptorList.add(new ChunkDescriptor(chunkIndex, size, checksum));
+        chunkEndOffsets = null;
+        if(chunkIndex >= nextChunkIndex && chunkIndex < Integer.MAX_VALUE)
+            nextChunkIndex = chunkIndex + 1;
+    }
+
+    //removes the last chunk descriptor, and returns its chunk index
+    public int removeLastChunk(){
+        chunkEndOffsets = null;
+        return chunkDescriptorList.remove(chunkDescriptorList.size() - 1).getChunkIndex();
     }
 
     public int getChunkCount() {
         return chunkDescriptorList.size();
     }
 
+    public int getNextChunkIndex() {
+        return nextChunkIndex;
+    }
+
+    //moves the next chunk index up to the provided one (eg. past the chunk entries of a removed stream entry still being reclaimed)
+    public void skipChunkIndices(int nextChunkIndex) {
+        if(nextChunkIndex > this.nextChunkIndex)
+            this.nextChunkIndex = nextChunkIndex;
+    }
+
+    //reserves a range of chunk indices for a writer that is not the exclusive writer, and returns the first index of that range
+    public int reserveChunkIndices(int count) {
+        int firstChunkIndex = nextChunkIndex;
+        nextChunkIndex += count;
+        return firstChunkIndex;
+    }
+
+    /**
+     * Registers a new pending append, and returns its sequence number.
+     * If the stream is currently stored inline, a chunk index is also reserved to move the inline bytes to,
+     * since they will have to move to a chunk entry when the append gets published.
+     */
+    public long addPendingAppend() {
+        int inlineChunkIndex = (hasInlineChunk())?reserveChunkIndices(1):-1;
+        long appendSequence = nextAppendSequence++;
+        pendingAppendList.add(new PendingAppend(appendSequence, inlineChunkIndex));
+        return appendSequence;
+    }
+
+    public long getLastAppendSequence() {
+        return nextAppendSequence - 1;
+    }
+
+    public boolean hasPendingAppends() {
+        return pendingAppendList.size() > 0;
+    }
+
+    public int getPendingAppendCount() {
+        return pendingAppendList.size();
+    }
+
+    //stages the chunks of a pending append, so that it can be published once all the appends before it are published
+    public boolean completePendingAppend(long appendSequence, int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) {
+        PendingAppend pendingAppend = getPendingAppend(appendSequence);
+        if(null == pendingAppend || pendingAppend.isCompleted())
+            return false;
+
+        pendingAppend.complete(new ChunkRun(chunkIndices, chunkSizes, chunkChecksums));
+        return true;
+    }
+
+    //the appends renewed by their holders (see EhcacheStreamLeaseRenewer)
+    public void renewPendingAppendLeases(long[] appendSequences) {
+        long now = System.currentTimeMillis();
+        for(long appendSequence : appendSequences){
+            PendingAppend pendingAppend = getPendingAppend(appendSequence);
+            if(null != pendingAppend)
+                pendingAppend.leaseTime = now;
+        }
+    }
+
+    public boolean removePendingAppend(long appendSequence) {
+        PendingAppend pendingAppend = getPendingAppend(appendSequence);
+        return null != pendingAppend && pendingAppendList.remove(pendingAppend);
+    }
+
+    private PendingAppend getPendingAppend(long appendSequence) {
+        for(PendingAppend pendingAppend : pendingAppendList){
+            if(pendingAppend.getAppendSequence() == appendSequence)
+                return pendingAppend;
+        }
+        return null;
+    }
+
+    /**
+     * If the next publish has to move the inline bytes to a chunk entry, returns the chunk index they must be saved at.
+     * Returns -1 otherwise.
+     * The inline bytes cannot change while some appends are pending (no exclusive writer can open), so saving them more than once is harmless.
+     */
+    public int getPublishInlineChunkIndex() {
+        if(hasInlineChunk() && hasPendingAppends() && pendingAppendList.get(0).isCompleted())
+            return pendingAppendList.get(0).getInlineChunkIndex();
+
+        return -1;
+    }
+
+    /**
+     * Publishes, in sequence order, all the completed appends at the head of the pending list:
+     * their chunks are added at the end of the chunk descriptor list.
+     * Completed appends waiting behind a not yet completed one stay pending.
+     * If needed, the inline bytes must have been saved at the chunk index given by getPublishInlineChunkIndex() beforehand.
+     *
+     * @return the number of appends published
+     */
+    public int publishCompletedAppends() {
+        int published = 0;
+        while (hasPendingAppends() && pendingAppendList.get(0).isCompleted()) {
+            PendingAppend pendingAppend = pendingAppendList.remove(0);
+
+            if(hasInlineChunk()) {
+                if(pendingAppend.getInlineChunkIndex() < 0)
+                    throw new IllegalStateException("No chunk index reserved to move the inline bytes to");
+
+                //the inline bytes are now in their own chunk entry
+                ChunkDescriptor inlineDescriptor = chunkDescriptorList.get(0);
+                resetChunkCount();
+                addChunk(pendingAppend.getInlineChunkIndex(), inlineDescriptor.getSize(), inlineDescriptor.getChecksum());
+            }
+
+            pendingAppend.chunkRun.addTo(this);
+            published++;
+        }
+        return published;
+    }
+
+    public long addMultipartUpload() {
+        long uploadId = nextUploadId++;
+        multipartUploadList.add(new MultipartUpload(uploadId));
+        return uploadId;
+    }
+
+    public long getLastUploadId() {
+        return nextUploadId - 1;
+    }
+
+    public boolean hasMultipartUpload(long uploadId) {
+        return null != getMultipartUpload(uploadId);
+    }
+
+    public int getMultipartUploadCount() {
+        return multipartUploadList.size();
+    }
+
+    /**
+     * Stages an uploaded part in its multipart upload (replacing any previous upload of that same part number)
+     *
+     * @return the chunk indices of the replaced part (to be removed), or null if that part was not uploaded before
+     */
+    public int[] stageMultipartUploadPart(long uploadId, int partNumber, int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) {
+        MultipartUpload multipartUpload = getMultipartUpload(uploadId);
+        if(null == multipartUpload)
+            throw new IllegalStateException(String.format("Multipart upload [%d] not found", uploadId));
+
+        ChunkRun replaced = multipartUpload.parts.put(partNumber, new ChunkRun(chunkIndices, chunkSizes, chunkChecksums));
+        multipartUpload.leaseTime = System.currentTimeMillis();
+        return (null != replaced)?replaced.getChunkIndices():null;
+    }
+
+    //the uploads renewed by their holders (see EhcacheStreamLeaseRenewer)
+    public void renewMultipartUploadLeases(long[] uploadIds) {
+        long now = System.currentTimeMillis();
+        for(long uploadId : uploadIds){
+            MultipartUpload multipartUpload = getMultipartUpload(uploadId);
+            if(null != multipartUpload)
+                multipartUpload.leaseTime = now;
+        }
+    }
+
+    //the chunk indices of all the parts staged so far for that upload
+    public int[] getMultipartUploadChunkIndices(long uploadId) {
+        MultipartUpload multipartUpload = getMultipartUpload(uploadId);
+        if(null == multipartUpload)
+            return new int[0];
+
+        ArrayList<Integer> chunkIndexList = new ArrayList<Integer>();
+        multipartUpload.addChunkIndicesTo(chunkIndexList);
+        return toIntArray(chunkIndexList);
+    }
+
+    private static int[] toIntArray(ArrayList<Integer> chunkIndexList) {
+        int[] chunkIndexArray = new int[chunkIndexList.size()];
+        for(int i = 0 ; i < chunkIndexArray.length; i++){
+            chunkIndexArray[i] = chunkIndexList.get(i);
+        }
+        return chunkIndexArray;
+    }
+
+    public boolean removeMultipartUpload(long uploadId) {
+        MultipartUpload multipartUpload = getMultipartUpload(uploadId);
+        return null != multipartUpload && multipartUploadList.remove(multipartUpload);
+    }
+
+    /**
+     * Adds the chunks of all the staged parts (in part number order) at the end of the chunk list, and removes the multipart upload.
+     * This master must not be inline at this point.
+     *
+     * @return the number of parts added
+     */
+    public int addMultipartUploadParts(long uploadId) {
+        MultipartUpload multipartUpload = getMultipartUpload(uploadId);
+        if(null == multipartUpload)
+            throw new IllegalStateException(String.format("Multipart upload [%d] not found", uploadId));
+
+        if(hasInlineChunk())
+            throw new IllegalStateException("Cannot add chunks to an inline master");
+
+        for(ChunkRun part : multipartUpload.parts.values()){
+            part.addTo(this);
+        }
+        multipartUploadList.remove(multipartUpload);
+
+        return multipartUpload.parts.size();
+    }
+
+    private MultipartUpload getMultipartUpload(long uploadId) {
+        for(MultipartUpload multipartUpload : multipartUploadList){
+            if(multipartUpload.getUploadId() == uploadId)
+                return multipartUpload;
+        }
+        return null;
+    }
+
+    public int getChunkIndex(int position) {
+        return chunkDescriptorList.get(position).getChunkIndex();
+    }
+
+    public long getChunkSizeInBytes(int position) {
+        return chunkDescriptorList.get(position).getSize();
+    }
+
+    public long getChunkChecksum(int position) {
+        return chunkDescriptorList.get(position).getChecksum();
+    }
+
     public int[] getAllChunkIndices() {
         int[] chunkIndexArray = new int[getChunkCount()];
         for(int i = 0 ; i < chunkDescriptorList.size(); i++){
@@ -60,12 +377,51 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         return chunkSizeArray;
     }
 
+    private long[] getChunkEndOffsets() {
+        long[] endOffsets = chunkEndOffsets;
+        if(null == endOffsets) {
+            endOffsets = new long[chunkDescriptorList.size()];
+            long totalSize = 0L;
+            for(int i = 0 ; i < endOffsets.length; i++){
+                totalSize += chunkDescriptorList.get(i).getSize();
+                endOffsets[i] = totalSize;
+            }
+            chunkEndOffsets = endOffsets;
+        }
+        return endOffsets;
+    }
+
     public long getChunksTotalSizeInBytes() {
-        long totalSize = 0L;
-        for(int i = 0 ; i < chunkDescriptorList.size(); i++){
-            totalSize += chunkDescriptorList.get(i).getSize();
+        long[] endOffsets = getChunkEndOffsets();
+        return (endOffsets.length > 0) ? endOffsets[endOffsets.length - 1] : 0L;
+    }
+
+    /**
+     * @param position  the chunk position (the chunk count for the end of the stream)
+     * @return the offset of the first byte of that chunk in the stream
+     */
+    public long getChunkOffset(int position) {
+        return (position > 0) ? getChunkEndOffsets()[position - 1] : 0L;
+    }
+
+    /**
+     * @param offset  the offset of a byte in the stream
+     * @return the position of the chunk holding that byte (the chunk count if past the end of the stream)
+     */
+    public int getChunkPosition(long offset) {
+        long[] endOffsets = getChunkEndOffsets();
+
+        //the first chunk ending after that offset
+        int low = 0;
+        int high = endOffsets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if(endOffsets[middle] <= offset)
+                low = middle + 1;
+            else
+                high = middle;
         }
-        return totalSize;
+        return low;
     }
 
     public long[] getAllChunkChecksums() {
@@ -76,36 +432,215 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         return chunkChecksumArray;
     }
 
-    public void addWriter() {
+    public void addWriter(long holderId) {
         writers++;
+        addHolderLease(writerLeases, holderId);
     }
 
-    public void removeWriter() {
+    //only removes a write still held by that holder (ie. not released on lease expiry since)
+    public boolean removeWriter(long holderId) {
+        if(!removeHolderLease(writerLeases, holderId))
+            return false;
+
         writers--;
+        return true;
     }
 
     public int getWriters() {
         return writers;
     }
 
-    public void addReader() {
+    public void addReader(long holderId) {
         readers++;
+        addHolderLease(readerLeases, holderId);
     }
 
-    public void removeReader() {
+    //only removes a read still held by that holder (ie. not released on lease expiry since)
+    public boolean removeReader(long holderId) {
+        if(!removeHolderLease(readerLeases, holderId))
+            return false;
+
         readers--;
+        return true;
     }
 
     public int getReaders() {
         return readers;
     }
 
+    private static void addHolderLease(TreeMap<Long, HolderLease> holderLeases, long holderId) {
+        HolderLease holderLease = holderLeases.get(holderId);
+        if(null == holderLease) {
+            holderLeases.put(holderId, new HolderLease());
+        } else {
+            holderLease.count++;
+            holderLease.leaseTime = System.currentTimeMillis();
+        }
+    }
+
+    private static boolean removeHolderLease(TreeMap<Long, HolderLease> holderLeases, long holderId) {
+        HolderLease holderLease = holderLeases.get(holderId);
+        if(null == holderLease)
+            return false;
+
+        if(--holderLease.count == 0)
+            holderLeases.remove(holderId);
+        return true;
+    }
+
+    //the leases are renewed by each holder for as long as it holds the stream (see EhcacheStreamLeaseRenewer)
+    public void renewLeases(long[] readerHolderIds, long[] writerHolderIds) {
+        long now = System.currentTimeMillis();
+        renewHolderLeases(readerLeases, readerHolderIds, now);
+        renewHolderLeases(writerLeases, writerHolderIds, now);
+    }
+
+    private static void renewHolderLeases(TreeMap<Long, HolderLease> holderLeases, long[] holderIds, long now) {
+        for(long holderId : holderIds){
+            HolderLease holderLease = holderLeases.get(holderId);
+            if(null != holderLease)
+                holderLease.leaseTime = now;
+        }
+    }
+
+    //the lease times (and the read times) move on the master in cache under the feet of its holders: the renewals and the read time flushes
+    //get carried over from that master, never moving these times backwards
+    public void copyLeaseTimes(final EhcacheStreamMaster fromStreamMaster) {
+        copyHolderLeaseTimes(readerLeases, fromStreamMaster.readerLeases);
+        copyHolderLeaseTimes(writerLeases, fromStreamMaster.writerLeases);
+        for(PendingAppend pendingAppend : pendingAppendList){
+            PendingAppend fromPendingAppend = fromStreamMaster.getPendingAppend(pendingAppend.getAppendSequence());
+            if(null != fromPendingAppend && fromPendingAppend.leaseTime > pendingAppend.leaseTime)
+                pendingAppend.leaseTime = fromPendingAppend.leaseTime;
+        }
+        for(MultipartUpload multipartUpload : multipartUploadList){
+            MultipartUpload fromMultipartUpload = fromStreamMaster.getMultipartUpload(multipartUpload.getUploadId());
+            if(null != fromMultipartUpload && fromMultipartUpload.leaseTime > multipartUpload.leaseTime)
+                multipartUpload.leaseTime = fromMultipartUpload.leaseTime;
+        }
+        setReadAt(fromStreamMaster.lastReadTime);
+    }
+
+    private static void copyHolderLeaseTimes(TreeMap<Long, HolderLease> holderLeases, TreeMap<Long, HolderLease> fromHolderLeases) {
+        for(Map.Entry<Long, HolderLease> entry : holderLeases.entrySet()){
+            HolderLease fromHolderLease = fromHolderLeases.get(entry.getKey());
+            if(null != fromHolderLease && fromHolderLease.leaseTime > entry.getValue().leaseTime)
+                entry.getValue().leaseTime = fromHolderLease.leaseTime;
+        }
+    }
+
+    //0 if that holder does not hold a read
+    public long getReaderLeaseTime(long holderId) {
+        HolderLease holderLease = readerLeases.get(holderId);
+        return (null != holderLease)?holderLease.leaseTime:0L;
+    }
+
+    //0 if that holder does not hold a write
+    public long getWriterLeaseTime(long holderId) {
+        HolderLease holderLease = writerLeases.get(holderId);
+        return (null != holderLease)?holderLease.leaseTime:0L;
+    }
+
+    //a lease duration of 0 or lower never expires
+    //the uploads are only released with no writer: the exclusive writer works on a copy of the master entry, and would otherwise commit them back
+    public boolean hasExpiredLease(long leaseDurationMillis) {
+        if(leaseDurationMillis <= 0)
+            return false;
+
+        long now = System.currentTimeMillis();
+        if(hasExpiredHolderLease(readerLeases, now, leaseDurationMillis) || hasExpiredHolderLease(writerLeases, now, leaseDurationMillis))
+            return true;
+
+        for(PendingAppend pendingAppend : pendingAppendList){
+            if(pendingAppend.isExpired(now, leaseDurationMillis))
+                return true;
+        }
+
+        if(writers == 0) {
+            for (MultipartUpload multipartUpload : multipartUploadList) {
+                if (now - multipartUpload.leaseTime > leaseDurationMillis)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hasExpiredHolderLease(TreeMap<Long, HolderLease> holderLeases, long now, long leaseDurationMillis) {
+        for(HolderLease holderLease : holderLeases.values()){
+            if(now - holderLease.leaseTime > leaseDurationMillis)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the reads and writes of the holders, the pending appends and the multipart uploads whose lease expired (the other ones are untouched).
+     * The completed appends that were waiting behind a released append are publishable after that (see publishCompletedAppends()).
+     *
+     * @return the chunk indices of the parts staged by the released uploads (to be removed once this master is saved)
+     */
+    public int[] releaseExpiredLeases(long leaseDurationMillis) {
+        if(leaseDurationMillis <= 0)
+            return new int[0];
+
+        long now = System.currentTimeMillis();
+        readers -= releaseExpiredHolderLeases(readerLeases, now, leaseDurationMillis);
+        writers -= releaseExpiredHolderLeases(writerLeases, now, leaseDurationMillis);
+
+        //the chunks written by a released append were never staged: these are left to the orphan chunk sweeper
+        for(Iterator<PendingAppend> iterator = pendingAppendList.iterator(); iterator.hasNext();){
+            if(iterator.next().isExpired(now, leaseDurationMillis))
+                iterator.remove();
+        }
+
+        ArrayList<Integer> releasedChunkIndexList = new ArrayList<Integer>();
+        if(writers == 0) {
+            for (Iterator<MultipartUpload> iterator = multipartUploadList.iterator(); iterator.hasNext(); ) {
+                MultipartUpload multipartUpload = iterator.next();
+                if (now - multipartUpload.leaseTime > leaseDurationMillis) {
+                    multipartUpload.addChunkIndicesTo(releasedChunkIndexList);
+                    iterator.remove();
+                }
+            }
+        }
+        return toIntArray(releasedChunkIndexList);
+    }
+
+    //returns the count released
+    private static int releaseExpiredHolderLeases(TreeMap<Long, HolderLease> holderLeases, long now, long leaseDurationMillis) {
+        int released = 0;
+        for(Iterator<HolderLease> iterator = holderLeases.values().iterator(); iterator.hasNext();){
+            HolderLease holderLease = iterator.next();
+            if(now - holderLease.leaseTime > leaseDurationMillis) {
+                released += holderLease.count;
+                iterator.remove();
+            }
+        }
+        return released;
+    }
+
+    //true if that holder holds a read here (ie. not released on lease expiry since it acquired it)
+    public boolean holdsRead(long holderId) {
+        return readerLeases.containsKey(holderId);
+    }
+
+    //true if that holder holds a write here (ie. not released on lease expiry since it acquired it)
+    public boolean holdsWrite(long holderId) {
+        return writerLeases.containsKey(holderId);
+    }
+
     public long getLastWrittenTime() {
         return lastWrittenTime;
     }
 
     private void setWrittenNow(){
         lastWrittenTime = System.currentTimeMillis();
+        version++;
+    }
+
+    public long getVersion() {
+        return version;
     }
 
     public long getLastReadTime() {
@@ -116,6 +651,12 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         lastReadTime = System.currentTimeMillis();
     }
 
+    //for the read times recorded earlier and flushed later (see EhcacheStreamReadTimeTracker): never moves the last read time backwards
+    public void setReadAt(long readTime){
+        if(readTime > lastReadTime)
+            lastReadTime = readTime;
+    }
+
     @Override
     public EhcacheStreamMaster clone() {
         EhcacheStreamMaster newObj = new EhcacheStreamMaster(
@@ -129,6 +670,29 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
             newObj.addChunk(cd.chunkIndex, cd.size, cd.checksum);
         }
 
+        //inline bytes are never mutated once set, so sharing the array is safe
+        newObj.inlineChunk = this.inlineChunk;
+        newObj.nextChunkIndex = this.nextChunkIndex;
+        newObj.version = this.version;
+        for(Map.Entry<Long, HolderLease> entry : this.readerLeases.entrySet()){
+            newObj.readerLeases.put(entry.getKey(), entry.getValue().clone());
+        }
+        for(Map.Entry<Long, HolderLease> entry : this.writerLeases.entrySet()){
+            newObj.writerLeases.put(entry.getKey(), entry.getValue().clone());
+        }
+
+        //adding the pending appends
+        newObj.nextAppendSequence = this.nextAppendSequence;
+        for(PendingAppend pa : this.pendingAppendList){
+            newObj.pendingAppendList.add(pa.clone());
+        }
+
+        //adding the multipart uploads
+        newObj.nextUploadId = this.nextUploadId;
+        for(MultipartUpload mu : this.multipartUploadList){
+            newObj.multipartUploadList.add(mu.clone());
+        }
+
         return newObj;
     }
 
@@ -154,6 +718,16 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         return thisObject.equals(thatObject);
     }
 
+    //same master, but for the lease renewals and read times recorded on that master since this one was fetched
+    public boolean equalsNoLeaseTimes(final EhcacheStreamMaster newerStreamMaster) {
+        if (this == newerStreamMaster) return true;
+        if (newerStreamMaster == null) return false;
+
+        EhcacheStreamMaster copy = clone();
+        copy.copyLeaseTimes(newerStreamMaster);
+        return copy.equals(newerStreamMaster);
+    }
+
     public boolean equalsNoReadWriteTimes(Object o) {
         return equals(o, true, true);
     }
@@ -168,6 +742,7 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         if (writers != that.writers) return false;
         if (!noCompareReadTime && lastReadTime != that.lastReadTime) return false;
         if (!noCompareWriteTime && lastWrittenTime != that.lastWrittenTime) return false;
+        if (!noCompareWriteTime && version != that.version) return false;
 
         return true;
     }
@@ -181,9 +756,18 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
 
         if (lastReadTime != that.lastReadTime) return false;
         if (lastWrittenTime != that.lastWrittenTime) return false;
+        if (version != that.version) return false;
+        if (!readerLeases.equals(that.readerLeases)) return false;
+        if (!writerLeases.equals(that.writerLeases)) return false;
         if (readers != that.readers) return false;
         if (writers != that.writers) return false;
+        if (nextChunkIndex != that.nextChunkIndex) return false;
+        if (nextAppendSequence != that.nextAppendSequence) return false;
+        if (!pendingAppendList.equals(that.pendingAppendList)) return false;
+        if (nextUploadId != that.nextUploadId) return false;
+        if (!multipartUploadList.equals(that.multipartUploadList)) return false;
         if (!chunkDescriptorList.equals(that.chunkDescriptorList)) return false;
+        if (!Arrays.equals(inlineChunk, that.inlineChunk)) return false;
 
         return true;
     }
@@ -191,10 +775,19 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
     @Override
     public int hashCode() {
         int result = chunkDescriptorList.hashCode();
+        result = 31 * result + Arrays.hashCode(inlineChunk);
+        result = 31 * result + nextChunkIndex;
+        result = 31 * result + (int) (nextAppendSequence ^ (nextAppendSequence >>> 32));
+        result = 31 * result + pendingAppendList.hashCode();
+        result = 31 * result + (int) (nextUploadId ^ (nextUploadId >>> 32));
+        result = 31 * result + multipartUploadList.hashCode();
         result = 31 * result + writers;
         result = 31 * result + readers;
         result = 31 * result + (int) (lastReadTime ^ (lastReadTime >>> 32));
         result = 31 * result + (int) (lastWrittenTime ^ (lastWrittenTime >>> 32));
+        result = 31 * result + (int) (version ^ (version >>> 32));
+        result = 31 * result + readerLeases.hashCode();
+        result = 31 * result + writerLeases.hashCode();
         return result;
     }
 
@@ -202,10 +795,17 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
     public String toString() {
         return "EhcacheStreamMaster{" +
                 "chunkDescriptorList[size]=" + chunkDescriptorList.size() +
+                ", inlineChunk[size]=" + ((null != inlineChunk)?inlineChunk.length:0) +
+                ", nextChunkIndex=" + nextChunkIndex +
+                ", pendingAppendList[size]=" + pendingAppendList.size() +
+                ", multipartUploadList[size]=" + multipartUploadList.size() +
                 ", writers=" + writers +
                 ", readers=" + readers +
                 ", lastReadTime=" + lastReadTime +
                 ", lastWrittenTime=" + lastWrittenTime +
+                ", version=" + version +
+                ", readerLeases=" + readerLeases +
+                ", writerLeases=" + writerLeases +
                 '}' +
                 ", hashcode=" + hashCode();
     }
@@ -275,6 +875,266 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
         }
     }
 
+    //a run of chunks written outside of the exclusive writer (concurrent append, multipart upload part), to be added to the chunk list later on
+    static class ChunkRun implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] chunkIndices;
+        private final long[] chunkSizes;
+        private final long[] chunkChecksums;
+
+        ChunkRun(int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) {
+            if(chunkIndices.length != chunkSizes.length || chunkIndices.length != chunkChecksums.length)
+                throw new IllegalArgumentException("Chunk indices, sizes and checksums must have the same length");
+
+            this.chunkIndices = chunkIndices.clone();
+            this.chunkSizes = chunkSizes.clone();
+            this.chunkChecksums = chunkChecksums.clone();
+        }
+
+        int[] getChunkIndices() {
+            return chunkIndices.clone();
+        }
+
+        long getTotalSizeInBytes() {
+            long totalSize = 0L;
+            for(int i = 0 ; i < chunkSizes.length; i++){
+                totalSize += chunkSizes[i];
+            }
+            return totalSize;
+        }
+
+        //never mutated once created, hence shared by the clones
+        void addTo(EhcacheStreamMaster streamMaster) {
+            for(int i = 0; i < chunkIndices.length; i++){
+                streamMaster.addChunk(chunkIndices[i], chunkSizes[i], chunkChecksums[i]);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ChunkRun that = (ChunkRun) o;
+
+            if (!Arrays.equals(chunkIndices, that.chunkIndices)) return false;
+            if (!Arrays.equals(chunkSizes, that.chunkSizes)) return false;
+            if (!Arrays.equals(chunkChecksums, that.chunkChecksums)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(chunkIndices);
+            result = 31 * result + Arrays.hashCode(chunkSizes);
+            result = 31 * result + Arrays.hashCode(chunkChecksums);
+            return result;
+        }
+    }
+
+    static class PendingAppend implements Serializable, Cloneable {
+        private static final long serialVersionUID = 1L;
+
+        private final long appendSequence;
+        private final int inlineChunkIndex;
+
+        //null until the append is completed
+        private ChunkRun chunkRun;
+
+        //last time the appender acquired or renewed its lease (a completed append has nothing left to do, and does not expire)
+        private long leaseTime;
+
+        PendingAppend(long appendSequence, int inlineChunkIndex) {
+            this.appendSequence = appendSequence;
+            this.inlineChunkIndex = inlineChunkIndex;
+            this.leaseTime = System.currentTimeMillis();
+        }
+
+        public long getAppendSequence() {
+            return appendSequence;
+        }
+
+        public int getInlineChunkIndex() {
+            return inlineChunkIndex;
+        }
+
+        public boolean isCompleted() {
+            return null != chunkRun;
+        }
+
+        void complete(ChunkRun chunkRun) {
+            this.chunkRun = chunkRun;
+        }
+
+        boolean isExpired(long now, long leaseDurationMillis) {
+            return !isCompleted() && now - leaseTime > leaseDurationMillis;
+        }
+
+        @Override
+        public PendingAppend clone() {
+            PendingAppend newObj = new PendingAppend(this.appendSequence, this.inlineChunkIndex);
+            newObj.chunkRun = this.chunkRun;
+            newObj.leaseTime = this.leaseTime;
+            return newObj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            PendingAppend that = (PendingAppend) o;
+
+            if (appendSequence != that.appendSequence) return false;
+            if (inlineChunkIndex != that.inlineChunkIndex) return false;
+            if (leaseTime != that.leaseTime) return false;
+            if (chunkRun != null ? !chunkRun.equals(that.chunkRun) : that.chunkRun != null) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (appendSequence ^ (appendSequence >>> 32));
+            result = 31 * result + inlineChunkIndex;
+            result = 31 * result + (chunkRun != null ? chunkRun.hashCode() : 0);
+            result = 31 * result + (int) (leaseTime ^ (leaseTime >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "PendingAppend{" +
+                    "appendSequence=" + appendSequence +
+                    ", inlineChunkIndex=" + inlineChunkIndex +
+                    ", completed=" + isCompleted() +
+                    ", leaseTime=" + leaseTime +
+                    '}';
+        }
+    }
+
+    static class MultipartUpload implements Serializable, Cloneable {
+        private static final long serialVersionUID = 1L;
+
+        private final long uploadId;
+
+        //the parts uploaded so far, by part number
+        private final TreeMap<Integer, ChunkRun> parts;
+
+        //last time the upload was opened, got a part staged, or had its lease renewed
+        private long leaseTime;
+
+        MultipartUpload(long uploadId) {
+            this.uploadId = uploadId;
+            this.parts = new TreeMap<Integer, ChunkRun>();
+            this.leaseTime = System.currentTimeMillis();
+        }
+
+        public long getUploadId() {
+            return uploadId;
+        }
+
+        void addChunkIndicesTo(ArrayList<Integer> chunkIndexList) {
+            for(ChunkRun part : parts.values()){
+                for(int chunkIndex : part.chunkIndices){
+                    chunkIndexList.add(chunkIndex);
+                }
+            }
+        }
+
+        @Override
+        public MultipartUpload clone() {
+            MultipartUpload newObj = new MultipartUpload(this.uploadId);
+            newObj.parts.putAll(this.parts);
+            newObj.leaseTime = this.leaseTime;
+            return newObj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            MultipartUpload that = (MultipartUpload) o;
+
+            if (uploadId != that.uploadId) return false;
+            if (leaseTime != that.leaseTime) return false;
+            if (!parts.equals(that.parts)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (uploadId ^ (uploadId >>> 32));
+            result = 31 * result + parts.hashCode();
+            result = 31 * result + (int) (leaseTime ^ (leaseTime >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "MultipartUpload{" +
+                    "uploadId=" + uploadId +
+                    ", parts[size]=" + parts.size() +
+                    ", leaseTime=" + leaseTime +
+                    '}';
+        }
+    }
+
+    static class HolderLease implements Serializable, Cloneable {
+        private static final long serialVersionUID = 1L;
+
+        //the reads (resp. writes) held by that holder
+        private int count;
+
+        //last time the holder acquired or renewed its lease
+        private long leaseTime;
+
+        HolderLease() {
+            this.count = 1;
+            this.leaseTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public HolderLease clone() {
+            HolderLease newObj = new HolderLease();
+            newObj.count = this.count;
+            newObj.leaseTime = this.leaseTime;
+            return newObj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            HolderLease that = (HolderLease) o;
+
+            if (count != that.count) return false;
+            if (leaseTime != that.leaseTime) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = count;
+            result = 31 * result + (int) (leaseTime ^ (leaseTime >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "HolderLease{" +
+                    "count=" + count +
+                    ", leaseTime=" + leaseTime +
+                    '}';
+        }
+    }
+
     public enum MutationType {
         INCREMENT, DECREMENT, MARK_NOW, INCREMENT_MARK_NOW, DECREMENT_MARK_NOW, NONE;
     }
@@ -290,6 +1150,11 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
             public boolean check(EhcacheStreamMaster streamMaster) {
                 return null != streamMaster && streamMaster.getReaders() == 0 && streamMaster.getWriters() == 1;
             }
+        },NO_READER_NO_APPEND_SINGLE_WRITER {
+            @Override
+            public boolean check(EhcacheStreamMaster streamMaster) {
+                return null != streamMaster && streamMaster.getReaders() == 0 && streamMaster.getWriters() == 1 && !streamMaster.hasPendingAppends();
+            }
         },NO_WRITER {
             @Override
             public boolean check(EhcacheStreamMaster streamMaster) {
@@ -328,18 +1193,18 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
     public enum MutationField {
         WRITERS {
             @Override
-            public void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType) {
+            public void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType, long holderId) {
                 if(mutationType == MutationType.INCREMENT){
-                    streamMaster.addWriter();
+                    streamMaster.addWriter(holderId);
                 } else if (mutationType == MutationType.MARK_NOW){
                     streamMaster.setWrittenNow();
                 } else if (mutationType == MutationType.INCREMENT_MARK_NOW){
-                    streamMaster.addWriter();
+                    streamMaster.addWriter(holderId);
                     streamMaster.setWrittenNow();
                 } else if (mutationType == MutationType.DECREMENT){
-                    streamMaster.removeWriter();
+                    streamMaster.removeWriter(holderId);
                 } else if (mutationType == MutationType.DECREMENT_MARK_NOW){
-                    streamMaster.removeWriter();
+                    streamMaster.removeWriter(holderId);
                     streamMaster.setWrittenNow();
                 } else if (mutationType == MutationType.NONE){
                     ;;
@@ -349,18 +1214,18 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
             }
         }, READERS {
             @Override
-            public void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType) {
+            public void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType, long holderId) {
                 if(mutationType == MutationType.INCREMENT){
-                    streamMaster.addReader();
+                    streamMaster.addReader(holderId);
                 } else if (mutationType == MutationType.MARK_NOW){
                     streamMaster.setReadNow();
                 } else if (mutationType == MutationType.INCREMENT_MARK_NOW){
-                    streamMaster.addReader();
+                    streamMaster.addReader(holderId);
                     streamMaster.setReadNow();
                 } else if (mutationType == MutationType.DECREMENT){
-                    streamMaster.removeReader();
+                    streamMaster.removeReader(holderId);
                 } else if (mutationType == MutationType.DECREMENT_MARK_NOW){
-                    streamMaster.removeReader();
+                    streamMaster.removeReader(holderId);
                     streamMaster.setReadNow();
                 } else if (mutationType == MutationType.NONE){
                     ;;
@@ -370,6 +1235,7 @@ public class EhcacheStreamMaster implements Serializable, Cloneable {
             }
         };
 
-        public abstract void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType);
+        //the counts are incremented (resp. decremented) for that lease holder
+        public abstract void mutate(EhcacheStreamMaster streamMaster, MutationType mutationType, long holderId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package org.ehcache.extensions.io.impl.model;
+
+import java.io.Serializable;
+
+/**
+ * Created by fabien.sanglier on 11/19/18.
+ */
+
+/*
+ * The key of the reclaim marker of a removed stream entry, whose chunk entries are still being reclaimed in the background.
+ * The marker value is the next chunk index of the removed master: a new stream entry created on that same public key
+ * allocates its chunk indices from there, so its chunk entries never collide with the ones still to be reclaimed.
+ *
+ * NOTE: not a EhcacheStreamMasterKey on purpose, so the markers are never listed as stream entries.
+ */
+public class EhcacheStreamReclaimKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Object cacheKey;
+
+    public EhcacheStreamReclaimKey(Object cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public Object getCacheKey() {
+        return cacheKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EhcacheStreamReclaimKey that = (EhcacheStreamReclaimKey) o;
+
+        if (cacheKey != null ? !cacheKey.equals(that.cacheKey) : that.cacheKey != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return cacheKey != null ? cacheKey.hashCode() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "EhcacheStreamReclaimKey{" +
+                "cacheKey=" + cacheKey +
+                '}' +
+                ", hashcode=" + hashCode();
+    }
+}
@@ -0,0 +1,49 @@
+package org.ehcache.extensions.io.impl.model;
+
+import java.io.ObjectStreamException;
+
+/**
+ * Created by fabien.sanglier on 11/10/18.
+ */
+
+/*
+ * A chunk whose payload lives in the pages of an EhcacheStreamSlabStore: only this small handle is stored in the cache entry.
+ * The pages are owned by this handle, and get freed once it is not referenced anymore.
+ * If the cache serializes it (eg. copyOnRead/copyOnWrite), it is replaced by a regular on-heap chunk holding the bytes.
+ */
+public class EhcacheStreamSlabChunk extends EhcacheStreamChunk {
+    private static final long serialVersionUID = 1L;
+
+    private final transient EhcacheStreamSlabStore slabStore;
+    private final transient int[] pages;
+    private final int length;
+
+    EhcacheStreamSlabChunk(EhcacheStreamSlabStore slabStore, int[] pages, int length) {
+        super(null);
+        this.slabStore = slabStore;
+        this.pages = pages;
+        this.length = length;
+    }
+
+    //the returned bytes are a copy: the pages can not be freed while this handle is in use
+    @Override
+    public byte[] getChunk() {
+        synchronized (this) {
+            return slabStore.read(pages, length);
+        }
+    }
+
+    @Override
+    public byte[] copyChunk() {
+        return getChunk();
+    }
+
+    @Override
+    public int getChunkLength() {
+        return length;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new EhcacheStreamChunk(getChunk());
+    }
+}
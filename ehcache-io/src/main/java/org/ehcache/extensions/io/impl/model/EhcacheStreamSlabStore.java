@@ -0,0 +1,266 @@
+package org.ehcache.extensions.io.impl.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by fabien.sanglier on 11/10/18.
+ */
+
+/*
+ * An off-heap store for the chunk payloads, for the caches that keep everything on the java heap (open source ehcache, no offheap tier).
+ * The payload bytes live in direct ByteBuffer slabs, split in fixed size pages: a chunk takes as many pages as its size needs
+ * (not necessarily contiguous), and only a small EhcacheStreamSlabChunk handle (the page numbers) goes in the cache entry.
+ *
+ * The slabs get allocated as needed, up to the max size. The pages of a chunk are freed (back to the free page list)
+ * once its handle is not referenced anymore (removed, replaced, evicted or expired from the cache, and not being read):
+ * each handle is tracked by a phantom reference, and the reclaimed pages are collected on the next allocations.
+ * When the store is full, the allocation returns null so the caller can keep the payload on heap instead, and the store gets marked exhausted:
+ * the next allocations fail right away (without taking the store lock) until the GC hands back some unreferenced handles,
+ * or a bigger max size is asked for. Nothing forces a GC: the pages come back at the pace of the regular collections.
+ */
+public class EhcacheStreamSlabStore {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamSlabStore.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    public static final int PAGE_SIZE = 16 * 1024;
+    public static final int SLAB_SIZE = 16 * 1024 * 1024;
+    private static final int PAGES_PER_SLAB = SLAB_SIZE / PAGE_SIZE;
+
+    private static volatile EhcacheStreamSlabStore instance;
+
+    private final ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+    //stack of the free page numbers (page number = slab index * pages per slab + page index in the slab)
+    private int[] freePages = new int[PAGES_PER_SLAB];
+    private int freePageCount = 0;
+
+    //the phantom references must stay reachable until enqueued
+    private final ReferenceQueue<EhcacheStreamSlabChunk> reclaimQueue = new ReferenceQueue<EhcacheStreamSlabChunk>();
+    private final Set<SlabChunkReference> liveChunkReferences = new HashSet<SlabChunkReference>();
+
+    //set once full (with the max size it was full for), cleared once some pages come back
+    private volatile boolean exhausted = false;
+    private volatile long exhaustedMaxSizeInBytes = 0L;
+
+    private long allocationCount = 0L;
+    private long reclaimCount = 0L;
+    private final AtomicLong allocationFailureCount = new AtomicLong(0L);
+
+    public static EhcacheStreamSlabStore getInstance() {
+        if(null == instance) {
+            synchronized (EhcacheStreamSlabStore.class) {
+                if(null == instance)
+                    instance = new EhcacheStreamSlabStore();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Copies the bytes into free pages.
+     *
+     * @param   bytes           the chunk payload
+     * @param   maxSizeInBytes  the max total size of the slabs
+     * @return  the handle to the stored payload, or null if the store is full (or the payload is empty)
+     */
+    public EhcacheStreamSlabChunk allocate(final byte[] bytes, final long maxSizeInBytes) {
+        if(null == bytes || bytes.length == 0)
+            return null;
+
+        int pageCount = (bytes.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        int[] pages = reservePages(pageCount, maxSizeInBytes);
+        if(null == pages) {
+            allocationFailureCount.incrementAndGet();
+
+            if(isDebug)
+                logger.debug("Slab store full: could not allocate {} pages", pageCount);
+
+            return null;
+        }
+
+        //the reserved pages are only accessed by this thread until the handle is returned
+        for(int i = 0; i < pageCount; i++) {
+            int offset = i * PAGE_SIZE;
+            pageView(pages[i]).put(bytes, offset, Math.min(PAGE_SIZE, bytes.length - offset));
+        }
+
+        EhcacheStreamSlabChunk slabChunk = new EhcacheStreamSlabChunk(this, pages, bytes.length);
+        synchronized (this) {
+            liveChunkReferences.add(new SlabChunkReference(slabChunk, reclaimQueue, pages));
+            allocationCount++;
+        }
+
+        return slabChunk;
+    }
+
+    /**
+     * Copies the bytes of the pages out
+     */
+    byte[] read(final int[] pages, final int length) {
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < pages.length; i++) {
+            int offset = i * PAGE_SIZE;
+            pageView(pages[i]).get(bytes, offset, Math.min(PAGE_SIZE, length - offset));
+        }
+        return bytes;
+    }
+
+    //a view of the page, with its own position
+    private ByteBuffer pageView(int page) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get(page / PAGES_PER_SLAB);
+        }
+
+        ByteBuffer pageView = slab.duplicate();
+        pageView.position((page % PAGES_PER_SLAB) * PAGE_SIZE);
+        pageView.limit(pageView.position() + PAGE_SIZE);
+        return pageView;
+    }
+
+    private int[] reservePages(final int pageCount, final long maxSizeInBytes) {
+        //fail fast while full: only a handle reclaimed by the GC (or a bigger store) can change that
+        Reference<? extends EhcacheStreamSlabChunk> reclaimed = null;
+        if(exhausted && maxSizeInBytes <= exhaustedMaxSizeInBytes && null == (reclaimed = reclaimQueue.poll()))
+            return null;
+
+        return tryReservePages(pageCount, maxSizeInBytes, reclaimed);
+    }
+
+    private synchronized int[] tryReservePages(final int pageCount, final long maxSizeInBytes, final Reference<? extends EhcacheStreamSlabChunk> reclaimed) {
+        if(null != reclaimed)
+            reclaimPages(reclaimed);
+        reclaimPages();
+
+        while (freePageCount < pageCount && (long)(slabs.size() + 1) * SLAB_SIZE <= maxSizeInBytes) {
+            if(!addSlab())
+                break;
+        }
+
+        if(freePageCount < pageCount) {
+            exhaustedMaxSizeInBytes = maxSizeInBytes;
+            exhausted = true;
+            return null;
+        }
+
+        exhausted = false;
+
+        int[] pages = new int[pageCount];
+        for(int i = 0; i < pageCount; i++) {
+            pages[i] = freePages[--freePageCount];
+        }
+        return pages;
+    }
+
+    private boolean addSlab() {
+        ByteBuffer slab;
+        try {
+            slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+        } catch (OutOfMemoryError e) {
+            logger.warn("Could not allocate a new slab of {} bytes (direct memory limit reached?)", SLAB_SIZE);
+            return false;
+        }
+
+        int firstPage = slabs.size() * PAGES_PER_SLAB;
+        slabs.add(slab);
+
+        ensureFreePagesCapacity(freePageCount + PAGES_PER_SLAB);
+        //pushed in reverse so that the pages get used in order
+        for(int i = PAGES_PER_SLAB - 1; i >= 0; i--) {
+            freePages[freePageCount++] = firstPage + i;
+        }
+
+        if(isDebug)
+            logger.debug("Added slab #{} to the slab store", slabs.size());
+
+        return true;
+    }
+
+    private void reclaimPages() {
+        Reference<? extends EhcacheStreamSlabChunk> reference;
+        while (null != (reference = reclaimQueue.poll())) {
+            reclaimPages(reference);
+        }
+    }
+
+    private void reclaimPages(Reference<? extends EhcacheStreamSlabChunk> reference) {
+        SlabChunkReference slabChunkReference = (SlabChunkReference) reference;
+        if(liveChunkReferences.remove(slabChunkReference)) {
+            ensureFreePagesCapacity(freePageCount + slabChunkReference.pages.length);
+            for(int page : slabChunkReference.pages) {
+                freePages[freePageCount++] = page;
+            }
+            reclaimCount++;
+            exhausted = false;
+        }
+    }
+
+    private void ensureFreePagesCapacity(int capacity) {
+        if(freePages.length < capacity) {
+            int[] newFreePages = new int[Math.max(capacity, freePages.length * 2)];
+            System.arraycopy(freePages, 0, newFreePages, 0, freePageCount);
+            freePages = newFreePages;
+        }
+    }
+
+    public synchronized int getSlabCount() {
+        return slabs.size();
+    }
+
+    public synchronized long getAllocatedSizeInBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+
+    public synchronized long getUsedSizeInBytes() {
+        reclaimPages();
+        return ((long) slabs.size() * PAGES_PER_SLAB - freePageCount) * PAGE_SIZE;
+    }
+
+    public synchronized int getLiveChunkCount() {
+        reclaimPages();
+        return liveChunkReferences.size();
+    }
+
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    public synchronized long getReclaimCount() {
+        reclaimPages();
+        return reclaimCount;
+    }
+
+    public long getAllocationFailureCount() {
+        return allocationFailureCount.get();
+    }
+
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    //as if the GC had found all the handles unreferenced (the caller must not use them anymore)
+    /*package protected*/ synchronized void enqueueLiveChunks() {
+        for(SlabChunkReference slabChunkReference : liveChunkReferences) {
+            slabChunkReference.enqueue();
+        }
+    }
+
+    private static class SlabChunkReference extends PhantomReference<EhcacheStreamSlabChunk> {
+        private final int[] pages;
+
+        SlabChunkReference(EhcacheStreamSlabChunk referent, ReferenceQueue<? super EhcacheStreamSlabChunk> q, int[] pages) {
+            super(referent, q);
+            this.pages = pages;
+        }
+    }
+}
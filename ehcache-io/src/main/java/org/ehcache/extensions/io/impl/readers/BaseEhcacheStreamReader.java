@@ -6,11 +6,14 @@ import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
 import org.ehcache.extensions.io.impl.BaseEhcacheStream;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.EhcacheUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
  * Created by fabien.sanglier on 9/17/18.
@@ -43,14 +46,63 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
     protected volatile byte[] tempChunkData;
     protected volatile boolean markRefillTempChunkData = false;
 
+    //the near cache is only worth it when every chunk get goes to the server
+    private final EhcacheStreamChunkNearCache nearCache;
+    private final long nearCacheMaxSize;
+
+    //coalescing the concurrent fetches is only worth it when a chunk get costs more than a heap lookup (deserialization, remote get)
+    private final EhcacheStreamChunkFetchCoalescer fetchCoalescer;
+
+    private final String cacheName;
+
     protected BaseEhcacheStreamReader(Ehcache cache, Object cacheKey) {
         super(cache, cacheKey);
+
+        final EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        final boolean useNearCache = ehcacheStreamManager.getInputStreamNearCache();
+        final boolean useFetchCoalescer = ehcacheStreamManager.getInputStreamFetchCoalescing();
+        final EhcacheUtils.CacheType cacheType = (useNearCache || useFetchCoalescer) ? getEhcacheStreamUtils().getCacheType() : null;
+
+        this.nearCache = (useNearCache && cacheType == EhcacheUtils.CacheType.CLUSTERED_NOLOCAL) ? EhcacheStreamChunkNearCache.getInstance() : null;
+        this.nearCacheMaxSize = ehcacheStreamManager.getInputStreamNearCacheMaxSize();
+        this.fetchCoalescer = (useFetchCoalescer && cacheType != EhcacheUtils.CacheType.LOCAL_HEAP_ONLY) ? EhcacheStreamChunkFetchCoalescer.getInstance() : null;
+        this.cacheName = (null != nearCache || null != fetchCoalescer) ? getEhcacheStreamUtils().getCacheName() : null;
+    }
+
+    private EhcacheStreamChunk fetchChunkValue(final int chunkIndex) throws EhcacheStreamException {
+        if(null == fetchCoalescer)
+            return getEhcacheStreamUtils().getChunkValue(getPublicCacheKey(), chunkIndex);
+
+        return fetchCoalescer.fetch(
+                new EhcacheStreamChunkFetchCoalescer.FetchKey(cacheName, getPublicCacheKey(), chunkIndex, activeStreamMaster.getVersion()),
+                new Callable<EhcacheStreamChunk>() {
+                    @Override
+                    public EhcacheStreamChunk call() throws Exception {
+                        return getEhcacheStreamUtils().getChunkValue(getPublicCacheKey(), chunkIndex);
+                    }
+                }
+        );
     }
 
     //get chunk data from temp store, or refill it with more data if marked as such
     private byte[] getChunkData() throws EhcacheStreamException {
         if(null == tempChunkData || markRefillTempChunkData){
-            EhcacheStreamChunk cacheChunkValue = getEhcacheStreamUtils().getChunkValue(getPublicCacheKey(), cacheChunkIndexPos);
+            //inline payloads are carried by the master entry itself: no need for any cache get
+            if(null != activeStreamMaster && activeStreamMaster.hasInlineChunk()) {
+                tempChunkData = activeStreamMaster.getInlineChunk();
+                return tempChunkData;
+            }
+
+            int chunkIndex = activeStreamMaster.getChunkIndex(cacheChunkIndexPos);
+            if(null != nearCache) {
+                byte[] nearCachedChunk = nearCache.get(cacheName, getPublicCacheKey(), chunkIndex, activeStreamMaster.getVersion(), activeStreamMaster.getChunkChecksum(cacheChunkIndexPos));
+                if(null != nearCachedChunk) {
+                    tempChunkData = nearCachedChunk;
+                    return tempChunkData;
+                }
+            }
+
+            EhcacheStreamChunk cacheChunkValue = fetchChunkValue(chunkIndex);
 
             //TODO: IMPORTANT!! checking for null cacheChunkValue is not enough
             //TODO: what if the cacheChunk was just being replaced by another write for example?
@@ -59,9 +111,13 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
             //TODO: EG. as a write happens, it would store the checksums of each chunks in the stream master object,
             //TODO: And then, on read, we could reference and cross check each chunk from cache against expected checksum
             //TODO: i think that would be a good improvement for data consistency.
-            if (null != cacheChunkValue && null != cacheChunkValue.getChunk()) {
-                tempChunkData = new byte[cacheChunkValue.getChunk().length];
-                System.arraycopy(cacheChunkValue.getChunk(), 0, tempChunkData, 0, cacheChunkValue.getChunk().length);
+            byte[] cacheChunk = (null != cacheChunkValue)?cacheChunkValue.copyChunk():null;
+            if (null != cacheChunk) {
+                tempChunkData = cacheChunk;
+
+                //the chunk data is only ever read from here on, so it can be shared with the near cache
+                if(null != nearCache)
+                    nearCache.put(cacheName, getPublicCacheKey(), chunkIndex, activeStreamMaster.getVersion(), activeStreamMaster.getChunkChecksum(cacheChunkIndexPos), tempChunkData, nearCacheMaxSize);
             } else {
                 //clear it
                 tempChunkData = null;
@@ -139,6 +195,12 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
             throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter should be closed at this point: something unexpected happened.");
     }
 
+    //An inline master with no active writer is a complete and immutable snapshot of the stream entry:
+    //it can be read as is, without registering any read on the master entry
+    static boolean isCommittedInlineStreamMaster(final EhcacheStreamMaster streamMaster) {
+        return null != streamMaster && streamMaster.hasInlineChunk() && streamMaster.getWriters() == 0;
+    }
+
     abstract void oneTimeInit() throws EhcacheStreamException;
 
     abstract void oneTimeCleanup() throws EhcacheStreamException;
@@ -152,10 +214,15 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
         return isOpen;
     }
 
+    @Override
+    public EhcacheStreamMaster getActiveStreamMaster() {
+        return activeStreamMaster;
+    }
+
     /**
-     * Attempt to return the number of bytes still to be read in the stream
-     * Approximation: Use the current temp chunk size to approximate the total remaining size in the following chunks
-     * Will return 0 if stream is
+     * Returns the number of bytes still to be read in the stream (capped to Integer.MAX_VALUE),
+     * from the chunk offsets of the stream master (no chunk fetch needed)
+     * Will return 0 if stream is at the end, or if the entry does not exist
      */
     @Override
     public int available() throws EhcacheStreamException {
@@ -163,23 +230,11 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
         checkIfOpen();
 
         // check if activeStreamMaster or the chunk index is above max chunk count - in both case, return end of stream
-        final int chunksTotalCount;
-        if(null == activeStreamMaster || cacheChunkIndexPos >= (chunksTotalCount = activeStreamMaster.getChunkCount())) {
+        if(null == activeStreamMaster || cacheChunkIndexPos >= activeStreamMaster.getChunkCount()) {
             bytesAvailable = 0;
         } else {
-            if (null == getChunkData()) {
-                bytesAvailable = 0;
-            } else {
-                //calculate the remaining number of bytes in this chunk
-                bytesAvailable = getChunkData().length - cacheChunkBytePos;
-
-                //  and add all the remaining chunks to read,
-                long[] chunkSizeInBytes = activeStreamMaster.getAllChunkSizeInBytes();
-                int startIndex = cacheChunkIndexPos + 1; // +1 to account for the current bytes calculated above
-                for (int i = startIndex; i < chunksTotalCount; i++) {
-                    bytesAvailable += chunkSizeInBytes[i];
-                }
-            }
+            long remainingBytes = activeStreamMaster.getChunksTotalSizeInBytes() - activeStreamMaster.getChunkOffset(cacheChunkIndexPos) - cacheChunkBytePos;
+            bytesAvailable = (int) Math.min(Integer.MAX_VALUE, remainingBytes);
         }
 
         if(isDebug) {
@@ -190,6 +245,35 @@ public abstract class BaseEhcacheStreamReader extends BaseEhcacheStream implemen
         return bytesAvailable;
     }
 
+    /**
+     * Skips over n bytes of the stream, by moving straight to the chunk holding the target offset:
+     * the chunks skipped over are not fetched.
+     *
+     * @return the number of bytes skipped (less than n if the end of the stream is reached)
+     */
+    @Override
+    public long skip(long n) throws EhcacheStreamException {
+        checkIfOpen();
+
+        if(n <= 0 || null == activeStreamMaster || cacheChunkIndexPos >= activeStreamMaster.getChunkCount())
+            return 0L;
+
+        long currentOffset = activeStreamMaster.getChunkOffset(cacheChunkIndexPos) + cacheChunkBytePos;
+        long targetOffset = Math.min(currentOffset + Math.min(n, Long.MAX_VALUE - currentOffset), activeStreamMaster.getChunksTotalSizeInBytes());
+
+        int targetChunkIndexPos = activeStreamMaster.getChunkPosition(targetOffset);
+        if(targetChunkIndexPos != cacheChunkIndexPos) {
+            cacheChunkIndexPos = targetChunkIndexPos;
+            markRefillTempChunkData = true;
+        }
+        cacheChunkBytePos = (int) (targetOffset - activeStreamMaster.getChunkOffset(targetChunkIndexPos));
+
+        if(isDebug)
+            logger.debug("Skipped {} bytes", targetOffset - currentOffset);
+
+        return targetOffset - currentOffset;
+    }
+
     @Override
     public int read() throws EhcacheStreamException {
         int byteRead;
@@ -2,6 +2,8 @@ package org.ehcache.extensions.io.impl.readers;
 
 import org.ehcache.extensions.io.EhcacheStreamException;
 import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamBufferPool;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +39,16 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
      */
     protected int count;
 
+    /**
+     * The usable size of the buffer (the pooled buffer may be bigger)
+     */
+    protected final int bufferSize;
+
+    /**
+     * The buffer size reserved from the memory budget for this stream, given back on close
+     */
+    private volatile int budgetReservedSize;
+
     /**
      * The current position in the buffer. This is the index of the next
      * character to be read from the <code>buf</code> array.
@@ -52,17 +64,35 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
      * @exception IllegalArgumentException if size &lt;= 0.
      */
     public EhcacheBufferedInputStream(int bufferSize, EhcacheStreamReader ehcacheStreamReader) throws EhcacheStreamException {
+        this(bufferSize, 0, ehcacheStreamReader);
+    }
+
+    /**
+     * Creates a new buffered output stream to write data to a cache
+     * with the specified buffer size, already reserved from the memory budget.
+     *
+     * @param   bufferSize              the stream buffer size.
+     * @param   budgetReservedSize      the size reserved from the memory budget, to give back on close
+     * @param   ehcacheStreamReader     the stream reader implementation
+     * @exception IllegalArgumentException if size &lt;= 0.
+     */
+    public EhcacheBufferedInputStream(int bufferSize, int budgetReservedSize, EhcacheStreamReader ehcacheStreamReader) throws EhcacheStreamException {
         super(ehcacheStreamReader);
 
         if (bufferSize <= 0) {
             throw new EhcacheStreamIllegalArgumentException("Buffer size <= 0");
         }
-        this.buf = new byte[bufferSize];
+        this.bufferSize = bufferSize;
+        this.buf = EhcacheStreamBufferPool.getInstance().acquire(bufferSize);
+        this.budgetReservedSize = budgetReservedSize;
     }
 
+    //the bytes left in the buffer, plus the bytes not buffered yet
     @Override
-    public int available() throws EhcacheStreamException {
-        return ehcacheStreamReader.available();
+    public synchronized int available() throws EhcacheStreamException {
+        getBufIfOpen(); // Check for closed stream
+        long avail = (long) (count - pos) + ehcacheStreamReader.available();
+        return (int) Math.min(Integer.MAX_VALUE, avail);
     }
 
     /**
@@ -89,7 +119,7 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
         pos = 0;
         count = pos;
 
-        int byteCopied = ehcacheStreamReader.read(buffer, pos, buffer.length - pos);
+        int byteCopied = ehcacheStreamReader.read(buffer, pos, bufferSize - pos);
 
         if (byteCopied > 0)
             count = pos + byteCopied;
@@ -191,6 +221,28 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
         }
     }
 
+    /**
+     * See the general contract of the <code>skip</code>
+     * method of <code>InputStream</code>.
+     * Skips the buffered bytes first, then lets the reader skip over the chunks without fetching them.
+     */
+    @Override
+    public synchronized long skip(long n) throws EhcacheStreamException {
+        getBufIfOpen(); // Check for closed stream
+        if (n <= 0) {
+            return 0;
+        }
+
+        long avail = count - pos;
+        if (avail <= 0) {
+            return ehcacheStreamReader.skip(n);
+        }
+
+        long skipped = (avail < n) ? avail : n;
+        pos += skipped;
+        return skipped;
+    }
+
     /**
      * Closes this input stream and releases any system resources
      * associated with the stream.
@@ -205,6 +257,8 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
             byte[] buffer;
             while ((buffer = buf) != null) {
                 if (bufUpdater.compareAndSet(this, buffer, null)) {
+                    EhcacheStreamBufferPool.getInstance().release(buffer);
+                    EhcacheStreamMemoryBudget.getInstance().release(budgetReservedSize);
                     return;
                 }
                 // Else retry in case a new buf was CASed in fill()
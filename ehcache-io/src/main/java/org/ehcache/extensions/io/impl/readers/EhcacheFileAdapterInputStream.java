@@ -1,80 +1,110 @@
 package org.ehcache.extensions.io.impl.readers;
 
 import org.ehcache.extensions.io.EhcacheStreamException;
-import org.ehcache.extensions.io.impl.utils.DeleteOnCloseFileInputStream;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.util.UUID;
+import java.util.concurrent.Executor;
 
 /**
  * Created by fabien.sanglier on 10/25/18.
  */
+
+/*
+ * Spills the cache entry to a local temp file, and serves the reads from that file.
+ * The spill files are shared by all the readers of the same version of the entry on this node (see EhcacheFileAdapterSpillCache):
+ * the entry is spilled once, by its first reader, and the other readers read that same file (even while it is being spilled).
+ * The spill runs in the background, on the spill executor of the cache: the reads are served as soon as the requested bytes are in the file,
+ * and only block when the reader catches up with the spill (the spill watermark).
+ * Closing the stream does not wait for its spill: the spill closes the cache reader when done
+ * (except for a reader holding an explicit read lock, which has to be released by the thread that acquired it).
+ */
 public class EhcacheFileAdapterInputStream extends InputStream {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheFileAdapterInputStream.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
     private final EhcacheInputStream ehcacheInputStream;
-    private DeleteOnCloseFileInputStream deleteOnCloseFileInputStream;
 
-    private static final String FILE_PREFIX = "EhcacheIOStream";
     private final Path fileDirPath;
 
     private final boolean enablediskOffload;
-    private final Object onDiskPadLock = new Object();
-    private volatile boolean onDisk = false;
+    private final long sizeInBytes;
+
+    private final Executor spillExecutor;
+    private final EhcacheFileAdapterSpillCache spillCache = EhcacheFileAdapterSpillCache.getInstance();
+    private final EhcacheFileAdapterSpillCache.StreamKey spillStreamKey;
+    private EhcacheFileAdapterSpillCache.SpillFile spillFile;
 
-    private final int copyBufferSize = 512 * 1024; //copy buffer size
+    //true if the spill is fed by the cache reader of this stream
+    private boolean spillOwner = false;
 
-    public EhcacheFileAdapterInputStream(EhcacheInputStream ehcacheInputStream, String fileDirPath, long sizeInBytesThreshold) throws EhcacheStreamException {
+    //only accessed by the consumer thread
+    private long readPosition = 0L;
+    private boolean cacheReaderClosed = false;
+
+    public EhcacheFileAdapterInputStream(String cacheName, EhcacheInputStream ehcacheInputStream, String fileDirPath, long sizeInBytesThreshold, Executor spillExecutor) throws EhcacheStreamException {
         if(null == ehcacheInputStream)
             throw new IllegalStateException("ehcacheInputStream may not be null");
 
+        if(null == spillExecutor)
+            throw new IllegalStateException("spillExecutor may not be null");
+
         this.ehcacheInputStream = ehcacheInputStream;
+        this.spillExecutor = spillExecutor;
         this.fileDirPath = FileSystems.getDefault().getPath(fileDirPath);
-        this.enablediskOffload = ehcacheInputStream.available() > sizeInBytesThreshold;
+        this.sizeInBytes = ehcacheInputStream.available();
+        this.enablediskOffload = sizeInBytes > sizeInBytesThreshold && null != ehcacheInputStream.getActiveStreamMaster();
+        this.spillStreamKey = new EhcacheFileAdapterSpillCache.StreamKey(cacheName, ehcacheInputStream.getPublicCacheKey());
     }
 
-    private void pushEntryToDisk() throws IOException {
-        if(!onDisk){
-            synchronized (onDiskPadLock){
-                if(!onDisk) {
-                    //construct the full path
-                    String ehcacheTempFile = String.format("%s-%s-%d.tmp", FILE_PREFIX, UUID.randomUUID().toString(), ehcacheInputStream.getPublicCacheKey().hashCode());
-                    Path ehcacheEntryFile = FileSystems.getDefault().getPath(fileDirPath.toString(), ehcacheTempFile);
-
-                    //copy cache entry to temp file
-                    EhcacheInputStream is = null;
-                    FileOutputStream os = null;
-                    try {
-                        is = ehcacheInputStream;
-                        os = new FileOutputStream(ehcacheEntryFile.toString(),false);
-
-                        int n;
-                        byte[] buffer = new byte[copyBufferSize];
-                        while ((n = is.read(buffer)) > -1) {
-                            os.write(buffer, 0, n);   // Don't allow any extra bytes to creep in, final write
-                        }
-                    } finally {
-                        if(null != is)
-                            is.close();
-
-                        if(null != os)
-                            os.close();
-                    }
+    private void attachSpill() throws IOException {
+        if (null == spillFile) {
+            spillFile = spillCache.acquire(spillStreamKey, ehcacheInputStream.getActiveStreamMaster(), fileDirPath);
+            spillOwner = spillFile.startSpill(ehcacheInputStream, spillExecutor);
 
-                    //initialize the file input stream here now the file was copied
-                    deleteOnCloseFileInputStream = new DeleteOnCloseFileInputStream(ehcacheEntryFile.toString());
+            //another reader spills (or already spilled) this same version: this stream does not need its own cache reader anymore
+            if(!spillOwner)
+                closeCacheReader();
 
-                    onDisk = true;
-                }
-            }
+            if(isDebug)
+                logger.debug("Attached to the spill of key={} - spilling: {}", EhcacheStreamUtilsInternal.toStringSafe(ehcacheInputStream.getPublicCacheKey()), spillOwner);
+        }
+    }
+
+    /**
+     * Waits for the spill to get past the read position
+     *
+     * @return the number of bytes that can be read from the file at the read position, or -1 at the end of the entry
+     */
+    private long awaitSpilledBytes() throws IOException {
+        attachSpill();
+
+        long available = spillFile.awaitSpilledBytes(readPosition);
+
+        //release the cache entry as soon as the spill is done
+        if(spillOwner && spillFile.isDone())
+            closeCacheReader();
+
+        return available;
+    }
+
+    //the cache reader is always closed by the consumer thread (the explicit read locks must be released by the thread that acquired them)
+    private void closeCacheReader() throws IOException {
+        if(!cacheReaderClosed) {
+            cacheReaderClosed = true;
+            ehcacheInputStream.close();
         }
     }
 
     @Override
     public int read() throws IOException {
         if(enablediskOffload) {
-            pushEntryToDisk();
-            return deleteOnCloseFileInputStream.read();
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xff;
         } else {
             return ehcacheInputStream.read();
         }
@@ -82,8 +112,8 @@ public class EhcacheFileAdapterInputStream extends InputStream {
 
     @Override
     public int read(byte[] b) throws IOException {
-        if(enablediskOffload) {pushEntryToDisk();
-            return deleteOnCloseFileInputStream.read(b);
+        if(enablediskOffload) {
+            return read(b, 0, b.length);
         } else {
             return ehcacheInputStream.read(b);
         }
@@ -91,8 +121,21 @@ public class EhcacheFileAdapterInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        if(enablediskOffload) {pushEntryToDisk();
-            return deleteOnCloseFileInputStream.read(b, off, len);
+        if(enablediskOffload) {
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+
+            if (len == 0)
+                return 0;
+
+            long available = awaitSpilledBytes();
+            if(available < 0)
+                return -1;
+
+            int n = spillFile.read(b, off, (int) Math.min(len, available), readPosition);
+            if(n > 0)
+                readPosition += n;
+            return n;
         } else {
             return ehcacheInputStream.read(b, off, len);
         }
@@ -101,18 +144,26 @@ public class EhcacheFileAdapterInputStream extends InputStream {
     @Override
     public long skip(long n) throws IOException {
         if(enablediskOffload) {
-            pushEntryToDisk();
-            return deleteOnCloseFileInputStream.skip(n);
+            if(n <= 0)
+                return 0;
+
+            long available = awaitSpilledBytes();
+            if(available < 0)
+                return 0;
+
+            long skipped = Math.min(n, available);
+            readPosition += skipped;
+            return skipped;
         } else {
             return ehcacheInputStream.skip(n);
         }
     }
 
+    //the bytes left in the entry (whether spilled yet or not), as the cache reader would report them
     @Override
     public int available() throws IOException {
         if(enablediskOffload) {
-            pushEntryToDisk();
-            return deleteOnCloseFileInputStream.available();
+            return (int) Math.max(0L, Math.min(Integer.MAX_VALUE, sizeInBytes - readPosition));
         } else {
             return ehcacheInputStream.available();
         }
@@ -121,8 +172,28 @@ public class EhcacheFileAdapterInputStream extends InputStream {
     @Override
     public void close() throws IOException {
         if(enablediskOffload) {
-            pushEntryToDisk();
-            deleteOnCloseFileInputStream.close();
+            try {
+                //the spill is fed by this stream's cache reader: stop it if no other reader reads it, else let it finish for them
+                if (null != spillFile && spillOwner) {
+                    if (!spillFile.isDone())
+                        spillCache.tryAbort(spillStreamKey, spillFile);
+
+                    //the spill closes the cache reader when done (an explicit read lock has to be released here, once the spill stopped reading)
+                    if (ehcacheInputStream.isCloseThreadBound())
+                        spillFile.awaitDone();
+                    else if (spillFile.releaseSource())
+                        cacheReaderClosed = true;
+                }
+            } finally {
+                try {
+                    closeCacheReader();
+                } finally {
+                    if (null != spillFile) {
+                        spillCache.release(spillStreamKey, spillFile);
+                        spillFile = null;
+                    }
+                }
+            }
         } else {
             ehcacheInputStream.close();
         }
@@ -0,0 +1,577 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamBufferPool;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Created by fabien.sanglier on 11/7/18.
+ */
+
+/*
+ * The spill files of the file adapter, shared by all the readers of the same stream entry on this node.
+ * A spill file belongs to a version of the stream master entry: the readers opening that same version read the same file
+ * (spilled once, by the first of them), and a reader opening a newer version invalidates it.
+ * The spill files are reference counted: the ones no reader uses anymore are kept for the next readers,
+ * within a disk budget (the least recently used ones are deleted first).
+ */
+/*package protected*/ class EhcacheFileAdapterSpillCache {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheFileAdapterSpillCache.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final String FILE_PREFIX = "EhcacheIOStream";
+
+    private static final EhcacheFileAdapterSpillCache instance = new EhcacheFileAdapterSpillCache();
+
+    //the spill files kept for the next readers do not outlive the JVM
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                instance.deleteUnused();
+            }
+        }, "EhcacheFileAdapterSpillCache-cleanup"));
+    }
+
+    //access ordered: the least recently used spill files come first
+    private final LinkedHashMap<StreamKey, SpillFile> spillFiles = new LinkedHashMap<StreamKey, SpillFile>(16, 0.75f, true);
+    private long spillFilesSizeInBytes = 0L;
+
+    //the size of the memory mapped segments of the new spill files (only changed by the tests, to map small entries in several segments)
+    private volatile int mappedSegmentSize = SpillFile.DEFAULT_MAPPED_SEGMENT_SIZE;
+
+    /*package protected*/ static EhcacheFileAdapterSpillCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the spill file of the opened version of the stream entry, or creates a new one (to be spilled by its first reader).
+     * Either way, the spill file is referenced by the caller until released.
+     */
+    synchronized SpillFile acquire(final StreamKey streamKey, final EhcacheStreamMaster streamMaster, final Path fileDirPath) throws IOException {
+        SpillVersion spillVersion = new SpillVersion(streamMaster);
+
+        SpillFile spillFile = spillFiles.get(streamKey);
+        if(null != spillFile) {
+            if(spillFile.spillVersion.equals(spillVersion) && !spillFile.isFailed()) {
+                spillFile.refCount++;
+
+                if(isDebug)
+                    logger.debug("Reusing spill file {} for key={}", spillFile.spillFilePath, EhcacheStreamUtilsInternal.toStringSafe(streamKey.cacheKey));
+
+                return spillFile;
+            }
+
+            //an older version (or a failed spill)
+            invalidate(streamKey, spillFile);
+        }
+
+        String ehcacheTempFile = String.format("%s-%s-%d.tmp", FILE_PREFIX, UUID.randomUUID().toString(), streamKey.hashCode());
+        spillFile = new SpillFile(spillVersion, FileSystems.getDefault().getPath(fileDirPath.toString(), ehcacheTempFile), mappedSegmentSize);
+        spillFile.refCount = 1;
+
+        spillFiles.put(streamKey, spillFile);
+        spillFilesSizeInBytes += spillFile.sizeInBytes;
+        evictOverBudget();
+
+        return spillFile;
+    }
+
+    /**
+     * Aborts a spill still running, as long as its spilling reader is the only one reading it.
+     * Once aborted, the spill file is not shared anymore.
+     *
+     * @return true if the spill was aborted, false if other readers are reading that spill file (in which case the spill should go on)
+     */
+    synchronized boolean tryAbort(final StreamKey streamKey, final SpillFile spillFile) {
+        if(spillFile.refCount > 1)
+            return false;
+
+        spillFile.abort();
+        if(spillFiles.get(streamKey) == spillFile)
+            invalidate(streamKey, spillFile);
+
+        return true;
+    }
+
+    synchronized void release(final StreamKey streamKey, final SpillFile spillFile) {
+        spillFile.refCount--;
+        if(spillFile.refCount > 0)
+            return;
+
+        //only the complete spill files are kept when not used anymore
+        if(!spillFile.isComplete() && spillFiles.get(streamKey) == spillFile)
+            invalidate(streamKey, spillFile);
+
+        if(spillFile.invalidated) {
+            spillFile.delete();
+        } else {
+            evictOverBudget();
+        }
+    }
+
+    //the spill file does not get shared anymore, and is deleted as soon as no reader uses it
+    private void invalidate(final StreamKey streamKey, final SpillFile spillFile) {
+        spillFiles.remove(streamKey);
+        spillFilesSizeInBytes -= spillFile.sizeInBytes;
+        spillFile.invalidated = true;
+
+        if(spillFile.refCount == 0)
+            spillFile.delete();
+    }
+
+    private synchronized void deleteUnused() {
+        Iterator<Map.Entry<StreamKey, SpillFile>> iterator = spillFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            SpillFile spillFile = iterator.next().getValue();
+            if(spillFile.refCount == 0) {
+                iterator.remove();
+                spillFilesSizeInBytes -= spillFile.sizeInBytes;
+                spillFile.invalidated = true;
+                spillFile.delete();
+            }
+        }
+    }
+
+    //deletes the least recently used spill files not in use, until the total size fits in the budget
+    private void evictOverBudget() {
+        long maxSizeInBytes = PropertyUtils.getInputStreamFileAdapterCacheMaxSize();
+
+        Iterator<Map.Entry<StreamKey, SpillFile>> iterator = spillFiles.entrySet().iterator();
+        while (spillFilesSizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            SpillFile spillFile = iterator.next().getValue();
+            if(spillFile.refCount == 0) {
+                iterator.remove();
+                spillFilesSizeInBytes -= spillFile.sizeInBytes;
+                spillFile.invalidated = true;
+                spillFile.delete();
+            }
+        }
+    }
+
+    /*package protected*/ synchronized SpillFile getSpillFile(final StreamKey streamKey) {
+        return spillFiles.get(streamKey);
+    }
+
+    /*package protected*/ synchronized int getSpillFileCount() {
+        return spillFiles.size();
+    }
+
+    /*package protected*/ synchronized long getSpillFilesSizeInBytes() {
+        return spillFilesSizeInBytes;
+    }
+
+    /*package protected*/ void setMappedSegmentSize(int mappedSegmentSize) {
+        this.mappedSegmentSize = (mappedSegmentSize > 0) ? mappedSegmentSize : SpillFile.DEFAULT_MAPPED_SEGMENT_SIZE;
+    }
+
+    /*package protected*/ static class StreamKey {
+        private final String cacheName;
+        private final Object cacheKey;
+
+        StreamKey(String cacheName, Object cacheKey) {
+            this.cacheName = cacheName;
+            this.cacheKey = cacheKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            StreamKey that = (StreamKey) o;
+
+            if (cacheName != null ? !cacheName.equals(that.cacheName) : that.cacheName != null) return false;
+            return cacheKey != null ? cacheKey.equals(that.cacheKey) : that.cacheKey == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cacheName != null ? cacheName.hashCode() : 0;
+            result = 31 * result + (cacheKey != null ? cacheKey.hashCode() : 0);
+            return result;
+        }
+    }
+
+    //the version of the stream entry content (with the size and checksums, in case the master entry got removed and written again since)
+    private static class SpillVersion {
+        private final long version;
+        private final long lastWrittenTime;
+        private final long sizeInBytes;
+        private final int checksumsHashCode;
+
+        SpillVersion(EhcacheStreamMaster streamMaster) {
+            this.version = streamMaster.getVersion();
+            this.lastWrittenTime = streamMaster.getLastWrittenTime();
+            this.sizeInBytes = streamMaster.getChunksTotalSizeInBytes();
+            this.checksumsHashCode = Arrays.hashCode(streamMaster.getAllChunkChecksums());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SpillVersion that = (SpillVersion) o;
+
+            if (version != that.version) return false;
+            if (lastWrittenTime != that.lastWrittenTime) return false;
+            if (sizeInBytes != that.sizeInBytes) return false;
+            return checksumsHashCode == that.checksumsHashCode;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (version ^ (version >>> 32));
+            result = 31 * result + (int) (lastWrittenTime ^ (lastWrittenTime >>> 32));
+            result = 31 * result + (int) (sizeInBytes ^ (sizeInBytes >>> 32));
+            result = 31 * result + checksumsHashCode;
+            return result;
+        }
+    }
+
+    /*
+     * A local copy of a stream entry version, pre-sized to the entry size.
+     * The spill runs in the background (on the spill executor of the cache), fed by the cache reader of the first reader of that version,
+     * and moves a watermark up after each buffer: the readers can read all the bytes below that watermark.
+     * That first reader may go away before the end of the spill: the spill then closes its cache reader when done.
+     * The reads are served through memory mapped segments (a single mapping can not go over 2GB).
+     */
+    /*package protected*/ static class SpillFile {
+        private static final int DEFAULT_MAPPED_SEGMENT_SIZE = 64 * 1024 * 1024;
+        private static final int COPY_BUFFER_SIZE = 512 * 1024;
+
+        private final SpillVersion spillVersion;
+        private final Path spillFilePath;
+        private final long sizeInBytes;
+        private final int mappedSegmentSize;
+
+        //guarded by the spill cache
+        private int refCount = 0;
+        private boolean invalidated = false;
+
+        //guards the spill state: the readers wait on it for the spill to get past their read position
+        private final Object spillLock = new Object();
+        private FileChannel spillWriteChannel;
+        private final FileChannel spillReadChannel;
+        private MappedByteBuffer[] mappedSegments;
+        private boolean spillStarted = false;
+        private long spilledBytes = 0L;
+        private boolean spillDone = false;
+        private IOException spillException;
+
+        //the spilling reader let go of its cache reader before the end of the spill: the spill closes it when done
+        private boolean sourceReleased = false;
+
+        //the spill file got deleted before the end of the spill: the spill deletes the file when done
+        private boolean deleteOnSpillDone = false;
+
+        //the spill task is over (its cache reader closed and its file deleted, if need be)
+        private boolean spillTaskDone = false;
+
+        //tells the spill to stop early
+        private volatile boolean aborted = false;
+
+        private SpillFile(SpillVersion spillVersion, Path spillFilePath, int mappedSegmentSize) throws IOException {
+            this.spillVersion = spillVersion;
+            this.spillFilePath = spillFilePath;
+            this.sizeInBytes = spillVersion.sizeInBytes;
+            this.mappedSegmentSize = mappedSegmentSize;
+
+            FileChannel writeChannel = FileChannel.open(spillFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                //pre-size the file to the entry size (writing the last byte), so the whole entry can be mapped up front
+                if(sizeInBytes > 0)
+                    writeChannel.write(ByteBuffer.allocate(1), sizeInBytes - 1);
+
+                this.spillReadChannel = FileChannel.open(spillFilePath, StandardOpenOption.READ);
+            } catch (IOException e) {
+                writeChannel.close();
+                Files.deleteIfExists(spillFilePath);
+                throw e;
+            }
+
+            this.spillWriteChannel = writeChannel;
+            this.mappedSegments = new MappedByteBuffer[(int) ((sizeInBytes + mappedSegmentSize - 1) / mappedSegmentSize)];
+        }
+
+        /**
+         * Starts spilling the cache entry from the provided cache reader, unless another reader already did.
+         *
+         * @return true if the spill was started by this call (the provided cache reader must then stay open until the spill is done)
+         */
+        boolean startSpill(final EhcacheInputStream source, final Executor spillExecutor) {
+            synchronized (spillLock) {
+                if(spillStarted || spillDone)
+                    return false;
+
+                spillStarted = true;
+                final FileChannel writeChannel = spillWriteChannel;
+                spillWriteChannel = null;
+
+                try {
+                    spillExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            spill(source, writeChannel);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //the cache got disposed: the spill fails right away
+                    try {
+                        writeChannel.close();
+                    } catch (IOException ioe) {
+                        logger.warn("Could not close the spill file " + spillFilePath, ioe);
+                    }
+
+                    spillException = new EhcacheStreamException("Could not start the spill of the cache entry", e);
+                    spillDone = true;
+                    spillTaskDone = true;
+                    spillLock.notifyAll();
+                }
+                return true;
+            }
+        }
+
+        //copies the cache entry to the file, moving the watermark up after each buffer
+        private void spill(final EhcacheInputStream source, final FileChannel writeChannel) {
+            IOException exception = null;
+            //a pooled direct buffer for the file writes (a heap buffer would get copied in a new temporary direct buffer for each spill thread)
+            byte[] buffer = EhcacheStreamBufferPool.getInstance().acquire(COPY_BUFFER_SIZE);
+            ByteBuffer writeBuffer = EhcacheStreamBufferPool.getInstance().acquireDirect(COPY_BUFFER_SIZE);
+            try {
+                int n;
+                while (!aborted && (n = source.read(buffer, 0, COPY_BUFFER_SIZE)) > -1) {
+                    writeBuffer.clear();
+                    writeBuffer.put(buffer, 0, n);
+                    writeBuffer.flip();
+                    while (writeBuffer.hasRemaining()) {
+                        writeChannel.write(writeBuffer);
+                    }
+
+                    synchronized (spillLock) {
+                        spilledBytes += n;
+                        spillLock.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                exception = e;
+            } catch (RuntimeException e) {
+                exception = new EhcacheStreamException("Unexpected error during the spill of the cache entry", e);
+            } finally {
+                EhcacheStreamBufferPool.getInstance().release(buffer);
+                EhcacheStreamBufferPool.getInstance().releaseDirect(writeBuffer);
+
+                try {
+                    writeChannel.close();
+                } catch (IOException e) {
+                    if(null == exception)
+                        exception = e;
+                }
+
+                boolean closeSource;
+                boolean deleteFile;
+                synchronized (spillLock) {
+                    spillException = exception;
+                    spillDone = true;
+                    closeSource = sourceReleased;
+                    deleteFile = deleteOnSpillDone;
+                    spillLock.notifyAll();
+                }
+
+                if(isDebug)
+                    logger.debug("Spill of key={} to {} done: {} bytes", EhcacheStreamUtilsInternal.toStringSafe(source.getPublicCacheKey()), spillFilePath, spilledBytes);
+
+                try {
+                    if (closeSource)
+                        source.close();
+                } catch (Exception e) {
+                    logger.warn("Could not close the cache reader of the spill file " + spillFilePath, e);
+                } finally {
+                    if (deleteFile)
+                        deleteFile();
+
+                    synchronized (spillLock) {
+                        spillTaskDone = true;
+                        spillLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Hands the cache reader feeding the spill over to the spill, which closes it when done
+         *
+         * @return true if the spill took it, false if the spill is done already (the caller still has to close it)
+         */
+        boolean releaseSource() {
+            synchronized (spillLock) {
+                if(spillDone)
+                    return false;
+
+                sourceReleased = true;
+                return true;
+            }
+        }
+
+        /**
+         * Waits for the spill to get past the read position
+         *
+         * @return the number of bytes that can be read at the read position, or -1 at the end of the entry
+         */
+        long awaitSpilledBytes(final long readPosition) throws IOException {
+            synchronized (spillLock) {
+                while (spilledBytes <= readPosition && !spillDone) {
+                    try {
+                        spillLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the spill of the cache entry");
+                    }
+                }
+
+                if (spilledBytes > readPosition)
+                    return spilledBytes - readPosition;
+
+                if (null != spillException)
+                    throw new EhcacheStreamException("Could not spill the cache entry to disk", spillException);
+
+                if (aborted)
+                    throw new EhcacheStreamException("The spill of the cache entry was aborted");
+
+                return -1;
+            }
+        }
+
+        /**
+         * Copies spilled bytes at the read position into the buffer, from the mapped segment containing the read position
+         * (the bytes past the pre-sized length, if any, are read through the channel)
+         */
+        int read(final byte[] b, final int off, final int len, final long readPosition) throws IOException {
+            if(readPosition >= sizeInBytes)
+                return spillReadChannel.read(ByteBuffer.wrap(b, off, len), readPosition);
+
+            int segmentIndex = (int) (readPosition / mappedSegmentSize);
+            MappedByteBuffer segment;
+            synchronized (spillLock) {
+                segment = mappedSegments[segmentIndex];
+                if (null == segment) {
+                    long segmentStart = (long) segmentIndex * mappedSegmentSize;
+                    segment = spillReadChannel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(mappedSegmentSize, sizeInBytes - segmentStart));
+                    mappedSegments[segmentIndex] = segment;
+                }
+            }
+
+            int segmentOffset = (int) (readPosition % mappedSegmentSize);
+            int n = Math.min(len, segment.limit() - segmentOffset);
+
+            //each read works on its own view of the shared mapping
+            ByteBuffer slice = segment.duplicate();
+            slice.position(segmentOffset);
+            slice.get(b, off, n);
+            return n;
+        }
+
+        /*package protected*/ Path getSpillFilePath() {
+            return spillFilePath;
+        }
+
+        /*package protected*/ long getSpilledBytes() {
+            synchronized (spillLock) {
+                return spilledBytes;
+            }
+        }
+
+        boolean isDone() {
+            synchronized (spillLock) {
+                return spillDone;
+            }
+        }
+
+        boolean isComplete() {
+            synchronized (spillLock) {
+                return spillDone && null == spillException && !aborted;
+            }
+        }
+
+        boolean isFailed() {
+            synchronized (spillLock) {
+                return null != spillException || aborted;
+            }
+        }
+
+        void abort() {
+            aborted = true;
+        }
+
+        //waits for the spill task to be over (it stops after the current buffer if aborted)
+        void awaitDone() throws InterruptedIOException {
+            synchronized (spillLock) {
+                while (spillStarted && !spillTaskDone) {
+                    try {
+                        spillLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the spill of the cache entry to stop");
+                    }
+                }
+            }
+        }
+
+        //only called once no reader uses it anymore
+        private void delete() {
+            if(isDebug)
+                logger.debug("Deleting spill file {}", spillFilePath);
+
+            boolean spillRunning;
+            synchronized (spillLock) {
+                //the mapped segments get unmapped when garbage collected
+                mappedSegments = null;
+
+                //the spill still writes the file: it deletes it when done
+                spillRunning = spillStarted && !spillDone;
+                deleteOnSpillDone = spillRunning;
+            }
+
+            try {
+                if(null != spillWriteChannel)
+                    spillWriteChannel.close();
+                spillReadChannel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the spill file " + spillFilePath, e);
+            }
+
+            if(!spillRunning)
+                deleteFile();
+        }
+
+        private void deleteFile() {
+            try {
+                Files.deleteIfExists(spillFilePath);
+            } catch (IOException e) {
+                logger.warn("Could not delete the spill file " + spillFilePath, e);
+            }
+        }
+    }
+}
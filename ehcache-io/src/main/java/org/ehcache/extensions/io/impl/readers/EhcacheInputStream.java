@@ -2,6 +2,7 @@ package org.ehcache.extensions.io.impl.readers;
 
 import org.ehcache.extensions.io.EhcacheStreamException;
 import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +53,15 @@ public abstract class EhcacheInputStream extends InputStream {
         return ehcacheStreamReader.getPublicCacheKey();
     }
 
+    /*package protected*/ EhcacheStreamMaster getActiveStreamMaster(){
+        return ehcacheStreamReader.getActiveStreamMaster();
+    }
+
+    //a reader holding an explicit read lock has to be closed by the thread that opened it
+    /*package protected*/ boolean isCloseThreadBound(){
+        return ehcacheStreamReader instanceof EhcacheStreamReaderWithSingleLock;
+    }
+
     @Override
     public abstract int read() throws EhcacheStreamException;
 
@@ -30,6 +30,11 @@ import org.slf4j.LoggerFactory;
         return ehcacheStreamReader.read(b, off, len);
     }
 
+    @Override
+    public long skip(long n) throws EhcacheStreamException {
+        return ehcacheStreamReader.skip(n);
+    }
+
     @Override
     public boolean markSupported() {
         return false;
@@ -0,0 +1,112 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Created by fabien.sanglier on 11/9/18.
+ */
+
+/*
+ * Coalesces the concurrent fetches of the same chunk within this JVM (single flight):
+ * the first reader asking for a chunk (of a given stream master version) fetches it from the cache,
+ * and all the readers asking for that same chunk while that fetch is in flight wait for it and share its result.
+ * The fetch is forgotten as soon as it completes (this is not a cache: the next fetch of that chunk goes to the cache again).
+ */
+/*package protected*/ class EhcacheStreamChunkFetchCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamChunkFetchCoalescer.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final EhcacheStreamChunkFetchCoalescer instance = new EhcacheStreamChunkFetchCoalescer();
+
+    private final ConcurrentHashMap<FetchKey, FutureTask<EhcacheStreamChunk>> inFlightFetches = new ConcurrentHashMap<FetchKey, FutureTask<EhcacheStreamChunk>>();
+
+    /*package protected*/ static EhcacheStreamChunkFetchCoalescer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Runs the fetch of that chunk, or waits for the same fetch already in flight (in which case the provided fetch is not run).
+     * The returned chunk is shared: it must not be modified.
+     */
+    EhcacheStreamChunk fetch(final FetchKey fetchKey, final Callable<EhcacheStreamChunk> fetch) throws EhcacheStreamException {
+        FutureTask<EhcacheStreamChunk> fetchTask = new FutureTask<EhcacheStreamChunk>(fetch);
+        FutureTask<EhcacheStreamChunk> inFlightFetchTask = inFlightFetches.putIfAbsent(fetchKey, fetchTask);
+
+        if(null == inFlightFetchTask) {
+            //this thread does the fetch for everybody
+            try {
+                fetchTask.run();
+            } finally {
+                inFlightFetches.remove(fetchKey, fetchTask);
+            }
+            inFlightFetchTask = fetchTask;
+        } else if(isDebug) {
+            logger.debug("Joining the in-flight fetch of chunk [{}] for key={}", fetchKey.chunkIndex, EhcacheStreamUtilsInternal.toStringSafe(fetchKey.cacheKey));
+        }
+
+        try {
+            return inFlightFetchTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EhcacheStreamException("Interrupted while waiting for the fetch of the cache chunk", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            if(cause instanceof EhcacheStreamException)
+                throw (EhcacheStreamException) cause;
+            throw new EhcacheStreamException("Could not fetch the cache chunk", cause);
+        }
+    }
+
+    /*package protected*/ int getInFlightCount() {
+        return inFlightFetches.size();
+    }
+
+    /*package protected*/ static class FetchKey {
+        private final String cacheName;
+        private final Object cacheKey;
+        private final int chunkIndex;
+        private final long version;
+
+        FetchKey(String cacheName, Object cacheKey, int chunkIndex, long version) {
+            this.cacheName = cacheName;
+            this.cacheKey = cacheKey;
+            this.chunkIndex = chunkIndex;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            FetchKey that = (FetchKey) o;
+
+            if (chunkIndex != that.chunkIndex) return false;
+            if (version != that.version) return false;
+            if (cacheName != null ? !cacheName.equals(that.cacheName) : that.cacheName != null) return false;
+            return cacheKey != null ? cacheKey.equals(that.cacheKey) : that.cacheKey == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cacheName != null ? cacheName.hashCode() : 0;
+            result = 31 * result + (cacheKey != null ? cacheKey.hashCode() : 0);
+            result = 31 * result + chunkIndex;
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            return result;
+        }
+    }
+}
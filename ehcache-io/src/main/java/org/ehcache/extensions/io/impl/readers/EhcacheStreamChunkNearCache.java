@@ -0,0 +1,167 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by fabien.sanglier on 11/8/18.
+ */
+
+/*
+ * An in-JVM near cache of the stream chunk payloads, for the caches where every chunk get goes to the server (clustered, without local cache).
+ * A near cached payload is tagged with the version of the stream master entry it was read for, and with its checksum:
+ * it is only served to the readers that opened that same version (and the chunk descriptor still has that checksum), and dropped otherwise.
+ * So once a stream version is near cached, only the master entry is read remotely.
+ * The near cache is bounded by its total payload size (the least recently used payloads are evicted first).
+ */
+/*package protected*/ class EhcacheStreamChunkNearCache {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamChunkNearCache.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final EhcacheStreamChunkNearCache instance = new EhcacheStreamChunkNearCache();
+
+    //access ordered: the least recently used payloads come first
+    private final LinkedHashMap<ChunkKey, NearCachedChunk> nearCachedChunks = new LinkedHashMap<ChunkKey, NearCachedChunk>(16, 0.75f, true);
+    private long sizeInBytes = 0L;
+
+    private long hits = 0L;
+    private long misses = 0L;
+
+    /*package protected*/ static EhcacheStreamChunkNearCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the near cached payload of that chunk, or null if it is not near cached for that stream master version and checksum
+     */
+    synchronized byte[] get(final String cacheName, final Object cacheKey, final int chunkIndex, final long version, final long checksum) {
+        ChunkKey chunkKey = new ChunkKey(cacheName, cacheKey, chunkIndex);
+        NearCachedChunk nearCachedChunk = nearCachedChunks.get(chunkKey);
+
+        if(null != nearCachedChunk && (nearCachedChunk.version != version || nearCachedChunk.checksum != checksum)) {
+            //the stream entry changed since
+            remove(chunkKey);
+            nearCachedChunk = null;
+        }
+
+        if(null == nearCachedChunk) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return nearCachedChunk.chunk;
+    }
+
+    /**
+     * Near caches a chunk payload read from the cache.
+     * The payload must not be modified afterwards (it is shared by all the readers of that chunk).
+     * The payload is only kept if it matches the checksum of its chunk descriptor.
+     *
+     * @param   maxSizeInBytes  the max total size of the near cached payloads
+     */
+    void put(final String cacheName, final Object cacheKey, final int chunkIndex, final long version, final long checksum, final byte[] chunk, final long maxSizeInBytes) {
+        if(chunk.length > maxSizeInBytes)
+            return;
+
+        //the chunk entry could have been replaced since the master entry was read
+        //(checked before taking the near cache lock: the checksum goes through the whole payload)
+        if(EhcacheStreamUtilsInternal.createChunkCRC32(chunk) != checksum) {
+            if(isDebug)
+                logger.debug("Not near caching chunk [{}] of key={}: checksum mismatch", chunkIndex, EhcacheStreamUtilsInternal.toStringSafe(cacheKey));
+            return;
+        }
+
+        ChunkKey chunkKey = new ChunkKey(cacheName, cacheKey, chunkIndex);
+        synchronized (this) {
+            remove(chunkKey);
+            nearCachedChunks.put(chunkKey, new NearCachedChunk(version, checksum, chunk));
+            sizeInBytes += chunk.length;
+
+            Iterator<Map.Entry<ChunkKey, NearCachedChunk>> iterator = nearCachedChunks.entrySet().iterator();
+            while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+                sizeInBytes -= iterator.next().getValue().chunk.length;
+                iterator.remove();
+            }
+        }
+    }
+
+    //with the near cache lock held
+    private void remove(final ChunkKey chunkKey) {
+        NearCachedChunk removed = nearCachedChunks.remove(chunkKey);
+        if(null != removed)
+            sizeInBytes -= removed.chunk.length;
+    }
+
+    /*package protected*/ synchronized void clear() {
+        nearCachedChunks.clear();
+        sizeInBytes = 0L;
+        hits = 0L;
+        misses = 0L;
+    }
+
+    /*package protected*/ synchronized int getChunkCount() {
+        return nearCachedChunks.size();
+    }
+
+    /*package protected*/ synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /*package protected*/ synchronized long getHits() {
+        return hits;
+    }
+
+    /*package protected*/ synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class ChunkKey {
+        private final String cacheName;
+        private final Object cacheKey;
+        private final int chunkIndex;
+
+        ChunkKey(String cacheName, Object cacheKey, int chunkIndex) {
+            this.cacheName = cacheName;
+            this.cacheKey = cacheKey;
+            this.chunkIndex = chunkIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ChunkKey that = (ChunkKey) o;
+
+            if (chunkIndex != that.chunkIndex) return false;
+            if (cacheName != null ? !cacheName.equals(that.cacheName) : that.cacheName != null) return false;
+            return cacheKey != null ? cacheKey.equals(that.cacheKey) : that.cacheKey == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cacheName != null ? cacheName.hashCode() : 0;
+            result = 31 * result + (cacheKey != null ? cacheKey.hashCode() : 0);
+            result = 31 * result + chunkIndex;
+            return result;
+        }
+    }
+
+    private static class NearCachedChunk {
+        private final long version;
+        private final long checksum;
+        private final byte[] chunk;
+
+        NearCachedChunk(long version, long checksum, byte[] chunk) {
+            this.version = version;
+            this.checksum = checksum;
+            this.chunk = chunk;
+        }
+    }
+}
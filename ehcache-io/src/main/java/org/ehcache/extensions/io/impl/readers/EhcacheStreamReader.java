@@ -1,6 +1,7 @@
 package org.ehcache.extensions.io.impl.readers;
 
 import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
 
 import java.io.Closeable;
 
@@ -16,9 +17,14 @@ public interface EhcacheStreamReader extends Closeable {
 
     int read(byte[] b, int off, int len) throws EhcacheStreamException;
 
+    long skip(long n) throws EhcacheStreamException;
+
     void open() throws EhcacheStreamException;
 
     void close() throws EhcacheStreamException;
 
     Object getPublicCacheKey();
+
+    //the copy of the stream master entry this reader opened (null if not open, or if the entry does not exist)
+    EhcacheStreamMaster getActiveStreamMaster();
 }
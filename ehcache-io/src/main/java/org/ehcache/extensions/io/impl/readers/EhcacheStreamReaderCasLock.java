@@ -3,6 +3,7 @@ package org.ehcache.extensions.io.impl.readers;
 import net.sf.ehcache.Ehcache;
 import org.ehcache.extensions.io.EhcacheStreamException;
 import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,23 +38,37 @@ import org.slf4j.LoggerFactory;
         if(isDebug)
             logger.debug("In oneTimeInit for key={}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
 
-        activeStreamMaster = getEhcacheStreamUtils().openReadOnMaster(
-                getPublicCacheKey(),
-                openTimeoutMillis
-        );
+        //single get first: a missing entry or a committed inline entry does not need anything more
+        EhcacheStreamMaster currentStreamMaster = getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey());
+        if(null == currentStreamMaster || isCommittedInlineStreamMaster(currentStreamMaster)) {
+            activeStreamMaster = EhcacheStreamMaster.deepCopy(currentStreamMaster);
+
+            //no read to hold on the master: only its read time gets stamped (or recorded, if the read times get flushed later)
+            if(null != activeStreamMaster)
+                getEhcacheStreamUtils().recordRead(getPublicCacheKey(), openTimeoutMillis, currentStreamMaster);
+        } else {
+            activeStreamMaster = getEhcacheStreamUtils().openReadOnMaster(
+                    getPublicCacheKey(),
+                    openTimeoutMillis,
+                    currentStreamMaster
+            );
+
+            //EhcacheStreamReader could be null if the entry was removed in the meantime
+            if(null != activeStreamMaster) {
+                if(activeStreamMaster.getReaders() == 0)
+                    throw new EhcacheStreamIllegalStateException("EhcacheStreamReader should not have 0 reader at this point");
+
+                //we want to make sure that we only close the master if it was mutated properly here (otherwise, the read counts would not be accurate)
+                //so let's mark here that we're mutated properly...and use that flag in the close
+                isOpenMasterMutated = true;
+
+                //held until the close: keep its lease alive
+                getEhcacheStreamUtils().holdLease(getPublicCacheKey(), false);
+            }
+        }
 
         if(isDebug)
             logger.debug("Opened reader for key={} is {}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()), EhcacheStreamUtilsInternal.toStringSafe(activeStreamMaster));
-
-        //EhcacheStreamReader could be null if the entry was not found in cache
-        if(null != activeStreamMaster) {
-            if(activeStreamMaster.getReaders() == 0)
-                throw new EhcacheStreamIllegalStateException("EhcacheStreamReader should not have 0 reader at this point");
-
-            //we want to make sure that we only close the master if it was mutated properly here (otherwise, the read counts would not be accurate)
-            //so let's mark here that we're mutated properly...and use that flag in the close
-            isOpenMasterMutated = true;
-        }
     }
 
     @Override
@@ -71,6 +86,9 @@ import org.slf4j.LoggerFactory;
                 );
             }
         } finally {
+            if (isOpenMasterMutated)
+                getEhcacheStreamUtils().releaseLease(getPublicCacheKey(), false);
+
             //clean the internal vars
             isOpenMasterMutated = false;
         }
@@ -40,10 +40,21 @@ import org.slf4j.LoggerFactory;
         if(isDebug)
             logger.debug("In oneTimeInit for key={}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
 
-        activeStreamMaster = getEhcacheStreamUtils().openSilentReadOnMaster(
-                getPublicCacheKey(),
-                openTimeoutMillis
-        );
+        //single get first: a missing entry or a committed inline entry does not need anything more
+        EhcacheStreamMaster currentStreamMaster = getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey());
+        if(null == currentStreamMaster || isCommittedInlineStreamMaster(currentStreamMaster)) {
+            activeStreamMaster = EhcacheStreamMaster.deepCopy(currentStreamMaster);
+
+            //no read to hold on the master: only its read time gets stamped (or recorded, if the read times get flushed later)
+            if(null != activeStreamMaster)
+                getEhcacheStreamUtils().recordRead(getPublicCacheKey(), openTimeoutMillis, currentStreamMaster);
+        } else {
+            activeStreamMaster = getEhcacheStreamUtils().openSilentReadOnMaster(
+                    getPublicCacheKey(),
+                    openTimeoutMillis,
+                    currentStreamMaster
+            );
+        }
     }
 
     @Override
@@ -68,14 +79,17 @@ import org.slf4j.LoggerFactory;
         //because we didn't increment the reader count, we need to check the cache to see if anything has changed since being open
         //And since we're not really atomic anyway (since we didn't lock anything in the open()), a simple get and compare would do i think...
         //overall, let's compare if the cache entry has not been written since we opened (the lastWritten bit would have changed)
-        EhcacheStreamMaster currentStreamMaster = getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey());
-        boolean isWeaklyConsistent =
-                currentStreamMaster != null &&
-                        currentStreamMaster.getChunkCount() == activeStreamMaster.getChunkCount() &&
-                        currentStreamMaster.getLastWrittenTime() == activeStreamMaster.getLastWrittenTime();
-
-        if(!isWeaklyConsistent)
-            throw new EhcacheStreamIllegalStateException("Concurrent modification exception: EhcacheStreamMaster has changed since opening: a concurrent write must have happened. Consider retrying in a bit.");
+        //No need for inline entries though: all the bytes are already in our own copy of the master
+        if(!activeStreamMaster.hasInlineChunk()) {
+            EhcacheStreamMaster currentStreamMaster = getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey());
+            boolean isWeaklyConsistent =
+                    currentStreamMaster != null &&
+                            currentStreamMaster.getChunkCount() == activeStreamMaster.getChunkCount() &&
+                            currentStreamMaster.getLastWrittenTime() == activeStreamMaster.getLastWrittenTime();
+
+            if (!isWeaklyConsistent)
+                throw new EhcacheStreamIllegalStateException("Concurrent modification exception: EhcacheStreamMaster has changed since opening: a concurrent write must have happened. Consider retrying in a bit.");
+        }
 
         try {
             // copy the cache chunks into the buffer based on the internal index tracker
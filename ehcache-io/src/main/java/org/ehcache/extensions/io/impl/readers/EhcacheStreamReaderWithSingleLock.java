@@ -19,13 +19,21 @@ import org.slf4j.LoggerFactory;
 
     private final long openTimeoutMillis;
 
+    //a missing entry is then opened as a null stream entry without taking the read lock
+    private final boolean allowNullStream;
+
     public EhcacheStreamReaderWithSingleLock(Ehcache cache, Object cacheKey, long openTimeoutMillis) {
+        this(cache, cacheKey, openTimeoutMillis, false);
+    }
+
+    public EhcacheStreamReaderWithSingleLock(Ehcache cache, Object cacheKey, long openTimeoutMillis, boolean allowNullStream) {
         super(cache, cacheKey);
 
         if(openTimeoutMillis <= 0)
             throw new EhcacheStreamIllegalStateException(String.format("Open timeout [%d] may not be lower than 0", openTimeoutMillis));
 
         this.openTimeoutMillis = openTimeoutMillis;
+        this.allowNullStream = allowNullStream;
     }
 
     @Override
@@ -33,6 +41,12 @@ import org.slf4j.LoggerFactory;
         if(isDebug)
             logger.debug("In oneTimeInit for key={}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
 
+        //single get first if a null stream is allowed (same check as a containStreamEntry() before the open): a missing entry does not need the read lock
+        if(allowNullStream && null == getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey())) {
+            activeStreamMaster = null;
+            return;
+        }
+
         getEhcacheStreamUtils().acquireReadOnMaster(getPublicCacheKey(), openTimeoutMillis);
 
         isOpenLockAcquired = true;
@@ -2,12 +2,14 @@ package org.ehcache.extensions.io.impl.readers;
 
 import net.sf.ehcache.Ehcache;
 import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudget;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.PooledBufferedInputStream;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 
@@ -23,8 +25,17 @@ public class EhcacheStreamReadersFactory {
      * @return    a valid IEhcacheStreamReader object
      */
     public static EhcacheStreamReader getReader(Ehcache cache, Object cacheKey, long openTimeoutMillis) {
+        return getReader(cache, cacheKey, openTimeoutMillis, false);
+    }
+
+    /**
+     * Get an IEhcacheStreamReader object backed by Ehcache.
+     *
+     * @return    a valid IEhcacheStreamReader object
+     */
+    public static EhcacheStreamReader getReader(Ehcache cache, Object cacheKey, long openTimeoutMillis, boolean allowNullStream) {
         EhcacheStreamReader ehcacheStreamReader;
-        PropertyUtils.ConcurrencyMode concurrencyMode = PropertyUtils.getEhcacheIOStreamsConcurrencyMode();
+        PropertyUtils.ConcurrencyMode concurrencyMode = EhcacheStreamManager.getInstance(cache).getConcurrencyMode();
         if(logger.isDebugEnabled())
             logger.debug("Creating a stream reader with Concurrency mode: {}", EhcacheStreamUtilsInternal.toStringSafe(concurrencyMode));
 
@@ -33,7 +44,7 @@ public class EhcacheStreamReadersFactory {
                 ehcacheStreamReader = new EhcacheStreamReaderCasLock(cache, cacheKey, openTimeoutMillis);
                 break;
             case READ_COMMITTED_WITHLOCKS:
-                ehcacheStreamReader = new EhcacheStreamReaderWithSingleLock(cache, cacheKey, openTimeoutMillis);
+                ehcacheStreamReader = new EhcacheStreamReaderWithSingleLock(cache, cacheKey, openTimeoutMillis, allowNullStream);
                 break;
             case WRITE_PRIORITY:
                 ehcacheStreamReader = new EhcacheStreamReaderNoLock(cache, cacheKey, openTimeoutMillis);
@@ -51,40 +62,113 @@ public class EhcacheStreamReadersFactory {
      * @return    a valid InputStream object
      */
     public static InputStream getStream(Ehcache cache, Object cacheKey, long openTimeoutMillis, int streamBufferSize) throws EhcacheStreamException {
+        return getStream(cache, cacheKey, openTimeoutMillis, streamBufferSize, false);
+    }
+
+    /**
+     * Get an InputStream object backed by Ehcache.
+     * With allowNullStream, the reader gets opened first, and the absence of a stream entry is decided from that same open
+     * (no separate lookup: a missing entry costs a single master get, and does not touch the memory budget).
+     *
+     * @return    a valid InputStream object, or null if allowNullStream and there is no stream entry for that key
+     */
+    public static InputStream getStream(Ehcache cache, Object cacheKey, long openTimeoutMillis, int streamBufferSize, boolean allowNullStream) throws EhcacheStreamException {
         InputStream inputStream = null;
 
-        //get a reader and try opening now
-        EhcacheStreamReader ehcacheStreamReader = getReader(cache, cacheKey, openTimeoutMillis);
-
-        if(PropertyUtils.DEFAULT_INPUTSTREAM_INTERNAL_BUFFERED && streamBufferSize > 0) {
-            EhcacheInputStream ehcacheInputStream = new EhcacheBufferedInputStream(streamBufferSize, ehcacheStreamReader);
-            inputStream = ehcacheInputStream;
-            if(PropertyUtils.getInputStreamFileAdapterEnabled()){
-                inputStream = new EhcacheFileAdapterInputStream(
-                        ehcacheInputStream,
-                        PropertyUtils.getInputStreamFileAdapterPath(),
-                        PropertyUtils.getInputStreamFileAdapterThresholdSize()
-                );
-
-                if(streamBufferSize > 0) {
-                    inputStream = new BufferedInputStream(inputStream, streamBufferSize);
+        //get a reader (opened now with allowNullStream, otherwise on first read)
+        EhcacheStreamReader ehcacheStreamReader = getReader(cache, cacheKey, openTimeoutMillis, allowNullStream);
+        if(allowNullStream && !openHasStreamEntry(ehcacheStreamReader))
+            return null;
+
+        //the buffer gets reserved from the memory budget on a hit only
+        //(before the reader gets opened when possible, not to wait for memory while holding the entry)
+        int bufferSize;
+        try {
+            bufferSize = (streamBufferSize > 0) ? EhcacheStreamMemoryBudget.getInstance().reserve(streamBufferSize) : streamBufferSize;
+        } catch (EhcacheStreamException e) {
+            //only the reader opened for the allowNullStream check holds the entry already
+            if(allowNullStream)
+                closeQuietly(ehcacheStreamReader);
+            throw e;
+        }
+
+        EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        boolean budgetHandedOver = false;
+        try {
+            if(PropertyUtils.DEFAULT_INPUTSTREAM_INTERNAL_BUFFERED && bufferSize > 0) {
+                EhcacheInputStream ehcacheInputStream = new EhcacheBufferedInputStream(bufferSize, bufferSize, ehcacheStreamReader);
+                budgetHandedOver = true;
+                inputStream = ehcacheInputStream;
+                if(ehcacheStreamManager.getInputStreamFileAdapterEnabled()){
+                    inputStream = new EhcacheFileAdapterInputStream(
+                            cache.getName(),
+                            ehcacheInputStream,
+                            ehcacheStreamManager.getInputStreamFileAdapterPath(),
+                            ehcacheStreamManager.getInputStreamFileAdapterThresholdSize(),
+                            ehcacheStreamManager.getFileAdapterSpillExecutor()
+                    );
+
+                    //the outer buffer takes its own share of the memory budget
+                    int outerBufferSize;
+                    try {
+                        outerBufferSize = EhcacheStreamMemoryBudget.getInstance().reserve(bufferSize);
+                    } catch (EhcacheStreamException e) {
+                        closeQuietly(inputStream);
+                        throw e;
+                    }
+                    inputStream = new PooledBufferedInputStream(inputStream, outerBufferSize, outerBufferSize);
                 }
-            }
 
-        } else {
-            EhcacheInputStream ehcacheInputStream = new EhcacheRawInputStream(ehcacheStreamReader);
-            inputStream = ehcacheInputStream;
-            if(PropertyUtils.getInputStreamFileAdapterEnabled()){
-                inputStream = new EhcacheFileAdapterInputStream(
-                        ehcacheInputStream,
-                        PropertyUtils.getInputStreamFileAdapterPath(),
-                        PropertyUtils.getInputStreamFileAdapterThresholdSize()
-                );
-            }
-            if(streamBufferSize > 0) {
-                inputStream = new BufferedInputStream(inputStream, streamBufferSize);
+            } else {
+                EhcacheInputStream ehcacheInputStream = new EhcacheRawInputStream(ehcacheStreamReader);
+                inputStream = ehcacheInputStream;
+                if(ehcacheStreamManager.getInputStreamFileAdapterEnabled()){
+                    inputStream = new EhcacheFileAdapterInputStream(
+                            cache.getName(),
+                            ehcacheInputStream,
+                            ehcacheStreamManager.getInputStreamFileAdapterPath(),
+                            ehcacheStreamManager.getInputStreamFileAdapterThresholdSize(),
+                            ehcacheStreamManager.getFileAdapterSpillExecutor()
+                    );
+                }
+                if(bufferSize > 0) {
+                    inputStream = new PooledBufferedInputStream(inputStream, bufferSize, bufferSize);
+                    budgetHandedOver = true;
+                }
             }
+        } finally {
+            if(!budgetHandedOver)
+                EhcacheStreamMemoryBudget.getInstance().release(bufferSize);
         }
         return inputStream;
     }
+
+    //opens the reader (the stream opening it again later is a no-op), and closes it right away if there is no stream entry
+    private static boolean openHasStreamEntry(EhcacheStreamReader ehcacheStreamReader) throws EhcacheStreamException {
+        boolean hasStreamEntry = false;
+        try {
+            ehcacheStreamReader.open();
+            hasStreamEntry = null != ehcacheStreamReader.getActiveStreamMaster();
+        } finally {
+            if(!hasStreamEntry)
+                closeQuietly(ehcacheStreamReader);
+        }
+        return hasStreamEntry;
+    }
+
+    private static void closeQuietly(EhcacheStreamReader ehcacheStreamReader) {
+        try {
+            ehcacheStreamReader.close();
+        } catch (Exception e) {
+            logger.error("Error during internal stream reader close", e);
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (Exception e) {
+            logger.error("Error during internal stream close", e);
+        }
+    }
 }
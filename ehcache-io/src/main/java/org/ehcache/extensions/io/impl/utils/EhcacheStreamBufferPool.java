@@ -0,0 +1,230 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by fabien.sanglier on 11/12/18.
+ */
+
+/*
+ * A pool of the stream buffers (the internal buffers of the streams and the copy buffers), shared by all the streams of this JVM,
+ * so the short lived streams reuse the buffers of the closed ones instead of allocating new ones.
+ *
+ * The buffers are pooled in power of 2 size classes (from 1KB up to 16MB): an acquired buffer can be bigger than requested.
+ * A released buffer is kept for reuse as long as the total size of the pooled buffers (heap and direct) fits within the max size,
+ * otherwise it is left to the GC. The buffers bigger than the largest size class are never pooled.
+ *
+ * A buffer must be released only once, and not used anymore after that.
+ *
+ * The pool settings (system properties) are read once, and read again only on reloadSettings(): the pool is hit on every stream open and close.
+ */
+public class EhcacheStreamBufferPool {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamBufferPool.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final int MIN_SIZE_CLASS_SHIFT = 10; // 1KB
+    private static final int MAX_SIZE_CLASS_SHIFT = 24; // 16MB
+    private static final int SIZE_CLASS_COUNT = MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1;
+
+    private static final EhcacheStreamBufferPool instance = new EhcacheStreamBufferPool();
+
+    private final ConcurrentLinkedQueue<byte[]>[] heapBuffers = createSizeClasses();
+    private final ConcurrentLinkedQueue<ByteBuffer>[] directBuffers = createSizeClasses();
+
+    private final AtomicLong pooledSizeInBytes = new AtomicLong(0L);
+    private final AtomicLong acquireCount = new AtomicLong(0L);
+    private final AtomicLong reuseCount = new AtomicLong(0L);
+    private final AtomicLong releaseCount = new AtomicLong(0L);
+    private final AtomicLong discardCount = new AtomicLong(0L);
+
+    private volatile boolean enabled;
+    private volatile long maxSizeInBytes;
+
+    private EhcacheStreamBufferPool() {
+        reloadSettings();
+    }
+
+    public static EhcacheStreamBufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reads the pool settings again from the system properties (the buffers already pooled are kept)
+     */
+    public void reloadSettings() {
+        this.maxSizeInBytes = PropertyUtils.getBufferPoolMaxSize();
+        this.enabled = PropertyUtils.getBufferPoolEnabled();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ConcurrentLinkedQueue<T>[] createSizeClasses() {
+        ConcurrentLinkedQueue<T>[] sizeClasses = new ConcurrentLinkedQueue[SIZE_CLASS_COUNT];
+        for(int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            sizeClasses[i] = new ConcurrentLinkedQueue<T>();
+        }
+        return sizeClasses;
+    }
+
+    //the smallest size class that fits that size, or -1 if too big to be pooled
+    private static int getSizeClass(int size) {
+        if(size <= (1 << MIN_SIZE_CLASS_SHIFT))
+            return 0;
+
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return (shift <= MAX_SIZE_CLASS_SHIFT) ? shift - MIN_SIZE_CLASS_SHIFT : -1;
+    }
+
+    //the size class of a released buffer, or -1 if it is not one of the size classes
+    private static int getExactSizeClass(int capacity) {
+        int sizeClass = getSizeClass(capacity);
+        return (sizeClass >= 0 && capacity == 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT)) ? sizeClass : -1;
+    }
+
+    /**
+     * @param   size    the min size of the buffer
+     * @return  a heap buffer of at least that size (the content is not cleared)
+     */
+    public byte[] acquire(int size) {
+        if(size < 0)
+            throw new IllegalArgumentException("Buffer size < 0");
+
+        acquireCount.incrementAndGet();
+
+        int sizeClass = getSizeClass(size);
+        if(sizeClass < 0 || !enabled)
+            return new byte[size];
+
+        byte[] buffer = heapBuffers[sizeClass].poll();
+        if(null != buffer) {
+            pooledSizeInBytes.addAndGet(-buffer.length);
+            reuseCount.incrementAndGet();
+            return buffer;
+        }
+
+        return new byte[1 << (sizeClass + MIN_SIZE_CLASS_SHIFT)];
+    }
+
+    /**
+     * Gives the buffer back for reuse
+     */
+    public void release(byte[] buffer) {
+        if(null == buffer)
+            return;
+
+        releaseCount.incrementAndGet();
+
+        int sizeClass = getExactSizeClass(buffer.length);
+        if(sizeClass >= 0 && reserve(buffer.length))
+            heapBuffers[sizeClass].offer(buffer);
+    }
+
+    /**
+     * @param   size    the min size of the buffer
+     * @return  a cleared direct buffer of at least that size, with its limit set to that size
+     */
+    public ByteBuffer acquireDirect(int size) {
+        if(size < 0)
+            throw new IllegalArgumentException("Buffer size < 0");
+
+        acquireCount.incrementAndGet();
+
+        int sizeClass = getSizeClass(size);
+        if(sizeClass < 0 || !enabled)
+            return ByteBuffer.allocateDirect(size);
+
+        ByteBuffer buffer = directBuffers[sizeClass].poll();
+        if(null != buffer) {
+            pooledSizeInBytes.addAndGet(-buffer.capacity());
+            reuseCount.incrementAndGet();
+        } else {
+            buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_CLASS_SHIFT));
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives the direct buffer back for reuse
+     */
+    public void releaseDirect(ByteBuffer buffer) {
+        if(null == buffer)
+            return;
+
+        releaseCount.incrementAndGet();
+
+        int sizeClass = getExactSizeClass(buffer.capacity());
+        if(sizeClass >= 0 && buffer.isDirect() && reserve(buffer.capacity()))
+            directBuffers[sizeClass].offer(buffer);
+    }
+
+    //accounts for a released buffer in the pooled size, unless it would go over the max size
+    private boolean reserve(int capacity) {
+        if(enabled) {
+            final long maxSizeInBytes = this.maxSizeInBytes;
+            long current;
+            while ((current = pooledSizeInBytes.get()) + capacity <= maxSizeInBytes) {
+                if (pooledSizeInBytes.compareAndSet(current, current + capacity))
+                    return true;
+            }
+        }
+
+        discardCount.incrementAndGet();
+
+        if(isDebug)
+            logger.debug("Buffer of {} bytes not pooled", capacity);
+
+        return false;
+    }
+
+    /**
+     * Drops all the pooled buffers
+     */
+    public void clear() {
+        for(int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            byte[] buffer;
+            while (null != (buffer = heapBuffers[i].poll())) {
+                pooledSizeInBytes.addAndGet(-buffer.length);
+            }
+
+            ByteBuffer directBuffer;
+            while (null != (directBuffer = directBuffers[i].poll())) {
+                pooledSizeInBytes.addAndGet(-directBuffer.capacity());
+            }
+        }
+    }
+
+    public long getPooledSizeInBytes() {
+        return pooledSizeInBytes.get();
+    }
+
+    public int getPooledBufferCount() {
+        int count = 0;
+        for(int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            count += heapBuffers[i].size() + directBuffers[i].size();
+        }
+        return count;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    public long getReleaseCount() {
+        return releaseCount.get();
+    }
+
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+}
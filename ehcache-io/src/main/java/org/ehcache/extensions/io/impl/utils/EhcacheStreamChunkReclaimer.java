@@ -0,0 +1,178 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamReclaimKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by fabien.sanglier on 11/19/18.
+ */
+
+/*
+ * The background reclaimer of the chunk entries of the removed stream entries, for a cache (one per EhcacheStreamManager),
+ * used when the async chunk reclaim is enabled: the stream removal then only removes the master entry (which makes the stream entry
+ * immediately invisible), and hands over its chunk entries to this reclaimer, so the removal time does not depend on the stream size.
+ *
+ * The chunk entries get removed in batches (one removeAll call per batch) by a single daemon thread, started on first use,
+ * at no more than the configured rate (chunks per second) so the reclaim does not compete too much with the regular cache traffic.
+ * Once all the chunks of a removed stream entry are reclaimed, its reclaim marker (see EhcacheStreamReclaimKey) gets removed.
+ *
+ * The pending reclaims are only kept in memory: the chunks not reclaimed yet when the JVM stops are left in cache.
+ */
+public class EhcacheStreamChunkReclaimer {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamChunkReclaimer.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final int RECLAIM_BATCH_SIZE = 100;
+
+    private final Ehcache cache;
+    private final long chunksPerSecond;
+
+    private final LinkedBlockingQueue<ReclaimTask> pendingTasks = new LinkedBlockingQueue<ReclaimTask>();
+    private final AtomicLong pendingChunkCount = new AtomicLong();
+    private final AtomicLong reclaimedChunkCount = new AtomicLong();
+
+    //guarded by this
+    private Thread reclaimThread;
+    private boolean stopped = false;
+    private boolean paused = false;
+
+    public EhcacheStreamChunkReclaimer(Ehcache cache, long chunksPerSecond) {
+        this.cache = cache;
+        this.chunksPerSecond = (chunksPerSecond > 0) ? chunksPerSecond : PropertyUtils.DEFAULT_REMOVE_ASYNC_RECLAIM_RATE;
+    }
+
+    /**
+     * Hands over the chunk entries of a removed stream entry, to be removed in the background.
+     * The reclaim marker of that stream entry (with the provided next chunk index as value) must already be in cache.
+     *
+     * @param   publicCacheKey      the public cache key of the removed stream entry
+     * @param   chunkIndices        the chunk indices of the removed stream entry
+     * @param   nextChunkIndex      the next chunk index of the removed stream entry (the reclaim marker value)
+     */
+    public void submit(final Object publicCacheKey, final int[] chunkIndices, final int nextChunkIndex) {
+        pendingChunkCount.addAndGet(chunkIndices.length);
+        pendingTasks.add(new ReclaimTask(publicCacheKey, chunkIndices, nextChunkIndex));
+        startIfNeeded();
+    }
+
+    public long getPendingChunkCount() {
+        return pendingChunkCount.get();
+    }
+
+    public long getReclaimedChunkCount() {
+        return reclaimedChunkCount.get();
+    }
+
+    /**
+     * Stops the reclaim thread (the chunks not reclaimed yet are left in cache)
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if(null != reclaimThread)
+            reclaimThread.interrupt();
+    }
+
+    //holds the reclaim of the pending tasks until resumed (the tasks submitted meanwhile are still queued)
+    /*package protected*/ synchronized void pause() {
+        paused = true;
+    }
+
+    /*package protected*/ synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    private synchronized void awaitResumed() throws InterruptedException {
+        while (paused) {
+            wait();
+        }
+    }
+
+    private synchronized void startIfNeeded() {
+        if(null != reclaimThread || stopped)
+            return;
+
+        reclaimThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reclaimPendingTasks();
+            }
+        }, "EhcacheStreamChunkReclaimer-" + cache.getName());
+        reclaimThread.setDaemon(true);
+        reclaimThread.start();
+    }
+
+    private void reclaimPendingTasks() {
+        try {
+            while (true) {
+                ReclaimTask task = pendingTasks.take();
+                awaitResumed();
+                try {
+                    reclaim(task);
+                } catch (InterruptedException ie) {
+                    throw ie;
+                } catch (Exception exc) {
+                    logger.warn("Could not reclaim the chunk entries of the removed stream entry {}", EhcacheStreamUtilsInternal.toStringSafe(task.publicCacheKey), exc);
+                }
+            }
+        } catch (InterruptedException ie) {
+            if (isDebug)
+                logger.debug("Stopped the chunk reclaimer of cache [{}] with [{}] chunks not reclaimed", cache.getName(), pendingChunkCount.get());
+        }
+    }
+
+    private void reclaim(final ReclaimTask task) throws InterruptedException {
+        int reclaimed = 0;
+        try {
+            while (reclaimed < task.chunkIndices.length) {
+                long t1 = System.nanoTime();
+
+                int batchEnd = Math.min(reclaimed + RECLAIM_BATCH_SIZE, task.chunkIndices.length);
+                List<EhcacheStreamChunkKey> keys = new ArrayList<EhcacheStreamChunkKey>(batchEnd - reclaimed);
+                for (int i = reclaimed; i < batchEnd; i++) {
+                    keys.add(new EhcacheStreamChunkKey(task.publicCacheKey, task.chunkIndices[i]));
+                }
+
+                cache.removeAll(keys);
+                reclaimedChunkCount.addAndGet(keys.size());
+                reclaimed = batchEnd;
+
+                //rate limiting: a batch of n chunks takes at least n / chunksPerSecond
+                long sleepNanos = keys.size() * TimeUnit.SECONDS.toNanos(1) / chunksPerSecond - (System.nanoTime() - t1);
+                if(sleepNanos > 0)
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+
+            //all reclaimed: drop the reclaim marker, unless a later removal on that same key replaced it
+            cache.removeElement(new Element(new EhcacheStreamReclaimKey(task.publicCacheKey), task.nextChunkIndex));
+
+            if (isDebug)
+                logger.debug("Reclaimed the [{}] chunk entries of the removed stream entry {}", task.chunkIndices.length, EhcacheStreamUtilsInternal.toStringSafe(task.publicCacheKey));
+        } finally {
+            //whatever happened, these chunks are not pending anymore
+            pendingChunkCount.addAndGet(-task.chunkIndices.length);
+        }
+    }
+
+    private static class ReclaimTask {
+        private final Object publicCacheKey;
+        private final int[] chunkIndices;
+        private final int nextChunkIndex;
+
+        ReclaimTask(Object publicCacheKey, int[] chunkIndices, int nextChunkIndex) {
+            this.publicCacheKey = publicCacheKey;
+            this.chunkIndices = chunkIndices;
+            this.nextChunkIndex = nextChunkIndex;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Created by fabien.sanglier on 11/15/18.
+ */
+
+/*
+ * The adaptive chunk size of a cache (one per EhcacheStreamManager), used as the default output stream buffer size
+ * (ie. the chunk size) when the adaptive chunk size is enabled.
+ *
+ * It starts from a seed size for the cache type: smaller chunks for the caches keeping the chunks on the java heap
+ * (capped under the G1 humongous object size), larger ones for the clustered caches (each chunk put/get being a round trip to the server).
+ * It then refines that size from the measured chunk put/get latencies, tracking the cost per byte of each (power of 2) chunk size:
+ * every adapt interval, it tries out a neighbour size (half or double) not measured yet, and keeps it only if it costs noticeably less per byte.
+ * The neighbour sizes get measured again once in a while, in case the conditions changed.
+ *
+ * Each chunk records its own size in the stream master entry, so the streams written with different chunk sizes stay readable.
+ */
+public class EhcacheStreamChunkSizePolicy {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamChunkSizePolicy.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final int MIN_CHUNK_SIZE_SHIFT = 14; // 16KB
+    private static final int MAX_CHUNK_SIZE_SHIFT = 22; // 4MB
+
+    //the cap for the chunks kept on the java heap when not using G1
+    private static final int DEFAULT_HEAP_MAX_CHUNK_SIZE_SHIFT = 18; // 256KB
+
+    private static final int ADAPT_INTERVAL = 64; // samples between 2 adapt rounds
+    private static final int MIN_SAMPLES = 16; // samples of a size before its cost is trusted
+    private static final int REMEASURE_INTERVAL = 64; // adapt rounds between 2 measures of the neighbour sizes
+    private static final double EWMA_WEIGHT = 0.1;
+    private static final double MIN_GAIN = 0.1; // a size must cost at least 10% less per byte to be kept
+
+    //the largest power of 2 byte[] staying under the G1 humongous threshold, resolved once for the JVM
+    private static final int heapMaxChunkSizeShift = findHeapMaxChunkSizeShift();
+
+    private final int minShift;
+    private final int maxShift;
+
+    //guarded by this
+    private final double[] nanosPerByte = new double[MAX_CHUNK_SIZE_SHIFT + 1];
+    private final int[] sampleCounts = new int[MAX_CHUNK_SIZE_SHIFT + 1];
+    private int samplesSinceAdapt = 0;
+    private int adaptRounds = 0;
+    private int exploredFromShift = -1;
+
+    private volatile int currentShift;
+
+    public EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType cacheType) {
+        this.minShift = MIN_CHUNK_SIZE_SHIFT;
+        this.maxShift = isHeapResident(cacheType) ? heapMaxChunkSizeShift : MAX_CHUNK_SIZE_SHIFT;
+        this.currentShift = Math.max(minShift, Math.min(maxShift, getSeedShift(cacheType)));
+
+        if(isDebug)
+            logger.debug("Adaptive chunk size for cache type {}: seed={} bytes, max={} bytes", cacheType, 1 << currentShift, 1 << maxShift);
+    }
+
+    //the caches keeping the chunk byte arrays on the java heap
+    private static boolean isHeapResident(EhcacheUtils.CacheType cacheType) {
+        return cacheType == EhcacheUtils.CacheType.LOCAL_HEAP_ONLY || cacheType == EhcacheUtils.CacheType.LOCAL_ONLY;
+    }
+
+    private static int getSeedShift(EhcacheUtils.CacheType cacheType) {
+        if(null == cacheType)
+            return 18; // 256KB
+
+        switch (cacheType) {
+            case LOCAL_ONLY:
+            case LOCAL_HEAP_ONLY:
+                return 17; // 128KB
+            case LOCAL_HEAP_OFFHEAP:
+                return 18; // 256KB
+            case CLUSTERED_EVENTUAL_LOCAL_ENABLED:
+            case CLUSTERED_STRONG_LOCAL_ENABLED:
+            case CLUSTERED_LOCAL_ENABLED:
+                return 19; // 512KB
+            case CLUSTERED_NOLOCAL:
+                return 20; // 1MB
+            default:
+                return 18; // 256KB
+        }
+    }
+
+    /**
+     * @return    the current chunk size for this cache
+     */
+    public int getChunkSize() {
+        return 1 << currentShift;
+    }
+
+    /**
+     * Records the latency of a chunk put or get
+     *
+     * @param   sizeInBytes       the chunk size
+     * @param   durationNanos     the duration of the cache operation
+     */
+    public synchronized void recordChunkOperation(long sizeInBytes, long durationNanos) {
+        if(sizeInBytes <= 0 || durationNanos < 0)
+            return;
+
+        //the partial chunks count towards the size class below theirs
+        int shift = 63 - Long.numberOfLeadingZeros(sizeInBytes);
+        if(shift < minShift || shift > maxShift)
+            return;
+
+        double cost = (double) durationNanos / sizeInBytes;
+        nanosPerByte[shift] = (sampleCounts[shift] == 0) ? cost : nanosPerByte[shift] + EWMA_WEIGHT * (cost - nanosPerByte[shift]);
+        sampleCounts[shift]++;
+
+        if(++samplesSinceAdapt >= ADAPT_INTERVAL) {
+            samplesSinceAdapt = 0;
+            adapt();
+        }
+    }
+
+    //guarded by this
+    private void adapt() {
+        if(sampleCounts[currentShift] < MIN_SAMPLES)
+            return;
+
+        //done trying out a neighbour size: keep it only if it is noticeably cheaper than the one we came from
+        if(exploredFromShift >= 0) {
+            int fromShift = exploredFromShift;
+            exploredFromShift = -1;
+            if(!isCheaper(currentShift, fromShift))
+                setCurrentShift(fromShift);
+            return;
+        }
+
+        if(++adaptRounds % REMEASURE_INTERVAL == 0) {
+            resetSamples(currentShift - 1);
+            resetSamples(currentShift + 1);
+        }
+
+        //try out a neighbour size not measured yet (the larger one first)
+        int[] neighbourShifts = new int[]{currentShift + 1, currentShift - 1};
+        for (int neighbourShift : neighbourShifts) {
+            if(neighbourShift >= minShift && neighbourShift <= maxShift && sampleCounts[neighbourShift] < MIN_SAMPLES) {
+                exploredFromShift = currentShift;
+                setCurrentShift(neighbourShift);
+                return;
+            }
+        }
+
+        //the partial chunks may have measured a cheaper neighbour already
+        for (int neighbourShift : neighbourShifts) {
+            if(neighbourShift >= minShift && neighbourShift <= maxShift && isCheaper(neighbourShift, currentShift)) {
+                setCurrentShift(neighbourShift);
+                return;
+            }
+        }
+    }
+
+    private boolean isCheaper(int shift, int thanShift) {
+        return nanosPerByte[shift] < nanosPerByte[thanShift] * (1 - MIN_GAIN);
+    }
+
+    private void resetSamples(int shift) {
+        if(shift >= minShift && shift <= maxShift)
+            sampleCounts[shift] = 0;
+    }
+
+    private void setCurrentShift(int shift) {
+        if(isDebug)
+            logger.debug("Adaptive chunk size going from {} bytes to {} bytes", 1 << currentShift, 1 << shift);
+
+        currentShift = shift;
+    }
+
+    //with G1, a byte[] of half a region or more is a humongous object (allocated straight in the old generation, in contiguous regions)
+    private static int findHeapMaxChunkSizeShift() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName hotSpotDiagnostic = new ObjectName("com.sun.management:type=HotSpotDiagnostic");
+            if(Boolean.parseBoolean(getVMOption(mBeanServer, hotSpotDiagnostic, "UseG1GC"))) {
+                long regionSize = Long.parseLong(getVMOption(mBeanServer, hotSpotDiagnostic, "G1HeapRegionSize"));
+                if(regionSize > 0) {
+                    //a power of 2 byte[] (plus its header) stays under half a region only up to a quarter of a region
+                    int shift = 63 - Long.numberOfLeadingZeros(regionSize) - 2;
+                    return Math.max(MIN_CHUNK_SIZE_SHIFT, Math.min(MAX_CHUNK_SIZE_SHIFT, shift));
+                }
+            }
+        } catch (Exception e) {
+            if(isDebug)
+                logger.debug("Could not find the G1 region size: using the default max chunk size for the heap only caches", e);
+        }
+        return DEFAULT_HEAP_MAX_CHUNK_SIZE_SHIFT;
+    }
+
+    private static String getVMOption(MBeanServer mBeanServer, ObjectName hotSpotDiagnostic, String name) throws Exception {
+        CompositeData vmOption = (CompositeData) mBeanServer.invoke(hotSpotDiagnostic, "getVMOption", new Object[]{name}, new String[]{String.class.getName()});
+        return (String) vmOption.get("value");
+    }
+}
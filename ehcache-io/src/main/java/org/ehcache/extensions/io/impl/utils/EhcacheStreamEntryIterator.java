@@ -0,0 +1,106 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.ehcache.extensions.io.EhcacheStreamEntryInfo;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterKey;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Created by fabien.sanglier on 11/17/18.
+ */
+
+/*
+ * A lazy iterator over the stream entries of a cache, along with their metadata (see EhcacheStreamEntryInfo).
+ *
+ * The stream masters get fetched one batch at a time (one getAll cache call per batch), so only one batch of masters is held at a time.
+ * With a master key index (see EhcacheStreamManager), the master keys get listed one batch at a time too (by index cursor);
+ * otherwise, all the master keys get listed once upfront (search or scan), the masters still being fetched by batch.
+ *
+ * The stream entries added or removed while iterating may or may not be returned (the ones removed between the key listing and the master fetch are skipped).
+ * Not thread safe.
+ */
+public class EhcacheStreamEntryIterator implements Iterator<EhcacheStreamEntryInfo> {
+    private final EhcacheStreamUtilsInternal ehcacheStreamUtilsInternal;
+    private final EhcacheStreamMasterKeyIndex masterKeyIndex;
+    private final int batchSize;
+
+    //without index: all the master keys, and the position of the next batch in there
+    private List<EhcacheStreamMasterKey> allMasterKeys;
+    private int nextPosition = 0;
+
+    //with index: the cursor of the last listed key
+    private long cursor = 0L;
+    private boolean noMoreKeys = false;
+
+    private Iterator<EhcacheStreamEntryInfo> currentBatch = null;
+
+    /*package protected*/ EhcacheStreamEntryIterator(EhcacheStreamUtilsInternal ehcacheStreamUtilsInternal, EhcacheStreamMasterKeyIndex masterKeyIndex, boolean checkForExpiry, int batchSize) {
+        this.ehcacheStreamUtilsInternal = ehcacheStreamUtilsInternal;
+        this.masterKeyIndex = masterKeyIndex;
+        this.batchSize = batchSize;
+
+        //the expired masters are not returned by the batched fetch anyway: this is only about not listing their keys
+        if(null == masterKeyIndex)
+            this.allMasterKeys = ehcacheStreamUtilsInternal.getAllStreamMasterKeys(checkForExpiry, null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        //the batch may come back empty if all its stream entries got removed since listed
+        while (null == currentBatch || !currentBatch.hasNext()) {
+            List<EhcacheStreamMasterKey> nextKeys = nextKeys();
+            if(nextKeys.isEmpty())
+                return false;
+
+            currentBatch = fetchBatch(nextKeys);
+        }
+        return true;
+    }
+
+    @Override
+    public EhcacheStreamEntryInfo next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+
+        return currentBatch.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Remove not supported: use EhcacheIOStreams.removeStreamEntry() instead");
+    }
+
+    private List<EhcacheStreamMasterKey> nextKeys() {
+        if(null != masterKeyIndex) {
+            if(noMoreKeys)
+                return new ArrayList<EhcacheStreamMasterKey>();
+
+            Map<Long, EhcacheStreamMasterKey> page = masterKeyIndex.getPage(cursor, batchSize);
+            for (Long sequence : page.keySet()) {
+                cursor = sequence;
+            }
+            noMoreKeys = page.size() < batchSize;
+            return new ArrayList<EhcacheStreamMasterKey>(page.values());
+        }
+
+        int endPosition = Math.min(nextPosition + batchSize, allMasterKeys.size());
+        List<EhcacheStreamMasterKey> nextKeys = new ArrayList<EhcacheStreamMasterKey>(allMasterKeys.subList(nextPosition, endPosition));
+        nextPosition = endPosition;
+        return nextKeys;
+    }
+
+    private Iterator<EhcacheStreamEntryInfo> fetchBatch(List<EhcacheStreamMasterKey> internalKeys) {
+        Map<EhcacheStreamMasterKey, EhcacheStreamMaster> masters = ehcacheStreamUtilsInternal.getStreamMastersFromCache(internalKeys);
+
+        List<EhcacheStreamEntryInfo> batch = new ArrayList<EhcacheStreamEntryInfo>(masters.size());
+        for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : masters.entrySet()) {
+            batch.add(ehcacheStreamUtilsInternal.buildStreamEntryInfo(entry.getKey(), entry.getValue()));
+        }
+        return batch.iterator();
+    }
+}
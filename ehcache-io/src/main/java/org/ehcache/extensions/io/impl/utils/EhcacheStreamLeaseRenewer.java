@@ -0,0 +1,241 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by fabien.sanglier on 11/21/18.
+ */
+
+/*
+ * The renewer of the reader and writer leases held by the streams of this JVM on a cache (one per EhcacheStreamManager),
+ * used when the lock lease duration is set: a reader or writer count in a stream master whose lease is not renewed within that duration
+ * is considered abandoned (eg. its JVM died while holding the stream), and gets released by the next reader or writer waiting on it.
+ * Same for the concurrent appends and the multipart uploads (leased by append sequence and by upload id).
+ *
+ * The streams register the stream entries they hold (read, write, append or upload) here for as long as they hold them,
+ * under their lease holder id (see EhcacheStreamUtilsInternal), and a single daemon thread (started on first use) renews their leases
+ * every third of the lease duration, so the leases of a live JVM never expire, even if its streams stay idle for a while.
+ * Only the leases of the registered holders get renewed: the reads and writes of the other holders (eg. in a dead JVM) still expire.
+ * The renewal is one CAS operation per held stream entry (whatever the number of local streams holding it).
+ *
+ * When the lease duration changes, the manager retires its renewer for a new one: the retired renewer keeps renewing
+ * the leases still held through it, and stops its thread once they are all released.
+ */
+public class EhcacheStreamLeaseRenewer {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamLeaseRenewer.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private final EhcacheStreamManager streamManager;
+    private final long leaseDurationMillis;
+
+    //guarded by this: the local readers and writers (by lease holder id), appenders and uploaders holding each stream entry (public cache key)
+    private final Map<Object, HeldLeases> heldLeases = new HashMap<Object, HeldLeases>();
+    private ScheduledExecutorService renewExecutor;
+    private boolean stopped = false;
+    private boolean retired = false;
+
+    public EhcacheStreamLeaseRenewer(EhcacheStreamManager streamManager, long leaseDurationMillis) {
+        this.streamManager = streamManager;
+        this.leaseDurationMillis = leaseDurationMillis;
+    }
+
+    public long getLeaseDurationMillis() {
+        return leaseDurationMillis;
+    }
+
+    /**
+     * Registers a read or write held by a local stream, to renew its lease until released
+     */
+    public synchronized void hold(final Object publicCacheKey, final boolean isWriter, final long holderId) {
+        HeldLeases leases = heldLeases.get(publicCacheKey);
+        if(null == leases) {
+            leases = new HeldLeases();
+            heldLeases.put(publicCacheKey, leases);
+        }
+
+        increment((isWriter)?leases.writers:leases.readers, holderId);
+
+        startIfNeeded();
+    }
+
+    public synchronized void release(final Object publicCacheKey, final boolean isWriter, final long holderId) {
+        HeldLeases leases = heldLeases.get(publicCacheKey);
+        if(null == leases)
+            return;
+
+        decrement((isWriter)?leases.writers:leases.readers, holderId);
+
+        removeIfReleased(publicCacheKey, leases);
+    }
+
+    /**
+     * Registers a pending append (by append sequence) or a multipart upload (by upload id) held by a local stream, to renew its lease until released
+     */
+    public synchronized void holdStaging(final Object publicCacheKey, final boolean isUpload, final long stagingId) {
+        HeldLeases leases = heldLeases.get(publicCacheKey);
+        if(null == leases) {
+            leases = new HeldLeases();
+            heldLeases.put(publicCacheKey, leases);
+        }
+
+        increment((isUpload)?leases.uploads:leases.appends, stagingId);
+
+        startIfNeeded();
+    }
+
+    public synchronized void releaseStaging(final Object publicCacheKey, final boolean isUpload, final long stagingId) {
+        HeldLeases leases = heldLeases.get(publicCacheKey);
+        if(null == leases)
+            return;
+
+        decrement((isUpload)?leases.uploads:leases.appends, stagingId);
+
+        removeIfReleased(publicCacheKey, leases);
+    }
+
+    private static void increment(final Map<Long, Integer> holds, final long id) {
+        Integer count = holds.get(id);
+        holds.put(id, (null == count)?1:count + 1);
+    }
+
+    private static void decrement(final Map<Long, Integer> holds, final long id) {
+        Integer count = holds.get(id);
+        if(null != count && count > 1)
+            holds.put(id, count - 1);
+        else
+            holds.remove(id);
+    }
+
+    private void removeIfReleased(final Object publicCacheKey, final HeldLeases leases) {
+        if(leases.isEmpty()) {
+            heldLeases.remove(publicCacheKey);
+            stopIfRetired();
+        }
+    }
+
+    public synchronized int getHeldCount() {
+        return heldLeases.size();
+    }
+
+    /**
+     * Stops the renewal thread once the leases still held through this renewer get released
+     * (a stream still holding it later starts it again, until released)
+     */
+    public synchronized void retire() {
+        retired = true;
+        stopIfRetired();
+    }
+
+    /*package protected*/ synchronized boolean isRenewing() {
+        return null != renewExecutor;
+    }
+
+    /**
+     * Stops the renewals (the leases still held will expire)
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if(null != renewExecutor)
+            renewExecutor.shutdownNow();
+    }
+
+    private void stopIfRetired() {
+        if(retired && heldLeases.isEmpty() && null != renewExecutor) {
+            renewExecutor.shutdownNow();
+            renewExecutor = null;
+
+            if(isDebug)
+                logger.debug("Stopped the retired lease renewer of cache [{}]", streamManager.getCache().getName());
+        }
+    }
+
+    private void startIfNeeded() {
+        if(null != renewExecutor || stopped)
+            return;
+
+        final String threadName = "EhcacheStreamLeaseRenewer-" + streamManager.getCache().getName();
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long renewInterval = Math.max(1L, leaseDurationMillis / 3);
+        renewExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewHeldLeases();
+            }
+        }, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void renewHeldLeases() {
+        Map<Object, HeldLeases> leasesToRenew;
+        synchronized (this) {
+            if(heldLeases.isEmpty())
+                return;
+
+            leasesToRenew = new HashMap<Object, HeldLeases>(heldLeases.size());
+            for (Map.Entry<Object, HeldLeases> entry : heldLeases.entrySet()) {
+                leasesToRenew.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = streamManager.newEhcacheStreamUtils();
+        for (Map.Entry<Object, HeldLeases> entry : leasesToRenew.entrySet()) {
+            try {
+                //renewals have to fit in the renew interval to be of any use
+                HeldLeases leases = entry.getValue();
+                ehcacheStreamUtils.renewLeasesOnMaster(entry.getKey(), toArray(leases.readers), toArray(leases.writers), toArray(leases.appends), toArray(leases.uploads), Math.max(1L, leaseDurationMillis / 3));
+            } catch (Exception exc) {
+                logger.warn("Could not renew the stream leases on key {}", EhcacheStreamUtilsInternal.toStringSafe(entry.getKey()), exc);
+            }
+        }
+
+        if(isDebug)
+            logger.debug("Renewed the stream leases of [{}] stream entries in cache [{}]", leasesToRenew.size(), streamManager.getCache().getName());
+    }
+
+    private static long[] toArray(Map<Long, Integer> holds) {
+        long[] ids = new long[holds.size()];
+        int i = 0;
+        for (Long id : holds.keySet()) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    private static class HeldLeases {
+        //local reads and writes by lease holder id
+        private final Map<Long, Integer> readers = new HashMap<Long, Integer>();
+        private final Map<Long, Integer> writers = new HashMap<Long, Integer>();
+
+        //local holders by append sequence, and by upload id
+        private final Map<Long, Integer> appends = new HashMap<Long, Integer>();
+        private final Map<Long, Integer> uploads = new HashMap<Long, Integer>();
+
+        boolean isEmpty() {
+            return readers.isEmpty() && writers.isEmpty() && appends.isEmpty() && uploads.isEmpty();
+        }
+
+        HeldLeases copy() {
+            HeldLeases copy = new HeldLeases();
+            copy.readers.putAll(readers);
+            copy.writers.putAll(writers);
+            copy.appends.putAll(appends);
+            copy.uploads.putAll(uploads);
+            return copy;
+        }
+    }
+}
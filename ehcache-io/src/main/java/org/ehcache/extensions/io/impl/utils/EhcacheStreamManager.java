@@ -0,0 +1,598 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.NotificationScope;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.EhcacheStreamDecorator;
+import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.ehcache.extensions.io.impl.utils.cas.CasWaitStrategyFactory;
+import org.ehcache.extensions.io.impl.utils.cas.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by fabien.sanglier on 11/14/18.
+ */
+
+/*
+ * The long lived stream resources of a cache, shared by all the streams and utility calls on that cache:
+ * the cache type and CAS wait strategy (resolved once), the adaptive chunk size, the master key index (for the local caches),
+ * the background chunk reclaimer (for the async chunk reclaim on removal), the orphan chunk sweeper, the lease renewer of the streams held by this JVM
+ * (for the lock leases), the read time tracker (for the deferred read times), the executors of the putFile parts and of the file adapter spills, and the stream settings of that cache.
+ *
+ * The internal utils are still one per stream (their explicit lock calls synchronize on the utils instance, so a shared one
+ * would serialize the lock waits of all the streams of the cache), but they get built from the already resolved cache type and wait strategy.
+ *
+ * There is one manager per cache instance: it gets created on first use, and dropped when the cache gets disposed.
+ * The stream settings not configured for the cache (see EhcacheStreamConfiguration) keep following the global settings (system properties).
+ * The settings get checked on every stream open and every chunk: they are resolved once, when the manager gets created,
+ * and again when the cache gets configured (or on reloadSettings(), after changing the system properties at runtime).
+ */
+public class EhcacheStreamManager {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamManager.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final long EXECUTOR_THREAD_KEEPALIVE_MILLIS = 60000L;
+
+    private static final ConcurrentHashMap<Ehcache, EhcacheStreamManager> managers = new ConcurrentHashMap<Ehcache, EhcacheStreamManager>();
+
+    private final Ehcache cache;
+    private final EhcacheUtils.CacheType cacheType;
+    private final WaitStrategy casWaitStrategy;
+    private final EhcacheStreamChunkSizePolicy chunkSizePolicy;
+
+    //built on first use
+    private volatile EhcacheStreamMasterKeyIndex masterKeyIndex;
+    private volatile EhcacheStreamChunkReclaimer chunkReclaimer;
+    private volatile EhcacheStreamOrphanChunkSweeper orphanChunkSweeper;
+    private volatile EhcacheStreamLeaseRenewer leaseRenewer;
+    private volatile EhcacheStreamReadTimeTracker readTimeTracker;
+    private volatile ExecutorService putFileExecutor;
+    private volatile ExecutorService fileAdapterSpillExecutor;
+
+    private volatile EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+
+    //the stream settings, resolved from the configuration and the global settings (see Settings)
+    private volatile Settings settings;
+
+    private EhcacheStreamManager(Ehcache cache) {
+        this.cache = cache;
+        this.cacheType = EhcacheUtils.getCacheType(cache);
+        this.casWaitStrategy = CasWaitStrategyFactory.getWaitStrategy(cacheType);
+        this.chunkSizePolicy = new EhcacheStreamChunkSizePolicy(cacheType);
+        this.settings = new Settings(configuration, cacheType);
+    }
+
+    /**
+     * Get the stream manager of a cache, creating it on first use.
+     *
+     * @return    the EhcacheStreamManager of that cache
+     */
+    public static EhcacheStreamManager getInstance(Ehcache cache) {
+        if(cache == null)
+            throw new EhcacheStreamIllegalArgumentException("Cache may not be null");
+
+        //the streams use the core internal non-decorated cache
+        final Ehcache underlyingCache = (cache instanceof EhcacheStreamDecorator) ? ((EhcacheStreamDecorator)cache).getUnderlyingCache() : cache;
+
+        EhcacheStreamManager manager = managers.get(underlyingCache);
+        if(null == manager) {
+            //a disposed cache never calls its dispose listener again: its manager would never get dropped
+            if(underlyingCache.getStatus() != Status.STATUS_ALIVE)
+                throw new EhcacheStreamIllegalArgumentException("Cache is not alive");
+
+            EhcacheStreamManager newManager = new EhcacheStreamManager(underlyingCache);
+            manager = managers.putIfAbsent(underlyingCache, newManager);
+            if(null == manager) {
+                manager = newManager;
+                underlyingCache.getCacheEventNotificationService().registerListener(new DisposeListener(underlyingCache), NotificationScope.LOCAL);
+                manager.scheduleOrphanChunkSweep();
+
+                if(isDebug)
+                    logger.debug("Created stream manager for cache [{}] of type {}", underlyingCache.getName(), manager.cacheType);
+            }
+        }
+        return manager;
+    }
+
+    public Ehcache getCache() {
+        return cache;
+    }
+
+    public EhcacheUtils.CacheType getCacheType() {
+        return cacheType;
+    }
+
+    public WaitStrategy getCasWaitStrategy() {
+        return casWaitStrategy;
+    }
+
+    public EhcacheStreamChunkSizePolicy getChunkSizePolicy() {
+        return chunkSizePolicy;
+    }
+
+    /**
+     * Gets the index of the stream master keys, building it on first use.
+     * Only the local caches have one: with a clustered cache, the changes made by the other nodes would not be indexed.
+     *
+     * @return    the master key index of this cache, or null if not a local cache
+     */
+    public EhcacheStreamMasterKeyIndex getMasterKeyIndex() {
+        if(!isLocalCacheType(cacheType))
+            return null;
+
+        EhcacheStreamMasterKeyIndex index = masterKeyIndex;
+        if(null == index) {
+            synchronized (this) {
+                index = masterKeyIndex;
+                if(null == index) {
+                    index = new EhcacheStreamMasterKeyIndex();
+
+                    //listening first, so the changes made during the build are not missed
+                    cache.getCacheEventNotificationService().registerListener(index, NotificationScope.LOCAL);
+                    index.build(cache);
+                    masterKeyIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    //the reclaim markers are only put by the async chunk reclaim (expected to be set the same on all the nodes of a clustered cache):
+    //no need to look them up when creating a stream entry unless it is enabled, or still reclaiming after it got turned off
+    /*package protected*/ boolean isReclaimMarkerCheckNeeded() {
+        EhcacheStreamChunkReclaimer reclaimer = chunkReclaimer;
+        return getRemoveAsyncReclaim() || (null != reclaimer && reclaimer.getPendingChunkCount() > 0);
+    }
+
+    /**
+     * Gets the background reclaimer of the chunks of the removed stream entries, creating it on first use.
+     *
+     * @return    the chunk reclaimer of this cache, or null if the async chunk reclaim is not enabled
+     */
+    public EhcacheStreamChunkReclaimer getChunkReclaimer() {
+        if(!getRemoveAsyncReclaim())
+            return null;
+
+        EhcacheStreamChunkReclaimer reclaimer = chunkReclaimer;
+        if(null == reclaimer) {
+            synchronized (this) {
+                reclaimer = chunkReclaimer;
+                if(null == reclaimer) {
+                    reclaimer = new EhcacheStreamChunkReclaimer(cache, PropertyUtils.getRemoveAsyncReclaimRate());
+                    chunkReclaimer = reclaimer;
+                }
+            }
+        }
+        return reclaimer;
+    }
+
+    /**
+     * Gets the sweeper of the orphan chunks (the chunks no stream master references), creating it on first use.
+     *
+     * @return    the orphan chunk sweeper of this cache
+     */
+    public EhcacheStreamOrphanChunkSweeper getOrphanChunkSweeper() {
+        EhcacheStreamOrphanChunkSweeper sweeper = orphanChunkSweeper;
+        if(null == sweeper) {
+            synchronized (this) {
+                sweeper = orphanChunkSweeper;
+                if(null == sweeper) {
+                    sweeper = new EhcacheStreamOrphanChunkSweeper(this, PropertyUtils.getOrphanSweepRate());
+                    orphanChunkSweeper = sweeper;
+                }
+            }
+        }
+        return sweeper;
+    }
+
+    /**
+     * Gets the renewer of the leases held by the streams of this JVM, creating it on first use (or again if the lease duration changed).
+     *
+     * @return    the lease renewer of this cache, or null if the lock leases are not enabled
+     */
+    public EhcacheStreamLeaseRenewer getLeaseRenewer() {
+        long leaseDuration = getLockLeaseDuration();
+        if(leaseDuration <= 0)
+            return null;
+
+        EhcacheStreamLeaseRenewer renewer = leaseRenewer;
+        if(null == renewer || renewer.getLeaseDurationMillis() != leaseDuration) {
+            EhcacheStreamLeaseRenewer previousRenewer = null;
+            synchronized (this) {
+                renewer = leaseRenewer;
+                if(null == renewer || renewer.getLeaseDurationMillis() != leaseDuration) {
+                    previousRenewer = renewer;
+                    renewer = new EhcacheStreamLeaseRenewer(this, leaseDuration);
+                    leaseRenewer = renewer;
+                }
+            }
+
+            //the streams already holding the previous renewer keep renewing through it until they close (its thread stops then)
+            if(null != previousRenewer)
+                previousRenewer.retire();
+        }
+        return renewer;
+    }
+
+    /**
+     * Gets the tracker of the read times of this JVM, creating it on first use (or again if the flush interval changed).
+     *
+     * @return    the read time tracker of this cache, or null if the read times get stamped on the masters when opening the reads
+     */
+    public EhcacheStreamReadTimeTracker getReadTimeTracker() {
+        long flushInterval = getInputStreamReadTimeFlushInterval();
+        if(flushInterval <= 0)
+            return null;
+
+        EhcacheStreamReadTimeTracker tracker = readTimeTracker;
+        if(null == tracker || tracker.getFlushIntervalMillis() != flushInterval) {
+            EhcacheStreamReadTimeTracker previousTracker = null;
+            synchronized (this) {
+                tracker = readTimeTracker;
+                if(null == tracker || tracker.getFlushIntervalMillis() != flushInterval) {
+                    previousTracker = tracker;
+                    tracker = new EhcacheStreamReadTimeTracker(this, flushInterval);
+                    readTimeTracker = tracker;
+                }
+            }
+
+            //not losing the read times recorded so far
+            if(null != previousTracker) {
+                previousTracker.shutdown();
+                previousTracker.flush();
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Gets the executor of the putFile parts of this cache, creating it on first use.
+     * Its threads (daemon, named after the cache) are bounded by the putFile threads setting: the parts of concurrent putFile calls queue up for them,
+     * and the idle threads go away after a while.
+     *
+     * @return    the putFile executor of this cache
+     */
+    public ExecutorService getPutFileExecutor() {
+        ExecutorService executor = putFileExecutor;
+        if(null == executor) {
+            synchronized (this) {
+                executor = putFileExecutor;
+                if(null == executor) {
+                    executor = newDaemonThreadPool("EhcacheStreamPutFile-" + cache.getName() + "-", PropertyUtils.getOutputStreamPutFileThreads());
+                    putFileExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the executor of the file adapter spills of this cache, creating it on first use.
+     * Its threads (daemon, named after the cache) are bounded by the spill threads setting: the spills beyond that queue up for them,
+     * and the idle threads go away after a while.
+     *
+     * @return    the file adapter spill executor of this cache
+     */
+    public ExecutorService getFileAdapterSpillExecutor() {
+        ExecutorService executor = fileAdapterSpillExecutor;
+        if(null == executor) {
+            synchronized (this) {
+                executor = fileAdapterSpillExecutor;
+                if(null == executor) {
+                    executor = newDaemonThreadPool("EhcacheFileAdapterSpill-" + cache.getName() + "-", PropertyUtils.getInputStreamFileAdapterSpillThreads());
+                    fileAdapterSpillExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static ExecutorService newDaemonThreadPool(final String threadNamePrefix, int threadCount) {
+        threadCount = Math.max(1, threadCount);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threadCount, threadCount, EXECUTOR_THREAD_KEEPALIVE_MILLIS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadNamePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    //(re)schedules the background orphan chunk sweep from the current settings (nothing to do until it gets enabled)
+    private void scheduleOrphanChunkSweep() {
+        long interval = getOrphanSweepInterval();
+        if(interval > 0 || null != orphanChunkSweeper)
+            getOrphanChunkSweeper().schedule(interval);
+    }
+
+    private static boolean isLocalCacheType(EhcacheUtils.CacheType cacheType) {
+        return cacheType == EhcacheUtils.CacheType.LOCAL_ONLY
+                || cacheType == EhcacheUtils.CacheType.LOCAL_HEAP_ONLY
+                || cacheType == EhcacheUtils.CacheType.LOCAL_HEAP_OFFHEAP;
+    }
+
+    /**
+     * @return    new internal utils for a stream (or utility call) on this cache
+     */
+    public EhcacheStreamUtilsInternal newEhcacheStreamUtils() {
+        //only measuring the chunk latencies when something uses them
+        return new EhcacheStreamUtilsInternal(cache, cacheType, casWaitStrategy, getOutputStreamAdaptiveChunkSize() ? chunkSizePolicy : null, getChunkReclaimer(), isReclaimMarkerCheckNeeded(), getLeaseRenewer(), getLockLeaseDuration(), getReadTimeTracker(), getChunksOffHeap(), getChunksOffHeapMaxSize());
+    }
+
+    /**
+     * @return    new public utils on this cache
+     */
+    public IEhcacheStreamUtils newEhcacheStreamPublicUtils() {
+        return new EhcacheStreamUtilsPublicImpl(this);
+    }
+
+    public EhcacheStreamConfiguration getConfiguration() {
+        return new EhcacheStreamConfiguration(configuration);
+    }
+
+    /**
+     * Sets the stream settings of this cache (a copy of the provided configuration is kept)
+     */
+    public void setConfiguration(EhcacheStreamConfiguration configuration) {
+        if(configuration == null)
+            throw new EhcacheStreamIllegalArgumentException("Configuration may not be null");
+
+        EhcacheStreamConfiguration newConfiguration = new EhcacheStreamConfiguration(configuration);
+        this.settings = new Settings(newConfiguration, cacheType);
+        this.configuration = newConfiguration;
+        scheduleOrphanChunkSweep();
+
+        if(isDebug)
+            logger.debug("Stream configuration for cache [{}]: {}", cache.getName(), this.configuration);
+    }
+
+    /**
+     * Reads the global settings (system properties) again, for the settings not configured for this cache
+     */
+    public void reloadSettings() {
+        this.settings = new Settings(configuration, cacheType);
+        scheduleOrphanChunkSweep();
+    }
+
+    /**
+     * Reads the global settings (system properties) again, for all the caches with a stream manager
+     */
+    public static void reloadAllSettings() {
+        for(EhcacheStreamManager manager : managers.values()) {
+            manager.reloadSettings();
+        }
+    }
+
+    public PropertyUtils.ConcurrencyMode getConcurrencyMode() {
+        return settings.concurrencyMode;
+    }
+
+    public int getInputStreamBufferSize() {
+        return settings.inputStreamBufferSize;
+    }
+
+    //a buffer size set for the cache wins over the adaptive chunk size
+    public int getOutputStreamBufferSize() {
+        Settings currentSettings = settings;
+        if(null != currentSettings.configuredOutputStreamBufferSize)
+            return currentSettings.configuredOutputStreamBufferSize;
+
+        return currentSettings.outputStreamAdaptiveChunkSize ? chunkSizePolicy.getChunkSize() : currentSettings.outputStreamBufferSize;
+    }
+
+    public boolean getOutputStreamAdaptiveChunkSize() {
+        return settings.outputStreamAdaptiveChunkSize;
+    }
+
+    public long getInputStreamOpenTimeout() {
+        return settings.inputStreamOpenTimeout;
+    }
+
+    public long getOutputStreamOpenTimeout() {
+        return settings.outputStreamOpenTimeout;
+    }
+
+    public boolean getInputStreamAllowNulls() {
+        return settings.inputStreamAllowNulls;
+    }
+
+    public boolean getOutputStreamDefaultOverride() {
+        return settings.outputStreamDefaultOverride;
+    }
+
+    public boolean getRemoveAsyncReclaim() {
+        return settings.removeAsyncReclaim;
+    }
+
+    public long getOrphanSweepInterval() {
+        return settings.orphanSweepInterval;
+    }
+
+    public long getLockLeaseDuration() {
+        return settings.lockLeaseDuration;
+    }
+
+    public long getInputStreamReadTimeFlushInterval() {
+        return settings.inputStreamReadTimeFlushInterval;
+    }
+
+    //only the heap only caches keep their chunks off-heap
+    public boolean getChunksOffHeap() {
+        return settings.chunksOffHeap;
+    }
+
+    public long getChunksOffHeapMaxSize() {
+        return settings.chunksOffHeapMaxSize;
+    }
+
+    public int getOutputStreamInlineThreshold() {
+        return settings.outputStreamInlineThreshold;
+    }
+
+    public boolean getInputStreamNearCache() {
+        return settings.inputStreamNearCache;
+    }
+
+    public long getInputStreamNearCacheMaxSize() {
+        return settings.inputStreamNearCacheMaxSize;
+    }
+
+    public boolean getInputStreamFetchCoalescing() {
+        return settings.inputStreamFetchCoalescing;
+    }
+
+    //the file adapter settings are global only (not part of the cache configuration)
+    public boolean getInputStreamFileAdapterEnabled() {
+        return settings.inputStreamFileAdapterEnabled;
+    }
+
+    public String getInputStreamFileAdapterPath() {
+        return settings.inputStreamFileAdapterPath;
+    }
+
+    public long getInputStreamFileAdapterThresholdSize() {
+        return settings.inputStreamFileAdapterThresholdSize;
+    }
+
+    /*package protected*/ static int getManagerCount() {
+        return managers.size();
+    }
+
+    //the stream settings of a cache: the ones set in its configuration, else the global settings (read once here)
+    private static class Settings {
+        private final PropertyUtils.ConcurrencyMode concurrencyMode;
+        private final int inputStreamBufferSize;
+        private final Integer configuredOutputStreamBufferSize;
+        private final int outputStreamBufferSize;
+        private final boolean outputStreamAdaptiveChunkSize;
+        private final long inputStreamOpenTimeout;
+        private final long outputStreamOpenTimeout;
+        private final boolean inputStreamAllowNulls;
+        private final boolean outputStreamDefaultOverride;
+        private final boolean removeAsyncReclaim;
+        private final long orphanSweepInterval;
+        private final long lockLeaseDuration;
+        private final long inputStreamReadTimeFlushInterval;
+        private final boolean chunksOffHeap;
+        private final long chunksOffHeapMaxSize;
+        private final int outputStreamInlineThreshold;
+        private final boolean inputStreamNearCache;
+        private final long inputStreamNearCacheMaxSize;
+        private final boolean inputStreamFetchCoalescing;
+        private final boolean inputStreamFileAdapterEnabled;
+        private final String inputStreamFileAdapterPath;
+        private final long inputStreamFileAdapterThresholdSize;
+
+        Settings(EhcacheStreamConfiguration configuration, EhcacheUtils.CacheType cacheType) {
+            PropertyUtils.ConcurrencyMode concurrencyMode = configuration.getConcurrencyMode();
+            Integer inputStreamBufferSize = configuration.getInputStreamBufferSize();
+            Boolean outputStreamAdaptiveChunkSize = configuration.getOutputStreamAdaptiveChunkSize();
+            Long inputStreamOpenTimeout = configuration.getInputStreamOpenTimeout();
+            Long outputStreamOpenTimeout = configuration.getOutputStreamOpenTimeout();
+            Boolean inputStreamAllowNulls = configuration.getInputStreamAllowNulls();
+            Boolean outputStreamDefaultOverride = configuration.getOutputStreamDefaultOverride();
+            Boolean removeAsyncReclaim = configuration.getRemoveAsyncReclaim();
+            Long orphanSweepInterval = configuration.getOrphanSweepInterval();
+            Long lockLeaseDuration = configuration.getLockLeaseDuration();
+            Long inputStreamReadTimeFlushInterval = configuration.getInputStreamReadTimeFlushInterval();
+            Boolean chunksOffHeap = configuration.getChunksOffHeap();
+            Integer outputStreamInlineThreshold = configuration.getOutputStreamInlineThreshold();
+            Boolean inputStreamNearCache = configuration.getInputStreamNearCache();
+            Boolean inputStreamFetchCoalescing = configuration.getInputStreamFetchCoalescing();
+
+            this.concurrencyMode = (null != concurrencyMode) ? concurrencyMode : PropertyUtils.getEhcacheIOStreamsConcurrencyMode();
+            this.inputStreamBufferSize = (null != inputStreamBufferSize) ? inputStreamBufferSize : PropertyUtils.getInputStreamBufferSize();
+            this.configuredOutputStreamBufferSize = configuration.getOutputStreamBufferSize();
+            this.outputStreamBufferSize = PropertyUtils.getOutputStreamBufferSize();
+            this.outputStreamAdaptiveChunkSize = (null != outputStreamAdaptiveChunkSize) ? outputStreamAdaptiveChunkSize : PropertyUtils.getOutputStreamAdaptiveChunkSizeEnabled();
+            this.inputStreamOpenTimeout = (null != inputStreamOpenTimeout) ? inputStreamOpenTimeout : PropertyUtils.getInputStreamOpenTimeout();
+            this.outputStreamOpenTimeout = (null != outputStreamOpenTimeout) ? outputStreamOpenTimeout : PropertyUtils.getOutputStreamOpenTimeout();
+            this.inputStreamAllowNulls = (null != inputStreamAllowNulls) ? inputStreamAllowNulls : PropertyUtils.getInputStreamAllowNulls();
+            this.outputStreamDefaultOverride = (null != outputStreamDefaultOverride) ? outputStreamDefaultOverride : PropertyUtils.getOutputStreamDefaultOverride();
+            this.removeAsyncReclaim = (null != removeAsyncReclaim) ? removeAsyncReclaim : PropertyUtils.getRemoveAsyncReclaimEnabled();
+            this.orphanSweepInterval = (null != orphanSweepInterval) ? orphanSweepInterval : PropertyUtils.getOrphanSweepInterval();
+            this.lockLeaseDuration = (null != lockLeaseDuration) ? lockLeaseDuration : PropertyUtils.getLockLeaseDuration();
+            this.inputStreamReadTimeFlushInterval = (null != inputStreamReadTimeFlushInterval) ? inputStreamReadTimeFlushInterval : PropertyUtils.getInputStreamReadTimeFlushInterval();
+            this.chunksOffHeap = ((null != chunksOffHeap) ? chunksOffHeap : PropertyUtils.getChunksOffHeapEnabled()) && cacheType == EhcacheUtils.CacheType.LOCAL_HEAP_ONLY;
+            this.chunksOffHeapMaxSize = PropertyUtils.getChunksOffHeapMaxSize();
+            this.outputStreamInlineThreshold = (null != outputStreamInlineThreshold) ? outputStreamInlineThreshold : PropertyUtils.getOutputStreamInlineThreshold();
+            this.inputStreamNearCache = (null != inputStreamNearCache) ? inputStreamNearCache : PropertyUtils.getInputStreamNearCacheEnabled();
+            this.inputStreamNearCacheMaxSize = PropertyUtils.getInputStreamNearCacheMaxSize();
+            this.inputStreamFetchCoalescing = (null != inputStreamFetchCoalescing) ? inputStreamFetchCoalescing : PropertyUtils.getInputStreamFetchCoalescingEnabled();
+            this.inputStreamFileAdapterEnabled = PropertyUtils.getInputStreamFileAdapterEnabled();
+            this.inputStreamFileAdapterPath = PropertyUtils.getInputStreamFileAdapterPath();
+            this.inputStreamFileAdapterThresholdSize = PropertyUtils.getInputStreamFileAdapterThresholdSize();
+        }
+    }
+
+    //drops the manager of a cache when that cache gets disposed (eg. removed from its cache manager)
+    private static class DisposeListener implements CacheEventListener {
+        private final Ehcache cache;
+
+        DisposeListener(Ehcache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void dispose() {
+            EhcacheStreamManager manager = managers.remove(cache);
+            if(null != manager && null != manager.chunkReclaimer)
+                manager.chunkReclaimer.shutdown();
+            if(null != manager && null != manager.orphanChunkSweeper)
+                manager.orphanChunkSweeper.shutdown();
+            if(null != manager && null != manager.leaseRenewer)
+                manager.leaseRenewer.shutdown();
+            if(null != manager && null != manager.readTimeTracker)
+                manager.readTimeTracker.shutdown();
+            if(null != manager && null != manager.putFileExecutor)
+                manager.putFileExecutor.shutdownNow();
+            //the queued spills still run (and fail on the disposed cache): their readers wait for them to be done
+            if(null != manager && null != manager.fileAdapterSpillExecutor)
+                manager.fileAdapterSpillExecutor.shutdown();
+
+            if(isDebug)
+                logger.debug("Dropped stream manager for disposed cache [{}]", cache.getName());
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {}
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) throws CacheException {}
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {}
+
+        @Override
+        public void notifyElementExpired(Ehcache cache, Element element) {}
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {}
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {}
+
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException("The stream manager dispose listener can not be cloned");
+        }
+    }
+}
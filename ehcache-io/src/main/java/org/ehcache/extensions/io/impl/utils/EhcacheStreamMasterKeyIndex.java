@@ -0,0 +1,204 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Created by fabien.sanglier on 11/16/18.
+ */
+
+/*
+ * An index of the stream master keys of a local cache (see EhcacheStreamManager), so the stream entries can be listed
+ * without going through all the chunk keys of the cache.
+ *
+ * It gets built with one scan of the cache keys, and is then kept up to date by listening to the cache events:
+ * for a local cache, all the changes go through this JVM, evictions and expirations included.
+ *
+ * Each master key gets a sequence number when it gets added to the index, which the pages of keys use as their cursor:
+ * a page lists the keys added after the cursor, so paging is not disturbed by the stream entries added or removed in between
+ * (the added ones come up in the later pages, the removed ones are not listed anymore).
+ */
+public class EhcacheStreamMasterKeyIndex implements CacheEventListener {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamMasterKeyIndex.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    //both guarded by this for the updates
+    private final ConcurrentHashMap<EhcacheStreamMasterKey, Long> sequences = new ConcurrentHashMap<EhcacheStreamMasterKey, Long>();
+    private final ConcurrentSkipListMap<Long, EhcacheStreamMasterKey> keysBySequence = new ConcurrentSkipListMap<Long, EhcacheStreamMasterKey>();
+    private long lastSequence = 0L;
+
+    //the master keys put while the index gets built (null once built)
+    private volatile Set<Object> putDuringBuild;
+
+    /**
+     * Adds the master keys found in the cache (the index must already listen to the cache events)
+     */
+    /*package protected*/ void build(Ehcache cache) {
+        List cacheKeys = cache.getKeys();
+        if(null == cacheKeys)
+            return;
+
+        putDuringBuild = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        try {
+            for (Object cacheKey : cacheKeys) {
+                if(!isMasterKey(cacheKey))
+                    continue;
+
+                //added first, then checked: a remove event coming in between still finds the key to remove
+                add(cacheKey);
+                if(!cache.isKeyInCache(cacheKey)) {
+                    synchronized (this) {
+                        //unless put back since (its put event could have found the key indexed already)
+                        if(!putDuringBuild.contains(cacheKey))
+                            remove(cacheKey);
+                    }
+                }
+            }
+        } finally {
+            putDuringBuild = null;
+        }
+
+        if(isDebug)
+            logger.debug("Built master key index with {} stream entries out of {} cache keys", sequences.size(), cacheKeys.size());
+    }
+
+    private void onPut(Object cacheKey) {
+        //recorded before indexing it, so the build can not drop it after that
+        Set<Object> keysPutDuringBuild = putDuringBuild;
+        if(null != keysPutDuringBuild && isMasterKey(cacheKey))
+            keysPutDuringBuild.add(cacheKey);
+
+        add(cacheKey);
+    }
+
+    private void onRemove(Object cacheKey) {
+        Set<Object> keysPutDuringBuild = putDuringBuild;
+        if(null != keysPutDuringBuild)
+            keysPutDuringBuild.remove(cacheKey);
+
+        remove(cacheKey);
+    }
+
+    private static boolean isMasterKey(Object cacheKey) {
+        //the chunk keys are master keys too...but not the ones to index
+        return null != cacheKey && cacheKey.getClass().equals(EhcacheStreamMasterKey.class);
+    }
+
+    private void add(Object cacheKey) {
+        //every update of a master entry comes here: only locking for the new keys
+        if(isMasterKey(cacheKey) && !sequences.containsKey(cacheKey)) {
+            synchronized (this) {
+                if(!sequences.containsKey(cacheKey)) {
+                    Long sequence = ++lastSequence;
+                    sequences.put((EhcacheStreamMasterKey) cacheKey, sequence);
+                    keysBySequence.put(sequence, (EhcacheStreamMasterKey) cacheKey);
+                }
+            }
+        }
+    }
+
+    private synchronized void remove(Object cacheKey) {
+        if(isMasterKey(cacheKey)) {
+            Long sequence = sequences.remove(cacheKey);
+            if(null != sequence)
+                keysBySequence.remove(sequence);
+        }
+    }
+
+    private synchronized void clear() {
+        sequences.clear();
+        keysBySequence.clear();
+    }
+
+    public int size() {
+        return sequences.size();
+    }
+
+    /**
+     * @return    a snapshot of all the indexed master keys
+     */
+    public List<EhcacheStreamMasterKey> getKeys() {
+        return new ArrayList<EhcacheStreamMasterKey>(keysBySequence.values());
+    }
+
+    /**
+     * Gets the next indexed master keys after the cursor, along with their cursors.
+     *
+     * @param   cursor      the cursor of the last key of the previous page (0 for the first page)
+     * @param   pageSize    the max number of keys
+     * @return  the keys (in cursor order) and their cursors
+     */
+    public Map<Long, EhcacheStreamMasterKey> getPage(long cursor, int pageSize) {
+        Map<Long, EhcacheStreamMasterKey> page = new LinkedHashMap<Long, EhcacheStreamMasterKey>();
+        ConcurrentNavigableMap<Long, EhcacheStreamMasterKey> nextKeys = keysBySequence.tailMap(cursor, false);
+        Iterator<Map.Entry<Long, EhcacheStreamMasterKey>> it = nextKeys.entrySet().iterator();
+        while (page.size() < pageSize && it.hasNext()) {
+            Map.Entry<Long, EhcacheStreamMasterKey> entry = it.next();
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return page;
+    }
+
+    /**
+     * @return    true if there are indexed master keys after that cursor
+     */
+    public boolean hasKeysAfter(long cursor) {
+        return null != keysBySequence.higherKey(cursor);
+    }
+
+    @Override
+    public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+        onPut(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+        onPut(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+        onRemove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementExpired(Ehcache cache, Element element) {
+        onRemove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyElementEvicted(Ehcache cache, Element element) {
+        onRemove(element.getObjectKey());
+    }
+
+    @Override
+    public void notifyRemoveAll(Ehcache cache) {
+        clear();
+    }
+
+    @Override
+    public void dispose() {
+        clear();
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException("The master key index can not be cloned");
+    }
+}
@@ -0,0 +1,165 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by fabien.sanglier on 11/13/18.
+ */
+
+/*
+ * A JVM-wide budget for the buffers of the open streams: each stream reserves its buffer size from it before it gets opened,
+ * and gives it back on close, so a burst of streams can not hold more than the max size of buffers at once.
+ *
+ * When the budget can not fit the requested size, the stream gets a smaller buffer instead (halving the size, down to the min buffer size).
+ * When it can not even fit the min buffer size, the stream waits for other streams to close, up to the wait timeout
+ * (a timeout of 0 fails right away), and then fails with an EhcacheStreamTimeoutException.
+ *
+ * A max size <= 0 means no budget: the reservations are only accounted for (without taking the budget lock).
+ *
+ * The budget settings (system properties) are read once, and read again only on reloadSettings(): the budget is hit on every stream open and close.
+ */
+public class EhcacheStreamMemoryBudget {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamMemoryBudget.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final EhcacheStreamMemoryBudget instance = new EhcacheStreamMemoryBudget();
+
+    //only the budget checks and waits take the budget lock: the releases and the reservations without a budget do not
+    private final AtomicLong reservedSizeInBytes = new AtomicLong(0L);
+    private final AtomicLong reservationCount = new AtomicLong(0L);
+    private final AtomicLong degradedCount = new AtomicLong(0L);
+    private final AtomicLong waitCount = new AtomicLong(0L);
+    private final AtomicLong rejectedCount = new AtomicLong(0L);
+
+    private volatile long maxSizeInBytes;
+    private volatile int minBufferSize;
+    private volatile long waitTimeoutMillis;
+
+    private EhcacheStreamMemoryBudget() {
+        reloadSettings();
+    }
+
+    public static EhcacheStreamMemoryBudget getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reads the budget settings again from the system properties (the current reservations are kept)
+     */
+    public void reloadSettings() {
+        this.minBufferSize = PropertyUtils.getMemoryBudgetMinBufferSize();
+        this.waitTimeoutMillis = PropertyUtils.getMemoryBudgetWaitTimeout();
+        this.maxSizeInBytes = PropertyUtils.getMemoryBudgetMaxSize();
+
+        //the streams waiting on the previous budget get to check the new one
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reserves a buffer size from the budget, waiting if needed.
+     *
+     * @param   requestedSize   the buffer size requested by the stream
+     * @return  the reserved buffer size: the requested size, or smaller if the budget is under pressure
+     * @exception EhcacheStreamTimeoutException if the min buffer size could not be reserved within the wait timeout
+     */
+    public int reserve(final int requestedSize) throws EhcacheStreamException {
+        if(requestedSize <= 0)
+            return requestedSize;
+
+        final long maxSizeInBytes = this.maxSizeInBytes;
+        reservationCount.incrementAndGet();
+
+        if(maxSizeInBytes <= 0) {
+            reservedSizeInBytes.addAndGet(requestedSize);
+            return requestedSize;
+        }
+
+        final int minSize = Math.min(requestedSize, minBufferSize);
+        final long waitTimeoutMillis = this.waitTimeoutMillis;
+
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitTimeoutMillis;
+            boolean waited = false;
+            while (true) {
+                long availableSize = maxSizeInBytes - reservedSizeInBytes.get();
+                if(availableSize >= minSize) {
+                    int size = requestedSize;
+                    while (size > availableSize) {
+                        size = Math.max(size / 2, minSize);
+                    }
+
+                    if(size < requestedSize) {
+                        degradedCount.incrementAndGet();
+                        if(isDebug)
+                            logger.debug("Memory budget under pressure: reserving a buffer of {} bytes instead of {}", size, requestedSize);
+                    }
+
+                    reservedSizeInBytes.addAndGet(size);
+                    return size;
+                }
+
+                long remainingMillis = deadline - System.currentTimeMillis();
+                if(remainingMillis <= 0) {
+                    rejectedCount.incrementAndGet();
+                    throw new EhcacheStreamTimeoutException(String.format("Could not reserve a stream buffer of %d bytes within the memory budget (%d of %d bytes reserved) within timeout", minSize, reservedSizeInBytes.get(), maxSizeInBytes));
+                }
+
+                if(!waited) {
+                    waitCount.incrementAndGet();
+                    waited = true;
+                }
+
+                try {
+                    wait(remainingMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EhcacheStreamException("Interrupted while waiting for the memory budget", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back a buffer size reserved with {@link #reserve(int)}
+     */
+    public void release(final int reservedSize) {
+        if(reservedSize <= 0)
+            return;
+
+        reservedSizeInBytes.addAndGet(-reservedSize);
+
+        //only the streams waiting on a budget need to be woken up
+        if(maxSizeInBytes > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public long getReservedSizeInBytes() {
+        return reservedSizeInBytes.get();
+    }
+
+    public long getReservationCount() {
+        return reservationCount.get();
+    }
+
+    public long getDegradedCount() {
+        return degradedCount.get();
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,245 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.ehcache.extensions.io.EhcacheStreamSweepResult;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by fabien.sanglier on 11/20/18.
+ */
+
+/*
+ * The sweeper of the orphan chunk entries of a cache (one per EhcacheStreamManager): the chunk entries that no stream master references,
+ * left behind by the failed writes, or by a JVM stopping between the chunk puts and the master update (or before the chunks of a removal got cleared).
+ * Nothing else would ever remove them from a pinned cache.
+ *
+ * A sweep lists all the chunk keys (with a search on the key type attribute if the cache is searchable, or else a scan of the cache keys),
+ * fetches the masters of their stream entries by batches, and only goes after the stream entries whose chunk keys are not all referenced by their master.
+ * Those chunks then get removed while holding the write on their stream entry (so no chunk can get added to it meanwhile),
+ * by batches, at no more than the configured rate (chunks per second).
+ * The stream entries busy with reads, writes, appends or uploads are left for a later sweep
+ * (the ones whose lease expired are released first: nobody else may ever release an abandoned multipart upload and its staged parts).
+ *
+ * A sweep can be run on demand (see EhcacheIOStreams.sweepOrphanChunks()), or in the background at a fixed interval
+ * by a single daemon thread (see the orphan sweep interval setting).
+ */
+public class EhcacheStreamOrphanChunkSweeper {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamOrphanChunkSweeper.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private static final int SWEEP_BATCH_SIZE = 100;
+
+    private final EhcacheStreamManager streamManager;
+    private final long chunksPerSecond;
+
+    private final Object sweepLock = new Object();
+    private final AtomicLong totalOrphanChunkCount = new AtomicLong();
+    private final AtomicLong totalReclaimedBytes = new AtomicLong();
+
+    //guarded by this
+    private ScheduledExecutorService sweepExecutor;
+    private ScheduledFuture<?> scheduledSweep;
+    private long scheduledInterval = 0L;
+    private boolean stopped = false;
+
+    public EhcacheStreamOrphanChunkSweeper(EhcacheStreamManager streamManager, long chunksPerSecond) {
+        this.streamManager = streamManager;
+        this.chunksPerSecond = (chunksPerSecond > 0) ? chunksPerSecond : PropertyUtils.DEFAULT_ORPHAN_SWEEP_RATE;
+    }
+
+    /**
+     * Runs a full sweep of the cache (waiting for the background sweep in progress if any)
+     *
+     * @return    the orphan chunks removed by this sweep, and the bytes reclaimed
+     */
+    public EhcacheStreamSweepResult sweep() {
+        synchronized (sweepLock) {
+            long t1 = System.currentTimeMillis();
+
+            EhcacheStreamUtilsInternal ehcacheStreamUtils = streamManager.newEhcacheStreamUtils();
+            boolean explicitLocks = streamManager.getConcurrencyMode() == PropertyUtils.ConcurrencyMode.READ_COMMITTED_WITHLOCKS;
+
+            Map<Object, List<Integer>> chunkIndicesByKey = new LinkedHashMap<Object, List<Integer>>();
+            for (EhcacheStreamChunkKey chunkKey : ehcacheStreamUtils.getAllStreamChunkKeys()) {
+                List<Integer> chunkIndices = chunkIndicesByKey.get(chunkKey.getCacheKey());
+                if (null == chunkIndices) {
+                    chunkIndices = new ArrayList<Integer>();
+                    chunkIndicesByKey.put(chunkKey.getCacheKey(), chunkIndices);
+                }
+                chunkIndices.add(chunkKey.getChunkIndex());
+            }
+
+            SweepCounts counts = new SweepCounts();
+            List<EhcacheStreamMasterKey> batch = new ArrayList<EhcacheStreamMasterKey>(SWEEP_BATCH_SIZE);
+            for (Object publicCacheKey : chunkIndicesByKey.keySet()) {
+                batch.add(new EhcacheStreamMasterKey(publicCacheKey));
+                if (batch.size() == SWEEP_BATCH_SIZE) {
+                    sweepBatch(ehcacheStreamUtils, explicitLocks, batch, chunkIndicesByKey, counts);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                sweepBatch(ehcacheStreamUtils, explicitLocks, batch, chunkIndicesByKey, counts);
+
+            totalOrphanChunkCount.addAndGet(counts.orphanChunkCount);
+            totalReclaimedBytes.addAndGet(counts.reclaimedBytes);
+
+            EhcacheStreamSweepResult result = new EhcacheStreamSweepResult(counts.orphanChunkCount, counts.reclaimedBytes, counts.skippedStreamEntryCount, System.currentTimeMillis() - t1);
+            if (isDebug)
+                logger.debug("Orphan chunk sweep of cache [{}] over [{}] stream entries with chunks: {}", ehcacheStreamUtils.getCacheName(), chunkIndicesByKey.size(), result);
+
+            return result;
+        }
+    }
+
+    //one getAll cache call for the masters of the batch, then only the stream entries with unreferenced chunks get acquired
+    private void sweepBatch(final EhcacheStreamUtilsInternal ehcacheStreamUtils, final boolean explicitLocks, final List<EhcacheStreamMasterKey> masterKeys, final Map<Object, List<Integer>> chunkIndicesByKey, final SweepCounts counts) {
+        Map<EhcacheStreamMasterKey, EhcacheStreamMaster> masters = ehcacheStreamUtils.getStreamMastersFromCache(masterKeys);
+        for (EhcacheStreamMasterKey masterKey : masterKeys) {
+            EhcacheStreamMaster ehcacheStreamMaster = ehcacheStreamUtils.releaseExpiredLeasesOnMaster(masterKey.getCacheKey(), masters.get(masterKey));
+            if (null != ehcacheStreamMaster && isBusy(ehcacheStreamMaster)) {
+                counts.skippedStreamEntryCount++;
+                continue;
+            }
+
+            int[] candidateIndices = getUnreferencedChunkIndices(ehcacheStreamMaster, chunkIndicesByKey.get(masterKey.getCacheKey()));
+            for (int i = 0; i < candidateIndices.length; i += SWEEP_BATCH_SIZE) {
+                long t1 = System.nanoTime();
+
+                int[] batchIndices = Arrays.copyOfRange(candidateIndices, i, Math.min(i + SWEEP_BATCH_SIZE, candidateIndices.length));
+                EhcacheStreamSweepResult result = ehcacheStreamUtils.removeOrphanChunks(masterKey.getCacheKey(), batchIndices, PropertyUtils.DEFAULT_ORPHAN_SWEEP_OPEN_TIMEOUT, explicitLocks);
+                counts.orphanChunkCount += result.getOrphanChunkCount();
+                counts.reclaimedBytes += result.getReclaimedBytes();
+                if (result.getSkippedStreamEntryCount() > 0) {
+                    counts.skippedStreamEntryCount++;
+                    break;
+                }
+
+                //rate limiting: a batch of n chunks takes at least n / chunksPerSecond
+                long sleepNanos = batchIndices.length * TimeUnit.SECONDS.toNanos(1) / chunksPerSecond - (System.nanoTime() - t1);
+                if (sleepNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    //no need to wait on the stream entries in use: their orphans (if any) will still be there on the next sweep
+    //(the expired leases are released beforehand: if that release lost a race, the expired reads and writes still get released when the sweep acquires the stream entry)
+    private boolean isBusy(final EhcacheStreamMaster ehcacheStreamMaster) {
+        if (ehcacheStreamMaster.hasExpiredLease(streamManager.getLockLeaseDuration()))
+            return ehcacheStreamMaster.hasPendingAppends() || ehcacheStreamMaster.getMultipartUploadCount() > 0;
+
+        return ehcacheStreamMaster.getReaders() > 0 || ehcacheStreamMaster.getWriters() > 0 || ehcacheStreamMaster.hasPendingAppends() || ehcacheStreamMaster.getMultipartUploadCount() > 0;
+    }
+
+    private int[] getUnreferencedChunkIndices(final EhcacheStreamMaster ehcacheStreamMaster, final List<Integer> chunkIndices) {
+        Set<Integer> referencedIndices = new HashSet<Integer>();
+        if (null != ehcacheStreamMaster) {
+            for (int chunkIndex : ehcacheStreamMaster.getAllChunkIndices()) {
+                referencedIndices.add(chunkIndex);
+            }
+        }
+
+        int[] unreferencedIndices = new int[chunkIndices.size()];
+        int count = 0;
+        for (Integer chunkIndex : chunkIndices) {
+            if (!referencedIndices.contains(chunkIndex))
+                unreferencedIndices[count++] = chunkIndex;
+        }
+        return Arrays.copyOf(unreferencedIndices, count);
+    }
+
+    public long getTotalOrphanChunkCount() {
+        return totalOrphanChunkCount.get();
+    }
+
+    public long getTotalReclaimedBytes() {
+        return totalReclaimedBytes.get();
+    }
+
+    /**
+     * (Re)schedules the background sweep at a fixed interval, starting the sweep thread on first use.
+     *
+     * @param   intervalMillis   the time between the end of a sweep and the start of the next one (0 to stop the background sweep)
+     */
+    public synchronized void schedule(final long intervalMillis) {
+        if (stopped || intervalMillis == scheduledInterval)
+            return;
+
+        if (null != scheduledSweep) {
+            scheduledSweep.cancel(false);
+            scheduledSweep = null;
+        }
+        scheduledInterval = Math.max(0L, intervalMillis);
+
+        if (scheduledInterval > 0) {
+            if (null == sweepExecutor) {
+                final String threadName = "EhcacheStreamOrphanChunkSweeper-" + streamManager.getCache().getName();
+                sweepExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            scheduledSweep = sweepExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    backgroundSweep();
+                }
+            }, scheduledInterval, scheduledInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background sweep (the sweep in progress, if any, stops after its current batch)
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if (null != sweepExecutor)
+            sweepExecutor.shutdownNow();
+    }
+
+    private void backgroundSweep() {
+        try {
+            EhcacheStreamSweepResult result = sweep();
+            if (result.getOrphanChunkCount() > 0)
+                logger.info("Orphan chunk sweep of cache [{}]: removed [{}] orphan chunks, reclaiming [{}] bytes", streamManager.getCache().getName(), result.getOrphanChunkCount(), result.getReclaimedBytes());
+        } catch (Exception exc) {
+            //a failed sweep must not cancel the next ones
+            logger.warn("Could not sweep the orphan chunks of cache [{}]", streamManager.getCache().getName(), exc);
+        }
+    }
+
+    private static class SweepCounts {
+        private int orphanChunkCount = 0;
+        private long reclaimedBytes = 0L;
+        private int skippedStreamEntryCount = 0;
+    }
+}
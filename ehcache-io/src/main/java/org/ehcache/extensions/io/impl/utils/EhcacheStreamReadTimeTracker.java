@@ -0,0 +1,159 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.ehcache.extensions.io.EhcacheStreamTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by fabien.sanglier on 11/22/18.
+ */
+
+/*
+ * The tracker of the read times of the stream entries read from this JVM on a cache (one per EhcacheStreamManager),
+ * used when the read time flush interval is set: the silent reads (WRITE_PRIORITY) then only get the master entry,
+ * instead of stamping the read time on it with a CAS operation (a cluster write on every read).
+ *
+ * The reads get recorded here instead (only the latest read time of each stream entry is kept),
+ * and a single daemon thread (started on first use) flushes them on their masters at the flush interval:
+ * at most one CAS operation per stream entry and per interval, whatever the number of reads in between.
+ * The stream entries being written at flush time keep their read time for the next flush,
+ * and the read times not flushed yet when the JVM stops are lost (the last read time is informative only).
+ */
+public class EhcacheStreamReadTimeTracker {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamReadTimeTracker.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    //a single CAS attempt per stream entry and per flush: the busy ones get retried on the next flush anyway
+    private static final long FLUSH_TIMEOUT = 0L;
+
+    private final EhcacheStreamManager streamManager;
+    private final long flushIntervalMillis;
+
+    //the latest read time not flushed yet of each stream entry (public cache key)
+    private final ConcurrentHashMap<Object, Long> pendingReadTimes = new ConcurrentHashMap<Object, Long>();
+
+    //started on first use (guarded by this)
+    private volatile ScheduledExecutorService flushExecutor;
+    private boolean stopped = false;
+
+    public EhcacheStreamReadTimeTracker(EhcacheStreamManager streamManager, long flushIntervalMillis) {
+        this.streamManager = streamManager;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * Records a read of a stream entry now, to be flushed on its master later
+     */
+    public void recordRead(final Object publicCacheKey) {
+        mergeReadTime(publicCacheKey, System.currentTimeMillis());
+        startIfNeeded();
+    }
+
+    public int getPendingCount() {
+        return pendingReadTimes.size();
+    }
+
+    /**
+     * Flushes the pending read times on their masters (the stream entries being written keep their read time for the next flush)
+     *
+     * @return    the number of masters updated
+     */
+    public int flush() {
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = streamManager.newEhcacheStreamUtils();
+
+        int flushedCount = 0;
+        for (Map.Entry<Object, Long> entry : pendingReadTimes.entrySet()) {
+            Object publicCacheKey = entry.getKey();
+            Long readTime = entry.getValue();
+
+            //a newer read recorded meanwhile stays pending
+            if (!pendingReadTimes.remove(publicCacheKey, readTime))
+                continue;
+
+            try {
+                //null if the stream entry is gone: nothing to flush then
+                if (null != ehcacheStreamUtils.markReadOnMaster(publicCacheKey, readTime, FLUSH_TIMEOUT))
+                    flushedCount++;
+            } catch (EhcacheStreamTimeoutException te) {
+                mergeReadTime(publicCacheKey, readTime);
+            } catch (Exception exc) {
+                logger.warn("Could not flush the read time on key {}", EhcacheStreamUtilsInternal.toStringSafe(publicCacheKey), exc);
+            }
+        }
+
+        if (isDebug)
+            logger.debug("Flushed the read times of [{}] stream entries in cache [{}] ([{}] still pending)", flushedCount, streamManager.getCache().getName(), pendingReadTimes.size());
+
+        return flushedCount;
+    }
+
+    /**
+     * Stops the background flush (the read times still pending are not flushed)
+     */
+    public synchronized void shutdown() {
+        stopped = true;
+        if (null != flushExecutor)
+            flushExecutor.shutdownNow();
+    }
+
+    //keeps the latest of the pending read time and the provided one
+    private void mergeReadTime(final Object publicCacheKey, final long readTime) {
+        while (true) {
+            Long pendingReadTime = pendingReadTimes.putIfAbsent(publicCacheKey, readTime);
+            if (null == pendingReadTime || pendingReadTime >= readTime || pendingReadTimes.replace(publicCacheKey, pendingReadTime, readTime))
+                return;
+        }
+    }
+
+    private void startIfNeeded() {
+        if (null != flushExecutor)
+            return;
+
+        synchronized (this) {
+            if (null != flushExecutor || stopped)
+                return;
+
+            final String threadName = "EhcacheStreamReadTimeTracker-" + streamManager.getCache().getName();
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    backgroundFlush();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+            flushExecutor = executor;
+        }
+    }
+
+    private void backgroundFlush() {
+        if (pendingReadTimes.isEmpty())
+            return;
+
+        try {
+            flush();
+        } catch (Exception exc) {
+            //a failed flush must not cancel the next ones
+            logger.warn("Could not flush the read times of cache [{}]", streamManager.getCache().getName(), exc);
+        }
+    }
+}
@@ -12,6 +12,6 @@ public class EhcacheStreamUtilsFactory {
      * @return    an IEhcacheStreamUtils object
      */
     public static IEhcacheStreamUtils getUtils(Ehcache cache) {
-        return new EhcacheStreamUtilsPublicImpl(cache);
+        return EhcacheStreamManager.getInstance(cache).newEhcacheStreamPublicUtils();
     }
 }
@@ -3,20 +3,36 @@ package org.ehcache.extensions.io.impl.utils;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.search.Attribute;
+import net.sf.ehcache.search.Result;
+import net.sf.ehcache.search.Results;
 import org.ehcache.extensions.io.*;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterKey;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamReclaimKey;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamSlabChunk;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamSlabStore;
 import org.ehcache.extensions.io.impl.utils.cas.CasWaitStrategyFactory;
 import org.ehcache.extensions.io.impl.utils.cas.WaitStrategy;
+import org.ehcache.extensions.io.impl.utils.extractors.EhcacheStreamKeyExtractor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -28,13 +44,73 @@ public class EhcacheStreamUtilsInternal {
     private static final boolean isDebug = logger.isDebugEnabled();
     private static final boolean isTrace = logger.isTraceEnabled();
 
+    //the lease holder ids: unique within this JVM, and random across the JVMs sharing a clustered cache
+    private static final AtomicLong leaseHolderIdGenerator = new AtomicLong(new SecureRandom().nextLong());
+
     private EhcacheStreamUtilsInternalImpl ehcacheStreamUtilsInternalImpl;
 
+    //the reads and writes acquired through this instance (ie. by a single stream) are leased under that holder id on the masters
+    private final long leaseHolderId = leaseHolderIdGenerator.incrementAndGet();
+
     private final WaitStrategy casWaitStrategy;
 
+    //chunk payloads kept in the off-heap slab store (only for the caches that keep everything on the java heap)
+    private final boolean useSlabStore;
+    private final long slabStoreMaxSize;
+
+    private final EhcacheUtils.CacheType cacheType;
+
+    //measuring the chunk put/get latencies for the adaptive chunk size (null if not used)
+    private final EhcacheStreamChunkSizePolicy chunkSizePolicy;
+
+    //reclaiming the chunks of the removed stream entries in the background (null if the chunks get removed with their master)
+    private final EhcacheStreamChunkReclaimer chunkReclaimer;
+
+    //the reclaim markers are only put by the async chunk reclaim: a new stream entry only looks them up while that reclaim may be running
+    private final boolean checkReclaimMarkers;
+
+    //renewing the leases held by the streams of this JVM (null if the lock leases are not enabled)
+    private final EhcacheStreamLeaseRenewer leaseRenewer;
+
+    //the reader/writer counts not renewed within that duration get released by the waiters (0 or lower: never)
+    private final long lockLeaseDuration;
+
+    //recording the read times to flush them later on the masters (null if the read times get stamped on the masters when opening the reads)
+    private final EhcacheStreamReadTimeTracker readTimeTracker;
+
     public EhcacheStreamUtilsInternal(Ehcache cache) {
+        EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        this.ehcacheStreamUtilsInternalImpl = new EhcacheStreamUtilsInternalImpl(cache);
+        this.cacheType = EhcacheUtils.getCacheType(ehcacheStreamUtilsInternalImpl.getCache());
+        this.casWaitStrategy = CasWaitStrategyFactory.getWaitStrategy(cacheType);
+        this.useSlabStore = ehcacheStreamManager.getChunksOffHeap();
+        this.slabStoreMaxSize = ehcacheStreamManager.getChunksOffHeapMaxSize();
+        this.chunkSizePolicy = null;
+        this.chunkReclaimer = null;
+        this.checkReclaimMarkers = ehcacheStreamManager.isReclaimMarkerCheckNeeded();
+        this.leaseRenewer = null;
+        this.lockLeaseDuration = ehcacheStreamManager.getLockLeaseDuration();
+        this.readTimeTracker = null;
+    }
+
+    //with the cache type, wait strategy and off-heap chunks settings already resolved for that cache (see EhcacheStreamManager)
+    /*package protected*/ EhcacheStreamUtilsInternal(Ehcache cache, EhcacheUtils.CacheType cacheType, WaitStrategy casWaitStrategy, EhcacheStreamChunkSizePolicy chunkSizePolicy, EhcacheStreamChunkReclaimer chunkReclaimer, boolean checkReclaimMarkers, EhcacheStreamLeaseRenewer leaseRenewer, long lockLeaseDuration, EhcacheStreamReadTimeTracker readTimeTracker, boolean useSlabStore, long slabStoreMaxSize) {
         this.ehcacheStreamUtilsInternalImpl = new EhcacheStreamUtilsInternalImpl(cache);
-        this.casWaitStrategy = CasWaitStrategyFactory.getWaitStrategy(cache);
+        this.cacheType = cacheType;
+        this.casWaitStrategy = casWaitStrategy;
+        this.useSlabStore = useSlabStore;
+        this.slabStoreMaxSize = slabStoreMaxSize;
+        this.chunkSizePolicy = chunkSizePolicy;
+        this.chunkReclaimer = chunkReclaimer;
+        this.checkReclaimMarkers = checkReclaimMarkers;
+        this.leaseRenewer = leaseRenewer;
+        this.lockLeaseDuration = lockLeaseDuration;
+        this.readTimeTracker = readTimeTracker;
+    }
+
+    //a mutation applied on a copy of the master entry within the CAS loop (may be applied more than once if the CAS fails)
+    private interface StreamMasterMutation {
+        void mutate(EhcacheStreamMaster streamMaster);
     }
 
     private enum LockType {
@@ -42,6 +118,21 @@ public class EhcacheStreamUtilsInternal {
         WRITE
     }
 
+    //the position of a stream entry in the key listing without index: the hash of its key (as an unsigned int), which does not depend on the other keys,
+    //so the cursors stay valid while stream entries get added or removed (a key present for the whole listing gets listed exactly once)
+    private static long getListingPosition(EhcacheStreamMasterKey masterKey) {
+        return (long) masterKey.hashCode() - Integer.MIN_VALUE;
+    }
+
+    private static final Comparator<EhcacheStreamMasterKey> LISTING_ORDER = new Comparator<EhcacheStreamMasterKey>() {
+        @Override
+        public int compare(EhcacheStreamMasterKey o1, EhcacheStreamMasterKey o2) {
+            long position1 = getListingPosition(o1);
+            long position2 = getListingPosition(o2);
+            return (position1 < position2) ? -1 : ((position1 == position2) ? 0 : 1);
+        }
+    };
+
     public static final String toStringSafe(Object obj){
         return (null != obj)?obj.toString():"null";
     }
@@ -68,7 +159,14 @@ public class EhcacheStreamUtilsInternal {
         return new EhcacheStreamChunkKey(cacheKey, chunkIndex);
     }
 
-    private static EhcacheStreamChunk buildStreamChunkValue(final byte[] bytes) {
+    private EhcacheStreamChunk buildStreamChunkValue(final byte[] bytes) {
+        if(useSlabStore) {
+            EhcacheStreamSlabChunk slabChunk = EhcacheStreamSlabStore.getInstance().allocate(bytes, slabStoreMaxSize);
+            if(null != slabChunk)
+                return slabChunk;
+
+            //slab store full: keeping that chunk on heap
+        }
         return new EhcacheStreamChunk(bytes);
     }
 
@@ -96,6 +194,20 @@ public class EhcacheStreamUtilsInternal {
         }
     }
 
+    //can return null...(eg. if the key is not there, or gets removed while waiting to acquire the write): the master does not get created then
+    public EhcacheStreamMaster openWriteOnExistingMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.openDeleteOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not open a write on master entry within timeout",te);
+        }
+    }
+
+    //only closes the write acquired through this instance if still held (ie. not released on lease expiry since): returns null otherwise
     public EhcacheStreamMaster closeWriteOnMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
         try {
             return ehcacheStreamUtilsInternalImpl.closeWriteOnMaster(
@@ -108,12 +220,143 @@ public class EhcacheStreamUtilsInternal {
         }
     }
 
+    public EhcacheStreamMaster commitWriteOnMaster(final Object publicCacheKey, final EhcacheStreamMaster openedStreamMaster, final EhcacheStreamMaster activeStreamMaster) {
+        return ehcacheStreamUtilsInternalImpl.commitWriteOnMaster(
+                buildStreamMasterKey(publicCacheKey),
+                openedStreamMaster,
+                activeStreamMaster
+        );
+    }
+
+    public boolean saveWriteOnMaster(final Object publicCacheKey, final EhcacheStreamMaster activeStreamMaster) {
+        return ehcacheStreamUtilsInternalImpl.saveWriteOnMaster(
+                buildStreamMasterKey(publicCacheKey),
+                activeStreamMaster
+        );
+    }
+
+    public EhcacheStreamMaster openAppendOnMaster(final Object publicCacheKey, final int chunkIndexCount, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.openAppendOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    chunkIndexCount,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not open an append on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster reserveChunkIndicesOnMaster(final Object publicCacheKey, final int chunkIndexCount, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.reserveChunkIndicesOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    chunkIndexCount,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not reserve chunk indices on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster commitAppendOnMaster(final Object publicCacheKey, final long appendSequence, final int[] chunkIndices, final long[] chunkSizes, final long[] chunkChecksums, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.commitAppendOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    appendSequence,
+                    chunkIndices,
+                    chunkSizes,
+                    chunkChecksums,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not commit an append on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster abortAppendOnMaster(final Object publicCacheKey, final long appendSequence, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.abortAppendOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    appendSequence,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not abort an append on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster openMultipartUploadOnMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.openMultipartUploadOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not open a multipart upload on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster reservePartChunkIndicesOnMaster(final Object publicCacheKey, final long uploadId, final int chunkIndexCount, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.reservePartChunkIndicesOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    uploadId,
+                    chunkIndexCount,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not reserve part chunk indices on master entry within timeout",te);
+        }
+    }
+
+    public EhcacheStreamMaster commitPartOnMaster(final Object publicCacheKey, final long uploadId, final int partNumber, final int[] chunkIndices, final long[] chunkSizes, final long[] chunkChecksums, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.commitPartOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    uploadId,
+                    partNumber,
+                    chunkIndices,
+                    chunkSizes,
+                    chunkChecksums,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not commit an upload part on master entry within timeout",te);
+        }
+    }
+
+    public boolean abortMultipartUploadOnMaster(final Object publicCacheKey, final long uploadId, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.abortMultipartUploadOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    uploadId,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not abort a multipart upload on master entry within timeout",te);
+        }
+    }
+
     public EhcacheStreamMaster openReadOnMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        return openReadOnMaster(publicCacheKey, timeoutMillis, null);
+    }
+
+    public EhcacheStreamMaster openReadOnMaster(final Object publicCacheKey, final long timeoutMillis, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
         try {
             return ehcacheStreamUtilsInternalImpl.openReadOnMaster(
                     buildStreamMasterKey(publicCacheKey),
                     timeoutMillis,
-                    casWaitStrategy
+                    casWaitStrategy,
+                    prefetchedStreamMaster
             );
         } catch (EhcacheStreamTimeoutException te){
             throw new EhcacheStreamTimeoutException("Could not open a read on master entry within timeout",te);
@@ -121,17 +364,70 @@ public class EhcacheStreamUtilsInternal {
     }
 
     public EhcacheStreamMaster openSilentReadOnMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        return openSilentReadOnMaster(publicCacheKey, timeoutMillis, null);
+    }
+
+    //with a read time tracker, the silent read does not write anything to cache: it only waits (with gets) for the current write to finish, and the read time gets flushed later
+    public EhcacheStreamMaster openSilentReadOnMaster(final Object publicCacheKey, final long timeoutMillis, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+        if(null != readTimeTracker) {
+            try {
+                EhcacheStreamMaster currentStreamMaster = ehcacheStreamUtilsInternalImpl.waitNoWriterOnMaster(
+                        buildStreamMasterKey(publicCacheKey),
+                        timeoutMillis,
+                        casWaitStrategy,
+                        prefetchedStreamMaster
+                );
+
+                if(null != currentStreamMaster)
+                    readTimeTracker.recordRead(publicCacheKey);
+
+                return currentStreamMaster;
+            } catch (EhcacheStreamTimeoutException te){
+                throw new EhcacheStreamTimeoutException("Could not open a silent read on master entry within timeout",te);
+            }
+        }
+
         try {
             return ehcacheStreamUtilsInternalImpl.openSilentReadOnMaster(
                     buildStreamMasterKey(publicCacheKey),
                     timeoutMillis,
-                    casWaitStrategy
+                    casWaitStrategy,
+                    prefetchedStreamMaster
             );
         } catch (EhcacheStreamTimeoutException te){
             throw new EhcacheStreamTimeoutException("Could not open a silent read on master entry within timeout",te);
         }
     }
 
+    //records a read that did not go through the master (eg. a committed inline entry):
+    //flushed later with a read time tracker, else stamped on the master right away (as the reads going through the master do)
+    public void recordRead(final Object publicCacheKey, final long timeoutMillis, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+        if(null != readTimeTracker)
+            readTimeTracker.recordRead(publicCacheKey);
+        else
+            markReadOnMaster(publicCacheKey, System.currentTimeMillis(), timeoutMillis, prefetchedStreamMaster);
+    }
+
+    //can return null...(eg. if the entry was removed in the meantime)
+    public EhcacheStreamMaster markReadOnMaster(final Object publicCacheKey, final long readTime, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        return markReadOnMaster(publicCacheKey, readTime, timeoutMillis, null);
+    }
+
+    public EhcacheStreamMaster markReadOnMaster(final Object publicCacheKey, final long readTime, final long timeoutMillis, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.markReadOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    readTime,
+                    timeoutMillis,
+                    casWaitStrategy,
+                    prefetchedStreamMaster
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not mark the read time on master entry within timeout",te);
+        }
+    }
+
+    //only closes the read acquired through this instance if still held (ie. not released on lease expiry since): returns null otherwise
     public EhcacheStreamMaster closeReadOnMaster(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
         try {
             return ehcacheStreamUtilsInternalImpl.closeReadOnMaster(
@@ -144,6 +440,64 @@ public class EhcacheStreamUtilsInternal {
         }
     }
 
+    public long getLeaseHolderId() {
+        return leaseHolderId;
+    }
+
+    //the streams holding a read or write register it here for as long as they hold it, so its lease gets renewed (nothing to do if the lock leases are not enabled)
+    public void holdLease(final Object publicCacheKey, final boolean isWriter) {
+        if(null != leaseRenewer)
+            leaseRenewer.hold(publicCacheKey, isWriter, leaseHolderId);
+    }
+
+    public void releaseLease(final Object publicCacheKey, final boolean isWriter) {
+        if(null != leaseRenewer)
+            leaseRenewer.release(publicCacheKey, isWriter, leaseHolderId);
+    }
+
+    //same for the pending appends (by append sequence) and the multipart uploads (by upload id)
+    public void holdStagingLease(final Object publicCacheKey, final boolean isUpload, final long stagingId) {
+        if(null != leaseRenewer)
+            leaseRenewer.holdStaging(publicCacheKey, isUpload, stagingId);
+    }
+
+    public void releaseStagingLease(final Object publicCacheKey, final boolean isUpload, final long stagingId) {
+        if(null != leaseRenewer)
+            leaseRenewer.releaseStaging(publicCacheKey, isUpload, stagingId);
+    }
+
+    //for the stream entries nobody waits on (eg. an abandoned multipart upload): returns the master entry as in cache once its expired leases are released
+    public EhcacheStreamMaster releaseExpiredLeasesOnMaster(final Object publicCacheKey, final EhcacheStreamMaster ehcacheStreamMaster) {
+        EhcacheStreamMasterKey internalKey = buildStreamMasterKey(publicCacheKey);
+        if (null == ehcacheStreamMaster || !ehcacheStreamMaster.hasExpiredLease(lockLeaseDuration))
+            return ehcacheStreamMaster;
+
+        ehcacheStreamUtilsInternalImpl.releaseExpiredLeases(internalKey, ehcacheStreamMaster);
+        return ehcacheStreamUtilsInternalImpl.getStreamMasterFromCache(internalKey);
+    }
+
+    //renews the read (resp. write) leases held through this instance
+    public EhcacheStreamMaster renewLeasesOnMaster(final Object publicCacheKey, final boolean renewReaderLease, final boolean renewWriterLease, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        return renewLeasesOnMaster(publicCacheKey, (renewReaderLease)?new long[]{leaseHolderId}:new long[0], (renewWriterLease)?new long[]{leaseHolderId}:new long[0], new long[0], new long[0], timeoutMillis);
+    }
+
+    //renews the read (resp. write) leases of these holders only (see EhcacheStreamLeaseRenewer)
+    public EhcacheStreamMaster renewLeasesOnMaster(final Object publicCacheKey, final long[] readerHolderIds, final long[] writerHolderIds, final long[] appendSequences, final long[] uploadIds, final long timeoutMillis) throws EhcacheStreamTimeoutException {
+        try {
+            return ehcacheStreamUtilsInternalImpl.renewLeasesOnMaster(
+                    buildStreamMasterKey(publicCacheKey),
+                    readerHolderIds,
+                    writerHolderIds,
+                    appendSequences,
+                    uploadIds,
+                    timeoutMillis,
+                    casWaitStrategy
+            );
+        } catch (EhcacheStreamTimeoutException te){
+            throw new EhcacheStreamTimeoutException("Could not renew the leases on master entry within timeout",te);
+        }
+    }
+
     public boolean removeEhcacheStream(final Object publicCacheKey, final long timeoutMillis) throws EhcacheStreamTimeoutException {
         try {
             return ehcacheStreamUtilsInternalImpl.atomicRemoveEhcacheStreamMasterInCache(
@@ -160,24 +514,85 @@ public class EhcacheStreamUtilsInternal {
         return ehcacheStreamUtilsInternalImpl.atomicRemoveEhcacheStreamMasterInCacheExplicitLocks(buildStreamMasterKey(publicCacheKey), timeout);
     }
 
+    //bulk removal, one batch of keys at a time (the delete gets acquired on the whole batch, then all its chunks get removed with a single removeAll cache call)
+    //the entries that could not be removed within timeout are skipped so all the others still get removed, and are reported in the exception thrown at the end
+    public int removeEhcacheStreams(final Collection publicCacheKeys, int batchSize, final long timeoutMillis, final boolean explicitLocks) throws EhcacheStreamException {
+        int removedCount = 0;
+        List<EhcacheStreamMasterKey> failedKeys = new ArrayList<EhcacheStreamMasterKey>();
+        List<EhcacheStreamMasterKey> batch = new ArrayList<EhcacheStreamMasterKey>(Math.min(batchSize, publicCacheKeys.size()));
+
+        //no duplicate key: a batch cannot acquire the delete twice on the same entry
+        for (Object publicCacheKey : new LinkedHashSet(publicCacheKeys)) {
+            batch.add(buildStreamMasterKey(publicCacheKey));
+            if(batch.size() == batchSize) {
+                removedCount += removeEhcacheStreamsBatch(batch, timeoutMillis, explicitLocks, failedKeys);
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty())
+            removedCount += removeEhcacheStreamsBatch(batch, timeoutMillis, explicitLocks, failedKeys);
+
+        if(!failedKeys.isEmpty()) {
+            throw new EhcacheStreamException(String.format(
+                    "Could not remove [%d] stream entries within timeout [%d ms] (removed [%d] other stream entries) - First key not removed [%s]", failedKeys.size(), timeoutMillis, removedCount, toStringSafe(failedKeys.get(0))));
+        }
+
+        return removedCount;
+    }
+
+    private int removeEhcacheStreamsBatch(final List<EhcacheStreamMasterKey> internalKeys, final long timeoutMillis, final boolean explicitLocks, final List<EhcacheStreamMasterKey> failedKeys) throws EhcacheStreamException {
+        if(explicitLocks)
+            return ehcacheStreamUtilsInternalImpl.atomicRemoveEhcacheStreamMastersInCacheExplicitLocks(internalKeys, timeoutMillis, failedKeys);
+        else
+            return ehcacheStreamUtilsInternalImpl.atomicRemoveEhcacheStreamMastersInCache(internalKeys, timeoutMillis, casWaitStrategy, failedKeys);
+    }
+
     public void clearChunksFromStreamMaster(final Object publicCacheKey, EhcacheStreamMaster ehcacheStreamMaster) {
         ehcacheStreamUtilsInternalImpl.clearChunksFromStreamMaster(buildStreamMasterKey(publicCacheKey), ehcacheStreamMaster);
     }
 
-    public boolean replaceIfPresentEhcacheStreamMaster(final Object publicCacheKey, EhcacheStreamMaster newEhcacheStreamMaster) {
-        return ehcacheStreamUtilsInternalImpl.replaceIfPresentEhcacheStreamMaster(buildStreamMasterKey(publicCacheKey), newEhcacheStreamMaster);
+    public void clearChunkValues(final Object publicCacheKey, int[] chunkIndices) {
+        ehcacheStreamUtilsInternalImpl.clearChunks(buildStreamMasterKey(publicCacheKey), chunkIndices);
     }
 
+
     public void putChunkValue(final Object publicCacheKey, int chunkIndex, byte[] chunk) throws CacheException {
+        if(null == chunkSizePolicy) {
+            ehcacheStreamUtilsInternalImpl.putChunk(buildStreamChunkKey(publicCacheKey, chunkIndex), buildStreamChunkValue(chunk));
+            return;
+        }
+
+        long t1 = System.nanoTime();
         ehcacheStreamUtilsInternalImpl.putChunk(buildStreamChunkKey(publicCacheKey, chunkIndex), buildStreamChunkValue(chunk));
+        chunkSizePolicy.recordChunkOperation(chunk.length, System.nanoTime() - t1);
+    }
+
+    public Ehcache getCache(){
+        return ehcacheStreamUtilsInternalImpl.getCache();
+    }
+
+    public String getCacheName(){
+        return ehcacheStreamUtilsInternalImpl.getCache().getName();
+    }
+
+    public EhcacheUtils.CacheType getCacheType(){
+        return cacheType;
     }
 
     public EhcacheStreamChunk getChunkValue(final Object publicCacheKey, int chunkIndex){
-        return ehcacheStreamUtilsInternalImpl.getChunkValue(buildStreamChunkKey(publicCacheKey, chunkIndex));
+        if(null == chunkSizePolicy)
+            return ehcacheStreamUtilsInternalImpl.getChunkValue(buildStreamChunkKey(publicCacheKey, chunkIndex));
+
+        long t1 = System.nanoTime();
+        EhcacheStreamChunk chunkValue = ehcacheStreamUtilsInternalImpl.getChunkValue(buildStreamChunkKey(publicCacheKey, chunkIndex));
+        if(null != chunkValue)
+            chunkSizePolicy.recordChunkOperation(chunkValue.getChunkLength(), System.nanoTime() - t1);
+
+        return chunkValue;
     }
 
     public void acquireExclusiveWriteOnMaster(final Object publicCacheKey, long timeout) throws EhcacheStreamTimeoutException {
-        ehcacheStreamUtilsInternalImpl.acquireExclusiveWriteOnMaster(buildStreamMasterKey(publicCacheKey), timeout);
+        ehcacheStreamUtilsInternalImpl.acquireExclusiveWriteOnMaster(buildStreamMasterKey(publicCacheKey), timeout, casWaitStrategy);
     }
 
     public void releaseExclusiveWriteOnMaster(final Object publicCacheKey) {
@@ -193,11 +608,78 @@ public class EhcacheStreamUtilsInternal {
     }
 
     public List getAllStreamMasterPublicKeys(boolean checkForExpiry){
-        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterPublicKeys(checkForExpiry);
+        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterPublicKeys(checkForExpiry, null);
     }
 
     public List getAllStreamMasterPublicKeys(boolean checkForExpiry, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly){
-        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterPublicKeys(checkForExpiry, includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
+        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterPublicKeys(checkForExpiry, null, includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
+    }
+
+    //listing from the master key index of the cache if any (see EhcacheStreamManager)
+    public List getAllStreamMasterPublicKeys(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly){
+        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterPublicKeys(checkForExpiry, masterKeyIndex, includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
+    }
+
+    public EhcacheStreamKeyPage getStreamMasterPublicKeysPage(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex, long cursor, int pageSize){
+        return ehcacheStreamUtilsInternalImpl.getStreamMasterPublicKeysPage(checkForExpiry, masterKeyIndex, cursor, pageSize);
+    }
+
+    public List<EhcacheStreamMasterKey> getAllStreamMasterKeys(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex){
+        return ehcacheStreamUtilsInternalImpl.getAllStreamMasterKeys(checkForExpiry, masterKeyIndex);
+    }
+
+    //one batched cache call for all the masters (the masters not in cache are not in the returned map)
+    public Map<EhcacheStreamMasterKey, EhcacheStreamMaster> getStreamMastersFromCache(Collection<EhcacheStreamMasterKey> internalKeys){
+        return ehcacheStreamUtilsInternalImpl.getStreamMastersFromCache(internalKeys);
+    }
+
+    //the chunk keys of all the stream entries, referenced by their master or not
+    public List<EhcacheStreamChunkKey> getAllStreamChunkKeys(){
+        return ehcacheStreamUtilsInternalImpl.getAllStreamChunkKeys();
+    }
+
+    //removes the chunk entries of a stream entry (among the provided chunk indices) that its master does not reference, while holding the write on that stream entry
+    //the stream entry is skipped (reported in the result) if its write could not be acquired within timeout
+    public EhcacheStreamSweepResult removeOrphanChunks(final Object publicCacheKey, final int[] chunkIndices, final long timeoutMillis, final boolean explicitLocks){
+        if(explicitLocks)
+            return ehcacheStreamUtilsInternalImpl.removeOrphanChunksExplicitLocks(buildStreamMasterKey(publicCacheKey), chunkIndices, timeoutMillis);
+        else
+            return ehcacheStreamUtilsInternalImpl.removeOrphanChunks(buildStreamMasterKey(publicCacheKey), chunkIndices, timeoutMillis, casWaitStrategy);
+    }
+
+    //one getAll cache call per batch of keys (the keys with no stream entry map to null)
+    public Map<Object, EhcacheStreamEntryInfo> getStreamEntryInfos(final Collection publicCacheKeys, int batchSize){
+        Map<Object, EhcacheStreamEntryInfo> streamEntryInfos = new LinkedHashMap<Object, EhcacheStreamEntryInfo>(publicCacheKeys.size());
+        List<EhcacheStreamMasterKey> batch = new ArrayList<EhcacheStreamMasterKey>(Math.min(batchSize, publicCacheKeys.size()));
+        for (Object publicCacheKey : publicCacheKeys) {
+            batch.add(buildStreamMasterKey(publicCacheKey));
+            if(batch.size() == batchSize) {
+                addStreamEntryInfos(batch, streamEntryInfos);
+                batch.clear();
+            }
+        }
+        addStreamEntryInfos(batch, streamEntryInfos);
+        return streamEntryInfos;
+    }
+
+    private void addStreamEntryInfos(final List<EhcacheStreamMasterKey> internalKeys, final Map<Object, EhcacheStreamEntryInfo> streamEntryInfos){
+        Map<EhcacheStreamMasterKey, EhcacheStreamMaster> masters = ehcacheStreamUtilsInternalImpl.getStreamMastersFromCache(internalKeys);
+        for (EhcacheStreamMasterKey internalKey : internalKeys) {
+            EhcacheStreamMaster ehcacheStreamMaster = masters.get(internalKey);
+            streamEntryInfos.put(internalKey.getCacheKey(), (null != ehcacheStreamMaster) ? buildStreamEntryInfo(internalKey, ehcacheStreamMaster) : null);
+        }
+    }
+
+    public EhcacheStreamEntryInfo buildStreamEntryInfo(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster){
+        return new EhcacheStreamEntryInfo(
+                internalKey.getCacheKey(),
+                ehcacheStreamMaster.getChunksTotalSizeInBytes(),
+                ehcacheStreamMaster.getChunkCount(),
+                ehcacheStreamMaster.getReaders(),
+                ehcacheStreamMaster.getWriters(),
+                ehcacheStreamMaster.getLastReadTime(),
+                ehcacheStreamMaster.getLastWrittenTime()
+        );
     }
 
     ////////////////////////////////////////////////////////
@@ -239,45 +721,148 @@ public class EhcacheStreamUtilsInternal {
             return cache.getKeys();
         }
 
-        List getAllStreamMasterPublicKeys(boolean checkForExpiry){
-            return getAllStreamMasterPublicKeys(checkForExpiry, true, true, true, true);
+        //the master keys of the stream entries: from the master key index if any, or a search on the key type attribute if the cache is searchable,
+        //or else a scan of all the cache keys (chunk keys included)
+        List<EhcacheStreamMasterKey> getAllStreamMasterKeys(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex){
+            if(null != masterKeyIndex) {
+                List<EhcacheStreamMasterKey> masterKeys = masterKeyIndex.getKeys();
+                return (checkForExpiry) ? removeExpiredKeys(masterKeys) : masterKeys;
+            }
+
+            if(isKeyTypeSearchable()) {
+                Results results = searchStreamMasterKeys();
+                try {
+                    List<EhcacheStreamMasterKey> masterKeys = toMasterKeys(results.all());
+                    return (checkForExpiry) ? removeExpiredKeys(masterKeys) : masterKeys;
+                } finally {
+                    results.discard();
+                }
+            }
+
+            return scanStreamMasterKeys(checkForExpiry);
         }
 
-        List getAllStreamMasterPublicKeys(boolean checkForExpiry, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly){
-            List publicKeys;
+        private List<EhcacheStreamMasterKey> scanStreamMasterKeys(boolean checkForExpiry){
             List internalKeys = (checkForExpiry)?getKeysWithExpiryCheck():getKeys();
+            if(null == internalKeys || internalKeys.size() == 0)
+                return Collections.emptyList();
+
+            List<EhcacheStreamMasterKey> masterKeys = new ArrayList<EhcacheStreamMasterKey>();
+            for (Object internalKey : internalKeys) {
+                if (null != internalKey && internalKey.getClass().equals(EhcacheStreamMasterKey.class))
+                    masterKeys.add((EhcacheStreamMasterKey) internalKey);
+            }
+            return masterKeys;
+        }
+
+        private List<EhcacheStreamMasterKey> removeExpiredKeys(List<EhcacheStreamMasterKey> masterKeys){
+            Iterator<EhcacheStreamMasterKey> it = masterKeys.iterator();
+            while (it.hasNext()) {
+                if(isExpiredOrRemoved(it.next()))
+                    it.remove();
+            }
+            return masterKeys;
+        }
+
+        //the stream master keys can be searched if the key type attribute (see EhcacheStreamKeyExtractor) is configured on the cache
+        private boolean isKeyTypeSearchable(){
+            if(!cache.isSearchable())
+                return false;
+
+            try {
+                return cache.getSearchAttributes().contains(new Attribute(EhcacheStreamKeyExtractor.FIELDNAME_CACHEKEYTYPE));
+            } catch (CacheException e) {
+                return false;
+            }
+        }
+
+        //the search results must be discarded after use
+        private Results searchStreamMasterKeys(){
+            return searchStreamKeys(EhcacheStreamKeyExtractor.FIELDNAME_CACHEKEYTYPE_MASTERKEY);
+        }
+
+        private Results searchStreamKeys(Integer keyTypeValue){
+            Attribute<Integer> keyType = cache.getSearchAttribute(EhcacheStreamKeyExtractor.FIELDNAME_CACHEKEYTYPE);
+            return cache.createQuery()
+                    .includeKeys()
+                    .addCriteria(keyType.eq(keyTypeValue))
+                    .end()
+                    .execute();
+        }
+
+        //the chunk keys of all the stream entries: from a search on the key type attribute if the cache is searchable, or else a scan of all the cache keys
+        List<EhcacheStreamChunkKey> getAllStreamChunkKeys(){
+            if(isKeyTypeSearchable()) {
+                Results results = searchStreamKeys(EhcacheStreamKeyExtractor.FIELDNAME_CACHEKEYTYPE_CHUNKKEY);
+                try {
+                    List<Result> all = results.all();
+                    List<EhcacheStreamChunkKey> chunkKeys = new ArrayList<EhcacheStreamChunkKey>(all.size());
+                    for (Result result : all) {
+                        if (result.getKey() instanceof EhcacheStreamChunkKey)
+                            chunkKeys.add((EhcacheStreamChunkKey) result.getKey());
+                    }
+                    return chunkKeys;
+                } finally {
+                    results.discard();
+                }
+            }
+
+            List internalKeys = getKeys();
+            if(null == internalKeys || internalKeys.size() == 0)
+                return Collections.emptyList();
+
+            List<EhcacheStreamChunkKey> chunkKeys = new ArrayList<EhcacheStreamChunkKey>();
+            for (Object internalKey : internalKeys) {
+                if (internalKey instanceof EhcacheStreamChunkKey)
+                    chunkKeys.add((EhcacheStreamChunkKey) internalKey);
+            }
+            return chunkKeys;
+        }
+
+        private List<EhcacheStreamMasterKey> toMasterKeys(List<Result> results){
+            List<EhcacheStreamMasterKey> masterKeys = new ArrayList<EhcacheStreamMasterKey>(results.size());
+            for (Result result : results) {
+                Object internalKey = result.getKey();
+                if (null != internalKey && internalKey.getClass().equals(EhcacheStreamMasterKey.class))
+                    masterKeys.add((EhcacheStreamMasterKey) internalKey);
+            }
+            return masterKeys;
+        }
+
+        List getAllStreamMasterPublicKeys(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex){
+            return getAllStreamMasterPublicKeys(checkForExpiry, masterKeyIndex, true, true, true, true);
+        }
+
+        List getAllStreamMasterPublicKeys(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly){
+            List publicKeys;
+            List<EhcacheStreamMasterKey> masterKeys = getAllStreamMasterKeys(checkForExpiry, masterKeyIndex);
 
-            if(null != internalKeys && internalKeys.size() > 0) {
-                publicKeys = new ArrayList(internalKeys.size());
-                Iterator it = internalKeys.iterator();
+            if(null != masterKeys && masterKeys.size() > 0) {
+                publicKeys = new ArrayList(masterKeys.size());
+                Iterator<EhcacheStreamMasterKey> it = masterKeys.iterator();
 
                 //if all true or all false, return all keys
                 if(includeNoReads && includeNoWrites && includeWritesOnly && includeReadsOnly
                         || !includeNoReads && !includeNoWrites && !includeWritesOnly && !includeReadsOnly) {
                     while (it.hasNext()) {
-                        Object internalKey = it.next();
-                        if (null != internalKey
-                                && internalKey.getClass().equals(EhcacheStreamMasterKey.class)) {
-                            EhcacheStreamMasterKey ehcacheStreamMasterKey = (EhcacheStreamMasterKey) internalKey;
-                            publicKeys.add(ehcacheStreamMasterKey.getCacheKey());
-                        }
+                        publicKeys.add(it.next().getCacheKey());
                     }
                 } else {
                     while (it.hasNext()) {
-                        Object internalKey = it.next();
-                        if (null != internalKey
-                                && internalKey.getClass().equals(EhcacheStreamMasterKey.class)) {
-
-                            EhcacheStreamMasterKey ehcacheStreamMasterKey = (EhcacheStreamMasterKey) internalKey;
-                            EhcacheStreamMaster ehcacheStreamMaster = getStreamMasterFromCache(ehcacheStreamMasterKey);
-                            if (
-                                    includeNoReads && ehcacheStreamMaster.getReaders() == 0 ||
-                                            includeNoWrites && ehcacheStreamMaster.getWriters() == 0 ||
-                                            includeWritesOnly && ehcacheStreamMaster.getWriters() > 0 ||
-                                            includeReadsOnly && ehcacheStreamMaster.getReaders() > 0
-                                    ) {
-                                publicKeys.add(ehcacheStreamMasterKey.getCacheKey());
-                            }
+                        EhcacheStreamMasterKey ehcacheStreamMasterKey = it.next();
+                        EhcacheStreamMaster ehcacheStreamMaster = getStreamMasterFromCache(ehcacheStreamMasterKey);
+
+                        //removed since listed
+                        if(null == ehcacheStreamMaster)
+                            continue;
+
+                        if (
+                                includeNoReads && ehcacheStreamMaster.getReaders() == 0 ||
+                                        includeNoWrites && ehcacheStreamMaster.getWriters() == 0 ||
+                                        includeWritesOnly && ehcacheStreamMaster.getWriters() > 0 ||
+                                        includeReadsOnly && ehcacheStreamMaster.getReaders() > 0
+                                ) {
+                            publicKeys.add(ehcacheStreamMasterKey.getCacheKey());
                         }
                     }
                 }
@@ -288,6 +873,64 @@ public class EhcacheStreamUtilsInternal {
             return publicKeys;
         }
 
+        //from the master key index, the cursor is the index sequence of the last listed key;
+        //otherwise (search results or scan), it is the listing position of the next key (see getListingPosition())
+        EhcacheStreamKeyPage getStreamMasterPublicKeysPage(boolean checkForExpiry, EhcacheStreamMasterKeyIndex masterKeyIndex, long cursor, int pageSize){
+            List publicKeys = new ArrayList();
+
+            if(null != masterKeyIndex) {
+                long nextCursor = cursor;
+                for (Map.Entry<Long, EhcacheStreamMasterKey> entry : masterKeyIndex.getPage(cursor, pageSize).entrySet()) {
+                    if(!checkForExpiry || !isExpiredOrRemoved(entry.getValue()))
+                        publicKeys.add(entry.getValue().getCacheKey());
+
+                    nextCursor = entry.getKey();
+                }
+                return new EhcacheStreamKeyPage(publicKeys, nextCursor, masterKeyIndex.hasKeysAfter(nextCursor));
+            }
+
+            //no index: each page lists all the master keys again (one search or scan per page),
+            //only keeping the ones from the cursor on, in listing position order
+            List<EhcacheStreamMasterKey> masterKeys;
+            if(isKeyTypeSearchable()) {
+                Results results = searchStreamMasterKeys();
+                try {
+                    masterKeys = toMasterKeys(results.all());
+                } finally {
+                    results.discard();
+                }
+            } else {
+                masterKeys = scanStreamMasterKeys(false);
+            }
+
+            List<EhcacheStreamMasterKey> nextKeys = new ArrayList<EhcacheStreamMasterKey>();
+            for (EhcacheStreamMasterKey masterKey : masterKeys) {
+                if(getListingPosition(masterKey) >= cursor)
+                    nextKeys.add(masterKey);
+            }
+            Collections.sort(nextKeys, LISTING_ORDER);
+
+            //the keys sharing the position of the last key of the page go in that same page
+            int pageEnd = Math.min(pageSize, nextKeys.size());
+            while (pageEnd > 0 && pageEnd < nextKeys.size() && getListingPosition(nextKeys.get(pageEnd)) == getListingPosition(nextKeys.get(pageEnd - 1))) {
+                pageEnd++;
+            }
+            if(pageEnd == 0)
+                return new EhcacheStreamKeyPage(publicKeys, cursor, false);
+
+            for (EhcacheStreamMasterKey masterKey : nextKeys.subList(0, pageEnd)) {
+                //only checking the keys of this page
+                if(!checkForExpiry || !isExpiredOrRemoved(masterKey))
+                    publicKeys.add(masterKey.getCacheKey());
+            }
+            return new EhcacheStreamKeyPage(publicKeys, getListingPosition(nextKeys.get(pageEnd - 1)) + 1, pageEnd < nextKeys.size());
+        }
+
+        private boolean isExpiredOrRemoved(EhcacheStreamMasterKey masterKey){
+            Element element = cache.getQuiet(masterKey);
+            return null == element || cache.isExpired(element);
+        }
+
         // Passing exitOnNullFromCache = true --> can return null...(eg. if a key is not there i nthe first place, or another delete happens while waiting to acquire the write lock)
         EhcacheStreamMaster openDeleteOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
             return openWriteOnMaster(internalKey, timeoutMillis, waitStrategy, true);
@@ -299,113 +942,529 @@ public class EhcacheStreamUtilsInternal {
         }
 
         //perform a 2-phase open:
-        // 1st: increment the write to stop other reads from acquiring
-        // 2nd: wait for all reads to finish by trying to timestamp the the entry
+        // 1st: increment the write to stop other reads (and concurrent appends) from acquiring
+        // 2nd: wait for all reads and pending concurrent appends to finish by trying to timestamp the the entry
         // If exitOnNullFromCache = true and the cache entry was to become null (eg. a delete happening) the atomic loops will exit, returning a null activeStreamMaster
         // TODO: Using transaction may be better here (to be investigated), but the current should suffice at first.
         private EhcacheStreamMaster openWriteOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, final WaitStrategy waitStrategy, final boolean exitOnNullFromCache) throws EhcacheStreamTimeoutException {
             EhcacheStreamMaster activeStreamMaster = null;
             boolean isOpenMasterMutated = false;
 
-            try {
-                //acquire a soft write lock to stop any new read from acquiring
-                activeStreamMaster = atomicMutateEhcacheStreamMasterInCache(
-                        internalKey,
-                        timeoutMillis,
-                        exitOnNullFromCache,
-                        EhcacheStreamMaster.ComparatorType.NO_WRITER,
-                        EhcacheStreamMaster.MutationField.WRITERS,
-                        EhcacheStreamMaster.MutationType.INCREMENT,
-                        waitStrategy
-                );
+            try {
+                //acquire a soft write lock to stop any new read from acquiring
+                activeStreamMaster = atomicMutateEhcacheStreamMasterInCache(
+                        internalKey,
+                        timeoutMillis,
+                        exitOnNullFromCache,
+                        EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                        EhcacheStreamMaster.MutationField.WRITERS,
+                        EhcacheStreamMaster.MutationType.INCREMENT,
+                        waitStrategy
+                );
+
+                //mark as mutated
+                if(null != activeStreamMaster && activeStreamMaster.getWriters() > 0)
+                    isOpenMasterMutated = true;
+
+                //Then, allow the current read to drain by waiting until no read left before starting the actual write
+                if (isOpenMasterMutated) {
+                    //the wait may outlast the write lease: keep it renewed meanwhile (the stream holds it on its own once opened)
+                    holdLease(internalKey.getCacheKey(), true);
+                    try {
+                        activeStreamMaster = atomicMutateEhcacheStreamMasterInCache(
+                                internalKey,
+                                timeoutMillis,
+                                exitOnNullFromCache,
+                                EhcacheStreamMaster.ComparatorType.NO_READER_NO_APPEND_SINGLE_WRITER,
+                                EhcacheStreamMaster.MutationField.WRITERS,
+                                EhcacheStreamMaster.MutationType.MARK_NOW,
+                                waitStrategy
+                        );
+                    } finally {
+                        releaseLease(internalKey.getCacheKey(), true);
+                    }
+                }
+            } catch (Exception exc1){
+                if(isOpenMasterMutated) {
+                    //silent close
+                    try {
+                        closeWriteOnMaster(internalKey, timeoutMillis, waitStrategy);
+                    } catch (Exception exc2){
+                        logger.warn("An exception occurred while trying to rollback the mutation", exc2);
+                    }
+                }
+
+                //make sure to throw the initial exception
+                throw exc1;
+            }
+
+            return activeStreamMaster;
+        }
+
+        // could return null if the cache entry is null...which shoudl be fine
+        EhcacheStreamMaster closeWriteOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return closeHeldOnMaster(internalKey, true, timeoutMillis, waitStrategy);
+        }
+
+        //Save the final master and release the write in a single CAS operation.
+        //Since the writer holds the exclusive write, the master in cache should still be the one it opened,
+        //but for the lease renewals and read times recorded on it since (carried over to the committed master):
+        //returns null if that's not the case, in which case the caller should fall back to a regular close
+        EhcacheStreamMaster commitWriteOnMaster(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster openedStreamMaster, final EhcacheStreamMaster activeStreamMaster) {
+            EhcacheStreamMaster committedStreamMaster = null;
+            boolean isCommitted = false;
+
+            //first attempt against the opened master (saving a get), then against the master in cache as long as only its lease times moved
+            EhcacheStreamMaster currentStreamMaster = openedStreamMaster;
+            while (!isCommitted && null != currentStreamMaster && openedStreamMaster.equalsNoLeaseTimes(currentStreamMaster)) {
+                committedStreamMaster = EhcacheStreamMaster.deepCopy(activeStreamMaster);
+                committedStreamMaster.copyLeaseTimes(currentStreamMaster);
+                EhcacheStreamMaster.MutationField.WRITERS.mutate(committedStreamMaster, EhcacheStreamMaster.MutationType.DECREMENT, leaseHolderId);
+
+                isCommitted = replaceIfEqualEhcacheStreamMaster(internalKey, currentStreamMaster, committedStreamMaster);
+                if (!isCommitted)
+                    currentStreamMaster = getStreamMasterFromCache(internalKey);
+            }
+
+            if (isDebug)
+                logger.debug("Commit write operation for key {} / value {} - success: {}", toStringSafe(internalKey), toStringSafe(committedStreamMaster), isCommitted);
+
+            return (isCommitted)?committedStreamMaster:null;
+        }
+
+        //Save the final master, still holding the write (released by the close then), as long as that write is held:
+        //returns false if it is not (eg. released on lease expiry, in which case a later writer may hold the master now)
+        boolean saveWriteOnMaster(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster activeStreamMaster) {
+            EhcacheStreamMaster currentStreamMaster = getStreamMasterFromCache(internalKey);
+            while (null != currentStreamMaster && currentStreamMaster.holdsWrite(leaseHolderId)) {
+                //with a fresh write lease: the lease of the opened master may be about to expire if the write took long
+                EhcacheStreamMaster savedStreamMaster = EhcacheStreamMaster.deepCopy(activeStreamMaster);
+                savedStreamMaster.copyLeaseTimes(currentStreamMaster);
+                savedStreamMaster.renewLeases(new long[0], new long[]{leaseHolderId});
+
+                if (replaceIfEqualEhcacheStreamMaster(internalKey, currentStreamMaster, savedStreamMaster))
+                    return true;
+
+                currentStreamMaster = getStreamMasterFromCache(internalKey);
+            }
+            return false;
+        }
+
+        //can return null...(eg. if a key is not there, or another delete happened before)
+        EhcacheStreamMaster openReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    EhcacheStreamMaster.MutationField.READERS,
+                    EhcacheStreamMaster.MutationType.INCREMENT_MARK_NOW,
+                    waitStrategy,
+                    prefetchedStreamMaster
+            );
+        }
+
+        //can return null...(eg. if a key is not there, or another delete happened before)
+        EhcacheStreamMaster openSilentReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    EhcacheStreamMaster.MutationField.READERS,
+                    EhcacheStreamMaster.MutationType.MARK_NOW,   //here, on purpose, we don't want to increment anything...kind of a silent read so if there's a write, it will acquire its write
+                    waitStrategy,
+                    prefetchedStreamMaster
+            );
+        }
+
+        //same wait as the silent read, but with gets only (nothing written to cache): returns a copy of the master entry once it has no writer
+        //can return null...(eg. if a key is not there, or another delete happened before)
+        EhcacheStreamMaster waitNoWriterOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+            EhcacheStreamMaster currentStreamMaster = null;
+            long t1 = System.currentTimeMillis();
+            long t2 = t1; //this ensures that the while always happen at least once!
+            long attempts = 0L;
+
+            while (t2 - t1 <= timeoutMillis) {
+                currentStreamMaster = (attempts == 0 && null != prefetchedStreamMaster)?prefetchedStreamMaster:getStreamMasterFromCache(internalKey);
+                if (EhcacheStreamMaster.ComparatorType.NO_WRITER.check(currentStreamMaster))
+                    return EhcacheStreamMaster.deepCopy(currentStreamMaster);
+
+                if (currentStreamMaster.hasExpiredLease(lockLeaseDuration))
+                    releaseExpiredLeases(internalKey, currentStreamMaster);
+
+                waitStrategy.doWait(attempts);
+                attempts++;
+                t2 = System.currentTimeMillis();
+            }
+
+            throw new EhcacheStreamTimeoutException(String.format(
+                    "Could not wait for no writer within [%d internal retries] totalling [%d ms] (timeout triggers at [%d ms]) - Key [%s] / Current Object at time of timeout: [%s]", attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey), toStringSafe(currentStreamMaster)));
+        }
+
+        //can return null...(eg. if the entry was removed in the meantime)
+        EhcacheStreamMaster markReadOnMaster(final EhcacheStreamMasterKey internalKey, final long readTime, final long timeoutMillis, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            streamMaster.setReadAt(readTime);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "READERS,MARK_AT";
+                        }
+                    },
+                    waitStrategy,
+                    prefetchedStreamMaster
+            );
+        }
+
+        //can return null...(eg. if a key is not there, or another delete happened before)
+        EhcacheStreamMaster closeReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return closeHeldOnMaster(internalKey, false, timeoutMillis, waitStrategy);
+        }
+
+        //releases the read (or write) acquired through this instance, only if still held by it:
+        //once released on lease expiry, the close of that holder is a no-op (returning null), and the counts of the other holders are left as is
+        private EhcacheStreamMaster closeHeldOnMaster(final EhcacheStreamMasterKey internalKey, final boolean isWriter, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            EhcacheStreamMaster currentStreamMaster = getStreamMasterFromCache(internalKey);
+            if (null == currentStreamMaster)
+                return null;
+
+            if (!isHeld(currentStreamMaster, isWriter)) {
+                logger.warn("The {} on key {} was released on lease expiry before its close: nothing to close", (isWriter)?"write":"read", toStringSafe(internalKey));
+                return null;
+            }
+
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.ANY,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            //could get released in the meantime
+                            if (isHeld(streamMaster, isWriter))
+                                ((isWriter)?EhcacheStreamMaster.MutationField.WRITERS:EhcacheStreamMaster.MutationField.READERS).mutate(streamMaster, EhcacheStreamMaster.MutationType.DECREMENT, leaseHolderId);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return ((isWriter)?"WRITERS":"READERS") + ",DECREMENT_HELD";
+                        }
+                    },
+                    waitStrategy,
+                    currentStreamMaster
+            );
+        }
+
+        private boolean isHeld(final EhcacheStreamMaster streamMaster, final boolean isWriter) {
+            return (isWriter)?streamMaster.holdsWrite(leaseHolderId):streamMaster.holdsRead(leaseHolderId);
+        }
+
+        //registers a new concurrent append, and reserves its first range of chunk indices
+        //only waits for the exclusive writers: concurrent appends don't need to wait for each other, nor for the readers
+        EhcacheStreamMaster openAppendOnMaster(final EhcacheStreamMasterKey internalKey, final int chunkIndexCount, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    false,
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            streamMaster.addPendingAppend();
+                            streamMaster.reserveChunkIndices(chunkIndexCount);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "OPEN_APPEND";
+                        }
+                    },
+                    waitStrategy,
+                    null
+            );
+        }
+
+        //reserves more chunk indices for a pending append
+        //no comparator check here: an exclusive writer may be waiting for that pending append to finish
+        EhcacheStreamMaster reserveChunkIndicesOnMaster(final EhcacheStreamMasterKey internalKey, final int chunkIndexCount, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.ANY,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            streamMaster.reserveChunkIndices(chunkIndexCount);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "RESERVE_CHUNK_INDICES";
+                        }
+                    },
+                    waitStrategy,
+                    null
+            );
+        }
+
+        //stages the chunks of a pending append, and publishes all the completed appends that are next in sequence order (group commit)
+        EhcacheStreamMaster commitAppendOnMaster(final EhcacheStreamMasterKey internalKey, final long appendSequence, final int[] chunkIndices, final long[] chunkSizes, final long[] chunkChecksums, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.ANY,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            if(!streamMaster.completePendingAppend(appendSequence, chunkIndices, chunkSizes, chunkChecksums))
+                                throw new EhcacheStreamIllegalStateException(String.format("Pending append [%d] not found in the stream master for key [%s]", appendSequence, toStringSafe(internalKey)));
+
+                            publishCompletedAppends(internalKey, streamMaster);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "COMMIT_APPEND";
+                        }
+                    },
+                    waitStrategy,
+                    null
+            );
+        }
 
-                //mark as mutated
-                if(null != activeStreamMaster && activeStreamMaster.getWriters() > 0)
-                    isOpenMasterMutated = true;
+        //gives up on a pending append (its chunks never get published), publishing the completed appends that were waiting behind it
+        EhcacheStreamMaster abortAppendOnMaster(final EhcacheStreamMasterKey internalKey, final long appendSequence, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    true,
+                    EhcacheStreamMaster.ComparatorType.ANY,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            if(streamMaster.removePendingAppend(appendSequence))
+                                publishCompletedAppends(internalKey, streamMaster);
+                        }
 
-                //Then, allow the current read to drain by waiting until no read left before starting the actual write
-                if (isOpenMasterMutated) {
-                    activeStreamMaster = atomicMutateEhcacheStreamMasterInCache(
-                            internalKey,
-                            timeoutMillis,
-                            exitOnNullFromCache,
-                            EhcacheStreamMaster.ComparatorType.NO_READER_SINGLE_WRITER,
-                            EhcacheStreamMaster.MutationField.WRITERS,
-                            EhcacheStreamMaster.MutationType.MARK_NOW,
-                            waitStrategy
-                    );
-                }
-            } catch (Exception exc1){
-                if(isOpenMasterMutated) {
-                    //silent close
-                    try {
-                        closeWriteOnMaster(internalKey, timeoutMillis, waitStrategy);
-                    } catch (Exception exc2){
-                        logger.warn("An exception occurred while trying to rollback the mutation", exc2);
-                    }
-                }
+                        @Override
+                        public String toString() {
+                            return "ABORT_APPEND";
+                        }
+                    },
+                    waitStrategy,
+                    null
+            );
+        }
 
-                //make sure to throw the initial exception
-                throw exc1;
-            }
+        //registers a new multipart upload (creating an empty stream master entry if there is none yet)
+        //the multipart upload operations wait for the exclusive writers: these work on a copy of the master entry and would otherwise lose the upload updates on commit
+        EhcacheStreamMaster openMultipartUploadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    false,
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            streamMaster.addMultipartUpload();
+                        }
 
-            return activeStreamMaster;
+                        @Override
+                        public String toString() {
+                            return "OPEN_MULTIPART_UPLOAD";
+                        }
+                    },
+                    waitStrategy,
+                    null
+            );
         }
 
-        // could return null if the cache entry is null...which shoudl be fine
-        EhcacheStreamMaster closeWriteOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+        //reserves chunk indices for a part of a multipart upload
+        EhcacheStreamMaster reservePartChunkIndicesOnMaster(final EhcacheStreamMasterKey internalKey, final long uploadId, final int chunkIndexCount, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
             return atomicMutateEhcacheStreamMasterInCache(
                     internalKey,
                     timeoutMillis,
                     true,
-                    EhcacheStreamMaster.ComparatorType.SINGLE_WRITER,
-                    EhcacheStreamMaster.MutationField.WRITERS,
-                    EhcacheStreamMaster.MutationType.DECREMENT,
-                    waitStrategy
+                    EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            if(!streamMaster.hasMultipartUpload(uploadId))
+                                throw new EhcacheStreamIllegalStateException(String.format("Multipart upload [%d] not found in the stream master for key [%s]", uploadId, toStringSafe(internalKey)));
+
+                            streamMaster.reserveChunkIndices(chunkIndexCount);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "RESERVE_PART_CHUNK_INDICES";
+                        }
+                    },
+                    waitStrategy,
+                    null
             );
         }
 
-        //can return null...(eg. if a key is not there, or another delete happened before)
-        EhcacheStreamMaster openReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
-            return atomicMutateEhcacheStreamMasterInCache(
+        //stages the chunks of an uploaded part in its multipart upload
+        //the chunks of a previous upload of that same part number are removed once the master entry no longer references them
+        EhcacheStreamMaster commitPartOnMaster(final EhcacheStreamMasterKey internalKey, final long uploadId, final int partNumber, final int[] chunkIndices, final long[] chunkSizes, final long[] chunkChecksums, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            //the mutation may run more than once: only the replaced part of the successful attempt counts
+            final int[][] replacedChunkIndices = new int[1][];
+            EhcacheStreamMaster committedStreamMaster = atomicMutateEhcacheStreamMasterInCache(
                     internalKey,
                     timeoutMillis,
                     true,
                     EhcacheStreamMaster.ComparatorType.NO_WRITER,
-                    EhcacheStreamMaster.MutationField.READERS,
-                    EhcacheStreamMaster.MutationType.INCREMENT_MARK_NOW,
-                    waitStrategy
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            if(!streamMaster.hasMultipartUpload(uploadId))
+                                throw new EhcacheStreamIllegalStateException(String.format("Multipart upload [%d] not found in the stream master for key [%s]", uploadId, toStringSafe(internalKey)));
+
+                            replacedChunkIndices[0] = streamMaster.stageMultipartUploadPart(uploadId, partNumber, chunkIndices, chunkSizes, chunkChecksums);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "COMMIT_PART";
+                        }
+                    },
+                    waitStrategy,
+                    null
             );
+
+            if(null != committedStreamMaster)
+                clearChunks(internalKey, replacedChunkIndices[0]);
+
+            return committedStreamMaster;
         }
 
-        //can return null...(eg. if a key is not there, or another delete happened before)
-        EhcacheStreamMaster openSilentReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
-            return atomicMutateEhcacheStreamMasterInCache(
+        //drops a multipart upload and all its staged parts
+        boolean abortMultipartUploadOnMaster(final EhcacheStreamMasterKey internalKey, final long uploadId, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            final int[][] abortedChunkIndices = new int[1][];
+            final boolean[] isAborted = new boolean[1];
+            EhcacheStreamMaster abortedStreamMaster = atomicMutateEhcacheStreamMasterInCache(
                     internalKey,
                     timeoutMillis,
                     true,
                     EhcacheStreamMaster.ComparatorType.NO_WRITER,
-                    EhcacheStreamMaster.MutationField.READERS,
-                    EhcacheStreamMaster.MutationType.MARK_NOW,   //here, on purpose, we don't want to increment anything...kind of a silent read so if there's a write, it will acquire its write
-                    waitStrategy
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            abortedChunkIndices[0] = streamMaster.getMultipartUploadChunkIndices(uploadId);
+                            isAborted[0] = streamMaster.removeMultipartUpload(uploadId);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "ABORT_MULTIPART_UPLOAD";
+                        }
+                    },
+                    waitStrategy,
+                    null
             );
+
+            if(null == abortedStreamMaster || !isAborted[0])
+                return false;
+
+            clearChunks(internalKey, abortedChunkIndices[0]);
+            return true;
         }
 
-        //can return null...(eg. if a key is not there, or another delete happened before)
-        EhcacheStreamMaster closeReadOnMaster(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+        //can return null...(eg. if the entry was removed in the meantime)
+        EhcacheStreamMaster renewLeasesOnMaster(final EhcacheStreamMasterKey internalKey, final long[] readerHolderIds, final long[] writerHolderIds, final long[] appendSequences, final long[] uploadIds, final long timeoutMillis, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
             return atomicMutateEhcacheStreamMasterInCache(
                     internalKey,
                     timeoutMillis,
                     true,
-                    EhcacheStreamMaster.ComparatorType.AT_LEAST_ONE_READER,
-                    EhcacheStreamMaster.MutationField.READERS,
-                    EhcacheStreamMaster.MutationType.DECREMENT,
-                    waitStrategy
+                    EhcacheStreamMaster.ComparatorType.ANY,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            streamMaster.renewLeases(readerHolderIds, writerHolderIds);
+                            streamMaster.renewPendingAppendLeases(appendSequences);
+                            streamMaster.renewMultipartUploadLeases(uploadIds);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "RENEW_LEASES";
+                        }
+                    },
+                    waitStrategy,
+                    null
             );
         }
 
-        //Main CAS loop util method used by the CAS readers/writers
+        //the holders of an expired lease are gone (eg. their JVM died while holding the stream): release their counts so the waiters can go on
+        //the appends completed behind a released append get published, and the parts staged by the released uploads removed
+        void releaseExpiredLeases(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster) {
+            EhcacheStreamMaster releasedStreamMaster = EhcacheStreamMaster.deepCopy(ehcacheStreamMaster);
+            int[] releasedChunkIndices = releasedStreamMaster.releaseExpiredLeases(lockLeaseDuration);
+            publishCompletedAppends(internalKey, releasedStreamMaster);
+
+            if (replaceIfEqualEhcacheStreamMaster(internalKey, ehcacheStreamMaster, releasedStreamMaster)) {
+                logger.warn("Released the expired leases on key {}: readers [{} -> {}] / writers [{} -> {}] / pending appends [{} -> {}] / multipart uploads [{} -> {}] (not renewed for more than [{} ms])",
+                        toStringSafe(internalKey), ehcacheStreamMaster.getReaders(), releasedStreamMaster.getReaders(), ehcacheStreamMaster.getWriters(), releasedStreamMaster.getWriters(),
+                        ehcacheStreamMaster.getPendingAppendCount(), releasedStreamMaster.getPendingAppendCount(), ehcacheStreamMaster.getMultipartUploadCount(), releasedStreamMaster.getMultipartUploadCount(), lockLeaseDuration);
+
+                clearChunks(internalKey, releasedChunkIndices);
+            }
+        }
+
+        private void publishCompletedAppends(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster streamMaster) {
+            //first publish on an inline stream: the inline bytes must be in their chunk entry before the new master gets saved
+            int inlineChunkIndex = streamMaster.getPublishInlineChunkIndex();
+            if(inlineChunkIndex >= 0)
+                putChunk(buildStreamChunkKey(internalKey.getCacheKey(), inlineChunkIndex), buildStreamChunkValue(streamMaster.getInlineChunk()));
+
+            if(streamMaster.publishCompletedAppends() > 0)
+                EhcacheStreamMaster.MutationField.WRITERS.mutate(streamMaster, EhcacheStreamMaster.MutationType.MARK_NOW, leaseHolderId);
+        }
+
         EhcacheStreamMaster atomicMutateEhcacheStreamMasterInCache(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, final boolean exitOnNullCacheEntry, final EhcacheStreamMaster.ComparatorType comparatorType, final EhcacheStreamMaster.MutationField mutationField, final EhcacheStreamMaster.MutationType mutationType, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(internalKey, timeoutMillis, exitOnNullCacheEntry, comparatorType, mutationField, mutationType, waitStrategy, null);
+        }
+
+        EhcacheStreamMaster atomicMutateEhcacheStreamMasterInCache(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, final boolean exitOnNullCacheEntry, final EhcacheStreamMaster.ComparatorType comparatorType, final EhcacheStreamMaster.MutationField mutationField, final EhcacheStreamMaster.MutationType mutationType, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
+            return atomicMutateEhcacheStreamMasterInCache(
+                    internalKey,
+                    timeoutMillis,
+                    exitOnNullCacheEntry,
+                    comparatorType,
+                    new StreamMasterMutation() {
+                        @Override
+                        public void mutate(EhcacheStreamMaster streamMaster) {
+                            mutationField.mutate(streamMaster, mutationType, leaseHolderId);
+                        }
+
+                        @Override
+                        public String toString() {
+                            return toStringSafe(mutationField) + "," + toStringSafe(mutationType);
+                        }
+                    },
+                    waitStrategy,
+                    prefetchedStreamMaster
+            );
+        }
+
+        //Main CAS loop util method used by the CAS readers/writers
+        //If not null, prefetchedStreamMaster (the value just fetched from cache by the caller) is used as the expected value for the first CAS attempt, saving a get
+        EhcacheStreamMaster atomicMutateEhcacheStreamMasterInCache(final EhcacheStreamMasterKey internalKey, final long timeoutMillis, final boolean exitOnNullCacheEntry, final EhcacheStreamMaster.ComparatorType comparatorType, final StreamMasterMutation mutation, WaitStrategy waitStrategy, final EhcacheStreamMaster prefetchedStreamMaster) throws EhcacheStreamTimeoutException {
             EhcacheStreamMaster mutatedStreamMaster = null;
             boolean isMutated = false;
             long t1 = System.currentTimeMillis();
@@ -413,8 +1472,8 @@ public class EhcacheStreamUtilsInternal {
             long attempts = 0L;
 
             while (!isMutated && t2 - t1 <= timeoutMillis) {
-                //get the master index from cache, unless override is set
-                EhcacheStreamMaster initialStreamMasterFromCache = getStreamMasterFromCache(internalKey);
+                //get the master index from cache, unless it was just prefetched by the caller (first attempt only)
+                EhcacheStreamMaster initialStreamMasterFromCache = (attempts == 0 && null != prefetchedStreamMaster)?prefetchedStreamMaster:getStreamMasterFromCache(internalKey);
 
                 //if cache entry is null and we're allowed to exit, let's exit
                 if(exitOnNullCacheEntry && null == initialStreamMasterFromCache){
@@ -425,16 +1484,25 @@ public class EhcacheStreamUtilsInternal {
                     if (comparatorType.check(initialStreamMasterFromCache)) {
                         if (null == initialStreamMasterFromCache) {
                             mutatedStreamMaster = new EhcacheStreamMaster();
+
+                            //the chunk entries of a previous stream entry on that key may still be getting reclaimed: allocate past them.
+                            //only looked up while the async reclaim is enabled, or still reclaiming here (see EhcacheStreamManager.isReclaimMarkerCheckNeeded())
+                            Integer reclaimNextChunkIndex = (checkReclaimMarkers) ? getReclaimNextChunkIndex(internalKey) : null;
+                            if (null != reclaimNextChunkIndex)
+                                mutatedStreamMaster.skipChunkIndices(reclaimNextChunkIndex);
                         } else {
                             mutatedStreamMaster = EhcacheStreamMaster.deepCopy(initialStreamMasterFromCache);
                         }
 
                         //mutation as requested
-                        mutationField.mutate(mutatedStreamMaster, mutationType);
+                        mutation.mutate(mutatedStreamMaster);
 
                         //concurrency check with CAS: let's save the initial EhcacheStreamMaster in cache, while making sure it hasn't change so far
                         //if multiple threads are trying to do this replace on same key, only one thread is guaranteed to succeed here...while others will fail their CAS ops...and spin back to try again later.
                         isMutated = replaceIfEqualEhcacheStreamMaster(internalKey, initialStreamMasterFromCache, mutatedStreamMaster);
+                    } else if (null != initialStreamMasterFromCache && initialStreamMasterFromCache.hasExpiredLease(lockLeaseDuration)) {
+                        //waiting on abandoned reads or writes: release them, and try again on the next round
+                        releaseExpiredLeases(internalKey, initialStreamMasterFromCache);
                     }
                 }
 
@@ -446,17 +1514,17 @@ public class EhcacheStreamUtilsInternal {
                 t2 = System.currentTimeMillis();
 
                 if (isTrace)
-                    logger.trace(String.format("Current CAS loop status: Atomic mutate operation [%s,%s,%s] / Total retries [%d ] / Total time spent [%d ms] (timeout triggers at [%d ms]) / Cache Key [%s]", toStringSafe(mutationField), toStringSafe(mutationType), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey)));
+                    logger.trace(String.format("Current CAS loop status: Atomic mutate operation [%s,%s] / Total retries [%d ] / Total time spent [%d ms] (timeout triggers at [%d ms]) / Cache Key [%s]", toStringSafe(mutation), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey)));
             }
 
             //if it's not mutated at the end of all the tries and timeout, throw timeout exception
             if (!isMutated) {
                 throw new EhcacheStreamTimeoutException(String.format(
-                        "Could not perform Atomic mutate operation [%s,%s,%s] within [%d internal retries] totalling [%d ms] (timeout triggers at [%d ms]) - Key [%s] / Current Non-Mutated Object at time of timeout: [%s]", toStringSafe(mutationField), toStringSafe(mutationType), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey), toStringSafe(mutatedStreamMaster)));
+                        "Could not perform Atomic mutate operation [%s,%s] within [%d internal retries] totalling [%d ms] (timeout triggers at [%d ms]) - Key [%s] / Current Non-Mutated Object at time of timeout: [%s]", toStringSafe(mutation), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey), toStringSafe(mutatedStreamMaster)));
             } else {
                 if (isDebug) {
                     logger.debug(String.format(
-                            "Successfully performed Atomic mutate operation [%s,%s,%s] within [%d internal retries] totalling [%d ms] (timeout triggers at [%d ms]) - Key [%s] / Returned Mutated Object [%s]", toStringSafe(mutationField), toStringSafe(mutationType), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey), toStringSafe(mutatedStreamMaster)));
+                            "Successfully performed Atomic mutate operation [%s,%s] within [%d internal retries] totalling [%d ms] (timeout triggers at [%d ms]) - Key [%s] / Returned Mutated Object [%s]", toStringSafe(mutation), toStringSafe(comparatorType), attempts, t2 - t1, timeoutMillis, toStringSafe(internalKey), toStringSafe(mutatedStreamMaster)));
                 }
             }
 
@@ -480,6 +1548,13 @@ public class EhcacheStreamUtilsInternal {
                 isRemoved = true;
                 if (isDebug)
                     logger.debug("No value to remove for key {}", toStringSafe(ehcacheStreamMasterKey));
+            } else if (isChunkReclaimable(activeStreamMaster)) {
+                //logical delete: remove the master only (the stream entry is then gone), and leave the chunks to the background reclaimer
+                isRemoved = removeStreamMasterAndReclaimChunks(ehcacheStreamMasterKey, activeStreamMaster);
+                if (!isRemoved) {
+                    throw new EhcacheStreamIllegalStateException(String.format(
+                            "Could not perform Atomic Remove operation on key [%s]", toStringSafe(ehcacheStreamMasterKey)));
+                }
             } else {
                 //now we're locked, clear related chunks
                 clearChunksFromStreamMaster(ehcacheStreamMasterKey, activeStreamMaster);
@@ -514,13 +1589,17 @@ public class EhcacheStreamUtilsInternal {
         boolean atomicRemoveEhcacheStreamMasterInCacheExplicitLocks(final EhcacheStreamMasterKey ehcacheStreamMasterKey, long timeout) throws EhcacheStreamException {
             boolean removed = false;
             try {
-                acquireExclusiveWriteOnMaster(ehcacheStreamMasterKey, timeout);
+                acquireExclusiveWriteOnMaster(ehcacheStreamMasterKey, timeout, casWaitStrategy);
 
                 //get stream master before removal
                 EhcacheStreamMaster ehcacheStreamMaster = getStreamMasterFromCache(ehcacheStreamMasterKey);
 
                 //remove stream master from cache (this op is the most important for consistency)
-                if (null != ehcacheStreamMaster) {
+                boolean isChunkReclaimed = isChunkReclaimable(ehcacheStreamMaster);
+                if (isChunkReclaimed) {
+                    //logical delete: remove the master only, and leave the chunks to the background reclaimer
+                    removed = removeStreamMasterAndReclaimChunks(ehcacheStreamMasterKey, ehcacheStreamMaster);
+                } else if (null != ehcacheStreamMaster) {
                     removed = removeIfPresentEhcacheStreamMaster(ehcacheStreamMasterKey, ehcacheStreamMaster);
 
                     // if success removal, clean up the chunks...
@@ -536,10 +1615,12 @@ public class EhcacheStreamUtilsInternal {
                 if (null != getStreamMasterFromCache(ehcacheStreamMasterKey))
                     throw new EhcacheStreamException("Master Entry was not removed as expected");
 
-                //check that the other chunks are also removed
-                EhcacheStreamChunk[] chunkValues = getStreamChunksFromStreamMaster(ehcacheStreamMasterKey, ehcacheStreamMaster);
-                if (null != chunkValues && chunkValues.length > 0)
-                    throw new EhcacheStreamException("Some chunk entries were not removed as expected");
+                //check that the other chunks are also removed (unless left to the background reclaimer)
+                if (!isChunkReclaimed) {
+                    EhcacheStreamChunk[] chunkValues = getStreamChunksFromStreamMaster(ehcacheStreamMasterKey, ehcacheStreamMaster);
+                    if (null != chunkValues && chunkValues.length > 0)
+                        throw new EhcacheStreamException("Some chunk entries were not removed as expected");
+                }
             } finally {
                 releaseExclusiveWriteOnMaster(ehcacheStreamMasterKey);
             }
@@ -547,6 +1628,291 @@ public class EhcacheStreamUtilsInternal {
             return removed;
         }
 
+        //A bulk version of atomicRemoveEhcacheStreamMasterInCache, for a batch of master keys (all sharing the same timeout):
+        // 1st: acquire the write on all the masters (fetched with a single getAll) to stop any new read
+        // 2nd: wait for the current reads to drain on each master (they all drain at the same time)
+        // 3rd: remove the chunks of all the masters with a single removeAll, and verify only a sample of them
+        // 4th: remove the masters
+        //Returns the number of removed masters. The keys that could not be removed within timeout are added to failedKeys.
+        int atomicRemoveEhcacheStreamMastersInCache(final List<EhcacheStreamMasterKey> internalKeys, final long timeoutMillis, final WaitStrategy waitStrategy, final List<EhcacheStreamMasterKey> failedKeys) throws EhcacheStreamException {
+            long t1 = System.currentTimeMillis();
+            Map<EhcacheStreamMasterKey, EhcacheStreamMaster> prefetchedStreamMasters = getStreamMastersFromCache(internalKeys);
+
+            Map<EhcacheStreamMasterKey, EhcacheStreamMaster> openedStreamMasters = new LinkedHashMap<EhcacheStreamMasterKey, EhcacheStreamMaster>(prefetchedStreamMasters.size());
+            for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : prefetchedStreamMasters.entrySet()) {
+                try {
+                    EhcacheStreamMaster openedStreamMaster = atomicMutateEhcacheStreamMasterInCache(
+                            entry.getKey(),
+                            getRemainingTimeout(t1, timeoutMillis),
+                            true,
+                            EhcacheStreamMaster.ComparatorType.NO_WRITER,
+                            EhcacheStreamMaster.MutationField.WRITERS,
+                            EhcacheStreamMaster.MutationType.INCREMENT,
+                            waitStrategy,
+                            entry.getValue()
+                    );
+
+                    //if null, the entry is not there anymore...that's fine we don't need to delete it then
+                    if(null != openedStreamMaster)
+                        openedStreamMasters.put(entry.getKey(), openedStreamMaster);
+                } catch (EhcacheStreamTimeoutException te) {
+                    failedKeys.add(entry.getKey());
+                }
+            }
+
+            //the masters this bulk remove holds the write on (until they get removed, or released on failure)
+            Set<EhcacheStreamMasterKey> heldKeys = new LinkedHashSet<EhcacheStreamMasterKey>(openedStreamMasters.keySet());
+            int removedCount = 0;
+            try {
+                Map<EhcacheStreamMasterKey, EhcacheStreamMaster> activeStreamMasters = new LinkedHashMap<EhcacheStreamMasterKey, EhcacheStreamMaster>(openedStreamMasters.size());
+                for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : openedStreamMasters.entrySet()) {
+                    try {
+                        EhcacheStreamMaster activeStreamMaster = atomicMutateEhcacheStreamMasterInCache(
+                                entry.getKey(),
+                                getRemainingTimeout(t1, timeoutMillis),
+                                true,
+                                EhcacheStreamMaster.ComparatorType.NO_READER_NO_APPEND_SINGLE_WRITER,
+                                EhcacheStreamMaster.MutationField.WRITERS,
+                                EhcacheStreamMaster.MutationType.MARK_NOW,
+                                waitStrategy,
+                                entry.getValue()
+                        );
+
+                        if(null != activeStreamMaster)
+                            activeStreamMasters.put(entry.getKey(), activeStreamMaster);
+                        else
+                            heldKeys.remove(entry.getKey());
+                    } catch (EhcacheStreamTimeoutException te) {
+                        failedKeys.add(entry.getKey());
+                    }
+                }
+
+                //now we're locked, clear all the related chunks at once, and make sure it happened right
+                verifyChunksRemoved(clearChunksFromStreamMasters(activeStreamMasters));
+
+                //Finally, remove the stream masters from cache (this will automatically unlock any other thread)
+                for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : activeStreamMasters.entrySet()) {
+                    if (removeIfPresentEhcacheStreamMaster(entry.getKey(), entry.getValue())) {
+                        removedCount++;
+                        heldKeys.remove(entry.getKey());
+                    } else {
+                        logger.warn("Could not perform Atomic Remove operation on key {}", toStringSafe(entry.getKey()));
+                        failedKeys.add(entry.getKey());
+                    }
+                }
+            } finally {
+                //silent close of the writes still held (the masters not drained within timeout, or not removed), so they do not stay unwritable
+                for (EhcacheStreamMasterKey heldKey : heldKeys) {
+                    try {
+                        closeWriteOnMaster(heldKey, timeoutMillis, waitStrategy);
+                    } catch (Exception exc) {
+                        logger.warn("An exception occurred while trying to rollback the mutation", exc);
+                    }
+                }
+            }
+
+            if (isDebug)
+                logger.debug("Bulk remove operation on [{}] keys: removed [{}] stream entries in [{} ms]", internalKeys.size(), removedCount, System.currentTimeMillis() - t1);
+
+            return removedCount;
+        }
+
+        //A bulk version of atomicRemoveEhcacheStreamMasterInCacheExplicitLocks, for a batch of master keys (all sharing the same timeout)
+        int atomicRemoveEhcacheStreamMastersInCacheExplicitLocks(final List<EhcacheStreamMasterKey> internalKeys, final long timeoutMillis, final List<EhcacheStreamMasterKey> failedKeys) throws EhcacheStreamException {
+            long t1 = System.currentTimeMillis();
+            List<EhcacheStreamMasterKey> lockedKeys = new ArrayList<EhcacheStreamMasterKey>(internalKeys.size());
+            int removedCount = 0;
+            try {
+                for (EhcacheStreamMasterKey internalKey : internalKeys) {
+                    try {
+                        acquireExclusiveWriteOnMaster(internalKey, getRemainingTimeout(t1, timeoutMillis), casWaitStrategy);
+                        lockedKeys.add(internalKey);
+                    } catch (EhcacheStreamTimeoutException te) {
+                        failedKeys.add(internalKey);
+                    }
+                }
+
+                //remove stream masters from cache first (this op is the most important for consistency)
+                Map<EhcacheStreamMasterKey, EhcacheStreamMaster> removedStreamMasters = new LinkedHashMap<EhcacheStreamMasterKey, EhcacheStreamMaster>(lockedKeys.size());
+                for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : getStreamMastersFromCache(lockedKeys).entrySet()) {
+                    if (removeIfPresentEhcacheStreamMaster(entry.getKey(), entry.getValue())) {
+                        removedStreamMasters.put(entry.getKey(), entry.getValue());
+                    } else {
+                        logger.warn("Could not remove the master entry for key {}", toStringSafe(entry.getKey()));
+                        failedKeys.add(entry.getKey());
+                    }
+                }
+
+                //then clean up all the chunks of the removed masters at once
+                verifyChunksRemoved(clearChunksFromStreamMasters(removedStreamMasters));
+                removedCount = removedStreamMasters.size();
+            } finally {
+                for (EhcacheStreamMasterKey lockedKey : lockedKeys) {
+                    releaseExclusiveWriteOnMaster(lockedKey);
+                }
+            }
+
+            if (isDebug)
+                logger.debug("Bulk remove operation on [{}] keys: removed [{}] stream entries in [{} ms]", internalKeys.size(), removedCount, System.currentTimeMillis() - t1);
+
+            return removedCount;
+        }
+
+        //the timeout left since t1 (0 if elapsed, in which case the lock ops still get tried once)
+        private long getRemainingTimeout(final long t1, final long timeoutMillis) {
+            return Math.max(0L, timeoutMillis - (System.currentTimeMillis() - t1));
+        }
+
+        //only check a sample of the removed chunk keys (evenly spread) instead of every single one of them
+        private void verifyChunksRemoved(final List<EhcacheStreamChunkKey> chunkKeys) {
+            int sampleSize = Math.min(chunkKeys.size(), PropertyUtils.DEFAULT_STREAM_REMOVE_VERIFY_SAMPLE_SIZE);
+            for (int i = 0; i < sampleSize; i++) {
+                EhcacheStreamChunkKey chunkKey = chunkKeys.get((int) ((long) i * chunkKeys.size() / sampleSize));
+                if (cache.isKeyInCache(chunkKey)) {
+                    throw new EhcacheStreamIllegalStateException(String.format(
+                            "Could not remove all the chunks - chunk key [%s] still in cache", toStringSafe(chunkKey)));
+                }
+            }
+        }
+
+        //Removes the orphan chunks of a stream entry while holding its write: no chunk can get added to that stream entry meanwhile,
+        //so the chunks its master does not reference are not used by anything.
+        //With no master in cache, a placeholder master holding the write gets put for the time of the removal,
+        //so a new stream entry on that key can not start writing its chunks meanwhile.
+        EhcacheStreamSweepResult removeOrphanChunks(final EhcacheStreamMasterKey internalKey, final int[] chunkIndices, final long timeoutMillis, final WaitStrategy waitStrategy) {
+            long t1 = System.currentTimeMillis();
+
+            EhcacheStreamMaster activeStreamMaster;
+            try {
+                activeStreamMaster = openDeleteOnMaster(internalKey, timeoutMillis, waitStrategy);
+            } catch (EhcacheStreamTimeoutException te) {
+                if (isDebug)
+                    logger.debug("Could not acquire the write on key {} within timeout - orphan chunks left for a later sweep", toStringSafe(internalKey));
+                return new EhcacheStreamSweepResult(0, 0L, 1, System.currentTimeMillis() - t1);
+            }
+
+            EhcacheStreamMaster placeholderStreamMaster = null;
+            if (null == activeStreamMaster) {
+                placeholderStreamMaster = new EhcacheStreamMaster();
+                EhcacheStreamMaster.MutationField.WRITERS.mutate(placeholderStreamMaster, EhcacheStreamMaster.MutationType.INCREMENT_MARK_NOW, leaseHolderId);
+
+                //a stream entry just got created on that key: left for a later sweep
+                if (!replaceIfEqualEhcacheStreamMaster(internalKey, null, placeholderStreamMaster))
+                    return new EhcacheStreamSweepResult(0, 0L, 1, System.currentTimeMillis() - t1);
+            }
+
+            try {
+                //the chunks staged by the multipart uploads are not in the master chunk list yet
+                if (null != activeStreamMaster && activeStreamMaster.getMultipartUploadCount() > 0)
+                    return new EhcacheStreamSweepResult(0, 0L, 1, System.currentTimeMillis() - t1);
+
+                return clearOrphanChunks(internalKey, activeStreamMaster, chunkIndices, t1);
+            } finally {
+                if (null != placeholderStreamMaster) {
+                    //nothing else changes a master holding a write, so it should still be the placeholder
+                    if (!removeIfPresentEhcacheStreamMaster(internalKey, placeholderStreamMaster))
+                        logger.warn("Could not remove the placeholder master of the orphan chunk sweep for key {}", toStringSafe(internalKey));
+                } else {
+                    try {
+                        closeWriteOnMaster(internalKey, timeoutMillis, waitStrategy);
+                    } catch (EhcacheStreamTimeoutException te) {
+                        logger.warn("Could not release the write of the orphan chunk sweep for key {}", toStringSafe(internalKey), te);
+                    }
+                }
+            }
+        }
+
+        EhcacheStreamSweepResult removeOrphanChunksExplicitLocks(final EhcacheStreamMasterKey internalKey, final int[] chunkIndices, final long timeoutMillis) {
+            long t1 = System.currentTimeMillis();
+            try {
+                acquireExclusiveWriteOnMaster(internalKey, timeoutMillis, casWaitStrategy);
+            } catch (EhcacheStreamTimeoutException te) {
+                if (isDebug)
+                    logger.debug("Could not acquire the write lock on key {} within timeout - orphan chunks left for a later sweep", toStringSafe(internalKey));
+                return new EhcacheStreamSweepResult(0, 0L, 1, System.currentTimeMillis() - t1);
+            }
+
+            try {
+                EhcacheStreamMaster ehcacheStreamMaster = getStreamMasterFromCache(internalKey);
+
+                //the reserved chunks of the concurrent appends and multipart uploads are not in the master chunk list yet
+                if (null != ehcacheStreamMaster && (ehcacheStreamMaster.hasPendingAppends() || ehcacheStreamMaster.getMultipartUploadCount() > 0))
+                    return new EhcacheStreamSweepResult(0, 0L, 1, System.currentTimeMillis() - t1);
+
+                return clearOrphanChunks(internalKey, ehcacheStreamMaster, chunkIndices, t1);
+            } finally {
+                releaseExclusiveWriteOnMaster(internalKey);
+            }
+        }
+
+        //removes the chunks not referenced by the master (all of them if no master), fetching them first to report their size
+        private EhcacheStreamSweepResult clearOrphanChunks(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster, final int[] chunkIndices, final long t1) {
+            Set<Integer> referencedIndices = new HashSet<Integer>();
+            if (null != ehcacheStreamMaster) {
+                for (int chunkIndex : ehcacheStreamMaster.getAllChunkIndices()) {
+                    referencedIndices.add(chunkIndex);
+                }
+            }
+
+            List<EhcacheStreamChunkKey> orphanKeys = new ArrayList<EhcacheStreamChunkKey>(chunkIndices.length);
+            for (int chunkIndex : chunkIndices) {
+                if (!referencedIndices.contains(chunkIndex))
+                    orphanKeys.add(new EhcacheStreamChunkKey(internalKey.getCacheKey(), chunkIndex));
+            }
+
+            int orphanChunkCount = 0;
+            long reclaimedBytes = 0L;
+            if (!orphanKeys.isEmpty()) {
+                Map<Object, Element> orphanElements = cache.getAll(orphanKeys);
+                for (Element orphanElement : orphanElements.values()) {
+                    if (null != orphanElement && orphanElement.getObjectValue() instanceof EhcacheStreamChunk) {
+                        orphanChunkCount++;
+                        reclaimedBytes += ((EhcacheStreamChunk) orphanElement.getObjectValue()).getChunkLength();
+                    }
+                }
+
+                //actual removal
+                cache.removeAll(orphanKeys);
+            }
+
+            if (isDebug)
+                logger.debug("Removed [{}] orphan chunks ([{}] bytes) for key {}", orphanChunkCount, reclaimedBytes, toStringSafe(internalKey));
+
+            return new EhcacheStreamSweepResult(orphanChunkCount, reclaimedBytes, 0, System.currentTimeMillis() - t1);
+        }
+
+        //only the stream entries with chunk entries are worth a logical delete (nothing to reclaim for the inline ones)
+        private boolean isChunkReclaimable(final EhcacheStreamMaster ehcacheStreamMaster) {
+            return null != chunkReclaimer && null != ehcacheStreamMaster && !ehcacheStreamMaster.hasInlineChunk() && ehcacheStreamMaster.getChunkCount() > 0;
+        }
+
+        //A logical delete, whose time does not depend on the stream size:
+        // 1st: put the reclaim marker, so a new stream entry on that key allocates its chunk indices past the ones to reclaim
+        // 2nd: remove the master (the stream entry is gone from then on)
+        // 3rd: hand over the chunks to the background reclaimer
+        // (if the master did not get removed, the marker put for it gets removed: nothing would reclaim it otherwise)
+        private boolean removeStreamMasterAndReclaimChunks(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster) {
+            Element reclaimMarker = new Element(new EhcacheStreamReclaimKey(internalKey.getCacheKey()), ehcacheStreamMaster.getNextChunkIndex());
+            cache.put(reclaimMarker);
+
+            boolean isRemoved = removeIfPresentEhcacheStreamMaster(internalKey, ehcacheStreamMaster);
+            if (!isRemoved) {
+                cache.removeElement(reclaimMarker);
+            } else {
+                chunkReclaimer.submit(internalKey.getCacheKey(), ehcacheStreamMaster.getAllChunkIndices(), ehcacheStreamMaster.getNextChunkIndex());
+
+                if (isDebug)
+                    logger.debug("Removed the master entry for key {}, leaving its [{}] chunks to the background reclaimer", toStringSafe(internalKey), ehcacheStreamMaster.getChunkCount());
+            }
+            return isRemoved;
+        }
+
+        //the next chunk index of the removed stream entry still getting reclaimed on that key (null if none)
+        private Integer getReclaimNextChunkIndex(final EhcacheStreamMasterKey internalKey) {
+            Element reclaimElement = cache.get(new EhcacheStreamReclaimKey(internalKey.getCacheKey()));
+            return (null != reclaimElement) ? (Integer) reclaimElement.getObjectValue() : null;
+        }
+
         void acquireReadOnMaster(final EhcacheStreamMasterKey ehcacheStreamMasterKey, long timeout) throws EhcacheStreamTimeoutException {
             try {
                 boolean locked = tryLockInternal(ehcacheStreamMasterKey, LockType.READ, timeout);
@@ -565,13 +1931,28 @@ public class EhcacheStreamUtilsInternal {
             releaseLockInternal(ehcacheStreamMasterKey, LockType.READ);
         }
 
-        void acquireExclusiveWriteOnMaster(final EhcacheStreamMasterKey ehcacheStreamMasterKey, long timeout) throws EhcacheStreamTimeoutException {
+        //the concurrent appends don't use the explicit locks: once the write lock is acquired,
+        //they would not be able to finish, so we only keep the lock if there is no pending append (otherwise release, wait and retry)
+        void acquireExclusiveWriteOnMaster(final EhcacheStreamMasterKey ehcacheStreamMasterKey, long timeout, WaitStrategy waitStrategy) throws EhcacheStreamTimeoutException {
             try {
-                boolean locked = tryLockInternal(ehcacheStreamMasterKey, LockType.WRITE, timeout);
-                if (!locked) {
-                    throw new EhcacheStreamTimeoutException(
-                            String.format("Could not acquire an internal ehcache write lock on public key [%s] within timeout [%d ms]", toStringSafe(ehcacheStreamMasterKey), timeout)
-                    );
+                long t1 = System.currentTimeMillis();
+                long attempts = 0L;
+                boolean locked = false;
+                while (!locked) {
+                    long remaining = timeout - (System.currentTimeMillis() - t1);
+                    if(remaining < 0 || !tryLockInternal(ehcacheStreamMasterKey, LockType.WRITE, remaining)) {
+                        throw new EhcacheStreamTimeoutException(
+                                String.format("Could not acquire an internal ehcache write lock on public key [%s] within timeout [%d ms]", toStringSafe(ehcacheStreamMasterKey), timeout)
+                        );
+                    }
+
+                    EhcacheStreamMaster ehcacheStreamMaster = getStreamMasterFromCache(ehcacheStreamMasterKey);
+                    if(null != ehcacheStreamMaster && ehcacheStreamMaster.hasPendingAppends()) {
+                        releaseLockInternal(ehcacheStreamMasterKey, LockType.WRITE);
+                        waitStrategy.doWait(attempts++);
+                    } else {
+                        locked = true;
+                    }
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -666,10 +2047,11 @@ public class EhcacheStreamUtilsInternal {
 
         EhcacheStreamChunk[] getStreamChunksFromStreamMaster(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster) {
             List chunkValues = null;
-            if (null != ehcacheStreamMaster) {
-                chunkValues = new ArrayList(ehcacheStreamMaster.getChunkCount());
-                for (int i = 0; i < ehcacheStreamMaster.getChunkCount(); i++) {
-                    EhcacheStreamChunk chunkValue = getChunkValue(new EhcacheStreamChunkKey(internalKey.getCacheKey(), i));
+            if (null != ehcacheStreamMaster && !ehcacheStreamMaster.hasInlineChunk()) {
+                int[] chunkIndices = ehcacheStreamMaster.getAllChunkIndices();
+                chunkValues = new ArrayList(chunkIndices.length);
+                for (int i = 0; i < chunkIndices.length; i++) {
+                    EhcacheStreamChunk chunkValue = getChunkValue(new EhcacheStreamChunkKey(internalKey.getCacheKey(), chunkIndices[i]));
                     if (null != chunkValue)
                         chunkValues.add(chunkValue);
                 }
@@ -683,10 +2065,11 @@ public class EhcacheStreamUtilsInternal {
 
         EhcacheStreamChunkKey[] getStreamChunkKeysFromStreamMaster(final EhcacheStreamMasterKey internalKey, final EhcacheStreamMaster ehcacheStreamMaster) {
             List chunkKeys = null;
-            if (null != ehcacheStreamMaster) {
-                chunkKeys = new ArrayList(ehcacheStreamMaster.getChunkCount());
-                for (int i = 0; i < ehcacheStreamMaster.getChunkCount(); i++) {
-                    EhcacheStreamChunkKey chunkKey = new EhcacheStreamChunkKey(internalKey.getCacheKey(), i);
+            if (null != ehcacheStreamMaster && !ehcacheStreamMaster.hasInlineChunk()) {
+                int[] chunkIndices = ehcacheStreamMaster.getAllChunkIndices();
+                chunkKeys = new ArrayList(chunkIndices.length);
+                for (int i = 0; i < chunkIndices.length; i++) {
+                    EhcacheStreamChunkKey chunkKey = new EhcacheStreamChunkKey(internalKey.getCacheKey(), chunkIndices[i]);
                     if(cache.isKeyInCache(chunkKey)){
                         chunkKeys.add(chunkKey);
                     }
@@ -705,11 +2088,18 @@ public class EhcacheStreamUtilsInternal {
         }
 
         void clearChunksFromStreamMaster(final EhcacheStreamMasterKey ehcacheStreamMasterKey, final EhcacheStreamMaster ehcacheStreamMaster) {
-            if (null != ehcacheStreamMaster) {
+            //nothing to clear for inline masters: the bytes are in the master entry itself
+            if (null != ehcacheStreamMaster && !ehcacheStreamMaster.hasInlineChunk()) {
                 //remove all the chunk entries
-                List keys = new ArrayList<>(ehcacheStreamMaster.getChunkCount());
-                for (int i = 0; i < ehcacheStreamMaster.getChunkCount(); i++) {
-                    keys.add(new EhcacheStreamChunkKey(ehcacheStreamMasterKey.getCacheKey(), i));
+                clearChunks(ehcacheStreamMasterKey, ehcacheStreamMaster.getAllChunkIndices());
+            }
+        }
+
+        void clearChunks(final EhcacheStreamMasterKey ehcacheStreamMasterKey, final int[] chunkIndices) {
+            if (null != chunkIndices && chunkIndices.length > 0) {
+                List keys = new ArrayList<>(chunkIndices.length);
+                for (int i = 0; i < chunkIndices.length; i++) {
+                    keys.add(new EhcacheStreamChunkKey(ehcacheStreamMasterKey.getCacheKey(), chunkIndices[i]));
                 }
 
                 //actual removal
@@ -717,6 +2107,26 @@ public class EhcacheStreamUtilsInternal {
             }
         }
 
+        //remove the chunk entries of many masters with a single removeAll, returning the removed chunk keys
+        List<EhcacheStreamChunkKey> clearChunksFromStreamMasters(final Map<EhcacheStreamMasterKey, EhcacheStreamMaster> ehcacheStreamMasters) {
+            List<EhcacheStreamChunkKey> keys = new ArrayList<EhcacheStreamChunkKey>();
+            for (Map.Entry<EhcacheStreamMasterKey, EhcacheStreamMaster> entry : ehcacheStreamMasters.entrySet()) {
+                //nothing to clear for inline masters: the bytes are in the master entry itself
+                if (null != entry.getValue() && !entry.getValue().hasInlineChunk()) {
+                    int[] chunkIndices = entry.getValue().getAllChunkIndices();
+                    for (int i = 0; i < chunkIndices.length; i++) {
+                        keys.add(new EhcacheStreamChunkKey(entry.getKey().getCacheKey(), chunkIndices[i]));
+                    }
+                }
+            }
+
+            //actual removal
+            if (!keys.isEmpty())
+                cache.removeAll(keys);
+
+            return keys;
+        }
+
         ////////////// stream master operations
         Element buildStreamMasterElement(final EhcacheStreamMasterKey internalKey, EhcacheStreamMaster ehcacheStreamMaster) {
             return new Element(internalKey, ehcacheStreamMaster);
@@ -736,6 +2146,20 @@ public class EhcacheStreamUtilsInternal {
             return cacheMasterIndexValue;
         }
 
+        Map<EhcacheStreamMasterKey, EhcacheStreamMaster> getStreamMastersFromCache(final Collection<EhcacheStreamMasterKey> internalKeys) {
+            Map<EhcacheStreamMasterKey, EhcacheStreamMaster> masters = new LinkedHashMap<EhcacheStreamMasterKey, EhcacheStreamMaster>(internalKeys.size());
+            if(internalKeys.isEmpty())
+                return masters;
+
+            Map<Object, Element> masterElements = cache.getAll(internalKeys);
+            for (EhcacheStreamMasterKey internalKey : internalKeys) {
+                Element masterElement = masterElements.get(internalKey);
+                if(null != masterElement && null != masterElement.getObjectValue())
+                    masters.put(internalKey, (EhcacheStreamMaster) masterElement.getObjectValue());
+            }
+            return masters;
+        }
+
         /**
          * Perform a CAS operation on the "critical" MasterIndex object
          * Replace the cached element only if the current Element is equal to the supplied old Element.
@@ -757,19 +2181,6 @@ public class EhcacheStreamUtilsInternal {
             return replaced;
         }
 
-        /**
-         * Perform a CAS operation on the MasterIndex object
-         * Replace the cached element only if an Element is currently cached for this key
-         *
-         * @param newEhcacheStreamMaster the new MasterIndex object to put in cache
-         * @return The Element previously cached for this key, or null if no Element was cached
-         */
-        boolean replaceIfPresentEhcacheStreamMaster(final EhcacheStreamMasterKey internalKey, EhcacheStreamMaster newEhcacheStreamMaster) {
-            //replace old writeable element with new one using CAS operation for consistency
-            Element previous = cache.replace(buildStreamMasterElement(internalKey, newEhcacheStreamMaster));
-            return (previous != null);
-        }
-
         /**
          * Perform a CAS operation on the MasterIndex object
          * Replace the cached element only if an Element is currently cached for this key
@@ -1,11 +1,16 @@
 package org.ehcache.extensions.io.impl.utils;
 
 import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamEntryInfo;
 import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamKeyPage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by fabien.sanglier on 8/2/18.
@@ -18,11 +23,15 @@ public class EhcacheStreamUtilsPublicImpl implements IEhcacheStreamUtils {
     */
     final EhcacheStreamUtilsInternal ehcacheStreamUtilsInternal;
 
-    final PropertyUtils.ConcurrencyMode concurrencyMode = PropertyUtils.getEhcacheIOStreamsConcurrencyMode();
+    /*
+     * The stream manager of the cache, providing the concurrency mode
+     */
+    final EhcacheStreamManager ehcacheStreamManager;
 
-    EhcacheStreamUtilsPublicImpl(Ehcache cache) {
+    EhcacheStreamUtilsPublicImpl(EhcacheStreamManager ehcacheStreamManager) {
         //TODO: we should check if the cache is not null but maybe enforce "Pinning"?? (because otherwise cache chunks can disappear and that would mess up the data consistency...)
-        this.ehcacheStreamUtilsInternal = new EhcacheStreamUtilsInternal(cache);
+        this.ehcacheStreamManager = ehcacheStreamManager;
+        this.ehcacheStreamUtilsInternal = ehcacheStreamManager.newEhcacheStreamUtils();
     }
 
     /////////////////////////////////
@@ -42,7 +51,7 @@ public class EhcacheStreamUtilsPublicImpl implements IEhcacheStreamUtils {
     public boolean removeStreamEntry(final Object cacheKey, long timeout) throws EhcacheStreamException {
         boolean removed = false;
 
-        switch (concurrencyMode){
+        switch (ehcacheStreamManager.getConcurrencyMode()){
             case WRITE_PRIORITY:
             case READ_COMMITTED_CASLOCKS:
                 removed = ehcacheStreamUtilsInternal.removeEhcacheStream(
@@ -61,6 +70,43 @@ public class EhcacheStreamUtilsPublicImpl implements IEhcacheStreamUtils {
         return removed;
     }
 
+    /**
+     * Remove many Stream entries from cache, by batches
+     *
+     * @param      cacheKeys  the public cache keys of the stream entries
+     * @param      batchSize  the number of stream entries removed at once
+     * @param      timeout    the timeout to acquire the write locks on each batch of cachekeys
+     * @return     the number of Stream entries removed (the keys with no stream entry are not counted)
+     * @exception   org.ehcache.extensions.io.EhcacheStreamException if some of the stream entries could not be removed
+     *
+     */
+    @Override
+    public int removeStreamEntries(final Collection cacheKeys, int batchSize, long timeout) throws EhcacheStreamException {
+        int removedCount = 0;
+
+        switch (ehcacheStreamManager.getConcurrencyMode()){
+            case WRITE_PRIORITY:
+            case READ_COMMITTED_CASLOCKS:
+                removedCount = ehcacheStreamUtilsInternal.removeEhcacheStreams(
+                        cacheKeys,
+                        batchSize,
+                        timeout,
+                        false);
+                break;
+            case READ_COMMITTED_WITHLOCKS:
+                removedCount = ehcacheStreamUtilsInternal.removeEhcacheStreams(
+                        cacheKeys,
+                        batchSize,
+                        timeout,
+                        true
+                );
+                break;
+            default:
+                throw new IllegalStateException("Not implemented");
+        }
+        return removedCount;
+    }
+
     /**
      * Check if a Stream entry exist in cache
      *
@@ -81,7 +127,7 @@ public class EhcacheStreamUtilsPublicImpl implements IEhcacheStreamUtils {
      */
     @Override
     public List getAllStreamEntryKeys(boolean checkForExpiry){
-        return ehcacheStreamUtilsInternal.getAllStreamMasterPublicKeys(checkForExpiry);
+        return ehcacheStreamUtilsInternal.getAllStreamMasterPublicKeys(checkForExpiry, ehcacheStreamManager.getMasterKeyIndex(), true, true, true, true);
     }
 
     /**
@@ -97,7 +143,47 @@ public class EhcacheStreamUtilsPublicImpl implements IEhcacheStreamUtils {
      */
     @Override
     public List getAllStreamEntryKeys(boolean checkForExpiry, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly){
-        return ehcacheStreamUtilsInternal.getAllStreamMasterPublicKeys(checkForExpiry, includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
+        return ehcacheStreamUtilsInternal.getAllStreamMasterPublicKeys(checkForExpiry, ehcacheStreamManager.getMasterKeyIndex(), includeNoReads, includeNoWrites, includeReadsOnly, includeWritesOnly);
+    }
+
+    /**
+     * Get a page of the Stream entry keys in cache
+     *
+     * @param      checkForExpiry        if true, returns only the keys that are not expired. NOTE: This could be much slower (1 cache get per key)
+     * @param      cursor                the next cursor of the previous page (0 for the first page)
+     * @param      pageSize              the max number of keys in the page
+     * @return     the page of public cache keys for the stream entries in cache
+     *
+     */
+    @Override
+    public EhcacheStreamKeyPage getStreamEntryKeys(boolean checkForExpiry, long cursor, int pageSize) {
+        return ehcacheStreamUtilsInternal.getStreamMasterPublicKeysPage(checkForExpiry, ehcacheStreamManager.getMasterKeyIndex(), cursor, pageSize);
+    }
+
+    /**
+     * Get a lazy iterator over the Stream entries in cache, along with their metadata
+     *
+     * @param      checkForExpiry        if true, returns only the entries that are not expired
+     * @param      batchSize             the number of stream masters fetched from cache at once
+     * @return     the iterator of stream entry infos
+     *
+     */
+    @Override
+    public Iterator<EhcacheStreamEntryInfo> getStreamEntries(boolean checkForExpiry, int batchSize) {
+        return new EhcacheStreamEntryIterator(ehcacheStreamUtilsInternal, ehcacheStreamManager.getMasterKeyIndex(), checkForExpiry, batchSize);
+    }
+
+    /**
+     * Get the Stream entry infos of many public keys at once
+     *
+     * @param      cacheKeys             the public cache keys of the stream entries
+     * @param      batchSize             the number of stream masters fetched from cache at once
+     * @return     the stream entry info of each key (in the key collection order), or null for the keys with no stream entry
+     *
+     */
+    @Override
+    public Map<Object, EhcacheStreamEntryInfo> getStreamEntryInfos(final Collection cacheKeys, int batchSize) {
+        return ehcacheStreamUtilsInternal.getStreamEntryInfos(cacheKeys, batchSize);
     }
 
     /////////////////////////////////
@@ -1,8 +1,13 @@
 package org.ehcache.extensions.io.impl.utils;
 
+import org.ehcache.extensions.io.EhcacheStreamEntryInfo;
 import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamKeyPage;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by fabien.sanglier on 9/14/18.
@@ -10,9 +15,17 @@ import java.util.List;
 public interface IEhcacheStreamUtils {
     boolean removeStreamEntry(final Object cacheKey, long timeout) throws EhcacheStreamException;
 
+    int removeStreamEntries(final Collection cacheKeys, int batchSize, long timeout) throws EhcacheStreamException;
+
     boolean containsStreamEntry(final Object cacheKey);
 
     List getAllStreamEntryKeys(boolean checkForExpiry);
 
     List getAllStreamEntryKeys(boolean checkForExpiry, boolean includeNoReads, boolean includeNoWrites, boolean includeReadsOnly, boolean includeWritesOnly);
+
+    EhcacheStreamKeyPage getStreamEntryKeys(boolean checkForExpiry, long cursor, int pageSize);
+
+    Iterator<EhcacheStreamEntryInfo> getStreamEntries(boolean checkForExpiry, int batchSize);
+
+    Map<Object, EhcacheStreamEntryInfo> getStreamEntryInfos(Collection cacheKeys, int batchSize);
 }
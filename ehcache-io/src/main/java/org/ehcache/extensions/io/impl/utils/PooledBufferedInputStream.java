@@ -0,0 +1,53 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by fabien.sanglier on 11/12/18.
+ */
+
+/*
+ * A BufferedInputStream whose buffer comes from the EhcacheStreamBufferPool, and goes back to it on close
+ * (along with the buffer size reserved from the EhcacheStreamMemoryBudget, if any).
+ */
+public class PooledBufferedInputStream extends BufferedInputStream {
+    private byte[] pooledBuffer;
+    private int budgetReservedSize;
+
+    public PooledBufferedInputStream(InputStream in, int size) {
+        this(in, size, 0);
+    }
+
+    public PooledBufferedInputStream(InputStream in, int size, int budgetReservedSize) {
+        super(in, 1);
+
+        if (size <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+
+        this.pooledBuffer = EhcacheStreamBufferPool.getInstance().acquire(size);
+        this.buf = pooledBuffer;
+        this.budgetReservedSize = budgetReservedSize;
+    }
+
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    private synchronized void releaseBuffer() {
+        //the buffer may have been replaced by a bigger one (mark with a big read limit): only the pooled one goes back
+        if(null != pooledBuffer) {
+            EhcacheStreamBufferPool.getInstance().release(pooledBuffer);
+            pooledBuffer = null;
+
+            EhcacheStreamMemoryBudget.getInstance().release(budgetReservedSize);
+            budgetReservedSize = 0;
+        }
+    }
+}
@@ -9,6 +9,21 @@ public class PropertyUtils {
     public static final String PROP_INPUTSTREAM_FILEADAPTER_ENABLED = "ehcache.extension.io.inputstream.fileadapter.enabled";
     public static final String PROP_INPUTSTREAM_FILEADAPTER_PATH = "ehcache.extension.io.inputstream.fileadapter.path";
     public static final String PROP_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE = "ehcache.extension.io.inputstream.fileadapter.threashold";
+    public static final String PROP_INPUTSTREAM_FILEADAPTER_CACHE_MAXSIZE = "ehcache.extension.io.inputstream.fileadapter.cache.maxsize";
+    public static final String PROP_INPUTSTREAM_FILEADAPTER_SPILL_THREADS = "ehcache.extension.io.inputstream.fileadapter.spill.threads";
+    public static final String PROP_INPUTSTREAM_NEARCACHE_ENABLED = "ehcache.extension.io.inputstream.nearcache.enabled";
+    public static final String PROP_INPUTSTREAM_NEARCACHE_MAXSIZE = "ehcache.extension.io.inputstream.nearcache.maxsize";
+    public static final String PROP_INPUTSTREAM_FETCH_COALESCING_ENABLED = "ehcache.extension.io.inputstream.fetch.coalescing.enabled";
+
+    public static final String PROP_CHUNKS_OFFHEAP_ENABLED = "ehcache.extension.io.chunks.offheap.enabled";
+    public static final String PROP_CHUNKS_OFFHEAP_MAXSIZE = "ehcache.extension.io.chunks.offheap.maxsize";
+
+    public static final String PROP_BUFFERPOOL_ENABLED = "ehcache.extension.io.bufferpool.enabled";
+    public static final String PROP_BUFFERPOOL_MAXSIZE = "ehcache.extension.io.bufferpool.maxsize";
+
+    public static final String PROP_MEMORYBUDGET_MAXSIZE = "ehcache.extension.io.memorybudget.maxsize";
+    public static final String PROP_MEMORYBUDGET_MIN_BUFFERSIZE = "ehcache.extension.io.memorybudget.minbuffersize";
+    public static final String PROP_MEMORYBUDGET_WAIT_TIMEOUT = "ehcache.extension.io.memorybudget.waittimeout";
 
     public static final String PROP_INPUTSTREAM_BUFFERSIZE = "ehcache.extension.io.inputstream.buffersize";
     public static final String PROP_INPUTSTREAM_OPEN_TIMEOUTS = "ehcache.extension.io.inputstream.opentimeout";
@@ -16,6 +31,16 @@ public class PropertyUtils {
     public static final String PROP_OUTPUTSTREAM_BUFFERSIZE = "ehcache.extension.io.outputstream.buffersize";
     public static final String PROP_OUTPUTSTREAM_OVERRIDE = "ehcache.extension.io.outputstream.override";
     public static final String PROP_OUTPUTSTREAM_OPEN_TIMEOUTS = "ehcache.extension.io.outputstream.opentimeout";
+    public static final String PROP_OUTPUTSTREAM_INLINE_THRESHOLD = "ehcache.extension.io.outputstream.inline.threshold";
+    public static final String PROP_OUTPUTSTREAM_PUTFILE_THREADS = "ehcache.extension.io.outputstream.putfile.threads";
+    public static final String PROP_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED = "ehcache.extension.io.outputstream.adaptivechunksize.enabled";
+
+    public static final String PROP_REMOVE_ASYNC_RECLAIM_ENABLED = "ehcache.extension.io.remove.asyncreclaim.enabled";
+    public static final String PROP_REMOVE_ASYNC_RECLAIM_RATE = "ehcache.extension.io.remove.asyncreclaim.rate";
+    public static final String PROP_ORPHAN_SWEEP_INTERVAL = "ehcache.extension.io.orphansweep.interval";
+    public static final String PROP_ORPHAN_SWEEP_RATE = "ehcache.extension.io.orphansweep.rate";
+    public static final String PROP_LOCK_LEASE_DURATION = "ehcache.extension.io.lock.lease.duration";
+    public static final String PROP_INPUTSTREAM_READTIME_FLUSH_INTERVAL = "ehcache.extension.io.inputstream.readtime.flushinterval";
 
     public static final String PROP_CONCURRENCY_MODE = "ehcache.extension.io.concurrency.mode";
 
@@ -30,9 +55,33 @@ public class PropertyUtils {
     public static final int DEFAULT_INPUTSTREAM_BUFFER_SIZE = 512 * 1024; // 512kb
     public static final long DEFAULT_OUTPUTSTREAM_OPEN_TIMEOUT = 10000L;
     public static final long DEFAULT_INPUTSTREAM_OPEN_TIMEOUT = 2000L;
+    public static final int DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD = 4 * 1024; // 4kb
+    public static final int DEFAULT_OUTPUTSTREAM_PUTFILE_THREADS = 4;
+    public static final boolean DEFAULT_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED = false;
+    public static final boolean DEFAULT_REMOVE_ASYNC_RECLAIM_ENABLED = false;
+    public static final long DEFAULT_REMOVE_ASYNC_RECLAIM_RATE = 10000L; // chunks per second
+    public static final long DEFAULT_ORPHAN_SWEEP_INTERVAL = 0L; // no background sweep
+    public static final long DEFAULT_ORPHAN_SWEEP_RATE = 10000L; // chunks per second
+    public static final long DEFAULT_LOCK_LEASE_DURATION = 0L; // no lease: the reader/writer counts never expire
+    public static final long DEFAULT_INPUTSTREAM_READTIME_FLUSH_INTERVAL = 0L; // the read time gets stamped on the master when opening the read
+    public static final long DEFAULT_ORPHAN_SWEEP_OPEN_TIMEOUT = 1000L; // short on purpose: the stream entries that stay busy get swept on a later pass
     public static final boolean DEFAULT_INPUTSTREAM_ALLOW_NULLSTREAM = false;
     public static final boolean DEFAULT_INPUTSTREAM_FILEADAPTER_ENABLED = false;
     public static final long DEFAULT_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE = 10 * 1024;
+    public static final long DEFAULT_INPUTSTREAM_FILEADAPTER_CACHE_MAXSIZE = 1024L * 1024L * 1024L; // 1GB
+    public static final int DEFAULT_INPUTSTREAM_FILEADAPTER_SPILL_THREADS = 4;
+    public static final boolean DEFAULT_INPUTSTREAM_NEARCACHE_ENABLED = false;
+    public static final long DEFAULT_INPUTSTREAM_NEARCACHE_MAXSIZE = 64L * 1024L * 1024L; // 64MB
+    public static final boolean DEFAULT_INPUTSTREAM_FETCH_COALESCING_ENABLED = true;
+    public static final boolean DEFAULT_CHUNKS_OFFHEAP_ENABLED = false;
+    public static final long DEFAULT_CHUNKS_OFFHEAP_MAXSIZE = 1024L * 1024L * 1024L; // 1GB
+    public static final boolean DEFAULT_BUFFERPOOL_ENABLED = true;
+    public static final long DEFAULT_BUFFERPOOL_MAXSIZE = 64L * 1024L * 1024L; // 64MB
+    public static final long DEFAULT_MEMORYBUDGET_MAXSIZE = 0L; // no budget
+    public static final int DEFAULT_MEMORYBUDGET_MIN_BUFFERSIZE = 8 * 1024; // 8kb
+    public static final long DEFAULT_MEMORYBUDGET_WAIT_TIMEOUT = 2000L;
+    public static final int DEFAULT_STREAM_ENTRIES_BATCH_SIZE = 1000;
+    public static final int DEFAULT_STREAM_REMOVE_VERIFY_SAMPLE_SIZE = 16;
 
     public static final ConcurrencyMode DEFAULT_CONCURRENCY_MODE = ConcurrencyMode.READ_COMMITTED_CASLOCKS;
 
@@ -60,6 +109,69 @@ public class PropertyUtils {
     public static final long getInputStreamFileAdapterThresholdSize(){
         return getPropertyAsLong(PROP_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE, DEFAULT_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE);
     }
+    public static final long getInputStreamFileAdapterCacheMaxSize(){
+        return getPropertyAsLong(PROP_INPUTSTREAM_FILEADAPTER_CACHE_MAXSIZE, DEFAULT_INPUTSTREAM_FILEADAPTER_CACHE_MAXSIZE);
+    }
+    public static final Integer getInputStreamFileAdapterSpillThreads(){
+        return getPropertyAsInt(PROP_INPUTSTREAM_FILEADAPTER_SPILL_THREADS, DEFAULT_INPUTSTREAM_FILEADAPTER_SPILL_THREADS);
+    }
+    public static final Boolean getInputStreamNearCacheEnabled(){
+        return getPropertyAsBoolean(PROP_INPUTSTREAM_NEARCACHE_ENABLED, DEFAULT_INPUTSTREAM_NEARCACHE_ENABLED);
+    }
+    public static final long getInputStreamNearCacheMaxSize(){
+        return getPropertyAsLong(PROP_INPUTSTREAM_NEARCACHE_MAXSIZE, DEFAULT_INPUTSTREAM_NEARCACHE_MAXSIZE);
+    }
+    public static final Boolean getInputStreamFetchCoalescingEnabled(){
+        return getPropertyAsBoolean(PROP_INPUTSTREAM_FETCH_COALESCING_ENABLED, DEFAULT_INPUTSTREAM_FETCH_COALESCING_ENABLED);
+    }
+    public static final Boolean getChunksOffHeapEnabled(){
+        return getPropertyAsBoolean(PROP_CHUNKS_OFFHEAP_ENABLED, DEFAULT_CHUNKS_OFFHEAP_ENABLED);
+    }
+    public static final long getChunksOffHeapMaxSize(){
+        return getPropertyAsLong(PROP_CHUNKS_OFFHEAP_MAXSIZE, DEFAULT_CHUNKS_OFFHEAP_MAXSIZE);
+    }
+    public static final Boolean getBufferPoolEnabled(){
+        return getPropertyAsBoolean(PROP_BUFFERPOOL_ENABLED, DEFAULT_BUFFERPOOL_ENABLED);
+    }
+    public static final long getBufferPoolMaxSize(){
+        return getPropertyAsLong(PROP_BUFFERPOOL_MAXSIZE, DEFAULT_BUFFERPOOL_MAXSIZE);
+    }
+    public static final long getMemoryBudgetMaxSize(){
+        return getPropertyAsLong(PROP_MEMORYBUDGET_MAXSIZE, DEFAULT_MEMORYBUDGET_MAXSIZE);
+    }
+    public static final int getMemoryBudgetMinBufferSize(){
+        return getPropertyAsInt(PROP_MEMORYBUDGET_MIN_BUFFERSIZE, DEFAULT_MEMORYBUDGET_MIN_BUFFERSIZE);
+    }
+    public static final long getMemoryBudgetWaitTimeout(){
+        return getPropertyAsLong(PROP_MEMORYBUDGET_WAIT_TIMEOUT, DEFAULT_MEMORYBUDGET_WAIT_TIMEOUT);
+    }
+    public static final Integer getOutputStreamInlineThreshold(){
+        return getPropertyAsInt(PROP_OUTPUTSTREAM_INLINE_THRESHOLD, DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD);
+    }
+    public static final Integer getOutputStreamPutFileThreads(){
+        return getPropertyAsInt(PROP_OUTPUTSTREAM_PUTFILE_THREADS, DEFAULT_OUTPUTSTREAM_PUTFILE_THREADS);
+    }
+    public static final Boolean getOutputStreamAdaptiveChunkSizeEnabled(){
+        return getPropertyAsBoolean(PROP_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED, DEFAULT_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED);
+    }
+    public static final Boolean getRemoveAsyncReclaimEnabled(){
+        return getPropertyAsBoolean(PROP_REMOVE_ASYNC_RECLAIM_ENABLED, DEFAULT_REMOVE_ASYNC_RECLAIM_ENABLED);
+    }
+    public static final long getRemoveAsyncReclaimRate(){
+        return getPropertyAsLong(PROP_REMOVE_ASYNC_RECLAIM_RATE, DEFAULT_REMOVE_ASYNC_RECLAIM_RATE);
+    }
+    public static final long getOrphanSweepInterval(){
+        return getPropertyAsLong(PROP_ORPHAN_SWEEP_INTERVAL, DEFAULT_ORPHAN_SWEEP_INTERVAL);
+    }
+    public static final long getOrphanSweepRate(){
+        return getPropertyAsLong(PROP_ORPHAN_SWEEP_RATE, DEFAULT_ORPHAN_SWEEP_RATE);
+    }
+    public static final long getLockLeaseDuration(){
+        return getPropertyAsLong(PROP_LOCK_LEASE_DURATION, DEFAULT_LOCK_LEASE_DURATION);
+    }
+    public static final long getInputStreamReadTimeFlushInterval(){
+        return getPropertyAsLong(PROP_INPUTSTREAM_READTIME_FLUSH_INTERVAL, DEFAULT_INPUTSTREAM_READTIME_FLUSH_INTERVAL);
+    }
     public static final Boolean getOutputStreamDefaultOverride(){
         return getPropertyAsBoolean(PROP_OUTPUTSTREAM_OVERRIDE, DEFAULT_OUTPUTSTREAM_OVERRIDE);
     }
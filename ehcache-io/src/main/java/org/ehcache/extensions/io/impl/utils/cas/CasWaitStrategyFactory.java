@@ -34,9 +34,12 @@ public class CasWaitStrategyFactory {
     public static final boolean DEFAULT_CLUSTERED_NOLOCAL_JITTER = true;
 
     public static WaitStrategy getWaitStrategy(Ehcache cache) {
+        return getWaitStrategy(EhcacheUtils.CacheType.findCacheType(cache));
+    }
+
+    public static WaitStrategy getWaitStrategy(EhcacheUtils.CacheType cacheType) {
         WaitStrategy waitStrategy;
 
-        EhcacheUtils.CacheType cacheType = EhcacheUtils.CacheType.findCacheType(cache);
         switch (cacheType){
             case CLUSTERED_EVENTUAL_LOCAL_ENABLED:
             case CLUSTERED_STRONG_LOCAL_ENABLED:
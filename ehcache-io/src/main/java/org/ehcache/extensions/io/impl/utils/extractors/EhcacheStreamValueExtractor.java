@@ -72,8 +72,7 @@ public class EhcacheStreamValueExtractor implements AttributeExtractor {
             extracted = FIELDNAME_CHUNK_SIZE_DEFAULT_NULL;
             if(null != cacheValue){
                 if(cacheValue instanceof EhcacheStreamChunk) {
-                    byte[] chunk = ((EhcacheStreamChunk) cacheValue).getChunk();
-                    extracted = (null != chunk)?new Integer(chunk.length):new Integer(0);
+                    extracted = new Integer(((EhcacheStreamChunk) cacheValue).getChunkLength());
                 }
             }
         } else {
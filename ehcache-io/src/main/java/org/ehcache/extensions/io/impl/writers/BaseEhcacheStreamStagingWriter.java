@@ -0,0 +1,191 @@
+package org.ehcache.extensions.io.impl.writers;
+
+import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.BaseEhcacheStream;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Created by fabien.sanglier on 11/5/18.
+ */
+
+/*
+ * Base for the writers that write their chunks without an exclusive write on the master entry (concurrent appends, multipart upload parts).
+ * The chunks are written in chunk indices reserved in the master entry (by growing ranges), then staged in the master entry on close.
+ * If anything fails, the staged chunks are dropped instead, and their chunk entries removed.
+ */
+/*package protected*/ abstract class BaseEhcacheStreamStagingWriter extends BaseEhcacheStream implements EhcacheStreamWriter {
+    private static final Logger logger = LoggerFactory.getLogger(BaseEhcacheStreamStagingWriter.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    //chunk indices are reserved by growing ranges, to keep the number of CAS operations on the master entry low for big writes
+    static final int MIN_CHUNK_INDEX_RESERVATION = 16;
+    static final int MAX_CHUNK_INDEX_RESERVATION = 1024;
+
+    final long openTimeoutMillis;
+
+    private volatile boolean isOpen = false;
+    private volatile boolean isFailed = false;
+
+    //the current range of reserved chunk indices
+    private int nextReservedChunkIndex = 0;
+    private int reservedChunkIndexEnd = 0;
+    private int lastReservationSize = 0;
+
+    //the chunks written so far by this writer
+    private int chunkCount = 0;
+    private int[] chunkIndices = new int[MIN_CHUNK_INDEX_RESERVATION];
+    private long[] chunkSizes = new long[MIN_CHUNK_INDEX_RESERVATION];
+    private long[] chunkChecksums = new long[MIN_CHUNK_INDEX_RESERVATION];
+
+    protected BaseEhcacheStreamStagingWriter(final Ehcache cache, final Object cacheKey, final long openTimeoutMillis) {
+        super(cache, cacheKey);
+        this.openTimeoutMillis = openTimeoutMillis;
+    }
+
+    /**
+     * Registers this writer in the master entry, and reserves its first range of chunk indices (reservationSize indices)
+     *
+     * @return the master entry as saved in cache
+     */
+    abstract EhcacheStreamMaster openStaging(int reservationSize) throws EhcacheStreamException;
+
+    /**
+     * @return the master entry as saved in cache, with reservationSize more chunk indices reserved
+     */
+    abstract EhcacheStreamMaster reserveChunkIndices(int reservationSize) throws EhcacheStreamException;
+
+    abstract void commitStaging(int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) throws EhcacheStreamException;
+
+    abstract void abortStaging() throws EhcacheStreamException;
+
+    /**
+     * Called once this writer is closed, committed or not (eg. to stop renewing the lease taken on open)
+     */
+    abstract void closeStaging();
+
+    @Override
+    public void tryOpen() throws EhcacheStreamException {
+        if(openTimeoutMillis <= 0)
+            throw new EhcacheStreamIllegalStateException(String.format("Open timeout [%d] may not be lower than 0", openTimeoutMillis));
+
+        if (!isOpen) {
+            if(isDebug)
+                logger.debug("Trying to open a staging writer for key={}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+            EhcacheStreamMaster openedStreamMaster = openStaging(MIN_CHUNK_INDEX_RESERVATION);
+
+            //the reservation is the last thing done by the open mutation
+            setReservedRange(openedStreamMaster, MIN_CHUNK_INDEX_RESERVATION);
+
+            //mark as successfully open if we reach here
+            isOpen = true;
+        }
+
+        if (!isOpen)
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter should be opened at this point or an exception should have been thrown...something unexpected happened.");
+    }
+
+    private void setReservedRange(final EhcacheStreamMaster reservedStreamMaster, final int reservationSize) {
+        reservedChunkIndexEnd = reservedStreamMaster.getNextChunkIndex();
+        nextReservedChunkIndex = reservedChunkIndexEnd - reservationSize;
+        lastReservationSize = reservationSize;
+    }
+
+    private int nextChunkIndex() throws EhcacheStreamException {
+        if(nextReservedChunkIndex >= reservedChunkIndexEnd) {
+            int reservationSize = Math.min(lastReservationSize * 2, MAX_CHUNK_INDEX_RESERVATION);
+            EhcacheStreamMaster reservedStreamMaster = reserveChunkIndices(reservationSize);
+
+            if(null == reservedStreamMaster)
+                throw new EhcacheStreamIllegalStateException("The stream master entry was removed while writing");
+
+            setReservedRange(reservedStreamMaster, reservationSize);
+        }
+
+        return nextReservedChunkIndex++;
+    }
+
+    /**
+     * Writes data byte chunks to ehcache
+     * buf: The internal buffer where data is stored.
+     * count: The number of valid bytes in the buffer
+     */
+    @Override
+    public void writeData(byte[] buf, int count) throws EhcacheStreamException {
+        if(!isOpen)
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter is not open...call open() first.");
+
+        if(count > 0) {
+            try {
+                byte[] chunk = Arrays.copyOf(buf, count);
+                int chunkIndex = nextChunkIndex();
+
+                getEhcacheStreamUtils().putChunkValue(getPublicCacheKey(), chunkIndex, chunk);
+
+                if(chunkCount == chunkIndices.length) {
+                    chunkIndices = Arrays.copyOf(chunkIndices, chunkCount * 2);
+                    chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+                    chunkChecksums = Arrays.copyOf(chunkChecksums, chunkCount * 2);
+                }
+                chunkIndices[chunkCount] = chunkIndex;
+                chunkSizes[chunkCount] = chunk.length;
+                chunkChecksums[chunkCount] = EhcacheStreamUtilsInternal.createChunkCRC32(chunk);
+                chunkCount++;
+            } catch (EhcacheStreamException | RuntimeException e) {
+                //partially written chunks must never get staged
+                isFailed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Close() stages the written chunks in the master entry.
+     * If anything failed during the writes, the chunks are dropped instead.
+     * Calling close multiple times does not matter.
+     */
+    @Override
+    public void close() throws EhcacheStreamException {
+        if(!isOpen)
+            return;
+
+        try {
+            if(!isFailed) {
+                commitStaging(
+                        Arrays.copyOf(chunkIndices, chunkCount),
+                        Arrays.copyOf(chunkSizes, chunkCount),
+                        Arrays.copyOf(chunkChecksums, chunkCount)
+                );
+            } else {
+                abort();
+            }
+        } catch (EhcacheStreamException | RuntimeException e) {
+            if(!isFailed) {
+                isFailed = true;
+                try {
+                    abort();
+                } catch (Exception e2) {
+                    logger.warn("An exception occurred while trying to abort the staged chunks", e2);
+                }
+            }
+            throw e;
+        } finally {
+            isOpen = false;
+            closeStaging();
+        }
+    }
+
+    private void abort() throws EhcacheStreamException {
+        abortStaging();
+
+        //these chunks will never be referenced
+        getEhcacheStreamUtils().clearChunkValues(getPublicCacheKey(), Arrays.copyOf(chunkIndices, chunkCount));
+    }
+}
@@ -0,0 +1,437 @@
+package org.ehcache.extensions.io.impl.writers;
+
+import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.BaseEhcacheStream;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by fabien.sanglier on 10/19/18.
+ */
+/*package protected*/ abstract class BaseEhcacheStreamWriter extends BaseEhcacheStream implements EhcacheStreamWriter {
+    private static final Logger logger = LoggerFactory.getLogger(BaseEhcacheStreamWriter.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    //This is the master cache entry as it was saved in cache by the open
+    //we will use it as the expected value of the final CAS commit
+    EhcacheStreamMaster openedStreamMaster;
+
+    //This is the local working copy of the master entry, updated as chunks get written, and committed to cache on close
+    EhcacheStreamMaster activeStreamMaster;
+
+    final boolean override;
+    final long openTimeoutMillis;
+
+    //only opens an existing master entry (eg. for a compaction): the writer opens without any master if there is none
+    boolean openExistingOnly = false;
+
+    //payloads up to that size are stored inline in the master entry (0 or lower disables inline storage)
+    private final int inlineThreshold;
+
+    //the target size of the chunk entries: partial chunks get filled up to that size when appending
+    private final int chunkSize;
+
+    //when the last chunk is partial, the incoming bytes are merged into it (instead of starting a new small chunk every time)
+    //the merged chunk is buffered here until full (or until commit), and always saved at a new chunk index
+    private byte[] pendingChunk;
+    private int pendingChunkLength = 0;
+
+    //last chunk written by this writer, kept to avoid a cache get if it needs to be merged with the next bytes
+    private byte[] lastWrittenChunk;
+    private int lastWrittenChunkIndex = -1;
+
+    //chunk entries superseded by merged chunks: only removed once the new master is committed, so the previous master stays readable until then
+    private final List<Integer> supersededChunkIndices = new ArrayList<Integer>();
+
+    volatile boolean isOpen = false;
+    volatile boolean isOpenMasterMutated = false;
+
+    //the write lease gets renewed from the open until the writer state gets reset
+    private volatile boolean isLeaseHeld = false;
+
+    protected BaseEhcacheStreamWriter(final Ehcache cache, final Object cacheKey, final boolean override, final long openTimeoutMillis, final int inlineThreshold, final int chunkSize) {
+        super(cache, cacheKey);
+        this.override = override;
+        this.openTimeoutMillis = openTimeoutMillis;
+        this.inlineThreshold = inlineThreshold;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Marks the master entry as write, and prepares the local working copy of it
+     */
+    void openMaster() throws EhcacheStreamException {
+        //Let's mark as write
+        if(openExistingOnly) {
+            openedStreamMaster = getEhcacheStreamUtils().openWriteOnExistingMaster(
+                    getPublicCacheKey(),
+                    openTimeoutMillis
+            );
+
+            //no such master entry: nothing held, and nothing to commit on close
+            if(null == openedStreamMaster) {
+                if(isDebug)
+                    logger.debug("No master entry to open a writer on for key={}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+                return;
+            }
+        } else {
+            openedStreamMaster = getEhcacheStreamUtils().openWriteOnMaster(
+                    getPublicCacheKey(),
+                    openTimeoutMillis
+            );
+        }
+
+        if(isDebug)
+            logger.debug("Opened writer for key={} is {}", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()), EhcacheStreamUtilsInternal.toStringSafe(openedStreamMaster));
+
+        // openedStreamMaster cannot be null here since the open should have created it even if it was not there
+        // and since nothing else can write to it while it's open
+        if(openedStreamMaster == null || openedStreamMaster.getWriters() == 0)
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter should not be null or have 0 writer at this point");
+
+        // mark stream master as mutated -- important for the close operation...see comment in that section
+        isOpenMasterMutated = true;
+
+        getEhcacheStreamUtils().holdLease(getPublicCacheKey(), true);
+        isLeaseHeld = true;
+
+        // work on a copy so the opened master stays untouched (in heap stores, it is the very instance held by the cache)
+        activeStreamMaster = EhcacheStreamMaster.deepCopy(openedStreamMaster);
+
+        //then once exclusive write, deal with override flag
+        //if override set, let's clear the chunks for the master to keep things clean, and reset the chunk count on the local master instance
+        if (override && activeStreamMaster.getChunkCount() > 0) {
+            if(isDebug)
+                logger.debug("Override requested: Clearing previous chunks...");
+
+            getEhcacheStreamUtils().clearChunksFromStreamMaster(getPublicCacheKey(), activeStreamMaster);
+
+            //reset chunk count
+            activeStreamMaster.resetChunkCount();
+        }
+    }
+
+    /**
+     * Finalizes the stream master object and stores it in cache.
+     * The final master and the write release are saved with a single CAS operation,
+     * falling back to the 2-step save + close if the master in cache is not the one we opened anymore.
+     * Either way, the master is only saved while this writer still holds the write: once released on lease expiry,
+     * a later writer may hold it, and the commit fails instead of overwriting its master.
+     */
+    void commitMaster() throws EhcacheStreamException {
+        //save whatever is still pending from an append merge
+        flushPendingChunk();
+
+        EhcacheStreamMaster committedStreamMaster = getEhcacheStreamUtils().commitWriteOnMaster(getPublicCacheKey(), openedStreamMaster, activeStreamMaster);
+        if(null != committedStreamMaster) {
+            // the write is already released by the commit, so nothing to close anymore
+            isOpenMasterMutated = false;
+        } else {
+            if(isDebug)
+                logger.debug("Could not commit the stream master in one operation for key={}...falling back to save then close", EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+            // finalize the EhcacheStreamMaster value with new chunk count by saving it in cache
+            boolean saved = getEhcacheStreamUtils().saveWriteOnMaster(getPublicCacheKey(), activeStreamMaster);
+            if (!saved)
+                throw new EhcacheStreamIllegalStateException("Could not save the final ehcache stream index properly in cache (the write is not held anymore, eg. released on lease expiry)...aborting");
+        }
+
+        //the new master does not reference the superseded chunks anymore: safe to remove them now
+        if(supersededChunkIndices.size() > 0) {
+            int[] chunkIndices = new int[supersededChunkIndices.size()];
+            for (int i = 0; i < chunkIndices.length; i++) {
+                chunkIndices[i] = supersededChunkIndices.get(i);
+            }
+            getEhcacheStreamUtils().clearChunkValues(getPublicCacheKey(), chunkIndices);
+            supersededChunkIndices.clear();
+        }
+    }
+
+    void resetWriterState() {
+        if(isLeaseHeld) {
+            getEhcacheStreamUtils().releaseLease(getPublicCacheKey(), true);
+            isLeaseHeld = false;
+        }
+        isOpen = false;
+        isOpenMasterMutated = false;
+        openedStreamMaster = null;
+        activeStreamMaster = null;
+        pendingChunk = null;
+        pendingChunkLength = 0;
+        lastWrittenChunk = null;
+        lastWrittenChunkIndex = -1;
+        supersededChunkIndices.clear();
+    }
+
+    private void checkWriteable() throws EhcacheStreamException {
+        if(!isOpen)
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter is not open...call open() first.");
+
+        // activeStreamMaster should not be null here since the open should have created it even if it was not there...
+        if(null == activeStreamMaster) {
+            throw new EhcacheStreamIllegalStateException("activeStreamMaster should not be null at this point...");
+        }
+    }
+
+    //saves the chunk at the next available chunk index, and adds its descriptor to the master
+    private void putChunk(byte[] chunk) throws EhcacheStreamException {
+        int chunkIndex = activeStreamMaster.getNextChunkIndex();
+
+        getEhcacheStreamUtils().putChunkValue(getPublicCacheKey(), chunkIndex, chunk);
+
+        //adding chunk descriptor to the master
+        activeStreamMaster.addChunk(chunkIndex, chunk.length, EhcacheStreamUtilsInternal.createChunkCRC32(chunk));
+
+        lastWrittenChunk = chunk;
+        lastWrittenChunkIndex = chunkIndex;
+    }
+
+    private byte[] getChunkBytes(int chunkIndex) {
+        if(chunkIndex == lastWrittenChunkIndex && null != lastWrittenChunk)
+            return lastWrittenChunk;
+
+        EhcacheStreamChunk chunkValue = getEhcacheStreamUtils().getChunkValue(getPublicCacheKey(), chunkIndex);
+        return (null != chunkValue)?chunkValue.getChunk():null;
+    }
+
+    /**
+     * Takes the bytes of the last chunk out of the master if that chunk is smaller than the chunk size,
+     * so they can be merged with the bytes that follow.
+     * Returns null if there is nothing to merge with.
+     */
+    private byte[] takePartialLastChunk() {
+        if(activeStreamMaster.hasInlineChunk()) {
+            //inline bytes have no chunk entry: nothing to remove later on
+            byte[] inlineChunk = activeStreamMaster.getInlineChunk();
+            activeStreamMaster.resetChunkCount();
+            return inlineChunk;
+        }
+
+        int chunkCount = activeStreamMaster.getChunkCount();
+        if(chunkCount == 0 || activeStreamMaster.getChunkSizeInBytes(chunkCount - 1) >= chunkSize)
+            return null;
+
+        int chunkIndex = activeStreamMaster.getChunkIndex(chunkCount - 1);
+        byte[] chunk = getChunkBytes(chunkIndex);
+
+        //not what the master expects: leave that chunk alone rather than risk merging the wrong bytes
+        if(null == chunk || chunk.length != activeStreamMaster.getChunkSizeInBytes(chunkCount - 1))
+            return null;
+
+        activeStreamMaster.removeLastChunk();
+        supersededChunkIndices.add(chunkIndex);
+        return chunk;
+    }
+
+    private void flushPendingChunk() throws EhcacheStreamException {
+        if(null != pendingChunk && pendingChunkLength > 0)
+            putChunk(Arrays.copyOf(pendingChunk, pendingChunkLength));
+
+        pendingChunk = null;
+        pendingChunkLength = 0;
+    }
+
+    /**
+     * Rewrites the runs of consecutive small chunks (smaller than the chunk size) into full size chunks.
+     * Single small chunks between full ones are left alone since rewriting them would not save anything.
+     * The superseded chunks are removed when the writer is closed.
+     *
+     * @return true if some chunks were rewritten
+     */
+    boolean compactChunks() throws EhcacheStreamException {
+        //opened on an existing master only: nothing to compact if there was none
+        if(isOpen && openExistingOnly && null == activeStreamMaster)
+            return false;
+
+        checkWriteable();
+
+        //flush anything written so far
+        flushPendingChunk();
+
+        int chunkCount = activeStreamMaster.getChunkCount();
+        if(activeStreamMaster.hasInlineChunk() || chunkCount < 2)
+            return false;
+
+        final int[] chunkIndices = activeStreamMaster.getAllChunkIndices();
+        final long[] chunkSizes = activeStreamMaster.getAllChunkSizeInBytes();
+        final long[] chunkChecksums = activeStreamMaster.getAllChunkChecksums();
+
+        //in case anything goes wrong, we must not commit a partially compacted master on close
+        final EhcacheStreamMaster originalStreamMaster = EhcacheStreamMaster.deepCopy(activeStreamMaster);
+        final int originalSupersededCount = supersededChunkIndices.size();
+        boolean success = false;
+
+        boolean compacted = false;
+        activeStreamMaster.resetChunkCount();
+
+        try {
+            int position = 0;
+            while (position < chunkCount) {
+                //find the run of small chunks starting at this position
+                int runEnd = position;
+                while (runEnd < chunkCount && chunkSizes[runEnd] < chunkSize) {
+                    runEnd++;
+                }
+
+                if(runEnd - position < 2) {
+                    //nothing worth merging here: keep the chunk as is
+                    activeStreamMaster.addChunk(chunkIndices[position], chunkSizes[position], chunkChecksums[position]);
+                    position++;
+                } else {
+                    if(isDebug)
+                        logger.debug("Compacting {} chunks for key={}", runEnd - position, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+                    for (int i = position; i < runEnd; i++) {
+                        byte[] chunk = getChunkBytes(chunkIndices[i]);
+                        if(null == chunk || chunk.length != chunkSizes[i])
+                            throw new EhcacheStreamIllegalStateException(String.format("Cache chunk [=%d] is null or does not match its expected size...aborting the compaction", chunkIndices[i]));
+
+                        appendPending(chunk, chunk.length);
+                        supersededChunkIndices.add(chunkIndices[i]);
+                    }
+                    flushPendingChunk();
+
+                    compacted = true;
+                    position = runEnd;
+                }
+            }
+
+            success = true;
+        } finally {
+            if(!success) {
+                //drop the chunks written so far, and go back to the master as it was
+                int[] newChunkIndices = new int[activeStreamMaster.getNextChunkIndex() - originalStreamMaster.getNextChunkIndex()];
+                for (int i = 0; i < newChunkIndices.length; i++) {
+                    newChunkIndices[i] = originalStreamMaster.getNextChunkIndex() + i;
+                }
+                getEhcacheStreamUtils().clearChunkValues(getPublicCacheKey(), newChunkIndices);
+
+                activeStreamMaster = originalStreamMaster;
+                supersededChunkIndices.subList(originalSupersededCount, supersededChunkIndices.size()).clear();
+                pendingChunk = null;
+                pendingChunkLength = 0;
+                lastWrittenChunk = null;
+                lastWrittenChunkIndex = -1;
+            }
+        }
+
+        return compacted;
+    }
+
+    /**
+     * Adds the staged parts of a multipart upload (in part number order) after the chunks of this stream, and closes that multipart upload.
+     * The parts keep their own chunks as uploaded: nothing gets rewritten here.
+     * With override, the previous chunks of the stream only get dropped once the upload is known to be there
+     * (so completing an upload that is gone, eg. released on lease expiry, leaves the stream entry untouched).
+     *
+     * @return the number of parts added
+     */
+    int addMultipartUploadParts(long uploadId, boolean override) throws EhcacheStreamException {
+        checkWriteable();
+
+        if(!activeStreamMaster.hasMultipartUpload(uploadId))
+            throw new EhcacheStreamIllegalStateException(String.format("Multipart upload [%d] not found for key [%s]", uploadId, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey())));
+
+        if (override && activeStreamMaster.getChunkCount() > 0) {
+            getEhcacheStreamUtils().clearChunksFromStreamMaster(getPublicCacheKey(), activeStreamMaster);
+            activeStreamMaster.resetChunkCount();
+        }
+
+        //flush anything written so far
+        flushPendingChunk();
+
+        //the inline bytes need their own chunk entry to be followed by other chunks
+        if(activeStreamMaster.hasInlineChunk()) {
+            byte[] inlineChunk = activeStreamMaster.getInlineChunk();
+            activeStreamMaster.resetChunkCount();
+            putChunk(inlineChunk);
+        }
+
+        int partCount = activeStreamMaster.addMultipartUploadParts(uploadId);
+
+        if(isDebug)
+            logger.debug("Added {} parts of multipart upload [{}] for key={}", partCount, uploadId, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+        return partCount;
+    }
+
+    //buffers the bytes in the pending chunk, saving it every time it is full
+    private void appendPending(byte[] buf, int count) throws EhcacheStreamException {
+        int offset = 0;
+        while (offset < count) {
+            if(null == pendingChunk) {
+                pendingChunk = new byte[chunkSize];
+                pendingChunkLength = 0;
+            }
+
+            int length = Math.min(pendingChunk.length - pendingChunkLength, count - offset);
+            System.arraycopy(buf, offset, pendingChunk, pendingChunkLength, length);
+            pendingChunkLength += length;
+            offset += length;
+
+            if(pendingChunkLength == pendingChunk.length) {
+                putChunk(pendingChunk);
+                pendingChunk = null;
+                pendingChunkLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes data byte chunks to ehcache
+     * buf: The internal buffer where data is stored.
+     * count: The number of valid bytes in the buffer
+     */
+    public void writeData(byte[] buf, int count) throws EhcacheStreamException {
+        checkWriteable();
+
+        //only 1 thread at a time should be able to reach this method...
+        // because all other threads should be waiting in the tryOpen method still
+        if(count > 0) {
+            //already merging into a partial chunk: keep filling it up
+            if(null != pendingChunk) {
+                appendPending(buf, count);
+                return;
+            }
+
+            //small payloads stay inline in the master entry (no chunk entry) as long as the total fits within the inline threshold
+            if(activeStreamMaster.getChunkCount() == 0 || activeStreamMaster.hasInlineChunk()) {
+                byte[] inlineChunk = activeStreamMaster.getInlineChunk();
+                int inlineLength = (null != inlineChunk)?inlineChunk.length:0;
+                if(inlineLength + count <= inlineThreshold) {
+                    byte[] newInlineChunk = new byte[inlineLength + count];
+                    if(inlineLength > 0)
+                        System.arraycopy(inlineChunk, 0, newInlineChunk, 0, inlineLength);
+                    System.arraycopy(buf, 0, newInlineChunk, inlineLength, count);
+
+                    activeStreamMaster.setInlineChunk(newInlineChunk, EhcacheStreamUtilsInternal.createChunkCRC32(newInlineChunk));
+                    return;
+                }
+            }
+
+            //merge with the last chunk if it is partial (eg. the tail of a previous append, or inline bytes too big to stay inline)
+            byte[] partialChunk = takePartialLastChunk();
+            if(null != partialChunk) {
+                if(partialChunk.length >= chunkSize) {
+                    putChunk(partialChunk);
+                } else {
+                    appendPending(partialChunk, partialChunk.length);
+                    appendPending(buf, count);
+                    return;
+                }
+            }
+
+            // let's add the chunk
+            putChunk(Arrays.copyOf(buf, count));
+        }
+    }
+}
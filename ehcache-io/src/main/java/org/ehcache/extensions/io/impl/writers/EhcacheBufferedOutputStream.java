@@ -2,6 +2,8 @@ package org.ehcache.extensions.io.impl.writers;
 
 import org.ehcache.extensions.io.EhcacheStreamException;
 import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamBufferPool;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,9 +20,19 @@ import java.io.IOException;
      */
     protected byte buf[];
 
+    /**
+     * The usable size of the buffer (the pooled buffer may be bigger)
+     */
+    protected final int bufferSize;
+
+    /**
+     * The buffer size reserved from the memory budget for this stream, given back on close
+     */
+    private int budgetReservedSize;
+
     /**
      * The number of valid bytes in the buffer. This value is always
-     * in the range <tt>0</tt> through <tt>buf.length</tt>; elements
+     * in the range <tt>0</tt> through <tt>bufferSize</tt>; elements
      * <tt>buf[0]</tt> through <tt>buf[count-1]</tt> contain valid
      * byte data.
      */
@@ -37,13 +49,41 @@ import java.io.IOException;
      * @exception EhcacheStreamException if ehcacheStreamWriter could not be opened
      */
     public EhcacheBufferedOutputStream(int bufferSize, EhcacheStreamWriter ehcacheStreamWriter) throws EhcacheStreamException {
+        this(bufferSize, 0, ehcacheStreamWriter);
+    }
+
+    /**
+     * Creates a new buffered output stream to write data to a cache
+     * with the specified buffer size, already reserved from the memory budget.
+     *
+     * @param   bufferSize            the stream buffer size.
+     * @param   budgetReservedSize    the size reserved from the memory budget, to give back on close
+     * @param   ehcacheStreamWriter   the stream writer implementation
+     *
+     * @exception EhcacheStreamIllegalArgumentException if size &lt;= 0 or if ehcacheStreamWriter is null
+     * @exception EhcacheStreamException if ehcacheStreamWriter could not be opened
+     */
+    public EhcacheBufferedOutputStream(int bufferSize, int budgetReservedSize, EhcacheStreamWriter ehcacheStreamWriter) throws EhcacheStreamException {
         super(ehcacheStreamWriter);
 
         if (bufferSize <= 0) {
             throw new EhcacheStreamIllegalArgumentException("Buffer size <= 0");
         }
 
-        this.buf = new byte[bufferSize];
+        this.bufferSize = bufferSize;
+        this.buf = EhcacheStreamBufferPool.getInstance().acquire(bufferSize);
+        this.budgetReservedSize = budgetReservedSize;
+    }
+
+    /**
+     * Check to make sure that buffer has not been given back to the pool
+     * on close; if not return it;
+     */
+    private byte[] getBufIfOpen() throws EhcacheStreamException {
+        byte[] buffer = buf;
+        if (buffer == null)
+            throw new EhcacheStreamException("Stream closed");
+        return buffer;
     }
 
     /**
@@ -64,10 +104,10 @@ import java.io.IOException;
      */
     @Override
     public void write(int b) throws EhcacheStreamException {
-        if (count >= buf.length) {
+        if (count >= bufferSize) {
             flushBuffer();
         }
-        buf[count++] = (byte)b;
+        getBufIfOpen()[count++] = (byte)b;
     }
 
     /**
@@ -89,17 +129,17 @@ import java.io.IOException;
      */
     @Override
     public void write(byte[] b, int off, int len) throws EhcacheStreamException {
-        if (len >= buf.length) {
+        if (len >= bufferSize) {
             //simple implementation...but works
             for(int i=0; i<len;i++){
                 write(b[off+i]);
             }
             return;
         }
-        if (len > buf.length - count) {
+        if (len > bufferSize - count) {
             flushBuffer();
         }
-        System.arraycopy(b, off, buf, count, len);
+        System.arraycopy(b, off, getBufIfOpen(), count, len);
         count += len;
     }
 
@@ -122,7 +162,18 @@ import java.io.IOException;
         try{
             flush();
         } finally {
-            ehcacheStreamWriter.close();
+            try {
+                ehcacheStreamWriter.close();
+            } finally {
+                //closing again is a no-op: the buffer goes back to the pool only once
+                if(null != buf) {
+                    EhcacheStreamBufferPool.getInstance().release(buf);
+                    buf = null;
+
+                    EhcacheStreamMemoryBudget.getInstance().release(budgetReservedSize);
+                    budgetReservedSize = 0;
+                }
+            }
         }
     }
 }
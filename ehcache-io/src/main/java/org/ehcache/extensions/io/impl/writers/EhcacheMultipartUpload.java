@@ -0,0 +1,169 @@
+package org.ehcache.extensions.io.impl.writers;
+
+import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.BaseEhcacheStream;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by fabien.sanglier on 11/5/18.
+ */
+
+/*
+ * A multipart upload of a single stream entry: the numbered parts of the stream are uploaded in parallel
+ * (by many threads, or nodes attached to the same upload id), each with its own OutputStream.
+ * Each uploaded part is staged in the master entry (uploading the same part number again replaces it).
+ * On complete, all the staged parts are added to the stream entry in part number order, with a single exclusive write:
+ * until then, the readers do not see any of the uploaded bytes.
+ * The multipart upload is leased from its creation until completed or aborted (and while parts are uploading):
+ * if the lease expires (eg. all its uploaders are gone), the upload and its staged parts get dropped.
+ * A complete or abort that fails while the upload is still there (eg. on a timeout) keeps the lease: the upload can be completed or aborted again.
+ */
+public class EhcacheMultipartUpload extends BaseEhcacheStream {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheMultipartUpload.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private final long uploadId;
+    private final long openTimeoutMillis;
+
+    //only the creator holds the lease of the upload (until complete or abort), not the ones attached to it by upload id
+    private final AtomicBoolean holdsLease = new AtomicBoolean(false);
+
+    /*package protected*/ EhcacheMultipartUpload(final Ehcache cache, final Object cacheKey, final long uploadId, final long openTimeoutMillis) {
+        super(cache, cacheKey);
+        this.uploadId = uploadId;
+        this.openTimeoutMillis = openTimeoutMillis;
+    }
+
+    /*package protected*/ static EhcacheMultipartUpload create(final Ehcache cache, final Object cacheKey, final long openTimeoutMillis) throws EhcacheStreamException {
+        if(openTimeoutMillis <= 0)
+            throw new EhcacheStreamIllegalStateException(String.format("Open timeout [%d] may not be lower than 0", openTimeoutMillis));
+
+        EhcacheStreamMaster openedStreamMaster = EhcacheStreamManager.getInstance(cache).newEhcacheStreamUtils().openMultipartUploadOnMaster(cacheKey, openTimeoutMillis);
+        if(null == openedStreamMaster || openedStreamMaster.getMultipartUploadCount() == 0)
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamMaster should not be null or have 0 multipart upload at this point");
+
+        EhcacheMultipartUpload multipartUpload = new EhcacheMultipartUpload(cache, cacheKey, openedStreamMaster.getLastUploadId(), openTimeoutMillis);
+        multipartUpload.holdLease();
+
+        if(isDebug)
+            logger.debug("Opened multipart upload [{}] for key={}", multipartUpload.getUploadId(), EhcacheStreamUtilsInternal.toStringSafe(cacheKey));
+
+        return multipartUpload;
+    }
+
+    /**
+     * @return the id of this upload, to attach to it from another thread or node
+     */
+    public long getUploadId() {
+        return uploadId;
+    }
+
+    public OutputStream getPartOutputStream(int partNumber) throws EhcacheStreamException {
+        return getPartOutputStream(partNumber, EhcacheStreamManager.getInstance(getEhcacheStreamUtils().getCache()).getOutputStreamBufferSize());
+    }
+
+    /**
+     * Get an OutputStream object uploading a part of this multipart upload.
+     * The part is staged when the stream is closed successfully.
+     *
+     * @param       partNumber      the number of the part (the parts are added to the stream in part number order)
+     * @param       bufferSize      the outputStream underlying buffer size. This essentially specify a max size for each of the underlying cache "chunk entries" created in Ehcache.
+     * @return      a Valid OutputStream object
+     * @exception   EhcacheStreamException if the part number is negative, OR if the EhcacheOutputStream creation was not successful
+     */
+    public OutputStream getPartOutputStream(int partNumber, int bufferSize) throws EhcacheStreamException {
+        if(partNumber < 0)
+            throw new EhcacheStreamIllegalArgumentException("Part number < 0");
+
+        return EhcacheStreamWritersFactory.getMultipartUploadPartStream(
+                getEhcacheStreamUtils().getCache(),
+                getPublicCacheKey(),
+                uploadId,
+                partNumber,
+                bufferSize,
+                openTimeoutMillis
+        );
+    }
+
+    public int complete() throws EhcacheStreamException {
+        return complete(EhcacheStreamManager.getInstance(getEhcacheStreamUtils().getCache()).getOutputStreamDefaultOverride());
+    }
+
+    /**
+     * Adds all the staged parts to the stream entry (in part number order), and closes this multipart upload.
+     * The parts still uploading at that point are not part of it (and their upload fails).
+     *
+     * @param       override        flag to specify if the parts should completely override the currently stored data, or if they should be appended to it.
+     * @return      the number of parts added
+     * @exception   EhcacheStreamException if this multipart upload does not exist (anymore), OR if the completion was not successful
+     */
+    public int complete(boolean override) throws EhcacheStreamException {
+        boolean isCompleted = false;
+        try {
+            int partCount = EhcacheStreamWritersFactory.completeMultipartUpload(
+                    getEhcacheStreamUtils().getCache(),
+                    getPublicCacheKey(),
+                    uploadId,
+                    override,
+                    openTimeoutMillis
+            );
+            isCompleted = true;
+            return partCount;
+        } finally {
+            if(isCompleted || !isUploadPresent())
+                releaseLease();
+        }
+    }
+
+    /**
+     * Drops this multipart upload and all its staged parts.
+     *
+     * @return      true if this multipart upload was dropped, false if it did not exist (anymore)
+     * @exception   EhcacheStreamException if the abort was not successful
+     */
+    public boolean abort() throws EhcacheStreamException {
+        if(isDebug)
+            logger.debug("Aborting multipart upload [{}] for key={}", uploadId, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+        boolean isAborted = false;
+        try {
+            boolean isDropped = getEhcacheStreamUtils().abortMultipartUploadOnMaster(getPublicCacheKey(), uploadId, openTimeoutMillis);
+            isAborted = true;
+            return isDropped;
+        } finally {
+            if(isAborted || !isUploadPresent())
+                releaseLease();
+        }
+    }
+
+    //after a failed complete or abort: the lease is only kept for an upload still there (a failed lookup keeps it too, the lease expiry being the fallback)
+    private boolean isUploadPresent() {
+        try {
+            EhcacheStreamMaster streamMaster = getEhcacheStreamUtils().getStreamMasterFromCache(getPublicCacheKey());
+            return null != streamMaster && streamMaster.hasMultipartUpload(uploadId);
+        } catch (RuntimeException e) {
+            logger.warn("Could not check the multipart upload [" + uploadId + "] after a failed completion", e);
+            return true;
+        }
+    }
+
+    private void holdLease() {
+        if(holdsLease.compareAndSet(false, true))
+            getEhcacheStreamUtils().holdStagingLease(getPublicCacheKey(), true, uploadId);
+    }
+
+    private void releaseLease() {
+        if(holdsLease.compareAndSet(true, false))
+            getEhcacheStreamUtils().releaseStagingLease(getPublicCacheKey(), true, uploadId);
+    }
+}
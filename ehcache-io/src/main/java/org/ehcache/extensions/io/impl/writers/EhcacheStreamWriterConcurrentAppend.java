@@ -0,0 +1,97 @@
+package org.ehcache.extensions.io.impl.writers;
+
+import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Created by fabien.sanglier on 11/2/18.
+ */
+
+/*
+ * This ehcache stream writer appends the streamed bytes to a cache entry without requiring an exclusive write,
+ * so that many threads (or nodes) can append to the same cache key at the same time.
+ * On open, the append gets a sequence number and a range of chunk indices reserved in the master entry (single CAS operation).
+ * The chunks are then written in parallel with the other appends, in the reserved chunk indices (more get reserved as needed).
+ * On close, the chunks are staged in the master entry and published in the order of the append sequence:
+ * the append completing the oldest pending append publishes, in the same master update, all the completed appends that follow it.
+ * Each append is published as a whole (never interleaved with another append), and never visible to readers before that.
+ * The exclusive writers (override or not) wait for all the pending appends to be published.
+ * The pending append is leased until closed: if the lease expires (eg. the appender JVM died), the append gets dropped, and its close fails.
+ */
+/*package protected*/ class EhcacheStreamWriterConcurrentAppend extends BaseEhcacheStreamStagingWriter implements EhcacheStreamWriter {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamWriterConcurrentAppend.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private long appendSequence = -1L;
+
+    public EhcacheStreamWriterConcurrentAppend(final Ehcache cache, final Object cacheKey, final long openTimeoutMillis) {
+        super(cache, cacheKey, openTimeoutMillis);
+    }
+
+    /**
+     * Registers a new pending append in the stream master entry.
+     */
+    @Override
+    EhcacheStreamMaster openStaging(int reservationSize) throws EhcacheStreamException {
+        EhcacheStreamMaster openedStreamMaster = getEhcacheStreamUtils().openAppendOnMaster(
+                getPublicCacheKey(),
+                reservationSize,
+                openTimeoutMillis
+        );
+
+        if(null == openedStreamMaster || !openedStreamMaster.hasPendingAppends())
+            throw new EhcacheStreamIllegalStateException("EhcacheStreamWriter should not be null or have 0 pending append at this point");
+
+        appendSequence = openedStreamMaster.getLastAppendSequence();
+        getEhcacheStreamUtils().holdStagingLease(getPublicCacheKey(), false, appendSequence);
+        return openedStreamMaster;
+    }
+
+    @Override
+    EhcacheStreamMaster reserveChunkIndices(int reservationSize) throws EhcacheStreamException {
+        return getEhcacheStreamUtils().reserveChunkIndicesOnMaster(
+                getPublicCacheKey(),
+                reservationSize,
+                openTimeoutMillis
+        );
+    }
+
+    /**
+     * Publishes the append (or stages it until the previous appends are published).
+     */
+    @Override
+    void commitStaging(int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) throws EhcacheStreamException {
+        EhcacheStreamMaster committedStreamMaster = getEhcacheStreamUtils().commitAppendOnMaster(
+                getPublicCacheKey(),
+                appendSequence,
+                chunkIndices,
+                chunkSizes,
+                chunkChecksums,
+                openTimeoutMillis
+        );
+
+        if(null == committedStreamMaster)
+            throw new EhcacheStreamIllegalStateException("The stream master entry was removed while appending");
+
+        if(isDebug)
+            logger.debug("Committed append [{}] for key={} : {}", appendSequence, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()), EhcacheStreamUtilsInternal.toStringSafe(committedStreamMaster));
+    }
+
+    @Override
+    void abortStaging() throws EhcacheStreamException {
+        if(isDebug)
+            logger.debug("Aborting append [{}] for key={}", appendSequence, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+
+        getEhcacheStreamUtils().abortAppendOnMaster(getPublicCacheKey(), appendSequence, openTimeoutMillis);
+    }
+
+    @Override
+    void closeStaging() {
+        getEhcacheStreamUtils().releaseStagingLease(getPublicCacheKey(), false, appendSequence);
+    }
+}
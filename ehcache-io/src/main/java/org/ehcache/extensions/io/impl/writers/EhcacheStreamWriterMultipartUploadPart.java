@@ -0,0 +1,87 @@
+package org.ehcache.extensions.io.impl.writers;
+
+import net.sf.ehcache.Ehcache;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Created by fabien.sanglier on 11/5/18.
+ */
+
+/*
+ * This ehcache stream writer uploads one numbered part of a multipart upload.
+ * The chunks are written in chunk indices reserved in the master entry, in parallel with the other parts,
+ * and staged on close in the multipart upload (uploading the same part number again replaces the previous upload of that part).
+ * The parts are only added to the stream once the multipart upload gets completed.
+ * The multipart upload lease is renewed while the part is uploading.
+ */
+/*package protected*/ class EhcacheStreamWriterMultipartUploadPart extends BaseEhcacheStreamStagingWriter implements EhcacheStreamWriter {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheStreamWriterMultipartUploadPart.class);
+    private static final boolean isDebug = logger.isDebugEnabled();
+
+    private final long uploadId;
+    private final int partNumber;
+
+    public EhcacheStreamWriterMultipartUploadPart(final Ehcache cache, final Object cacheKey, final long uploadId, final int partNumber, final long openTimeoutMillis) {
+        super(cache, cacheKey, openTimeoutMillis);
+        this.uploadId = uploadId;
+        this.partNumber = partNumber;
+    }
+
+    //a part has nothing to register: opening is just the first reservation
+    @Override
+    EhcacheStreamMaster openStaging(int reservationSize) throws EhcacheStreamException {
+        EhcacheStreamMaster openedStreamMaster = reserveChunkIndices(reservationSize);
+
+        if(null == openedStreamMaster)
+            throw new EhcacheStreamIllegalStateException(String.format("Multipart upload [%d] not found: the stream master entry does not exist", uploadId));
+
+        getEhcacheStreamUtils().holdStagingLease(getPublicCacheKey(), true, uploadId);
+        return openedStreamMaster;
+    }
+
+    @Override
+    EhcacheStreamMaster reserveChunkIndices(int reservationSize) throws EhcacheStreamException {
+        return getEhcacheStreamUtils().reservePartChunkIndicesOnMaster(
+                getPublicCacheKey(),
+                uploadId,
+                reservationSize,
+                openTimeoutMillis
+        );
+    }
+
+    @Override
+    void commitStaging(int[] chunkIndices, long[] chunkSizes, long[] chunkChecksums) throws EhcacheStreamException {
+        EhcacheStreamMaster committedStreamMaster = getEhcacheStreamUtils().commitPartOnMaster(
+                getPublicCacheKey(),
+                uploadId,
+                partNumber,
+                chunkIndices,
+                chunkSizes,
+                chunkChecksums,
+                openTimeoutMillis
+        );
+
+        if(null == committedStreamMaster)
+            throw new EhcacheStreamIllegalStateException("The stream master entry was removed while uploading");
+
+        if(isDebug)
+            logger.debug("Committed part [{}] of multipart upload [{}] for key={}", partNumber, uploadId, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+    }
+
+    //nothing staged in the master entry yet: only the chunk entries need to go
+    @Override
+    void abortStaging() throws EhcacheStreamException {
+        if(isDebug)
+            logger.debug("Aborting part [{}] of multipart upload [{}] for key={}", partNumber, uploadId, EhcacheStreamUtilsInternal.toStringSafe(getPublicCacheKey()));
+    }
+
+    @Override
+    void closeStaging() {
+        getEhcacheStreamUtils().releaseStagingLease(getPublicCacheKey(), true, uploadId);
+    }
+}
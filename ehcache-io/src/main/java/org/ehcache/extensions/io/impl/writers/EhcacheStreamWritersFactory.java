@@ -3,12 +3,29 @@ package org.ehcache.extensions.io.impl.writers;
 import net.sf.ehcache.Ehcache;
 import org.ehcache.extensions.io.EhcacheStreamException;
 import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudget;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by fabien.sanglier on 9/14/18.
@@ -22,18 +39,34 @@ public class EhcacheStreamWritersFactory {
      * @return    a valid IEhcacheStreamWriter object
      */
     public static EhcacheStreamWriter getWriter(Ehcache cache, Object cacheKey, boolean override, long openTimeoutMillis) {
-        EhcacheStreamWriter ehcacheStreamWriter;
-        PropertyUtils.ConcurrencyMode concurrencyMode = PropertyUtils.getEhcacheIOStreamsConcurrencyMode();
+        return getWriter(cache, cacheKey, override, openTimeoutMillis, EhcacheStreamManager.getInstance(cache).getOutputStreamBufferSize());
+    }
+
+    /**
+     * Get an IEhcacheStreamWriter object backed by Ehcache.
+     *
+     * @param     chunkSize   the target size of the chunk entries (partial chunks get filled up to that size when appending)
+     * @return    a valid IEhcacheStreamWriter object
+     */
+    public static EhcacheStreamWriter getWriter(Ehcache cache, Object cacheKey, boolean override, long openTimeoutMillis, int chunkSize) {
+        return createWriter(cache, cacheKey, override, openTimeoutMillis, chunkSize);
+    }
+
+    private static BaseEhcacheStreamWriter createWriter(Ehcache cache, Object cacheKey, boolean override, long openTimeoutMillis, int chunkSize) {
+        BaseEhcacheStreamWriter ehcacheStreamWriter;
+        EhcacheStreamManager ehcacheStreamManager = EhcacheStreamManager.getInstance(cache);
+        PropertyUtils.ConcurrencyMode concurrencyMode = ehcacheStreamManager.getConcurrencyMode();
+        int inlineThreshold = ehcacheStreamManager.getOutputStreamInlineThreshold();
         if(logger.isDebugEnabled())
             logger.debug("Creating a stream writer with Concurrency mode: {}", EhcacheStreamUtilsInternal.toStringSafe(concurrencyMode));
 
         switch (concurrencyMode){
             case WRITE_PRIORITY:
             case READ_COMMITTED_CASLOCKS:
-                ehcacheStreamWriter = new EhcacheStreamWriterCasLock(cache, cacheKey, override, openTimeoutMillis);
+                ehcacheStreamWriter = new EhcacheStreamWriterCasLock(cache, cacheKey, override, openTimeoutMillis, inlineThreshold, chunkSize);
                 break;
             case READ_COMMITTED_WITHLOCKS:
-                ehcacheStreamWriter = new EhcacheStreamWriterWithSingleLock(cache, cacheKey, override, openTimeoutMillis);
+                ehcacheStreamWriter = new EhcacheStreamWriterWithSingleLock(cache, cacheKey, override, openTimeoutMillis, inlineThreshold, chunkSize);
                 break;
             default:
                 throw new EhcacheStreamIllegalStateException("Not implemented");
@@ -42,12 +75,207 @@ public class EhcacheStreamWritersFactory {
         return ehcacheStreamWriter;
     }
 
+    /**
+     * Rewrites the runs of small chunks of a stream entry into full size chunks.
+     * The stream entry is opened for write (hence exclusive) for the whole compaction.
+     * A missing stream entry does not get created: nothing to compact then.
+     *
+     * @return    true if some chunks were rewritten
+     */
+    public static boolean compactStream(Ehcache cache, Object cacheKey, int chunkSize, long openTimeoutMillis) throws EhcacheStreamException {
+        BaseEhcacheStreamWriter ehcacheStreamWriter = createWriter(cache, cacheKey, false, openTimeoutMillis, chunkSize);
+        ehcacheStreamWriter.openExistingOnly = true;
+        ehcacheStreamWriter.tryOpen();
+        try {
+            return ehcacheStreamWriter.compactChunks();
+        } finally {
+            ehcacheStreamWriter.close();
+        }
+    }
+
+    /**
+     * Replaces the stream entry with the content of a file.
+     * The file is split into chunk aligned regions, each read (with positional reads) and saved by one of the putFile threads of the cache (see EhcacheStreamManager) as a part of a multipart upload:
+     * the chunks are saved in parallel at chunk indices reserved upfront, and the stream entry is only updated once, when the upload completes.
+     * Nothing is locked while the chunks are saved.
+     *
+     * @return    the number of bytes written
+     */
+    public static long putFile(final Ehcache cache, final Object cacheKey, final Path file, final int chunkSize, final int threadCount, final long openTimeoutMillis) throws EhcacheStreamException {
+        try (final FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long fileSize = fileChannel.size();
+
+            //small files go the regular way (eg. to stay inline)
+            if(fileSize <= EhcacheStreamManager.getInstance(cache).getOutputStreamInlineThreshold()) {
+                byte[] content = readFileRegion(fileChannel, 0L, (int) fileSize);
+                try (EhcacheOutputStream os = getStream(cache, cacheKey, chunkSize, true, openTimeoutMillis)) {
+                    os.write(content);
+                }
+                return fileSize;
+            }
+
+            final long chunkCount = (fileSize + chunkSize - 1) / chunkSize;
+            final int maxPartCount = (int) Math.min(threadCount, chunkCount);
+            final long partSize = ((chunkCount + maxPartCount - 1) / maxPartCount) * chunkSize;
+            final int partCount = (int) ((fileSize + partSize - 1) / partSize);
+
+            if(logger.isDebugEnabled())
+                logger.debug("Putting file [{}] of size {} in {} parts for key={}", file, fileSize, partCount, EhcacheStreamUtilsInternal.toStringSafe(cacheKey));
+
+            final EhcacheMultipartUpload multipartUpload = EhcacheMultipartUpload.create(cache, cacheKey, openTimeoutMillis);
+
+            //the parts run on the shared putFile threads of the cache: on failure, the parts not done yet stop at their next chunk
+            ExecutorService executorService = EhcacheStreamManager.getInstance(cache).getPutFileExecutor();
+            final AtomicBoolean aborted = new AtomicBoolean(false);
+            final CountDownLatch partsDone = new CountDownLatch(partCount);
+            int submittedParts = 0;
+            boolean success = false;
+            try {
+                List<Future<Long>> parts = new ArrayList<Future<Long>>(partCount);
+                for (int i = 0; i < partCount; i++) {
+                    final int partNumber = i;
+                    final long partStart = (long) i * partSize;
+                    final long partEnd = Math.min(fileSize, partStart + partSize);
+                    parts.add(executorService.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            try {
+                                if(aborted.get())
+                                    return 0L;
+
+                                EhcacheStreamWriterMultipartUploadPart partWriter = new EhcacheStreamWriterMultipartUploadPart(cache, cacheKey, multipartUpload.getUploadId(), partNumber, openTimeoutMillis);
+                                partWriter.tryOpen();
+                                try {
+                                    for (long position = partStart; position < partEnd && !aborted.get(); position += chunkSize) {
+                                        byte[] chunk = readFileRegion(fileChannel, position, (int) Math.min(chunkSize, partEnd - position));
+                                        partWriter.writeData(chunk, chunk.length);
+                                    }
+                                } finally {
+                                    partWriter.close();
+                                }
+                                return partEnd - partStart;
+                            } finally {
+                                partsDone.countDown();
+                            }
+                        }
+                    }));
+                    submittedParts++;
+                }
+
+                for (Future<Long> part : parts) {
+                    part.get();
+                }
+
+                multipartUpload.complete(true);
+                success = true;
+            } catch (ExecutionException e) {
+                throw new EhcacheStreamException(String.format("Could not put the file [%s] into the cache", file), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EhcacheStreamIllegalStateException("Unexpected interrupt error: Could not put the file into the cache", e);
+            } finally {
+                if(!success) {
+                    aborted.set(true);
+                    try {
+                        //let the part writers finish (and clean up after themselves) before dropping the upload (the parts never submitted have nothing to finish)
+                        for (int i = submittedParts; i < partCount; i++) {
+                            partsDone.countDown();
+                        }
+                        partsDone.await(openTimeoutMillis, TimeUnit.MILLISECONDS);
+                        multipartUpload.abort();
+                    } catch (Exception e) {
+                        logger.warn("An exception occurred while trying to abort the file put", e);
+                    }
+                }
+            }
+
+            return fileSize;
+        } catch (EhcacheStreamException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new EhcacheStreamException(String.format("Could not read the file [%s]", file), e);
+        }
+    }
+
+    //positional read: safe to use from many threads on the same channel
+    private static byte[] readFileRegion(final FileChannel fileChannel, final long position, final int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if(fileChannel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException(String.format("Unexpected end of file at position [%d]", position + buffer.position()));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Get an OutputStream object backed by Ehcache, appending to the cache entry concurrently with other such appending streams.
+     *
+     * @return    a valid OutputStream object
+     */
+    public static EhcacheOutputStream getConcurrentAppendStream(Ehcache cache, Object cacheKey, int streamBufferSize, long openTimeoutMillis) throws EhcacheStreamException {
+        return newBufferedStream(streamBufferSize, new EhcacheStreamWriterConcurrentAppend(cache, cacheKey, openTimeoutMillis));
+    }
+
+    /**
+     * Opens a new multipart upload on the cache entry.
+     *
+     * @return    a valid EhcacheMultipartUpload object
+     */
+    public static EhcacheMultipartUpload createMultipartUpload(Ehcache cache, Object cacheKey, long openTimeoutMillis) throws EhcacheStreamException {
+        return EhcacheMultipartUpload.create(cache, cacheKey, openTimeoutMillis);
+    }
+
+    /**
+     * Get a EhcacheMultipartUpload object for a multipart upload already opened (eg. by another node) on the cache entry.
+     *
+     * @return    a valid EhcacheMultipartUpload object
+     */
+    public static EhcacheMultipartUpload getMultipartUpload(Ehcache cache, Object cacheKey, long uploadId, long openTimeoutMillis) {
+        return new EhcacheMultipartUpload(cache, cacheKey, uploadId, openTimeoutMillis);
+    }
+
+    /**
+     * Get an OutputStream object backed by Ehcache, uploading a part of a multipart upload.
+     *
+     * @return    a valid OutputStream object
+     */
+    static EhcacheOutputStream getMultipartUploadPartStream(Ehcache cache, Object cacheKey, long uploadId, int partNumber, int streamBufferSize, long openTimeoutMillis) throws EhcacheStreamException {
+        return newBufferedStream(streamBufferSize, new EhcacheStreamWriterMultipartUploadPart(cache, cacheKey, uploadId, partNumber, openTimeoutMillis));
+    }
+
+    /**
+     * Adds the parts of a multipart upload to the stream entry, with a single exclusive write.
+     *
+     * @return    the number of parts added
+     */
+    static int completeMultipartUpload(Ehcache cache, Object cacheKey, long uploadId, boolean override, long openTimeoutMillis) throws EhcacheStreamException {
+        //the override is done by the parts addition, not on open: the upload may not be there anymore
+        BaseEhcacheStreamWriter ehcacheStreamWriter = createWriter(cache, cacheKey, false, openTimeoutMillis, EhcacheStreamManager.getInstance(cache).getOutputStreamBufferSize());
+        ehcacheStreamWriter.tryOpen();
+        try {
+            return ehcacheStreamWriter.addMultipartUploadParts(uploadId, override);
+        } finally {
+            ehcacheStreamWriter.close();
+        }
+    }
+
     /**
      * Get an OutputStream object backed by Ehcache.
      *
      * @return    a valid OutputStream object
      */
     public static EhcacheOutputStream getStream(Ehcache cache, Object cacheKey, int streamBufferSize, boolean override, long openTimeoutMillis) throws EhcacheStreamException {
-        return new EhcacheBufferedOutputStream(streamBufferSize, getWriter(cache, cacheKey, override, openTimeoutMillis));
+        return newBufferedStream(streamBufferSize, getWriter(cache, cacheKey, override, openTimeoutMillis, streamBufferSize));
+    }
+
+    //the buffer gets reserved from the memory budget before the writer gets opened (not to wait for memory while holding the entry)
+    private static EhcacheOutputStream newBufferedStream(int streamBufferSize, EhcacheStreamWriter ehcacheStreamWriter) throws EhcacheStreamException {
+        int bufferSize = EhcacheStreamMemoryBudget.getInstance().reserve(streamBufferSize);
+        try {
+            return new EhcacheBufferedOutputStream(bufferSize, bufferSize, ehcacheStreamWriter);
+        } catch (EhcacheStreamException | RuntimeException e) {
+            EhcacheStreamMemoryBudget.getInstance().release(bufferSize);
+            throw e;
+        }
     }
 }
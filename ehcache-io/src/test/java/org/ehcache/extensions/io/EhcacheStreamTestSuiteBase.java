@@ -2,8 +2,21 @@ package org.ehcache.extensions.io;
 
 import org.ehcache.extensions.io.impl.*;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterTest;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamSlabStoreTest;
+import org.ehcache.extensions.io.impl.readers.EhcacheFileAdapterInputStreamTest;
 import org.ehcache.extensions.io.impl.readers.EhcacheInputStreamTest;
+import org.ehcache.extensions.io.impl.readers.EhcacheStreamChunkFetchCoalescerTest;
+import org.ehcache.extensions.io.impl.readers.EhcacheStreamChunkNearCacheTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamBufferPoolTest;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamCasTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamChunkReclaimerTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamOrphanChunkSweeperTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamLeaseRenewerTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamReadTimeTrackerTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamChunkSizePolicyTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManagerTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMasterKeyIndexTest;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudgetTest;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsTest;
 import org.ehcache.extensions.io.impl.utils.cas.WaitTest;
 import org.ehcache.extensions.io.impl.writers.EhcacheOutputStreamTest;
@@ -19,10 +32,23 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         EhcacheStreamMasterTest.class,
+        EhcacheStreamSlabStoreTest.class,
+        EhcacheStreamChunkNearCacheTest.class,
+        EhcacheStreamChunkFetchCoalescerTest.class,
+        EhcacheStreamBufferPoolTest.class,
+        EhcacheStreamMemoryBudgetTest.class,
+        EhcacheStreamManagerTest.class,
+        EhcacheStreamChunkSizePolicyTest.class,
+        EhcacheStreamMasterKeyIndexTest.class,
+        EhcacheStreamChunkReclaimerTest.class,
+        EhcacheStreamOrphanChunkSweeperTest.class,
+        EhcacheStreamLeaseRenewerTest.class,
+        EhcacheStreamReadTimeTrackerTest.class,
         WaitTest.class,
         EhcacheStreamUtilsTest.class,
         EhcacheStreamCasTest.class,
         EhcacheInputStreamTest.class,
+        EhcacheFileAdapterInputStreamTest.class,
         EhcacheOutputStreamTest.class,
         EhcacheStreamConcurrentTest.class
 })
@@ -5,6 +5,7 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.output.CountingOutputStream;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
 import org.junit.Assert;
 import org.junit.runners.Parameterized;
@@ -463,6 +464,9 @@ public abstract class EhcacheStreamingTestsBase {
             throw new IllegalArgumentException("Could not find the cache " + cacheTestType.getCacheName());
         }
 
+        //pick up the settings of the current test run
+        EhcacheStreamManager.getInstance(cache).reloadSettings();
+
         //empty the cache
         cache.removeAll();
     }
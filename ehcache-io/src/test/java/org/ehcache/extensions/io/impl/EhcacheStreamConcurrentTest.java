@@ -5,6 +5,7 @@ import org.ehcache.extensions.io.*;
 import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
 import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+import org.ehcache.extensions.io.impl.writers.EhcacheMultipartUpload;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -14,6 +15,7 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -597,6 +599,263 @@ public class EhcacheStreamConcurrentTest extends EhcacheStreamingTestsBase {
         Assert.assertEquals(0,testObjectCheck.getLastReadTime());
     }
 
+    private void addConcurrentAppendCallable(final int threadIndex, final int appends, final int recordSize, final int bufferSize) {
+        callables.add(new ConcurrentTestCallable() {
+            @Override
+            public Long call() throws Exception {
+                Thread.currentThread().setName("Ehcache-Appender-Thread-" + Thread.currentThread().getId());
+
+                long totalBytes = 0L;
+                for (int i = 0; i < appends; i++) {
+                    byte[] record = buildAppendRecord(threadIndex, i, recordSize);
+                    try (OutputStream os = EhcacheIOStreams.getConcurrentAppendOutputStream(getCache(), getCacheKey(), bufferSize, 30000L)) {
+                        //write in small pieces to make sure the appends are interleaved
+                        for (int offset = 0; offset < record.length; offset += bufferSize) {
+                            os.write(record, offset, Math.min(bufferSize, record.length - offset));
+                            Thread.yield();
+                        }
+                    }
+                    totalBytes += record.length;
+                }
+
+                return totalBytes;
+            }
+        });
+
+        callableResults.add(new AtomicReference<Long>());
+        exceptions.add(new AtomicReference<Throwable>());
+    }
+
+    //a single line record, identifiable by its thread and append index
+    private static byte[] buildAppendRecord(int threadIndex, int appendIndex, int recordSize) {
+        StringBuilder sb = new StringBuilder(String.format("T%d-A%d:", threadIndex, appendIndex));
+        while (sb.length() < recordSize - 1) {
+            sb.append((char) ('a' + (threadIndex + appendIndex) % 26));
+        }
+        sb.append('\n');
+        return sb.toString().getBytes();
+    }
+
+    @Test
+    public void testConcurrentAppends() throws IOException, InterruptedException {
+        logger.info("============ testConcurrentAppends ====================");
+
+        Assert.assertEquals(0, getCache().getSize()); // should be 0 now
+
+        //start with a small (inline) payload written by a regular writer
+        byte[] header = "HEADER\n".getBytes();
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true)) {
+            os.write(header);
+        }
+
+        final int threadCount = 10;
+        final int appends = 5;
+        final int recordSize = 3000;
+        final int bufferSize = 128; // more chunks per append than the initial chunk index reservation
+
+        List<String> expectedRecords = new ArrayList<String>();
+        for(int i = 0; i < threadCount; i++) {
+            addConcurrentAppendCallable(i, appends, recordSize, bufferSize);
+            for (int j = 0; j < appends; j++) {
+                expectedRecords.add(new String(buildAppendRecord(i, j, recordSize)).trim());
+            }
+        }
+
+        runInThreads();
+
+        for(int i = 0; i < threadCount; i++) {
+            Assert.assertNull(exceptions.get(i).get()); // should have 0 exception
+            Assert.assertEquals(appends * recordSize, callableResults.get(i).get().longValue());
+        }
+
+        EhcacheStreamMaster testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        logger.debug("Final EhcacheStreamMaster check from cache: {}", EhcacheStreamUtilsInternal.toStringSafe(testObjectCheck));
+        Assert.assertFalse(testObjectCheck.hasPendingAppends());
+        Assert.assertFalse(testObjectCheck.hasInlineChunk());
+        Assert.assertEquals(0, testObjectCheck.getWriters());
+        Assert.assertEquals(header.length + threadCount * appends * recordSize, testObjectCheck.getChunksTotalSizeInBytes());
+        Assert.assertEquals(1 + testObjectCheck.getChunkCount(), getCache().getSize());
+
+        //every append must be there exactly once, and never interleaved with another one
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey(), false)) {
+            byte[] buffer = new byte[copyBufferSize];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        }
+
+        List<String> records = new ArrayList<String>(Arrays.asList(new String(bos.toByteArray()).split("\n")));
+        Assert.assertEquals("HEADER", records.remove(0));
+
+        Collections.sort(records);
+        Collections.sort(expectedRecords);
+        Assert.assertEquals(expectedRecords, records);
+    }
+
+    @Test
+    public void testExclusiveWriteAfterConcurrentAppends() throws IOException, InterruptedException {
+        logger.info("============ testExclusiveWriteAfterConcurrentAppends ====================");
+
+        final int threadCount = 5;
+        for(int i = 0; i < threadCount; i++) {
+            addConcurrentAppendCallable(i, 2, 1000, 256);
+        }
+
+        //a regular writer running along the appends: it gets the entry once no append is pending
+        callables.add(new ConcurrentTestCallable() {
+            @Override
+            public Long call() throws Exception {
+                try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), false, 256, 30000L)) {
+                    os.write(buildAppendRecord(99, 0, 1000));
+                }
+                return 1000L;
+            }
+        });
+        callableResults.add(new AtomicReference<Long>());
+        exceptions.add(new AtomicReference<Throwable>());
+
+        runInThreads();
+
+        for(int i = 0; i < callables.size(); i++) {
+            Assert.assertNull(exceptions.get(i).get()); // should have 0 exception
+        }
+
+        EhcacheStreamMaster testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        Assert.assertFalse(testObjectCheck.hasPendingAppends());
+        Assert.assertEquals(0, testObjectCheck.getWriters());
+        Assert.assertEquals((threadCount * 2 + 1) * 1000, testObjectCheck.getChunksTotalSizeInBytes());
+        Assert.assertEquals(1 + testObjectCheck.getChunkCount(), getCache().getSize());
+    }
+
+    private void addMultipartUploadPartCallable(final long uploadId, final int partNumber, final byte[] data, final int offset, final int length, final int bufferSize) {
+        callables.add(new ConcurrentTestCallable() {
+            @Override
+            public Long call() throws Exception {
+                Thread.currentThread().setName("Ehcache-Uploader-Thread-" + Thread.currentThread().getId());
+
+                //attach to the upload by id, like another node would
+                EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.getMultipartUpload(getCache(), getCacheKey(), uploadId, 30000L);
+                try (OutputStream os = multipartUpload.getPartOutputStream(partNumber, bufferSize)) {
+                    os.write(data, offset, length);
+                }
+
+                return (long) length;
+            }
+        });
+
+        callableResults.add(new AtomicReference<Long>());
+        exceptions.add(new AtomicReference<Throwable>());
+    }
+
+    @Test
+    public void testMultipartUpload() throws IOException, InterruptedException {
+        logger.info("============ testMultipartUpload ====================");
+
+        Assert.assertEquals(0, getCache().getSize()); // should be 0 now
+
+        byte[] data = Files.readAllBytes(IN_FILE_PATH);
+
+        EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.createMultipartUpload(getCache(), getCacheKey());
+
+        //uploading the parts in parallel (in reverse order, to make sure the part numbers decide the order)
+        final int partCount = 8;
+        final int partSize = data.length / partCount + 1;
+        for(int i = partCount - 1; i >= 0; i--) {
+            int offset = i * partSize;
+            addMultipartUploadPartCallable(multipartUpload.getUploadId(), i, data, offset, Math.min(partSize, data.length - offset), ehcacheWriteBufferSize);
+        }
+
+        runInThreads();
+
+        for(int i = 0; i < partCount; i++) {
+            Assert.assertNull(exceptions.get(i).get()); // should have 0 exception
+        }
+
+        //nothing visible to readers before the upload is completed
+        EhcacheStreamMaster testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        Assert.assertEquals(0, testObjectCheck.getChunkCount());
+        Assert.assertEquals(1, testObjectCheck.getMultipartUploadCount());
+
+        Assert.assertEquals(partCount, multipartUpload.complete());
+
+        testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        logger.debug("Final EhcacheStreamMaster check from cache: {}", EhcacheStreamUtilsInternal.toStringSafe(testObjectCheck));
+        Assert.assertEquals(0, testObjectCheck.getMultipartUploadCount());
+        Assert.assertEquals(0, testObjectCheck.getWriters());
+        Assert.assertEquals(data.length, testObjectCheck.getChunksTotalSizeInBytes());
+        Assert.assertEquals(1 + testObjectCheck.getChunkCount(), getCache().getSize());
+
+        StreamCopyResultDescriptor cacheCopy = readFileFromCache(getCacheKey());
+        Assert.assertEquals(fileFromDisk.getFromChecksum(), cacheCopy.getToChecksum());
+
+        //already completed
+        try {
+            multipartUpload.complete();
+            Assert.fail("Should have failed: the multipart upload is completed already");
+        } catch (EhcacheStreamIllegalStateException e) {
+            logger.debug("Expected exception: {}", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMultipartUploadPartReplacedAndAborted() throws IOException, InterruptedException {
+        logger.info("============ testMultipartUploadPartReplacedAndAborted ====================");
+
+        //existing inline payload, to be appended to
+        byte[] header = "HEADER\n".getBytes();
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true)) {
+            os.write(header);
+        }
+
+        EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.createMultipartUpload(getCache(), getCacheKey());
+        try (OutputStream os = multipartUpload.getPartOutputStream(1, 256)) {
+            os.write(buildAppendRecord(1, 0, 1000));
+        }
+        try (OutputStream os = multipartUpload.getPartOutputStream(0, 256)) {
+            os.write(buildAppendRecord(0, 0, 1000));
+        }
+
+        //uploading part 0 again replaces the first upload of it (and removes its chunks)
+        try (OutputStream os = multipartUpload.getPartOutputStream(0, 256)) {
+            os.write(buildAppendRecord(0, 1, 500));
+        }
+        Assert.assertEquals(1 + 4 + 2, getCache().getSize());
+
+        //another upload on the same key, dropped with its parts
+        EhcacheMultipartUpload abortedUpload = EhcacheIOStreams.createMultipartUpload(getCache(), getCacheKey());
+        Assert.assertNotEquals(multipartUpload.getUploadId(), abortedUpload.getUploadId());
+        try (OutputStream os = abortedUpload.getPartOutputStream(0, 256)) {
+            os.write(buildAppendRecord(2, 0, 1000));
+        }
+        Assert.assertTrue(abortedUpload.abort());
+        Assert.assertFalse(abortedUpload.abort());
+        Assert.assertEquals(1 + 4 + 2, getCache().getSize());
+
+        Assert.assertEquals(2, multipartUpload.complete(false));
+
+        EhcacheStreamMaster testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        Assert.assertFalse(testObjectCheck.hasInlineChunk());
+        Assert.assertEquals(header.length + 500 + 1000, testObjectCheck.getChunksTotalSizeInBytes());
+        Assert.assertEquals(1 + testObjectCheck.getChunkCount(), getCache().getSize());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey(), false)) {
+            byte[] buffer = new byte[copyBufferSize];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(header);
+        expected.write(buildAppendRecord(0, 1, 500));
+        expected.write(buildAppendRecord(1, 0, 1000));
+        Assert.assertArrayEquals(expected.toByteArray(), bos.toByteArray());
+    }
+
     @Test
     public void testReadDuringWrite_ReadTimeoutReached() throws IOException, InterruptedException {
         logger.info("============ testReadDuringWrite_ReadTimeoutReached ====================");
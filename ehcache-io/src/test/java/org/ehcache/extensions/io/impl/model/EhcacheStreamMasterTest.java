@@ -5,6 +5,11 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
 import java.util.Random;
 
 /**
@@ -27,11 +32,11 @@ public class EhcacheStreamMasterTest {
         long writers = rnd.nextInt(20);
         long readers = rnd.nextInt(20);
         for(int j = 0 ; j < writers ; j++) {
-            ehcacheStreamMaster1.addWriter();
+            ehcacheStreamMaster1.addWriter(1L);
         }
 
         for(int k = 0 ; k < readers ; k++) {
-            ehcacheStreamMaster1.addReader();
+            ehcacheStreamMaster1.addReader(1L);
         }
 
         return ehcacheStreamMaster1;
@@ -123,13 +128,13 @@ public class EhcacheStreamMasterTest {
         long writers = rnd.nextInt(20);
         long readers = rnd.nextInt(20);
         for(int j = 0 ; j < writers ; j++) {
-            ehcacheStreamMaster1.addWriter();
-            ehcacheStreamMaster2.addWriter();
+            ehcacheStreamMaster1.addWriter(1L);
+            ehcacheStreamMaster2.addWriter(1L);
         }
 
         for(int k = 0 ; k < readers ; k++) {
-            ehcacheStreamMaster1.addReader();
-            ehcacheStreamMaster2.addReader();
+            ehcacheStreamMaster1.addReader(1L);
+            ehcacheStreamMaster2.addReader(1L);
         }
 
         Assert.assertEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
@@ -158,13 +163,13 @@ public class EhcacheStreamMasterTest {
         long writers = rnd.nextInt(20);
         long readers = rnd.nextInt(20);
         for(int j = 0 ; j < writers ; j++) {
-            ehcacheStreamMaster1.addWriter();
-            ehcacheStreamMaster2.addWriter();
+            ehcacheStreamMaster1.addWriter(1L);
+            ehcacheStreamMaster2.addWriter(1L);
         }
 
         for(int k = 0 ; k < readers ; k++) {
-            ehcacheStreamMaster1.addReader();
-            ehcacheStreamMaster2.addReader();
+            ehcacheStreamMaster1.addReader(1L);
+            ehcacheStreamMaster2.addReader(1L);
         }
 
         Assert.assertEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
@@ -193,13 +198,13 @@ public class EhcacheStreamMasterTest {
         long writers = rnd.nextInt(20);
         long readers = rnd.nextInt(20);
         for(int j = 0 ; j < writers ; j++) {
-            ehcacheStreamMaster1.addWriter();
-            ehcacheStreamMaster2.addWriter();
+            ehcacheStreamMaster1.addWriter(1L);
+            ehcacheStreamMaster2.addWriter(1L);
         }
 
         for(int k = 0 ; k < readers ; k++) {
-            ehcacheStreamMaster1.addReader();
-            ehcacheStreamMaster2.addReader();
+            ehcacheStreamMaster1.addReader(1L);
+            ehcacheStreamMaster2.addReader(1L);
         }
 
         Assert.assertEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
@@ -243,13 +248,13 @@ public class EhcacheStreamMasterTest {
         long writers = rnd.nextInt(20);
         long readers = rnd.nextInt(20);
         for(int j = 0 ; j < writers ; j++) {
-            ehcacheStreamMaster1.addWriter();
-            ehcacheStreamMaster2.addWriter();
+            ehcacheStreamMaster1.addWriter(1L);
+            ehcacheStreamMaster2.addWriter(1L);
         }
 
         for(int k = 0 ; k < readers ; k++) {
-            ehcacheStreamMaster1.addReader();
-            ehcacheStreamMaster2.addReader();
+            ehcacheStreamMaster1.addReader(1L);
+            ehcacheStreamMaster2.addReader(1L);
         }
 
         Assert.assertEquals(ehcacheStreamMaster1.hashCode(), ehcacheStreamMaster2.hashCode());
@@ -269,4 +274,297 @@ public class EhcacheStreamMasterTest {
 
         Assert.assertNotEquals(ehcacheStreamMaster1.hashCode(), ehcacheStreamMaster2.hashCode());
     }
+
+    @Test
+    public void testInlineChunk() throws Exception {
+        Random rnd = new Random(System.currentTimeMillis());
+        byte[] inlineBytes = new byte[1024];
+        rnd.nextBytes(inlineBytes);
+
+        EhcacheStreamMaster ehcacheStreamMaster1 = createRandomEhcacheStreamMaster(10, rnd);
+        ehcacheStreamMaster1.setInlineChunk(inlineBytes, 123L);
+
+        Assert.assertTrue(ehcacheStreamMaster1.hasInlineChunk());
+        Assert.assertEquals(1, ehcacheStreamMaster1.getChunkCount());
+        Assert.assertEquals(inlineBytes.length, ehcacheStreamMaster1.getChunksTotalSizeInBytes());
+
+        EhcacheStreamMaster ehcacheStreamMaster2 = EhcacheStreamMaster.deepCopy(ehcacheStreamMaster1);
+        Assert.assertEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
+        Assert.assertArrayEquals(inlineBytes, ehcacheStreamMaster2.getInlineChunk());
+
+        //same descriptor but no inline bytes anymore
+        ehcacheStreamMaster2.clearInlineChunk();
+        Assert.assertFalse(ehcacheStreamMaster2.hasInlineChunk());
+        Assert.assertEquals(1, ehcacheStreamMaster2.getChunkCount());
+        Assert.assertNotEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
+
+        ehcacheStreamMaster1.resetChunkCount();
+        Assert.assertFalse(ehcacheStreamMaster1.hasInlineChunk());
+        Assert.assertEquals(0, ehcacheStreamMaster1.getChunkCount());
+    }
+
+    @Test
+    public void testNextChunkIndex() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster1 = new EhcacheStreamMaster();
+        Assert.assertEquals(0, ehcacheStreamMaster1.getNextChunkIndex());
+
+        ehcacheStreamMaster1.addChunk(0, 10, 1L);
+        ehcacheStreamMaster1.addChunk(1, 20, 2L);
+        ehcacheStreamMaster1.addChunk(5, 30, 3L);
+        Assert.assertEquals(6, ehcacheStreamMaster1.getNextChunkIndex());
+        Assert.assertEquals(5, ehcacheStreamMaster1.getChunkIndex(2));
+        Assert.assertEquals(30, ehcacheStreamMaster1.getChunkSizeInBytes(2));
+
+        EhcacheStreamMaster ehcacheStreamMaster2 = EhcacheStreamMaster.deepCopy(ehcacheStreamMaster1);
+        Assert.assertEquals(ehcacheStreamMaster1, ehcacheStreamMaster2);
+
+        //the next chunk index never goes back, even when chunks are removed
+        Assert.assertEquals(5, ehcacheStreamMaster2.removeLastChunk());
+        Assert.assertEquals(2, ehcacheStreamMaster2.getChunkCount());
+        Assert.assertEquals(6, ehcacheStreamMaster2.getNextChunkIndex());
+
+        ehcacheStreamMaster2.resetChunkCount();
+        Assert.assertEquals(0, ehcacheStreamMaster2.getChunkCount());
+        Assert.assertEquals(6, ehcacheStreamMaster2.getNextChunkIndex());
+    }
+
+    @Test
+    public void testPendingAppendsPublishedInSequenceOrder() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addChunk(0, 10, 1L);
+
+        long seqA = ehcacheStreamMaster.addPendingAppend();
+        int firstA = ehcacheStreamMaster.reserveChunkIndices(2);
+        long seqB = ehcacheStreamMaster.addPendingAppend();
+        int firstB = ehcacheStreamMaster.reserveChunkIndices(2);
+        long seqC = ehcacheStreamMaster.addPendingAppend();
+
+        Assert.assertEquals(3, ehcacheStreamMaster.getPendingAppendCount());
+        Assert.assertEquals(seqC, ehcacheStreamMaster.getLastAppendSequence());
+        Assert.assertEquals(1, firstA);
+        Assert.assertEquals(3, firstB);
+
+        //B completed first: nothing can be published until A is
+        Assert.assertTrue(ehcacheStreamMaster.completePendingAppend(seqB, new int[]{firstB}, new long[]{20}, new long[]{2L}));
+        Assert.assertFalse(ehcacheStreamMaster.completePendingAppend(seqB, new int[]{firstB}, new long[]{20}, new long[]{2L}));
+        Assert.assertEquals(0, ehcacheStreamMaster.publishCompletedAppends());
+        Assert.assertEquals(1, ehcacheStreamMaster.getChunkCount());
+
+        EhcacheStreamMaster copy = EhcacheStreamMaster.deepCopy(ehcacheStreamMaster);
+        Assert.assertEquals(ehcacheStreamMaster, copy);
+
+        //A completes: A and B get published together, in order
+        Assert.assertTrue(ehcacheStreamMaster.completePendingAppend(seqA, new int[]{firstA, firstA + 1}, new long[]{30, 40}, new long[]{3L, 4L}));
+        Assert.assertNotEquals(ehcacheStreamMaster, copy);
+        Assert.assertEquals(2, ehcacheStreamMaster.publishCompletedAppends());
+        Assert.assertArrayEquals(new int[]{0, firstA, firstA + 1, firstB}, ehcacheStreamMaster.getAllChunkIndices());
+        Assert.assertEquals(1, ehcacheStreamMaster.getPendingAppendCount());
+
+        //C aborted
+        Assert.assertTrue(ehcacheStreamMaster.removePendingAppend(seqC));
+        Assert.assertFalse(ehcacheStreamMaster.hasPendingAppends());
+        Assert.assertEquals(100, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+    }
+
+    @Test
+    public void testPendingAppendsOnInlineMaster() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.setInlineChunk(new byte[]{1, 2, 3}, 123L);
+
+        long seq = ehcacheStreamMaster.addPendingAppend();
+        int first = ehcacheStreamMaster.reserveChunkIndices(1);
+        Assert.assertEquals(-1, ehcacheStreamMaster.getPublishInlineChunkIndex());
+
+        ehcacheStreamMaster.completePendingAppend(seq, new int[]{first}, new long[]{5}, new long[]{5L});
+
+        //the inline bytes move to the chunk index reserved with the append
+        int inlineChunkIndex = ehcacheStreamMaster.getPublishInlineChunkIndex();
+        Assert.assertTrue(inlineChunkIndex >= 0);
+        Assert.assertEquals(1, ehcacheStreamMaster.publishCompletedAppends());
+        Assert.assertFalse(ehcacheStreamMaster.hasInlineChunk());
+        Assert.assertArrayEquals(new int[]{inlineChunkIndex, first}, ehcacheStreamMaster.getAllChunkIndices());
+        Assert.assertEquals(8, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+    }
+
+    @Test
+    public void testMultipartUploadPartsAddedInPartOrder() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addChunk(ehcacheStreamMaster.getNextChunkIndex(), 10, 10L);
+
+        long uploadId = ehcacheStreamMaster.addMultipartUpload();
+        Assert.assertEquals(uploadId, ehcacheStreamMaster.getLastUploadId());
+        Assert.assertTrue(ehcacheStreamMaster.hasMultipartUpload(uploadId));
+
+        int part2 = ehcacheStreamMaster.reserveChunkIndices(2);
+        int part1 = ehcacheStreamMaster.reserveChunkIndices(1);
+        Assert.assertNull(ehcacheStreamMaster.stageMultipartUploadPart(uploadId, 2, new int[]{part2, part2 + 1}, new long[]{5, 5}, new long[]{5L, 5L}));
+        Assert.assertNull(ehcacheStreamMaster.stageMultipartUploadPart(uploadId, 1, new int[]{part1}, new long[]{7}, new long[]{7L}));
+
+        //uploading a part again returns the chunks it replaces
+        int part1Again = ehcacheStreamMaster.reserveChunkIndices(1);
+        Assert.assertArrayEquals(new int[]{part1}, ehcacheStreamMaster.stageMultipartUploadPart(uploadId, 1, new int[]{part1Again}, new long[]{3}, new long[]{3L}));
+        Assert.assertArrayEquals(new int[]{part1Again, part2, part2 + 1}, ehcacheStreamMaster.getMultipartUploadChunkIndices(uploadId));
+
+        //staged parts are not part of the stream, but are in the copies
+        Assert.assertEquals(1, ehcacheStreamMaster.getChunkCount());
+        Assert.assertEquals(ehcacheStreamMaster, EhcacheStreamMaster.deepCopy(ehcacheStreamMaster));
+
+        Assert.assertEquals(2, ehcacheStreamMaster.addMultipartUploadParts(uploadId));
+        Assert.assertFalse(ehcacheStreamMaster.hasMultipartUpload(uploadId));
+        Assert.assertEquals(0, ehcacheStreamMaster.getMultipartUploadCount());
+        Assert.assertArrayEquals(new int[]{0, part1Again, part2, part2 + 1}, ehcacheStreamMaster.getAllChunkIndices());
+        Assert.assertEquals(23, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+    }
+
+    @Test
+    public void testMultipartUploadRemoved() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        long uploadId1 = ehcacheStreamMaster.addMultipartUpload();
+        long uploadId2 = ehcacheStreamMaster.addMultipartUpload();
+        Assert.assertNotEquals(uploadId1, uploadId2);
+
+        ehcacheStreamMaster.stageMultipartUploadPart(uploadId1, 0, new int[]{ehcacheStreamMaster.reserveChunkIndices(1)}, new long[]{5}, new long[]{5L});
+
+        Assert.assertTrue(ehcacheStreamMaster.removeMultipartUpload(uploadId1));
+        Assert.assertFalse(ehcacheStreamMaster.removeMultipartUpload(uploadId1));
+        Assert.assertArrayEquals(new int[0], ehcacheStreamMaster.getMultipartUploadChunkIndices(uploadId1));
+        Assert.assertTrue(ehcacheStreamMaster.hasMultipartUpload(uploadId2));
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunkCount());
+
+        try {
+            ehcacheStreamMaster.addMultipartUploadParts(uploadId1);
+            Assert.fail("Should have failed: no such multipart upload");
+        } catch (IllegalStateException e) {
+            logger.debug("Expected exception: {}", e.getMessage());
+        }
+    }
+
+    //serializes the master as an older version without that field would have been (the field deserialized as null)
+    private EhcacheStreamMaster deserializeWithoutField(EhcacheStreamMaster ehcacheStreamMaster, String fieldName) throws Exception {
+        Field field = EhcacheStreamMaster.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(ehcacheStreamMaster, null);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(ehcacheStreamMaster);
+        oos.close();
+
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            return (EhcacheStreamMaster) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    @Test
+    public void testDeserializedWithoutPendingAppends() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addChunk(0, 10, 0L);
+
+        EhcacheStreamMaster deserialized = deserializeWithoutField(ehcacheStreamMaster, "pendingAppendList");
+        Assert.assertEquals(0, deserialized.getPendingAppendCount());
+        Assert.assertFalse(deserialized.hasExpiredLease(1L));
+        Assert.assertEquals(10, deserialized.getChunksTotalSizeInBytes());
+
+        long appendSequence = deserialized.addPendingAppend();
+        Assert.assertEquals(1, deserialized.getPendingAppendCount());
+        Assert.assertEquals(deserialized, EhcacheStreamMaster.deepCopy(deserialized));
+        Assert.assertTrue(deserialized.removePendingAppend(appendSequence));
+    }
+
+    @Test
+    public void testDeserializedWithoutMultipartUploads() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addChunk(0, 10, 0L);
+
+        EhcacheStreamMaster deserialized = deserializeWithoutField(ehcacheStreamMaster, "multipartUploadList");
+        Assert.assertEquals(0, deserialized.getMultipartUploadCount());
+        Assert.assertFalse(deserialized.hasExpiredLease(1L));
+        Assert.assertEquals(10, deserialized.getChunksTotalSizeInBytes());
+
+        long uploadId = deserialized.addMultipartUpload();
+        Assert.assertEquals(1, deserialized.getMultipartUploadCount());
+        Assert.assertEquals(deserialized, EhcacheStreamMaster.deepCopy(deserialized));
+        Assert.assertTrue(deserialized.removeMultipartUpload(uploadId));
+    }
+
+    @Test
+    public void testDeserializedWithoutHolderLeases() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addChunk(0, 10, 0L);
+
+        EhcacheStreamMaster deserialized = deserializeWithoutField(deserializeWithoutField(ehcacheStreamMaster, "readerLeases"), "writerLeases");
+        Assert.assertFalse(deserialized.hasExpiredLease(1L));
+        Assert.assertEquals(10, deserialized.getChunksTotalSizeInBytes());
+
+        deserialized.addReader(1L);
+        Assert.assertTrue(deserialized.holdsRead(1L));
+        Assert.assertEquals(deserialized, EhcacheStreamMaster.deepCopy(deserialized));
+        Assert.assertTrue(deserialized.removeReader(1L));
+        Assert.assertEquals(0, deserialized.getReaders());
+    }
+
+    @Test
+    public void testExpiredHolderLeasesReleased() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        ehcacheStreamMaster.addReader(1L);
+        ehcacheStreamMaster.addReader(2L);
+        ehcacheStreamMaster.addReader(2L);
+        Assert.assertEquals(3, ehcacheStreamMaster.getReaders());
+
+        Thread.sleep(100L);
+
+        //only holder 2 renews its lease: the read of holder 1 expires
+        ehcacheStreamMaster.renewLeases(new long[]{2L}, new long[0]);
+        Assert.assertTrue(ehcacheStreamMaster.hasExpiredLease(50L));
+
+        ehcacheStreamMaster.releaseExpiredLeases(50L);
+        Assert.assertEquals(2, ehcacheStreamMaster.getReaders());
+        Assert.assertFalse(ehcacheStreamMaster.holdsRead(1L));
+        Assert.assertTrue(ehcacheStreamMaster.holdsRead(2L));
+        Assert.assertEquals(0L, ehcacheStreamMaster.getReaderLeaseTime(1L));
+        Assert.assertFalse(ehcacheStreamMaster.hasExpiredLease(50L));
+
+        //the close of the released holder is a no-op
+        Assert.assertFalse(ehcacheStreamMaster.removeReader(1L));
+        Assert.assertEquals(2, ehcacheStreamMaster.getReaders());
+
+        Assert.assertTrue(ehcacheStreamMaster.removeReader(2L));
+        Assert.assertTrue(ehcacheStreamMaster.holdsRead(2L));
+        Assert.assertTrue(ehcacheStreamMaster.removeReader(2L));
+        Assert.assertFalse(ehcacheStreamMaster.holdsRead(2L));
+        Assert.assertEquals(0, ehcacheStreamMaster.getReaders());
+    }
+
+    @Test
+    public void testChunkOffsets() throws Exception {
+        EhcacheStreamMaster ehcacheStreamMaster = new EhcacheStreamMaster();
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunkPosition(0));
+
+        ehcacheStreamMaster.addChunk(0, 10, 0L);
+        ehcacheStreamMaster.addChunk(1, 20, 0L);
+        ehcacheStreamMaster.addChunk(2, 5, 0L);
+        Assert.assertEquals(35, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunkOffset(0));
+        Assert.assertEquals(30, ehcacheStreamMaster.getChunkOffset(2));
+        Assert.assertEquals(35, ehcacheStreamMaster.getChunkOffset(3));
+
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunkPosition(9));
+        Assert.assertEquals(1, ehcacheStreamMaster.getChunkPosition(10));
+        Assert.assertEquals(2, ehcacheStreamMaster.getChunkPosition(34));
+        Assert.assertEquals(3, ehcacheStreamMaster.getChunkPosition(35));
+
+        //the offsets follow the chunk list changes
+        ehcacheStreamMaster.removeLastChunk();
+        Assert.assertEquals(30, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+        ehcacheStreamMaster.addChunk(3, 7, 0L);
+        Assert.assertEquals(37, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+        Assert.assertEquals(37, ehcacheStreamMaster.clone().getChunksTotalSizeInBytes());
+
+        ehcacheStreamMaster.resetChunkCount();
+        Assert.assertEquals(0, ehcacheStreamMaster.getChunksTotalSizeInBytes());
+    }
 }
@@ -0,0 +1,110 @@
+package org.ehcache.extensions.io.impl.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/10/18.
+ */
+public class EhcacheStreamSlabStoreTest {
+    private static final long ONE_SLAB = EhcacheStreamSlabStore.SLAB_SIZE;
+
+    private final Random rnd = new Random();
+
+    private byte[] createChunk(int size) {
+        byte[] chunk = new byte[size];
+        rnd.nextBytes(chunk);
+        return chunk;
+    }
+
+    @Test
+    public void testChunkRoundtrip() {
+        EhcacheStreamSlabStore slabStore = new EhcacheStreamSlabStore();
+
+        //spans several pages, and does not end on a page boundary
+        byte[] bytes = createChunk(3 * EhcacheStreamSlabStore.PAGE_SIZE + 123);
+        EhcacheStreamSlabChunk slabChunk = slabStore.allocate(bytes, ONE_SLAB);
+
+        Assert.assertNotNull(slabChunk);
+        Assert.assertEquals(bytes.length, slabChunk.getChunkLength());
+        Assert.assertArrayEquals(bytes, slabChunk.getChunk());
+        Assert.assertEquals(new EhcacheStreamChunk(bytes), slabChunk);
+        Assert.assertEquals(1, slabStore.getSlabCount());
+        Assert.assertEquals(4L * EhcacheStreamSlabStore.PAGE_SIZE, slabStore.getUsedSizeInBytes());
+
+        //the copies handed out do not touch the stored bytes
+        slabChunk.copyChunk()[0]++;
+        Assert.assertArrayEquals(bytes, slabChunk.getChunk());
+    }
+
+    @Test
+    public void testSerializedAsHeapChunk() throws Exception {
+        EhcacheStreamSlabStore slabStore = new EhcacheStreamSlabStore();
+        byte[] bytes = createChunk(1024);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(slabStore.allocate(bytes, ONE_SLAB));
+        oos.close();
+
+        Object deserialized = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+        Assert.assertEquals(EhcacheStreamChunk.class, deserialized.getClass());
+        Assert.assertArrayEquals(bytes, ((EhcacheStreamChunk) deserialized).getChunk());
+    }
+
+    @Test
+    public void testFullStoreReclaimsUnreferencedChunks() {
+        EhcacheStreamSlabStore slabStore = new EhcacheStreamSlabStore();
+        int chunkSize = 64 * 1024;
+        int chunksPerSlab = (int) (ONE_SLAB / chunkSize);
+
+        List<EhcacheStreamSlabChunk> slabChunks = new ArrayList<EhcacheStreamSlabChunk>();
+        for (int i = 0; i < chunksPerSlab; i++) {
+            slabChunks.add(slabStore.allocate(createChunk(chunkSize), ONE_SLAB));
+            Assert.assertNotNull(slabChunks.get(i));
+        }
+
+        //full, and all the chunks still referenced
+        Assert.assertNull(slabStore.allocate(createChunk(chunkSize), ONE_SLAB));
+        Assert.assertEquals(1L, slabStore.getAllocationFailureCount());
+        Assert.assertTrue(slabStore.isExhausted());
+
+        //still full: fails right away
+        Assert.assertNull(slabStore.allocate(createChunk(1024), ONE_SLAB));
+        Assert.assertEquals(2L, slabStore.getAllocationFailureCount());
+
+        //once not referenced anymore (and collected), their pages get reused without growing the store
+        slabChunks.clear();
+        slabStore.enqueueLiveChunks();
+        byte[] bytes = createChunk(chunkSize);
+        EhcacheStreamSlabChunk slabChunk = slabStore.allocate(bytes, ONE_SLAB);
+
+        Assert.assertNotNull(slabChunk);
+        Assert.assertArrayEquals(bytes, slabChunk.getChunk());
+        Assert.assertFalse(slabStore.isExhausted());
+        Assert.assertEquals(1, slabStore.getSlabCount());
+        Assert.assertEquals(chunksPerSlab, slabStore.getReclaimCount());
+        Assert.assertEquals(1, slabStore.getLiveChunkCount());
+    }
+
+    @Test
+    public void testExhaustedStoreGrowsWithBiggerMaxSize() {
+        EhcacheStreamSlabStore slabStore = new EhcacheStreamSlabStore();
+
+        Assert.assertNotNull(slabStore.allocate(createChunk((int) ONE_SLAB), ONE_SLAB));
+        Assert.assertNull(slabStore.allocate(createChunk(1024), ONE_SLAB));
+        Assert.assertTrue(slabStore.isExhausted());
+
+        Assert.assertNotNull(slabStore.allocate(createChunk(1024), 2 * ONE_SLAB));
+        Assert.assertFalse(slabStore.isExhausted());
+        Assert.assertEquals(2, slabStore.getSlabCount());
+    }
+}
@@ -0,0 +1,365 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamingTestsBase;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+import org.junit.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Created by fabien.sanglier on 11/9/18.
+ */
+public class EhcacheFileAdapterInputStreamTest extends EhcacheStreamingTestsBase {
+    private static final Logger logger = LoggerFactory.getLogger(EhcacheFileAdapterInputStreamTest.class);
+
+    private static final String SPILL_DIR = System.getProperty("java.io.tmpdir");
+    private static final long OPEN_TIMEOUT = 10000L;
+    private static final long WAIT_TIMEOUT = 10000L;
+
+    private static byte[] inputFileBytes;
+
+    private final EhcacheFileAdapterSpillCache spillCache = EhcacheFileAdapterSpillCache.getInstance();
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void oneTimeSetup() throws Exception {
+        logger.debug("============ Starting EhcacheFileAdapterInputStreamTest ====================");
+        sysPropDefaultSetup();
+        cacheStart();
+        generateBigInputFile();
+        inputFileBytes = Files.readAllBytes(IN_FILE_PATH);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() throws Exception {
+        cacheShutdown();
+        cleanBigInputFile();
+        sysPropDefaultCleanup();
+        inputFileBytes = null;
+        logger.debug("============ Finished EhcacheFileAdapterInputStreamTest ====================");
+    }
+
+    @Before
+    public void setup() throws Exception {
+        cacheSetUp();
+        printAllTestProperties();
+        executor = Executors.newSingleThreadExecutor();
+        copyFileToCache(getCacheKey(), true);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        executor.shutdownNow();
+        spillCache.setMappedSegmentSize(0);
+        cacheCleanUp();
+    }
+
+    private EhcacheInputStream openCacheStream() throws EhcacheStreamException {
+        return new EhcacheRawInputStream(EhcacheStreamReadersFactory.getReader(getCache(), getCacheKey(), OPEN_TIMEOUT));
+    }
+
+    private EhcacheFileAdapterInputStream openFileAdapterStream(EhcacheInputStream cacheStream) throws EhcacheStreamException {
+        return new EhcacheFileAdapterInputStream(getCache().getName(), cacheStream, SPILL_DIR, 0L, EhcacheStreamManager.getInstance(getCache()).getFileAdapterSpillExecutor());
+    }
+
+    private EhcacheFileAdapterSpillCache.SpillFile getSpillFile() {
+        return spillCache.getSpillFile(new EhcacheFileAdapterSpillCache.StreamKey(getCache().getName(), getCacheKey()));
+    }
+
+    //reads the stream until the end, checking the bytes against the input file from the current position
+    private int readFully(EhcacheFileAdapterInputStream is, int position, int readSize) throws IOException {
+        byte[] buffer = new byte[readSize];
+        int n;
+        while ((n = is.read(buffer, 0, readSize)) > -1) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(inputFileBytes, position, position + n), Arrays.copyOf(buffer, n));
+            position += n;
+        }
+        return position;
+    }
+
+    //the readers are only counted on the stream master with the cas locks
+    private void assertCacheReaders(int expectedReaders) {
+        if(EhcacheStreamManager.getInstance(getCache()).getConcurrencyMode() == PropertyUtils.ConcurrencyMode.READ_COMMITTED_CASLOCKS)
+            Assert.assertEquals(expectedReaders, new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey()).getReaders());
+    }
+
+    /*
+     * A cache stream feeding the spill one read at a time: each read waits for a permit (or for the spill to be aborted)
+     */
+    private static class GatedCacheStream extends EhcacheRawInputStream {
+        private final Semaphore readPermits = new Semaphore(0);
+        private volatile EhcacheFileAdapterSpillCache.SpillFile spillFile;
+
+        GatedCacheStream(EhcacheStreamReader ehcacheStreamReader) throws EhcacheStreamException {
+            super(ehcacheStreamReader);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws EhcacheStreamException {
+            try {
+                long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+                while (!readPermits.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    if (null != spillFile && spillFile.isFailed())
+                        break;
+                    if (System.currentTimeMillis() > deadline)
+                        throw new EhcacheStreamException("No read permit within timeout");
+                }
+            } catch (InterruptedException e) {
+                throw new EhcacheStreamException(e);
+            }
+            return super.read(b, off, len);
+        }
+
+        void allowReads(int reads) {
+            readPermits.release(reads);
+        }
+    }
+
+    private GatedCacheStream openGatedCacheStream() throws EhcacheStreamException {
+        return new GatedCacheStream(EhcacheStreamReadersFactory.getReader(getCache(), getCacheKey(), OPEN_TIMEOUT));
+    }
+
+    @Test
+    public void testSpillCompletesAndReleasesTheCacheEntry() throws Exception {
+        logger.info("============ testSpillCompletesAndReleasesTheCacheEntry ====================");
+
+        EhcacheFileAdapterInputStream is = openFileAdapterStream(openCacheStream());
+        try {
+            Assert.assertEquals(inputFileBytes.length, is.available());
+            Assert.assertEquals(1, is.read(new byte[1], 0, 1));
+
+            EhcacheFileAdapterSpillCache.SpillFile spillFile = getSpillFile();
+            Assert.assertNotNull(spillFile);
+            spillFile.awaitDone();
+
+            Assert.assertTrue(spillFile.isComplete());
+            Assert.assertEquals(inputFileBytes.length, spillFile.getSpilledBytes());
+            Assert.assertEquals(inputFileBytes.length, Files.size(spillFile.getSpillFilePath()));
+
+            //the next read sees the spill done, and releases the cache entry while the stream stays open
+            Assert.assertEquals(inputFileBytes.length, readFully(is, 1, 64 * 1024));
+            assertCacheReaders(0);
+            Assert.assertEquals(0, is.available());
+        } finally {
+            is.close();
+        }
+
+        //the complete spill file is kept for the next readers
+        EhcacheFileAdapterSpillCache.SpillFile spillFile = getSpillFile();
+        Assert.assertNotNull(spillFile);
+        Assert.assertTrue(Files.exists(spillFile.getSpillFilePath()));
+
+        is = openFileAdapterStream(openCacheStream());
+        try {
+            Assert.assertEquals(inputFileBytes.length, readFully(is, 0, 64 * 1024));
+            Assert.assertSame(spillFile, getSpillFile());
+            assertCacheReaders(0);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void testReadRacingTheSpill() throws Exception {
+        logger.info("============ testReadRacingTheSpill ====================");
+
+        GatedCacheStream gatedCacheStream = openGatedCacheStream();
+        EhcacheFileAdapterInputStream spillingStream = openFileAdapterStream(gatedCacheStream);
+        final EhcacheFileAdapterInputStream racingStream = openFileAdapterStream(openCacheStream());
+        try {
+            //a single buffer gets spilled
+            gatedCacheStream.allowReads(1);
+            Assert.assertEquals(1, spillingStream.read(new byte[1], 0, 1));
+
+            EhcacheFileAdapterSpillCache.SpillFile spillFile = getSpillFile();
+            long spilledBytes = spillFile.getSpilledBytes();
+            Assert.assertTrue(spilledBytes > 0 && spilledBytes < inputFileBytes.length);
+
+            //the other reader shares that spill, and reads up to the watermark while the spill waits
+            byte[] buffer = new byte[inputFileBytes.length];
+            int n = racingStream.read(buffer, 0, buffer.length);
+            Assert.assertEquals(spilledBytes, n);
+            Assert.assertArrayEquals(Arrays.copyOf(inputFileBytes, n), Arrays.copyOf(buffer, n));
+            Assert.assertFalse(spillFile.isDone());
+            Assert.assertSame(spillFile, getSpillFile());
+
+            //past the watermark, the reader waits for the spill
+            final int position = n;
+            Future<Integer> racingRead = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return readFully(racingStream, position, 100 * 1024);
+                }
+            });
+
+            try {
+                racingRead.get(200, TimeUnit.MILLISECONDS);
+                Assert.fail("The read should wait for the spill");
+            } catch (TimeoutException e) {
+                ;; //expected
+            }
+
+            gatedCacheStream.allowReads(Integer.MAX_VALUE / 2);
+            Assert.assertEquals(inputFileBytes.length, racingRead.get(WAIT_TIMEOUT, TimeUnit.MILLISECONDS).intValue());
+            Assert.assertEquals(inputFileBytes.length, readFully(spillingStream, 1, 32 * 1024));
+            Assert.assertTrue(spillFile.isComplete());
+        } finally {
+            gatedCacheStream.allowReads(Integer.MAX_VALUE / 2);
+            racingStream.close();
+            spillingStream.close();
+        }
+
+        assertCacheReaders(0);
+    }
+
+    @Test
+    public void testMappedReadsAcrossSegments() throws Exception {
+        logger.info("============ testMappedReadsAcrossSegments ====================");
+
+        //segments not aligned on the spill buffers or the chunks
+        final int segmentSize = 100 * 1000 + 7;
+        spillCache.setMappedSegmentSize(segmentSize);
+
+        EhcacheFileAdapterInputStream is = openFileAdapterStream(openCacheStream());
+        try {
+            Assert.assertEquals(1, is.read(new byte[1], 0, 1));
+            getSpillFile().awaitDone();
+
+            //a read stops at the end of its segment, and the next one starts in the next segment
+            byte[] buffer = new byte[3 * segmentSize];
+            Assert.assertEquals(segmentSize - 1, is.read(buffer, 0, buffer.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(inputFileBytes, 1, segmentSize), Arrays.copyOf(buffer, segmentSize - 1));
+
+            Assert.assertEquals(segmentSize, is.read(buffer, 0, buffer.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(inputFileBytes, segmentSize, 2 * segmentSize), Arrays.copyOf(buffer, segmentSize));
+
+            //reading right before a segment boundary
+            Assert.assertEquals(segmentSize - 10, is.skip(segmentSize - 10));
+            Assert.assertEquals(10, is.read(buffer, 0, buffer.length));
+            Assert.assertArrayEquals(Arrays.copyOfRange(inputFileBytes, 3 * segmentSize - 10, 3 * segmentSize), Arrays.copyOf(buffer, 10));
+
+            //odd read sizes up to the last (partial) segment
+            Assert.assertEquals(inputFileBytes.length, readFully(is, 3 * segmentSize, 33 * 1000 + 1));
+            Assert.assertEquals(-1, is.read());
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void testCloseAbortsTheSpillAndDeletesTheFile() throws Exception {
+        logger.info("============ testCloseAbortsTheSpillAndDeletesTheFile ====================");
+
+        GatedCacheStream gatedCacheStream = openGatedCacheStream();
+        EhcacheFileAdapterInputStream is = openFileAdapterStream(gatedCacheStream);
+        EhcacheFileAdapterSpillCache.SpillFile spillFile;
+        try {
+            gatedCacheStream.allowReads(1);
+            Assert.assertEquals(1, is.read(new byte[1], 0, 1));
+
+            spillFile = getSpillFile();
+            gatedCacheStream.spillFile = spillFile;
+            Assert.assertFalse(spillFile.isDone());
+            Assert.assertTrue(Files.exists(spillFile.getSpillFilePath()));
+            assertCacheReaders(1);
+        } finally {
+            //the only reader of the spill: the spill gets aborted
+            is.close();
+        }
+
+        //the close does not wait for the spill: the aborted spill releases the cache entry and deletes the file when it stops
+        spillFile.awaitDone();
+        Assert.assertTrue(spillFile.isDone());
+        Assert.assertTrue(spillFile.isFailed());
+        Assert.assertTrue(spillFile.getSpilledBytes() < inputFileBytes.length);
+        Assert.assertNull(getSpillFile());
+        Assert.assertFalse(Files.exists(spillFile.getSpillFilePath()));
+        assertCacheReaders(0);
+    }
+
+    @Test
+    public void testInvalidatedSpillFileDeletedOnLastClose() throws Exception {
+        logger.info("============ testInvalidatedSpillFileDeletedOnLastClose ====================");
+
+        EhcacheFileAdapterInputStream is = openFileAdapterStream(openCacheStream());
+        EhcacheFileAdapterSpillCache.SpillFile spillFile;
+        try {
+            Assert.assertEquals(1, is.read(new byte[1], 0, 1));
+            spillFile = getSpillFile();
+            spillFile.awaitDone();
+
+            //the spill done, the cache entry gets released: a new write goes through while the stream is still open
+            Assert.assertTrue(is.read(new byte[1], 0, 1) > 0);
+            assertCacheReaders(0);
+            copyFileToCache(getCacheKey(), true);
+
+            //the next reader opens the new version, and invalidates the old spill file (still read by the open stream)
+            EhcacheFileAdapterInputStream newVersionStream = openFileAdapterStream(openCacheStream());
+            try {
+                Assert.assertEquals(inputFileBytes.length, readFully(newVersionStream, 0, 64 * 1024));
+                Assert.assertNotSame(spillFile, getSpillFile());
+            } finally {
+                newVersionStream.close();
+            }
+
+            Assert.assertTrue(Files.exists(spillFile.getSpillFilePath()));
+            Assert.assertEquals(inputFileBytes.length, readFully(is, 2, 64 * 1024));
+        } finally {
+            is.close();
+        }
+
+        Assert.assertFalse(Files.exists(spillFile.getSpillFilePath()));
+        Assert.assertTrue(Files.exists(getSpillFile().getSpillFilePath()));
+    }
+
+    @Test
+    public void testCloseHandsTheSpillOverToTheOtherReaders() throws Exception {
+        logger.info("============ testCloseHandsTheSpillOverToTheOtherReaders ====================");
+
+        GatedCacheStream gatedCacheStream = openGatedCacheStream();
+        EhcacheFileAdapterInputStream spillingStream = openFileAdapterStream(gatedCacheStream);
+        EhcacheFileAdapterInputStream otherStream = openFileAdapterStream(openCacheStream());
+        EhcacheFileAdapterSpillCache.SpillFile spillFile;
+        try {
+            gatedCacheStream.allowReads(1);
+            Assert.assertEquals(1, spillingStream.read(new byte[1], 0, 1));
+            Assert.assertEquals(1, otherStream.read(new byte[1], 0, 1));
+
+            spillFile = getSpillFile();
+            Assert.assertFalse(spillFile.isDone());
+
+            //another reader reads that spill: the close lets it go on (without waiting for it), and the spill keeps the cache entry
+            spillingStream.close();
+            Assert.assertFalse(spillFile.isDone());
+            Assert.assertFalse(spillFile.isFailed());
+            assertCacheReaders(1);
+
+            gatedCacheStream.allowReads(Integer.MAX_VALUE / 2);
+            Assert.assertEquals(inputFileBytes.length, readFully(otherStream, 1, 64 * 1024));
+            Assert.assertTrue(spillFile.isComplete());
+        } finally {
+            gatedCacheStream.allowReads(Integer.MAX_VALUE / 2);
+            spillingStream.close();
+            otherStream.close();
+        }
+
+        //the spill closed the cache reader of the stream that started it
+        spillFile.awaitDone();
+        assertCacheReaders(0);
+        Assert.assertTrue(Files.exists(spillFile.getSpillFilePath()));
+    }
+}
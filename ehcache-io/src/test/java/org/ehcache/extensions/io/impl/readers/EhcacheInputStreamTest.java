@@ -4,6 +4,11 @@ import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.ehcache.extensions.io.EhcacheIOStreams;
 import org.ehcache.extensions.io.EhcacheStreamingTestsBase;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamMemoryBudget;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.PropertyUtils;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -289,6 +294,39 @@ public class EhcacheInputStreamTest extends EhcacheStreamingTestsBase {
         Assert.assertTrue(Files.exists(OUT_FILE_PATH));
     }
 
+    @Test
+    public void skipWithoutReadingTheSkippedChunks() throws Exception {
+        logger.info("============ skipWithoutReadingTheSkippedChunks ====================");
+
+        int chunkSize = 1000;
+        byte[] data = new byte[10 * chunkSize + 500];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 251);
+        }
+
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true, chunkSize)) {
+            os.write(data);
+        }
+
+        try (InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey())) {
+            Assert.assertEquals(data.length, is.available());
+            Assert.assertEquals(data[0], (byte) is.read());
+
+            //within the first chunk, then across chunks
+            Assert.assertEquals(10, is.skip(10));
+            Assert.assertEquals(data[11], (byte) is.read());
+            Assert.assertEquals(3488, is.skip(3488));
+            Assert.assertEquals(data[3500], (byte) is.read());
+            Assert.assertEquals(data.length - 3501, is.available());
+
+            //past the end
+            Assert.assertEquals(data.length - 3501, is.skip(data.length));
+            Assert.assertEquals(-1, is.read());
+            Assert.assertEquals(0, is.skip(10));
+            Assert.assertEquals(0, is.available());
+        }
+    }
+
     @Test
     public void copyCacheToFileNoCacheKeyAllowsNullStream() throws Exception {
         logger.info("============ copyCacheToFileNoCacheKeyAllowsNullStream ====================");
@@ -312,6 +350,64 @@ public class EhcacheInputStreamTest extends EhcacheStreamingTestsBase {
         Assert.assertEquals(cacheSize, getCache().getSize());
     }
 
+    @Test
+    public void noCacheKeyAllowsNullStreamSingleGet() throws Exception {
+        logger.info("============ noCacheKeyAllowsNullStreamSingleGet ====================");
+
+        final String cacheKey = "something-else";
+
+        long gets = getCache().getStatistics().cacheHitCount() + getCache().getStatistics().cacheMissCount();
+        InputStream is = EhcacheIOStreams.getInputStream(getCache(), cacheKey, true);
+        Assert.assertNull(is);
+
+        //a single get for the master, and nothing else
+        Assert.assertEquals(gets + 1, getCache().getStatistics().cacheHitCount() + getCache().getStatistics().cacheMissCount());
+        Assert.assertEquals(0, getCache().getSize());
+    }
+
+    @Test
+    public void noCacheKeyAllowsNullStreamNoMemoryBudget() throws Exception {
+        logger.info("============ noCacheKeyAllowsNullStreamNoMemoryBudget ====================");
+
+        final String cacheKey = "something-else";
+
+        //an exhausted budget, failing right away
+        EhcacheStreamMemoryBudget memoryBudget = EhcacheStreamMemoryBudget.getInstance();
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_MAXSIZE, new Long(memoryBudget.getReservedSizeInBytes()).toString());
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_WAIT_TIMEOUT, "0");
+        memoryBudget.reloadSettings();
+        try {
+            long reservations = memoryBudget.getReservationCount();
+
+            //a miss does not need any buffer
+            Assert.assertNull(EhcacheIOStreams.getInputStream(getCache(), cacheKey, true));
+            Assert.assertEquals(reservations, memoryBudget.getReservationCount());
+        } finally {
+            System.clearProperty(PropertyUtils.PROP_MEMORYBUDGET_MAXSIZE);
+            System.clearProperty(PropertyUtils.PROP_MEMORYBUDGET_WAIT_TIMEOUT);
+            memoryBudget.reloadSettings();
+        }
+    }
+
+    @Test
+    public void existingCacheKeyAllowsNullStreamSingleGet() throws Exception {
+        logger.info("============ existingCacheKeyAllowsNullStreamSingleGet ====================");
+
+        byte[] data = new byte[100];
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true)) {
+            os.write(data);
+        }
+
+        long gets = getCache().getStatistics().cacheHitCount() + getCache().getStatistics().cacheMissCount();
+        try (InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey(), true)) {
+            Assert.assertNotNull(is);
+
+            //no separate lookup before the open (with explicit locks, the master gets read again once the read lock is acquired)
+            long expectedGets = (PropertyUtils.getEhcacheIOStreamsConcurrencyMode() == PropertyUtils.ConcurrencyMode.READ_COMMITTED_WITHLOCKS) ? 2 : 1;
+            Assert.assertEquals(gets + expectedGets, getCache().getStatistics().cacheHitCount() + getCache().getStatistics().cacheMissCount());
+        }
+    }
+
     @Test
     public void copyCacheToFileNoCacheKeyNoNullStream() throws Exception {
         logger.info("============ copyCacheToFileNoCacheKeyNoNullStream ====================");
@@ -371,4 +467,113 @@ public class EhcacheInputStreamTest extends EhcacheStreamingTestsBase {
         Assert.assertEquals(0, Files.size(OUT_FILE_PATH));
         Assert.assertEquals(cacheSize, getCache().getSize());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void copyCacheToFileWithFileAdapterSharesSpillFile() throws Exception {
+        logger.info("============ copyCacheToFileWithFileAdapterSharesSpillFile ====================");
+
+        final String[] fileAdapterProps = new String[]{
+                PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED,
+                PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_PATH,
+                PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE
+        };
+        final String[] previousValues = new String[fileAdapterProps.length];
+        for(int i = 0; i < fileAdapterProps.length; i++) {
+            previousValues[i] = System.getProperty(fileAdapterProps[i]);
+        }
+
+        System.setProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED, "true");
+        System.setProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_PATH, System.getProperty("java.io.tmpdir"));
+        System.setProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_THREASHOLD_SIZE, "0");
+        EhcacheStreamManager.getInstance(getCache()).reloadSettings();
+
+        try {
+            EhcacheFileAdapterSpillCache spillCache = EhcacheFileAdapterSpillCache.getInstance();
+            EhcacheFileAdapterSpillCache.StreamKey spillStreamKey = new EhcacheFileAdapterSpillCache.StreamKey(getCache().getName(), getCacheKey());
+
+            StreamCopyResultDescriptor copyFileToCacheDesc = copyFileToCache(getCacheKey(), true);
+
+            //first read spills the entry, second read reuses that same spill file
+            Assert.assertEquals(copyFileToCacheDesc.getToChecksum(), readFileFromCache(getCacheKey()).getToChecksum());
+            EhcacheFileAdapterSpillCache.SpillFile spillFile = spillCache.getSpillFile(spillStreamKey);
+            Assert.assertNotNull(spillFile);
+            Assert.assertTrue(spillFile.isComplete());
+
+            Assert.assertEquals(copyFileToCacheDesc.getToChecksum(), readFileFromCache(getCacheKey()).getToChecksum());
+            Assert.assertSame(spillFile, spillCache.getSpillFile(spillStreamKey));
+
+            //a new write (even of the same bytes) invalidates the spill file
+            copyFileToCacheDesc = copyFileToCache(getCacheKey(), true);
+            Assert.assertEquals(copyFileToCacheDesc.getToChecksum(), readFileFromCache(getCacheKey()).getToChecksum());
+            Assert.assertNotSame(spillFile, spillCache.getSpillFile(spillStreamKey));
+        } finally {
+            for(int i = 0; i < fileAdapterProps.length; i++) {
+                if(null != previousValues[i])
+                    System.setProperty(fileAdapterProps[i], previousValues[i]);
+                else
+                    System.clearProperty(fileAdapterProps[i]);
+            }
+            EhcacheStreamManager.getInstance(getCache()).reloadSettings();
+        }
+    }
+
+    @Test
+    public void fileAdapterStreamReservesItsBuffers() throws Exception {
+        logger.info("============ fileAdapterStreamReservesItsBuffers ====================");
+
+        final int bufferSize = 64 * 1024;
+        String previousEnabled = System.getProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED);
+        System.setProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED, "true");
+        EhcacheStreamManager.getInstance(getCache()).reloadSettings();
+        try {
+            copyFileToCache(getCacheKey(), true);
+
+            EhcacheStreamMemoryBudget memoryBudget = EhcacheStreamMemoryBudget.getInstance();
+            long reservedSizeBefore = memoryBudget.getReservedSizeInBytes();
+
+            InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey(), false, bufferSize);
+            try {
+                //the internal buffer, and the buffer in front of the file adapter
+                long expectedSize = PropertyUtils.DEFAULT_INPUTSTREAM_INTERNAL_BUFFERED ? 2 * bufferSize : bufferSize;
+                Assert.assertEquals(reservedSizeBefore + expectedSize, memoryBudget.getReservedSizeInBytes());
+            } finally {
+                is.close();
+            }
+
+            Assert.assertEquals(reservedSizeBefore, memoryBudget.getReservedSizeInBytes());
+        } finally {
+            if(null != previousEnabled)
+                System.setProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED, previousEnabled);
+            else
+                System.clearProperty(PropertyUtils.PROP_INPUTSTREAM_FILEADAPTER_ENABLED);
+            EhcacheStreamManager.getInstance(getCache()).reloadSettings();
+        }
+    }
+
+    @Test
+    public void readInlineEntryStampsReadTime() throws Exception {
+        logger.info("============ readInlineEntryStampsReadTime ====================");
+
+        //small enough to be stored inline in the master entry
+        byte[] payload = new byte[]{1, 2, 3};
+        OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey());
+        os.write(payload);
+        os.close();
+
+        EhcacheStreamUtilsInternal streamUtilsInternal = new EhcacheStreamUtilsInternal(getCache());
+        EhcacheStreamMaster testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        Assert.assertTrue(testObjectCheck.hasInlineChunk());
+        Assert.assertEquals(0, testObjectCheck.getLastReadTime());
+
+        InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey());
+        Assert.assertEquals(payload[0], is.read());
+        is.close();
+
+        testObjectCheck = streamUtilsInternal.getStreamMasterFromCache(getCacheKey());
+        if(PropertyUtils.getEhcacheIOStreamsConcurrencyMode() == PropertyUtils.ConcurrencyMode.READ_COMMITTED_WITHLOCKS) //with explicit locks, the master entry cannot be updated while read locked (hence read time cannot be updated)
+            Assert.assertEquals(0, testObjectCheck.getLastReadTime());
+        else
+            Assert.assertTrue(testObjectCheck.getLastReadTime() > 0);
+        Assert.assertEquals(0, testObjectCheck.getReaders());
+    }
+}
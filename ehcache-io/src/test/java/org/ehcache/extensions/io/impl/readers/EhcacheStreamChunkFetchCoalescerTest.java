@@ -0,0 +1,120 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by fabien.sanglier on 11/9/18.
+ */
+public class EhcacheStreamChunkFetchCoalescerTest {
+    private static final String CACHE_NAME = "fetchCoalescerTest";
+    private static final String CACHE_KEY = "someKey";
+
+    private final EhcacheStreamChunkFetchCoalescer fetchCoalescer = EhcacheStreamChunkFetchCoalescer.getInstance();
+
+    @Test
+    public void testConcurrentFetchesOfSameChunkCoalesced() throws Exception {
+        final int threadCount = 10;
+        final EhcacheStreamChunk chunk = new EhcacheStreamChunk(new byte[]{1, 2, 3});
+        final AtomicInteger fetchCount = new AtomicInteger(0);
+        final CountDownLatch fetchStarted = new CountDownLatch(1);
+        final CountDownLatch fetchRelease = new CountDownLatch(1);
+
+        final Callable<EhcacheStreamChunk> slowFetch = new Callable<EhcacheStreamChunk>() {
+            @Override
+            public EhcacheStreamChunk call() throws Exception {
+                fetchCount.incrementAndGet();
+                fetchStarted.countDown();
+                fetchRelease.await();
+                return chunk;
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<EhcacheStreamChunk>> results = new ArrayList<Future<EhcacheStreamChunk>>();
+            for (int i = 0; i < threadCount; i++) {
+                results.add(executorService.submit(new Callable<EhcacheStreamChunk>() {
+                    @Override
+                    public EhcacheStreamChunk call() throws Exception {
+                        return fetchCoalescer.fetch(new EhcacheStreamChunkFetchCoalescer.FetchKey(CACHE_NAME, CACHE_KEY, 0, 1L), slowFetch);
+                    }
+                }));
+
+                //make sure the first fetch is in flight before the others ask for the same chunk
+                if (i == 0)
+                    Assert.assertTrue(fetchStarted.await(10, TimeUnit.SECONDS));
+            }
+
+            //give the other threads some time to join the in-flight fetch
+            Thread.sleep(500);
+            fetchRelease.countDown();
+
+            for (Future<EhcacheStreamChunk> result : results) {
+                Assert.assertSame(chunk, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(1, fetchCount.get());
+        Assert.assertEquals(0, fetchCoalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testFetchesNotCoalescedAcrossVersions() throws Exception {
+        final AtomicInteger fetchCount = new AtomicInteger(0);
+        Callable<EhcacheStreamChunk> fetch = new Callable<EhcacheStreamChunk>() {
+            @Override
+            public EhcacheStreamChunk call() throws Exception {
+                return new EhcacheStreamChunk(new byte[]{(byte) fetchCount.incrementAndGet()});
+            }
+        };
+
+        EhcacheStreamChunk chunk1 = fetchCoalescer.fetch(new EhcacheStreamChunkFetchCoalescer.FetchKey(CACHE_NAME, CACHE_KEY, 0, 1L), fetch);
+        EhcacheStreamChunk chunk2 = fetchCoalescer.fetch(new EhcacheStreamChunkFetchCoalescer.FetchKey(CACHE_NAME, CACHE_KEY, 0, 2L), fetch);
+
+        //completed fetches are not kept around either
+        EhcacheStreamChunk chunk3 = fetchCoalescer.fetch(new EhcacheStreamChunkFetchCoalescer.FetchKey(CACHE_NAME, CACHE_KEY, 0, 2L), fetch);
+
+        Assert.assertEquals(3, fetchCount.get());
+        Assert.assertNotSame(chunk1, chunk2);
+        Assert.assertNotSame(chunk2, chunk3);
+    }
+
+    @Test
+    public void testFetchFailureSharedAndForgotten() throws Exception {
+        final EhcacheStreamChunkFetchCoalescer.FetchKey fetchKey = new EhcacheStreamChunkFetchCoalescer.FetchKey(CACHE_NAME, CACHE_KEY, 1, 1L);
+
+        try {
+            fetchCoalescer.fetch(fetchKey, new Callable<EhcacheStreamChunk>() {
+                @Override
+                public EhcacheStreamChunk call() throws Exception {
+                    throw new IllegalStateException("fetch failure");
+                }
+            });
+            Assert.fail("The fetch failure should have been thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("fetch failure", e.getMessage());
+        }
+
+        final EhcacheStreamChunk chunk = new EhcacheStreamChunk(new byte[]{1});
+        Assert.assertSame(chunk, fetchCoalescer.fetch(fetchKey, new Callable<EhcacheStreamChunk>() {
+            @Override
+            public EhcacheStreamChunk call() throws Exception {
+                return chunk;
+            }
+        }));
+    }
+}
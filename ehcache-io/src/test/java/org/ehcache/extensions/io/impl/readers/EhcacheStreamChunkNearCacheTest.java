@@ -0,0 +1,99 @@
+package org.ehcache.extensions.io.impl.readers;
+
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
+import org.ehcache.extensions.io.impl.utils.PropertyUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/8/18.
+ */
+public class EhcacheStreamChunkNearCacheTest {
+    private static final String CACHE_NAME = "nearCacheTest";
+    private static final String CACHE_KEY = "someKey";
+    private static final long MAX_SIZE = PropertyUtils.DEFAULT_INPUTSTREAM_NEARCACHE_MAXSIZE;
+
+    private final EhcacheStreamChunkNearCache nearCache = EhcacheStreamChunkNearCache.getInstance();
+    private final Random rnd = new Random();
+
+    @Before
+    public void setup() {
+        nearCache.clear();
+    }
+
+    @After
+    public void cleanup() {
+        nearCache.clear();
+    }
+
+    private byte[] createChunk(int size) {
+        byte[] chunk = new byte[size];
+        rnd.nextBytes(chunk);
+        return chunk;
+    }
+
+    @Test
+    public void testNearCachedForSameVersionOnly() {
+        byte[] chunk = createChunk(1024);
+        long checksum = EhcacheStreamUtilsInternal.createChunkCRC32(chunk);
+
+        Assert.assertNull(nearCache.get(CACHE_NAME, CACHE_KEY, 0, 1L, checksum));
+        nearCache.put(CACHE_NAME, CACHE_KEY, 0, 1L, checksum, chunk, MAX_SIZE);
+
+        Assert.assertSame(chunk, nearCache.get(CACHE_NAME, CACHE_KEY, 0, 1L, checksum));
+        Assert.assertNull(nearCache.get(CACHE_NAME, CACHE_KEY, 1, 1L, checksum));
+        Assert.assertNull(nearCache.get("otherCache", CACHE_KEY, 0, 1L, checksum));
+
+        //a newer version of the stream drops it
+        Assert.assertNull(nearCache.get(CACHE_NAME, CACHE_KEY, 0, 2L, checksum));
+        Assert.assertEquals(0, nearCache.getChunkCount());
+        Assert.assertEquals(0L, nearCache.getSizeInBytes());
+
+        Assert.assertEquals(1L, nearCache.getHits());
+        Assert.assertEquals(4L, nearCache.getMisses());
+    }
+
+    @Test
+    public void testChecksumMismatchNotNearCached() {
+        byte[] chunk = createChunk(1024);
+        long checksum = EhcacheStreamUtilsInternal.createChunkCRC32(chunk);
+
+        nearCache.put(CACHE_NAME, CACHE_KEY, 0, 1L, checksum + 1, chunk, MAX_SIZE);
+        Assert.assertEquals(0, nearCache.getChunkCount());
+
+        nearCache.put(CACHE_NAME, CACHE_KEY, 0, 1L, checksum, chunk, MAX_SIZE);
+        Assert.assertNull(nearCache.get(CACHE_NAME, CACHE_KEY, 0, 1L, checksum + 1));
+        Assert.assertEquals(0, nearCache.getChunkCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedOverMaxSize() {
+        final long maxSize = 3 * 1024;
+
+        byte[][] chunks = new byte[4][];
+        long[] checksums = new long[chunks.length];
+        for(int i = 0; i < chunks.length; i++) {
+            chunks[i] = createChunk(1024);
+            checksums[i] = EhcacheStreamUtilsInternal.createChunkCRC32(chunks[i]);
+        }
+
+        for(int i = 0; i < 3; i++) {
+            nearCache.put(CACHE_NAME, CACHE_KEY, i, 1L, checksums[i], chunks[i], maxSize);
+        }
+
+        //chunk 0 gets used, so chunk 1 is the least recently used one
+        Assert.assertNotNull(nearCache.get(CACHE_NAME, CACHE_KEY, 0, 1L, checksums[0]));
+        nearCache.put(CACHE_NAME, CACHE_KEY, 3, 1L, checksums[3], chunks[3], maxSize);
+
+        Assert.assertEquals(3, nearCache.getChunkCount());
+        Assert.assertEquals(3 * 1024L, nearCache.getSizeInBytes());
+        Assert.assertNull(nearCache.get(CACHE_NAME, CACHE_KEY, 1, 1L, checksums[1]));
+        Assert.assertNotNull(nearCache.get(CACHE_NAME, CACHE_KEY, 0, 1L, checksums[0]));
+        Assert.assertNotNull(nearCache.get(CACHE_NAME, CACHE_KEY, 2, 1L, checksums[2]));
+        Assert.assertNotNull(nearCache.get(CACHE_NAME, CACHE_KEY, 3, 1L, checksums[3]));
+    }
+}
@@ -0,0 +1,99 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Created by fabien.sanglier on 11/12/18.
+ */
+public class EhcacheStreamBufferPoolTest {
+    private final EhcacheStreamBufferPool bufferPool = EhcacheStreamBufferPool.getInstance();
+
+    @Before
+    public void setup() {
+        bufferPool.clear();
+    }
+
+    @After
+    public void cleanup() {
+        bufferPool.clear();
+        System.clearProperty(PropertyUtils.PROP_BUFFERPOOL_ENABLED);
+        System.clearProperty(PropertyUtils.PROP_BUFFERPOOL_MAXSIZE);
+        bufferPool.reloadSettings();
+    }
+
+    @Test
+    public void testReleasedBufferReused() {
+        byte[] buffer = bufferPool.acquire(100 * 1024);
+
+        //rounded up to the size class
+        Assert.assertEquals(128 * 1024, buffer.length);
+
+        long reuseCount = bufferPool.getReuseCount();
+        bufferPool.release(buffer);
+        Assert.assertEquals(1, bufferPool.getPooledBufferCount());
+        Assert.assertEquals(128 * 1024L, bufferPool.getPooledSizeInBytes());
+
+        Assert.assertSame(buffer, bufferPool.acquire(128 * 1024));
+        Assert.assertEquals(reuseCount + 1, bufferPool.getReuseCount());
+        Assert.assertEquals(0L, bufferPool.getPooledSizeInBytes());
+
+        //a different size class does not get it
+        bufferPool.release(buffer);
+        Assert.assertNotSame(buffer, bufferPool.acquire(256 * 1024));
+    }
+
+    @Test
+    public void testReleasedDirectBufferReused() {
+        ByteBuffer buffer = bufferPool.acquireDirect(3000);
+
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(4096, buffer.capacity());
+        Assert.assertEquals(3000, buffer.limit());
+
+        buffer.put((byte) 1);
+        bufferPool.releaseDirect(buffer);
+
+        ByteBuffer reused = bufferPool.acquireDirect(4000);
+        Assert.assertSame(buffer, reused);
+        Assert.assertEquals(0, reused.position());
+        Assert.assertEquals(4000, reused.limit());
+    }
+
+    @Test
+    public void testNotPooledOverMaxSize() {
+        System.setProperty(PropertyUtils.PROP_BUFFERPOOL_MAXSIZE, new Long(64 * 1024).toString());
+        bufferPool.reloadSettings();
+
+        byte[] buffer1 = bufferPool.acquire(64 * 1024);
+        byte[] buffer2 = bufferPool.acquire(64 * 1024);
+
+        long discardCount = bufferPool.getDiscardCount();
+        bufferPool.release(buffer1);
+        bufferPool.release(buffer2);
+
+        Assert.assertEquals(1, bufferPool.getPooledBufferCount());
+        Assert.assertEquals(discardCount + 1, bufferPool.getDiscardCount());
+
+        //odd sized buffers (not from the pool) are not pooled either
+        bufferPool.clear();
+        bufferPool.release(new byte[1000]);
+        Assert.assertEquals(0, bufferPool.getPooledBufferCount());
+    }
+
+    @Test
+    public void testNotPooledWhenDisabled() {
+        System.setProperty(PropertyUtils.PROP_BUFFERPOOL_ENABLED, "false");
+        bufferPool.reloadSettings();
+
+        byte[] buffer = bufferPool.acquire(1000);
+        Assert.assertEquals(1000, buffer.length);
+
+        bufferPool.release(bufferPool.acquire(1024));
+        Assert.assertEquals(0, bufferPool.getPooledBufferCount());
+    }
+}
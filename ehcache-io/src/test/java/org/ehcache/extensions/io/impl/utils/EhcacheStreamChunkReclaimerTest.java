@@ -0,0 +1,163 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamReclaimKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/19/18.
+ */
+public class EhcacheStreamChunkReclaimerTest {
+    private static final int CHUNK_SIZE = 20;
+    private static final int DATA_SIZE = 8000;
+
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("chunkReclaimerTest"));
+        cache = new Cache(new CacheConfiguration("chunkReclaimerTestCache", 0));
+        cacheManager.addCache(cache);
+
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setRemoveAsyncReclaim(true);
+        EhcacheIOStreams.configure(cache, configuration);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testRemovedStreamEntryGoneBeforeChunksReclaimed() throws Exception {
+        EhcacheStreamChunkReclaimer reclaimer = EhcacheStreamManager.getInstance(cache).getChunkReclaimer();
+        int chunkCount = writeStreamEntry("key1", newData(1));
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+
+        reclaimer.pause();
+        Assert.assertTrue(EhcacheIOStreams.removeStreamEntry(cache, "key1"));
+
+        //gone right away, even though its chunks are not reclaimed yet
+        Assert.assertFalse(EhcacheIOStreams.containStreamEntry(cache, "key1"));
+        Assert.assertTrue(EhcacheIOStreams.getStreamEntryKeys(cache, false).isEmpty());
+        Assert.assertEquals(chunkCount, reclaimer.getPendingChunkCount());
+        Assert.assertEquals(chunkCount, cache.getSize() - 1);
+
+        reclaimer.resume();
+        waitForReclaim();
+
+        Assert.assertEquals(chunkCount, EhcacheStreamManager.getInstance(cache).getChunkReclaimer().getReclaimedChunkCount());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testNewStreamEntryDoesNotCollideWithChunksBeingReclaimed() throws Exception {
+        EhcacheStreamChunkReclaimer reclaimer = EhcacheStreamManager.getInstance(cache).getChunkReclaimer();
+        writeStreamEntry("key1", newData(1));
+
+        reclaimer.pause();
+        Assert.assertTrue(EhcacheIOStreams.removeStreamEntry(cache, "key1"));
+        Assert.assertNotNull(cache.get(new EhcacheStreamReclaimKey("key1")));
+
+        //written on the same key while the previous chunks are still to be reclaimed
+        byte[] newData = newData(2);
+        int chunkCount = writeStreamEntry("key1", newData);
+
+        reclaimer.resume();
+        waitForReclaim();
+
+        //the reclaim did not touch the new chunks, and dropped its marker
+        Assert.assertArrayEquals(newData, readStreamEntry("key1"));
+        Assert.assertNull(cache.get(new EhcacheStreamReclaimKey("key1")));
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+    }
+
+    @Test
+    public void testNewStreamEntryDoesNotCollideWhenReclaimTurnedOff() throws Exception {
+        EhcacheStreamChunkReclaimer reclaimer = EhcacheStreamManager.getInstance(cache).getChunkReclaimer();
+        writeStreamEntry("key1", newData(1));
+
+        reclaimer.pause();
+        Assert.assertTrue(EhcacheIOStreams.removeStreamEntry(cache, "key1"));
+
+        //turned off while the previous chunks are still to be reclaimed (eg. a node without the async reclaim)
+        EhcacheIOStreams.configure(cache, new EhcacheStreamConfiguration());
+        Assert.assertNull(EhcacheStreamManager.getInstance(cache).getChunkReclaimer());
+        Assert.assertTrue(EhcacheStreamManager.getInstance(cache).isReclaimMarkerCheckNeeded());
+
+        byte[] newData = newData(2);
+        int chunkCount = writeStreamEntry("key1", newData);
+
+        reclaimer.resume();
+        waitForReclaim(reclaimer);
+
+        Assert.assertArrayEquals(newData, readStreamEntry("key1"));
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+
+        //nothing left to reclaim: the new stream entries do not look up the reclaim markers anymore
+        Assert.assertFalse(EhcacheStreamManager.getInstance(cache).isReclaimMarkerCheckNeeded());
+    }
+
+    private byte[] newData(long seed) {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    //returns the chunk count of the written stream entry (more than a reclaim batch)
+    private int writeStreamEntry(Object cacheKey, byte[] data) throws Exception {
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, cacheKey, true, CHUNK_SIZE);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+
+        int chunkCount = EhcacheIOStreams.getStreamInfos(cache, Collections.singletonList(cacheKey)).get(cacheKey).getChunkCount();
+        Assert.assertTrue(chunkCount > 100);
+        return chunkCount;
+    }
+
+    private byte[] readStreamEntry(Object cacheKey) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = EhcacheIOStreams.getInputStream(cache, cacheKey);
+        try {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return bos.toByteArray();
+    }
+
+    private void waitForReclaim() throws InterruptedException {
+        waitForReclaim(EhcacheStreamManager.getInstance(cache).getChunkReclaimer());
+    }
+
+    private void waitForReclaim(EhcacheStreamChunkReclaimer reclaimer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20000L;
+        while (reclaimer.getPendingChunkCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+        }
+        Assert.assertEquals(0, reclaimer.getPendingChunkCount());
+    }
+}
@@ -0,0 +1,108 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by fabien.sanglier on 11/15/18.
+ */
+public class EhcacheStreamChunkSizePolicyTest {
+
+    private static final long ROUND_TRIP_NANOS = 1000000L;
+
+    private interface LatencyModel {
+        long getDurationNanos(int chunkSize);
+    }
+
+    private void simulate(EhcacheStreamChunkSizePolicy policy, LatencyModel latencyModel, int chunkOperations) {
+        for(int i = 0; i < chunkOperations; i++) {
+            int chunkSize = policy.getChunkSize();
+            policy.recordChunkOperation(chunkSize, latencyModel.getDurationNanos(chunkSize));
+        }
+    }
+
+    private boolean isPowerOf2(int size) {
+        return size > 0 && (size & (size - 1)) == 0;
+    }
+
+    @Test
+    public void testSeedChunkSizePerCacheType() {
+        int heapOnlyChunkSize = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.LOCAL_HEAP_ONLY).getChunkSize();
+        int offheapChunkSize = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.LOCAL_HEAP_OFFHEAP).getChunkSize();
+        int clusteredNoLocalChunkSize = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.CLUSTERED_NOLOCAL).getChunkSize();
+
+        Assert.assertTrue(isPowerOf2(heapOnlyChunkSize));
+        Assert.assertTrue(heapOnlyChunkSize <= offheapChunkSize);
+        Assert.assertTrue(offheapChunkSize < clusteredNoLocalChunkSize);
+    }
+
+    @Test
+    public void testGrowsWhenRoundTripsDominate() {
+        EhcacheStreamChunkSizePolicy policy = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.CLUSTERED_NOLOCAL);
+        int seedChunkSize = policy.getChunkSize();
+
+        simulate(policy, new LatencyModel() {
+            @Override
+            public long getDurationNanos(int chunkSize) {
+                return ROUND_TRIP_NANOS + chunkSize;
+            }
+        }, 10000);
+
+        Assert.assertTrue(policy.getChunkSize() > seedChunkSize);
+    }
+
+    @Test
+    public void testShrinksWhenBigChunksCostMorePerByte() {
+        EhcacheStreamChunkSizePolicy policy = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.CLUSTERED_NOLOCAL);
+        int seedChunkSize = policy.getChunkSize();
+
+        simulate(policy, new LatencyModel() {
+            @Override
+            public long getDurationNanos(int chunkSize) {
+                return (long) chunkSize * chunkSize / 1024;
+            }
+        }, 10000);
+
+        Assert.assertTrue(policy.getChunkSize() < seedChunkSize);
+    }
+
+    @Test
+    public void testStaysWhenNoSizeIsCheaper() {
+        EhcacheStreamChunkSizePolicy policy = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.LOCAL_HEAP_OFFHEAP);
+        int seedChunkSize = policy.getChunkSize();
+
+        simulate(policy, new LatencyModel() {
+            @Override
+            public long getDurationNanos(int chunkSize) {
+                return chunkSize;
+            }
+        }, 10000);
+
+        Assert.assertEquals(seedChunkSize, policy.getChunkSize());
+    }
+
+    @Test
+    public void testHeapOnlyChunkSizeStaysCapped() {
+        EhcacheStreamChunkSizePolicy policy = new EhcacheStreamChunkSizePolicy(EhcacheUtils.CacheType.LOCAL_HEAP_ONLY);
+
+        simulate(policy, new LatencyModel() {
+            @Override
+            public long getDurationNanos(int chunkSize) {
+                return ROUND_TRIP_NANOS + chunkSize;
+            }
+        }, 10000);
+
+        //larger chunks would be cheaper, but not larger than what the heap only caches allow
+        Assert.assertTrue(isPowerOf2(policy.getChunkSize()));
+        Assert.assertTrue(policy.getChunkSize() <= 4 * 1024 * 1024);
+
+        int cappedChunkSize = policy.getChunkSize();
+        simulate(policy, new LatencyModel() {
+            @Override
+            public long getDurationNanos(int chunkSize) {
+                return ROUND_TRIP_NANOS + chunkSize;
+            }
+        }, 10000);
+        Assert.assertEquals(cappedChunkSize, policy.getChunkSize());
+    }
+}
@@ -0,0 +1,402 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.writers.EhcacheMultipartUpload;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/21/18.
+ */
+public class EhcacheStreamLeaseRenewerTest {
+    private static final long LEASE_DURATION = 300L;
+    private static final long OPEN_TIMEOUT = 10000L;
+    private static final int CHUNK_SIZE = 500;
+    private static final int DATA_SIZE = 5000;
+
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("leaseRenewerTest"));
+        cache = new Cache(new CacheConfiguration("leaseRenewerTestCache", 0));
+        cacheManager.addCache(cache);
+
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setLockLeaseDuration(LEASE_DURATION);
+        EhcacheIOStreams.configure(cache, configuration);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testAbandonedWriteReleasedAfterLeaseExpiry() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        //a writer that never closes nor renews its lease (eg. its JVM died)
+        new EhcacheStreamUtilsInternal(cache).openWriteOnMaster("key1", OPEN_TIMEOUT);
+
+        byte[] data = newData(2);
+        long t1 = System.currentTimeMillis();
+        writeStreamEntry("key1", data, OPEN_TIMEOUT);
+        long waited = System.currentTimeMillis() - t1;
+
+        Assert.assertTrue("Waited " + waited + "ms", waited >= LEASE_DURATION);
+        Assert.assertTrue("Waited " + waited + "ms", waited < OPEN_TIMEOUT / 2);
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testAbandonedReadReleasedAfterLeaseExpiry() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        //a reader that never closes nor renews its lease
+        new EhcacheStreamUtilsInternal(cache).openReadOnMaster("key1", OPEN_TIMEOUT);
+
+        byte[] data = newData(2);
+        writeStreamEntry("key1", data, OPEN_TIMEOUT);
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testHeldWriteLeaseRenewed() throws Exception {
+        byte[] data = newData(1);
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, "key1", true, CHUNK_SIZE, OPEN_TIMEOUT);
+        try {
+            os.write(data);
+
+            //idle for several lease durations: still held
+            Thread.sleep(4 * LEASE_DURATION);
+            Assert.assertEquals(1, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+
+            try {
+                writeStreamEntry("key1", newData(2), LEASE_DURATION);
+                Assert.fail("The live writer should still hold the write");
+            } catch (EhcacheStreamException e) {
+                //expected: timed out waiting on the live writer
+            }
+        } finally {
+            os.close();
+        }
+
+        Assert.assertEquals(0, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testCommitAfterLeaseRenewal() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        EhcacheStreamMaster openedStreamMaster = ehcacheStreamUtils.openWriteOnMaster("key1", OPEN_TIMEOUT);
+
+        //the write lease renewed while writing
+        Thread.sleep(10);
+        ehcacheStreamUtils.renewLeasesOnMaster("key1", false, true, OPEN_TIMEOUT);
+        EhcacheStreamMaster renewedStreamMaster = ehcacheStreamUtils.getStreamMasterFromCache("key1");
+        long holderId = ehcacheStreamUtils.getLeaseHolderId();
+        Assert.assertTrue(renewedStreamMaster.getWriterLeaseTime(holderId) > openedStreamMaster.getWriterLeaseTime(holderId));
+
+        //still committed in one operation, keeping the renewed lease time
+        EhcacheStreamMaster committedStreamMaster = ehcacheStreamUtils.commitWriteOnMaster("key1", openedStreamMaster, EhcacheStreamMaster.deepCopy(openedStreamMaster));
+        Assert.assertNotNull(committedStreamMaster);
+        Assert.assertEquals(0, committedStreamMaster.getWriters());
+        Assert.assertEquals(0L, committedStreamMaster.getWriterLeaseTime(holderId));
+        Assert.assertEquals(committedStreamMaster, ehcacheStreamUtils.getStreamMasterFromCache("key1"));
+    }
+
+    @Test
+    public void testReleasedReadCloseIsNoop() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        //a reader that stops renewing its lease (eg. a long pause), released by the next writer
+        EhcacheStreamUtilsInternal releasedStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        releasedStreamUtils.openReadOnMaster("key1", OPEN_TIMEOUT);
+        writeStreamEntry("key1", newData(2), OPEN_TIMEOUT);
+
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        EhcacheStreamMaster openedReadMaster = ehcacheStreamUtils.openReadOnMaster("key1", OPEN_TIMEOUT);
+        Assert.assertEquals(1, openedReadMaster.getReaders());
+        Assert.assertFalse(openedReadMaster.holdsRead(releasedStreamUtils.getLeaseHolderId()));
+        Assert.assertTrue(openedReadMaster.holdsRead(ehcacheStreamUtils.getLeaseHolderId()));
+
+        //the late close of the released reader does not release the read of the newer reader
+        Assert.assertNull(releasedStreamUtils.closeReadOnMaster("key1", OPEN_TIMEOUT));
+        Assert.assertEquals(1, ehcacheStreamUtils.getStreamMasterFromCache("key1").getReaders());
+
+        Assert.assertEquals(0, ehcacheStreamUtils.closeReadOnMaster("key1", OPEN_TIMEOUT).getReaders());
+    }
+
+    @Test
+    public void testLiveReadKeptWhileAbandonedReadReleased() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        //a reader that never closes nor renews its lease, and a live reader holding its lease (renewed in the background)
+        EhcacheStreamUtilsInternal abandonedStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        abandonedStreamUtils.openReadOnMaster("key1", OPEN_TIMEOUT);
+
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = EhcacheStreamManager.getInstance(cache).newEhcacheStreamUtils();
+        ehcacheStreamUtils.openReadOnMaster("key1", OPEN_TIMEOUT);
+        ehcacheStreamUtils.holdLease("key1", false);
+        try {
+            Assert.assertEquals(2, ehcacheStreamUtils.getStreamMasterFromCache("key1").getReaders());
+
+            //the writer releases the abandoned read only, and still times out on the live one
+            try {
+                writeStreamEntry("key1", newData(2), 3 * LEASE_DURATION);
+                Assert.fail("The live reader should still hold the read");
+            } catch (EhcacheStreamException e) {
+                //expected: timed out waiting on the live reader
+            }
+
+            EhcacheStreamMaster currentStreamMaster = ehcacheStreamUtils.getStreamMasterFromCache("key1");
+            Assert.assertEquals(1, currentStreamMaster.getReaders());
+            Assert.assertEquals(0, currentStreamMaster.getWriters());
+            Assert.assertFalse(currentStreamMaster.holdsRead(abandonedStreamUtils.getLeaseHolderId()));
+            Assert.assertTrue(currentStreamMaster.holdsRead(ehcacheStreamUtils.getLeaseHolderId()));
+        } finally {
+            ehcacheStreamUtils.releaseLease("key1", false);
+        }
+
+        Assert.assertEquals(0, ehcacheStreamUtils.closeReadOnMaster("key1", OPEN_TIMEOUT).getReaders());
+
+        byte[] data = newData(3);
+        writeStreamEntry("key1", data, OPEN_TIMEOUT);
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testReleasedWriteCommitFails() throws Exception {
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+
+        //a writer that stops renewing its lease, released by the next writer
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        EhcacheStreamMaster releasedWriteMaster = ehcacheStreamUtils.openWriteOnMaster("key1", OPEN_TIMEOUT);
+        EhcacheStreamMaster releasedActiveMaster = EhcacheStreamMaster.deepCopy(releasedWriteMaster);
+        releasedActiveMaster.resetChunkCount();
+
+        EhcacheStreamUtilsInternal newerStreamUtils = EhcacheStreamManager.getInstance(cache).newEhcacheStreamUtils();
+        EhcacheStreamMaster openedWriteMaster = newerStreamUtils.openWriteOnMaster("key1", OPEN_TIMEOUT);
+        Assert.assertEquals(1, openedWriteMaster.getWriters());
+        Assert.assertFalse(openedWriteMaster.holdsWrite(ehcacheStreamUtils.getLeaseHolderId()));
+
+        //the late commit of the released writer neither overwrites the master of the newer writer, nor releases its write
+        Assert.assertNull(ehcacheStreamUtils.commitWriteOnMaster("key1", releasedWriteMaster, releasedActiveMaster));
+        Assert.assertFalse(ehcacheStreamUtils.saveWriteOnMaster("key1", releasedActiveMaster));
+        Assert.assertNull(ehcacheStreamUtils.closeWriteOnMaster("key1", OPEN_TIMEOUT));
+        Assert.assertEquals(openedWriteMaster, ehcacheStreamUtils.getStreamMasterFromCache("key1"));
+
+        Assert.assertEquals(0, newerStreamUtils.closeWriteOnMaster("key1", OPEN_TIMEOUT).getWriters());
+        Assert.assertArrayEquals(newData(1), readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testAbandonedAppendReleasedAfterLeaseExpiry() throws Exception {
+        byte[] data1 = newData(1);
+        writeStreamEntry("key1", data1, OPEN_TIMEOUT);
+
+        //an appender that never closes nor renews its lease, and a live append completed behind it
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        long abandonedAppendSequence = ehcacheStreamUtils.openAppendOnMaster("key1", 1, OPEN_TIMEOUT).getLastAppendSequence();
+
+        byte[] data2 = newData(2);
+        OutputStream os = EhcacheIOStreams.getConcurrentAppendOutputStream(cache, "key1", CHUNK_SIZE, OPEN_TIMEOUT);
+        try {
+            os.write(data2);
+        } finally {
+            os.close();
+        }
+        Assert.assertEquals(2, ehcacheStreamUtils.getStreamMasterFromCache("key1").getPendingAppendCount());
+
+        //the writers do not wait on the abandoned append forever, and the live append gets published
+        byte[] data3 = newData(3);
+        long t1 = System.currentTimeMillis();
+        os = EhcacheIOStreams.getOutputStream(cache, "key1", false, CHUNK_SIZE, OPEN_TIMEOUT);
+        try {
+            os.write(data3);
+        } finally {
+            os.close();
+        }
+        long waited = System.currentTimeMillis() - t1;
+        Assert.assertTrue("Waited " + waited + "ms", waited >= LEASE_DURATION);
+        Assert.assertEquals(0, ehcacheStreamUtils.getStreamMasterFromCache("key1").getPendingAppendCount());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(data1);
+        expected.write(data2);
+        expected.write(data3);
+        Assert.assertArrayEquals(expected.toByteArray(), readStreamEntry("key1"));
+
+        //the late commit of the released append fails
+        try {
+            ehcacheStreamUtils.commitAppendOnMaster("key1", abandonedAppendSequence, new int[0], new long[0], new long[0], OPEN_TIMEOUT);
+            Assert.fail("The released append should not be committed");
+        } catch (EhcacheStreamIllegalStateException e) {
+            //expected
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testHeldUploadLeaseRenewed() throws Exception {
+        byte[] data = newData(1);
+        EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.createMultipartUpload(cache, "key1", OPEN_TIMEOUT);
+        OutputStream os = multipartUpload.getPartOutputStream(0, CHUNK_SIZE);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+
+        //an upload that nobody holds
+        EhcacheStreamUtilsInternal ehcacheStreamUtils = new EhcacheStreamUtilsInternal(cache);
+        ehcacheStreamUtils.openMultipartUploadOnMaster("key2", OPEN_TIMEOUT);
+
+        //idle for several lease durations: only the abandoned upload expired
+        Thread.sleep(4 * LEASE_DURATION);
+        Assert.assertEquals(1, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+        Assert.assertFalse(ehcacheStreamUtils.getStreamMasterFromCache("key1").hasExpiredLease(LEASE_DURATION));
+        Assert.assertTrue(ehcacheStreamUtils.getStreamMasterFromCache("key2").hasExpiredLease(LEASE_DURATION));
+
+        Assert.assertEquals(1, multipartUpload.complete(true));
+        Assert.assertEquals(0, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testUploadLeaseKeptOnFailedComplete() throws Exception {
+        byte[] data = newData(1);
+        EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.createMultipartUpload(cache, "key1", 3 * LEASE_DURATION);
+        OutputStream os = multipartUpload.getPartOutputStream(0, CHUNK_SIZE);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+
+        //a live writer holds the stream entry: the completion times out, and the upload stays leased
+        OutputStream writerOs = EhcacheIOStreams.getOutputStream(cache, "key1", false, CHUNK_SIZE, OPEN_TIMEOUT);
+        try {
+            try {
+                multipartUpload.complete(true);
+                Assert.fail("The completion should time out while the stream entry is written");
+            } catch (EhcacheStreamException e) {
+                //expected
+            }
+        } finally {
+            writerOs.close();
+        }
+        Assert.assertEquals(1, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+
+        //still there after several lease durations, and completed on retry
+        Thread.sleep(2 * LEASE_DURATION);
+        Assert.assertEquals(1, new EhcacheStreamUtilsInternal(cache).getStreamMasterFromCache("key1").getMultipartUploadCount());
+        Assert.assertEquals(1, multipartUpload.complete(true));
+        Assert.assertEquals(0, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+
+        //completing it again fails on the missing upload, with no lease left behind
+        try {
+            multipartUpload.complete(true);
+            Assert.fail("The completed upload should not be found anymore");
+        } catch (EhcacheStreamIllegalStateException e) {
+            //expected
+        }
+        Assert.assertEquals(0, EhcacheStreamManager.getInstance(cache).getLeaseRenewer().getHeldCount());
+    }
+
+    @Test
+    public void testRetiredRenewerStopsOnceReleased() throws Exception {
+        byte[] data = newData(1);
+        EhcacheStreamLeaseRenewer previousRenewer = EhcacheStreamManager.getInstance(cache).getLeaseRenewer();
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, "key1", true, CHUNK_SIZE, OPEN_TIMEOUT);
+        try {
+            os.write(data);
+            Assert.assertTrue(previousRenewer.isRenewing());
+
+            //a new lease duration: a new renewer for the new streams, the open one still renewed through the previous renewer
+            EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+            configuration.setLockLeaseDuration(2 * LEASE_DURATION);
+            EhcacheIOStreams.configure(cache, configuration);
+
+            EhcacheStreamLeaseRenewer renewer = EhcacheStreamManager.getInstance(cache).getLeaseRenewer();
+            Assert.assertNotSame(previousRenewer, renewer);
+            Assert.assertEquals(2 * LEASE_DURATION, renewer.getLeaseDurationMillis());
+            Assert.assertTrue(previousRenewer.isRenewing());
+            Assert.assertEquals(1, previousRenewer.getHeldCount());
+        } finally {
+            os.close();
+        }
+
+        //its thread stops with the last lease released
+        Assert.assertEquals(0, previousRenewer.getHeldCount());
+        Assert.assertFalse(previousRenewer.isRenewing());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testLeasesDisabledByDefault() throws Exception {
+        EhcacheIOStreams.configure(cache, new EhcacheStreamConfiguration());
+        Assert.assertNull(EhcacheStreamManager.getInstance(cache).getLeaseRenewer());
+
+        writeStreamEntry("key1", newData(1), OPEN_TIMEOUT);
+        new EhcacheStreamUtilsInternal(cache).openWriteOnMaster("key1", OPEN_TIMEOUT);
+
+        //never released
+        try {
+            writeStreamEntry("key1", newData(2), 3 * LEASE_DURATION);
+            Assert.fail("The abandoned write should not be released when the leases are disabled");
+        } catch (EhcacheStreamException e) {
+            //expected
+        }
+    }
+
+    private byte[] newData(long seed) {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private void writeStreamEntry(Object cacheKey, byte[] data, long openTimeout) throws Exception {
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, cacheKey, true, CHUNK_SIZE, openTimeout);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] readStreamEntry(Object cacheKey) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = EhcacheIOStreams.getInputStream(cache, cacheKey);
+        try {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return bos.toByteArray();
+    }
+}
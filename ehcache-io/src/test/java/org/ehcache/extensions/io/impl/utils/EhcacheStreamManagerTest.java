@@ -0,0 +1,179 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.EhcacheStreamDecorator;
+import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Created by fabien.sanglier on 11/14/18.
+ */
+public class EhcacheStreamManagerTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("streamManagerTest"));
+        cache = new Cache(new CacheConfiguration("streamManagerTestCache", 0));
+        cacheManager.addCache(cache);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+        System.clearProperty(PropertyUtils.PROP_OUTPUTSTREAM_OPEN_TIMEOUTS);
+        System.clearProperty(PropertyUtils.PROP_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED);
+        System.clearProperty(PropertyUtils.PROP_OUTPUTSTREAM_INLINE_THRESHOLD);
+        System.clearProperty(PropertyUtils.PROP_CHUNKS_OFFHEAP_ENABLED);
+    }
+
+    @Test
+    public void testOneManagerPerCache() {
+        EhcacheStreamManager manager = EhcacheStreamManager.getInstance(cache);
+
+        Assert.assertSame(manager, EhcacheStreamManager.getInstance(cache));
+        Assert.assertSame(manager, EhcacheStreamManager.getInstance(new EhcacheStreamDecorator(cache, false, true, 1024, false, 1024, true)));
+        Assert.assertEquals(EhcacheUtils.CacheType.LOCAL_HEAP_ONLY, manager.getCacheType());
+
+        //one internal utils per stream, built from the resolved cache type
+        EhcacheStreamUtilsInternal streamUtils = manager.newEhcacheStreamUtils();
+        Assert.assertNotSame(streamUtils, manager.newEhcacheStreamUtils());
+        Assert.assertEquals(manager.getCacheType(), streamUtils.getCacheType());
+    }
+
+    @Test
+    public void testManagerDroppedOnCacheDispose() {
+        EhcacheStreamManager manager = EhcacheStreamManager.getInstance(cache);
+        int managerCount = EhcacheStreamManager.getManagerCount();
+
+        cacheManager.removeCache(cache.getName());
+        Assert.assertEquals(managerCount - 1, EhcacheStreamManager.getManagerCount());
+
+        //a new cache with the same name gets its own manager
+        Cache newCache = new Cache(new CacheConfiguration(cache.getName(), 0));
+        cacheManager.addCache(newCache);
+        Assert.assertNotSame(manager, EhcacheStreamManager.getInstance(newCache));
+    }
+
+    @Test
+    public void testNoManagerForDisposedCache() throws Exception {
+        cacheManager.removeCache(cache.getName());
+        int managerCount = EhcacheStreamManager.getManagerCount();
+
+        try {
+            EhcacheIOStreams.getInputStream(cache, "key1");
+            Assert.fail("A disposed cache should not be valid");
+        } catch (EhcacheStreamIllegalArgumentException e) {
+            //expected
+        }
+
+        try {
+            EhcacheStreamManager.getInstance(cache);
+            Assert.fail("A disposed cache should not get a manager");
+        } catch (EhcacheStreamIllegalArgumentException e) {
+            //expected
+        }
+
+        Assert.assertEquals(managerCount, EhcacheStreamManager.getManagerCount());
+    }
+
+    @Test
+    public void testConfiguredSettingsOverrideGlobalSettings() throws Exception {
+        EhcacheStreamManager manager = EhcacheStreamManager.getInstance(cache);
+
+        //unset: follows the global settings, picked up on a reload
+        System.setProperty(PropertyUtils.PROP_OUTPUTSTREAM_OPEN_TIMEOUTS, "1234");
+        Assert.assertEquals(PropertyUtils.DEFAULT_OUTPUTSTREAM_OPEN_TIMEOUT, manager.getOutputStreamOpenTimeout());
+        manager.reloadSettings();
+        Assert.assertEquals(1234L, manager.getOutputStreamOpenTimeout());
+
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setOutputStreamOpenTimeout(5678L);
+        configuration.setInputStreamAllowNulls(true);
+        EhcacheIOStreams.configure(cache, configuration);
+
+        //the configuration is copied
+        configuration.setOutputStreamOpenTimeout(1L);
+
+        Assert.assertEquals(5678L, manager.getOutputStreamOpenTimeout());
+        Assert.assertEquals(Long.valueOf(5678L), EhcacheIOStreams.getConfiguration(cache).getOutputStreamOpenTimeout());
+        Assert.assertEquals(PropertyUtils.getInputStreamBufferSize().intValue(), manager.getInputStreamBufferSize());
+
+        //the cache settings apply to the streams of that cache
+        Assert.assertNull(EhcacheIOStreams.getInputStream(cache, "someKey"));
+
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, "someKey");
+        os.write(new byte[]{1, 2, 3});
+        os.close();
+
+        InputStream is = EhcacheIOStreams.getInputStream(cache, "someKey");
+        Assert.assertNotNull(is);
+        Assert.assertEquals(1, is.read());
+        is.close();
+    }
+
+    @Test
+    public void testOpenSettingsResolvedOnConfigure() throws Exception {
+        EhcacheStreamManager manager = EhcacheStreamManager.getInstance(cache);
+        Assert.assertEquals(PropertyUtils.getOutputStreamInlineThreshold().intValue(), manager.getOutputStreamInlineThreshold());
+        Assert.assertEquals(PropertyUtils.getChunksOffHeapMaxSize(), manager.getChunksOffHeapMaxSize());
+        Assert.assertEquals(PropertyUtils.getInputStreamNearCacheMaxSize(), manager.getInputStreamNearCacheMaxSize());
+
+        //not read again on each stream open
+        System.setProperty(PropertyUtils.PROP_OUTPUTSTREAM_INLINE_THRESHOLD, "0");
+        System.setProperty(PropertyUtils.PROP_CHUNKS_OFFHEAP_ENABLED, "true");
+        Assert.assertEquals(PropertyUtils.DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD, manager.getOutputStreamInlineThreshold());
+        Assert.assertFalse(manager.getChunksOffHeap());
+
+        //resolved again when the cache gets configured
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setInputStreamNearCache(true);
+        configuration.setInputStreamFetchCoalescing(false);
+        manager.setConfiguration(configuration);
+
+        Assert.assertEquals(0, manager.getOutputStreamInlineThreshold());
+        Assert.assertTrue(manager.getChunksOffHeap());
+        Assert.assertTrue(manager.getInputStreamNearCache());
+        Assert.assertFalse(manager.getInputStreamFetchCoalescing());
+
+        //a setting of the cache wins
+        configuration.setOutputStreamInlineThreshold(100);
+        configuration.setChunksOffHeap(false);
+        manager.setConfiguration(configuration);
+        Assert.assertEquals(100, manager.getOutputStreamInlineThreshold());
+        Assert.assertFalse(manager.getChunksOffHeap());
+    }
+
+    @Test
+    public void testAdaptiveChunkSizeAsDefaultBufferSize() throws Exception {
+        EhcacheStreamManager manager = EhcacheStreamManager.getInstance(cache);
+        Assert.assertEquals(PropertyUtils.getOutputStreamBufferSize().intValue(), manager.getOutputStreamBufferSize());
+
+        System.setProperty(PropertyUtils.PROP_OUTPUTSTREAM_ADAPTIVE_CHUNKSIZE_ENABLED, "true");
+        EhcacheStreamManager.reloadAllSettings();
+        Assert.assertEquals(manager.getChunkSizePolicy().getChunkSize(), manager.getOutputStreamBufferSize());
+
+        //a buffer size set for the cache wins
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setOutputStreamBufferSize(1000);
+        manager.setConfiguration(configuration);
+        Assert.assertEquals(1000, manager.getOutputStreamBufferSize());
+
+        configuration.setOutputStreamBufferSize(null);
+        configuration.setOutputStreamAdaptiveChunkSize(false);
+        manager.setConfiguration(configuration);
+        Assert.assertEquals(PropertyUtils.getOutputStreamBufferSize().intValue(), manager.getOutputStreamBufferSize());
+    }
+}
@@ -0,0 +1,118 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMasterKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Created by fabien.sanglier on 11/16/18.
+ */
+public class EhcacheStreamMasterKeyIndexTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("masterKeyIndexTest"));
+        cache = new Cache(new CacheConfiguration("masterKeyIndexTestCache", 0));
+        cacheManager.addCache(cache);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testIndexBuiltFromCacheAndKeptUpToDate() {
+        //already in cache before the index gets built
+        cache.put(new Element(new EhcacheStreamMasterKey("key1"), "master1"));
+        cache.put(new Element(new EhcacheStreamChunkKey("key1", 0), "chunk1"));
+
+        EhcacheStreamMasterKeyIndex index = EhcacheStreamManager.getInstance(cache).getMasterKeyIndex();
+        Assert.assertNotNull(index);
+        Assert.assertSame(index, EhcacheStreamManager.getInstance(cache).getMasterKeyIndex());
+        Assert.assertEquals(1, index.size());
+
+        //the chunk keys and the updates are not indexed
+        cache.put(new Element(new EhcacheStreamMasterKey("key2"), "master2"));
+        cache.put(new Element(new EhcacheStreamChunkKey("key2", 0), "chunk2"));
+        cache.put(new Element(new EhcacheStreamMasterKey("key1"), "master1-updated"));
+        Assert.assertEquals(2, index.size());
+
+        cache.remove(new EhcacheStreamMasterKey("key1"));
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(new EhcacheStreamMasterKey("key2"), index.getKeys().get(0));
+
+        cache.removeAll();
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testPagesByCursor() {
+        EhcacheStreamMasterKeyIndex index = EhcacheStreamManager.getInstance(cache).getMasterKeyIndex();
+        for (int i = 0; i < 5; i++) {
+            cache.put(new Element(new EhcacheStreamMasterKey("key" + i), "master" + i));
+        }
+
+        Map<Long, EhcacheStreamMasterKey> page = index.getPage(0, 2);
+        Assert.assertEquals(2, page.size());
+        long cursor = new ArrayList<Long>(page.keySet()).get(1);
+        Assert.assertTrue(index.hasKeysAfter(cursor));
+
+        //removing a key already listed, and adding a new one, while paging
+        cache.remove(new EhcacheStreamMasterKey("key0"));
+        cache.put(new Element(new EhcacheStreamMasterKey("key5"), "master5"));
+
+        page = index.getPage(cursor, 10);
+        Assert.assertEquals(4, page.size());
+        Assert.assertEquals(new EhcacheStreamMasterKey("key2"), page.values().iterator().next());
+
+        cursor = new ArrayList<Long>(page.keySet()).get(3);
+        Assert.assertFalse(index.hasKeysAfter(cursor));
+        Assert.assertTrue(index.getPage(cursor, 10).isEmpty());
+    }
+
+    @Test
+    public void testBuildRacingWithRemoves() {
+        cache.put(new Element(new EhcacheStreamMasterKey("key1"), "master1"));
+        cache.put(new Element(new EhcacheStreamMasterKey("key2"), "master2"));
+
+        EhcacheStreamMasterKeyIndex index = new EhcacheStreamMasterKeyIndex();
+        cache.getCacheEventNotificationService().registerListener(index);
+
+        //key1 removed right after its check (not to be indexed), key2 removed before its check and then put back (to be indexed)
+        index.build(new EhcacheDecoratorAdapter(cache) {
+            @Override
+            public boolean isKeyInCache(Object key) {
+                if(new EhcacheStreamMasterKey("key1").equals(key)) {
+                    boolean isKeyInCache = super.isKeyInCache(key);
+                    underlyingCache.remove(key);
+                    return isKeyInCache;
+                }
+
+                underlyingCache.remove(key);
+                boolean isKeyInCache = super.isKeyInCache(key);
+                underlyingCache.put(new Element(key, "master2-again"));
+                return isKeyInCache;
+            }
+        });
+
+        Assert.assertFalse(cache.isKeyInCache(new EhcacheStreamMasterKey("key1")));
+        Assert.assertTrue(cache.isKeyInCache(new EhcacheStreamMasterKey("key2")));
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(new EhcacheStreamMasterKey("key2"), index.getKeys().get(0));
+    }
+}
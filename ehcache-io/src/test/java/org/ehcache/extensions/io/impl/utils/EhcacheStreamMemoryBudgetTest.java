@@ -0,0 +1,119 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import org.ehcache.extensions.io.EhcacheStreamTimeoutException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by fabien.sanglier on 11/13/18.
+ */
+public class EhcacheStreamMemoryBudgetTest {
+    private final EhcacheStreamMemoryBudget memoryBudget = EhcacheStreamMemoryBudget.getInstance();
+
+    private long reservedSizeBefore;
+
+    @Before
+    public void setup() {
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_MIN_BUFFERSIZE, new Integer(16 * 1024).toString());
+        memoryBudget.reloadSettings();
+        reservedSizeBefore = memoryBudget.getReservedSizeInBytes();
+    }
+
+    @After
+    public void cleanup() {
+        System.clearProperty(PropertyUtils.PROP_MEMORYBUDGET_MAXSIZE);
+        System.clearProperty(PropertyUtils.PROP_MEMORYBUDGET_MIN_BUFFERSIZE);
+        System.clearProperty(PropertyUtils.PROP_MEMORYBUDGET_WAIT_TIMEOUT);
+        memoryBudget.reloadSettings();
+        Assert.assertEquals(reservedSizeBefore, memoryBudget.getReservedSizeInBytes());
+    }
+
+    private void setMaxSize(long maxSizeInBytes) {
+        //the budget is shared by the whole JVM: leave room for what is already reserved
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_MAXSIZE, new Long(reservedSizeBefore + maxSizeInBytes).toString());
+        memoryBudget.reloadSettings();
+    }
+
+    @Test
+    public void testSmallerBufferUnderPressure() throws Exception {
+        setMaxSize(208 * 1024);
+
+        int size1 = memoryBudget.reserve(128 * 1024);
+        int size2 = memoryBudget.reserve(128 * 1024);
+        int size3 = memoryBudget.reserve(128 * 1024);
+
+        Assert.assertEquals(128 * 1024, size1);
+        Assert.assertEquals(64 * 1024, size2);
+        Assert.assertEquals(16 * 1024, size3);
+
+        memoryBudget.release(size1);
+        memoryBudget.release(size2);
+        memoryBudget.release(size3);
+    }
+
+    @Test
+    public void testFastFailWhenExhausted() throws Exception {
+        setMaxSize(20 * 1024);
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_WAIT_TIMEOUT, "0");
+        memoryBudget.reloadSettings();
+
+        int size = memoryBudget.reserve(20 * 1024);
+        long rejectedCount = memoryBudget.getRejectedCount();
+        try {
+            memoryBudget.reserve(16 * 1024);
+            Assert.fail("The reservation should have failed");
+        } catch (EhcacheStreamTimeoutException e) {
+            Assert.assertEquals(rejectedCount + 1, memoryBudget.getRejectedCount());
+        } finally {
+            memoryBudget.release(size);
+        }
+    }
+
+    @Test
+    public void testWaitForReleasedBudget() throws Exception {
+        setMaxSize(20 * 1024);
+        System.setProperty(PropertyUtils.PROP_MEMORYBUDGET_WAIT_TIMEOUT, "10000");
+        memoryBudget.reloadSettings();
+
+        final int size = memoryBudget.reserve(20 * 1024);
+        long waitCount = memoryBudget.getWaitCount();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> waitingReservation = executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return memoryBudget.reserve(20 * 1024);
+                }
+            });
+
+            Thread.sleep(500);
+            Assert.assertFalse(waitingReservation.isDone());
+
+            memoryBudget.release(size);
+            int waitedSize = waitingReservation.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(20 * 1024, waitedSize);
+            Assert.assertEquals(waitCount + 1, memoryBudget.getWaitCount());
+            memoryBudget.release(waitedSize);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNoBudgetOnlyAccounted() throws Exception {
+        int size = memoryBudget.reserve(1024 * 1024);
+
+        Assert.assertEquals(1024 * 1024, size);
+        Assert.assertEquals(reservedSizeBefore + size, memoryBudget.getReservedSizeInBytes());
+        memoryBudget.release(size);
+    }
+}
@@ -0,0 +1,207 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.EhcacheStreamSweepResult;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunk;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
+import org.ehcache.extensions.io.impl.writers.EhcacheMultipartUpload;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/20/18.
+ */
+public class EhcacheStreamOrphanChunkSweeperTest {
+    private static final int CHUNK_SIZE = 500;
+    private static final int DATA_SIZE = 10000;
+    private static final int ORPHAN_SIZE = 100;
+    private static final long LEASE_DURATION = 300L;
+
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("orphanChunkSweeperTest"));
+        cache = new Cache(new CacheConfiguration("orphanChunkSweeperTestCache", 0));
+        cacheManager.addCache(cache);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testSweepRemovesOnlyOrphanChunks() throws Exception {
+        byte[] data = newData(1);
+        int chunkCount = writeStreamEntry("key1", data);
+
+        //past the chunks of key1 (eg. a failed write), and on a key with no stream entry at all (eg. a removal that did not finish)
+        putOrphanChunk("key1", 5000);
+        putOrphanChunk("key2", 0);
+        putOrphanChunk("key2", 1);
+
+        EhcacheStreamSweepResult result = EhcacheIOStreams.sweepOrphanChunks(cache);
+        Assert.assertEquals(3, result.getOrphanChunkCount());
+        Assert.assertEquals(3 * ORPHAN_SIZE, result.getReclaimedBytes());
+        Assert.assertEquals(0, result.getSkippedStreamEntryCount());
+
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+        Assert.assertFalse(EhcacheIOStreams.containStreamEntry(cache, "key2"));
+
+        //nothing left to sweep
+        Assert.assertEquals(0, EhcacheIOStreams.sweepOrphanChunks(cache).getOrphanChunkCount());
+    }
+
+    @Test
+    public void testSweepRemovesOrphanChunksWithExplicitLocks() throws Exception {
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setConcurrencyMode(PropertyUtils.ConcurrencyMode.READ_COMMITTED_WITHLOCKS);
+        EhcacheIOStreams.configure(cache, configuration);
+
+        byte[] data = newData(1);
+        int chunkCount = writeStreamEntry("key1", data);
+        putOrphanChunk("key1", 5000);
+        putOrphanChunk("key2", 0);
+
+        EhcacheStreamSweepResult result = EhcacheIOStreams.sweepOrphanChunks(cache);
+        Assert.assertEquals(2, result.getOrphanChunkCount());
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testSweepSkipsStreamEntriesBeingWritten() throws Exception {
+        byte[] data = newData(1);
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, "key1", true, CHUNK_SIZE);
+        try {
+            //chunks in cache, but not referenced by the master until the close
+            os.write(data);
+            os.flush();
+
+            EhcacheStreamSweepResult result = EhcacheIOStreams.sweepOrphanChunks(cache);
+            Assert.assertEquals(0, result.getOrphanChunkCount());
+            Assert.assertEquals(1, result.getSkippedStreamEntryCount());
+        } finally {
+            os.close();
+        }
+
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testSweepReleasesAbandonedUploads() throws Exception {
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setLockLeaseDuration(LEASE_DURATION);
+        EhcacheIOStreams.configure(cache, configuration);
+
+        byte[] data = newData(1);
+        int chunkCount = writeStreamEntry("key1", data);
+
+        //an upload with a part staged, that nobody holds nor completes (eg. its creator JVM died)
+        long uploadId = new EhcacheStreamUtilsInternal(cache).openMultipartUploadOnMaster("key1", 10000L).getLastUploadId();
+        EhcacheMultipartUpload multipartUpload = EhcacheIOStreams.getMultipartUpload(cache, "key1", uploadId);
+        OutputStream os = multipartUpload.getPartOutputStream(0, CHUNK_SIZE);
+        try {
+            os.write(newData(2));
+        } finally {
+            os.close();
+        }
+
+        //still leased
+        Assert.assertEquals(1, EhcacheIOStreams.sweepOrphanChunks(cache).getSkippedStreamEntryCount());
+        Assert.assertTrue(cache.getSize() > chunkCount + 1);
+
+        //expired: dropped with its staged parts
+        Thread.sleep(2 * LEASE_DURATION);
+        Assert.assertEquals(0, EhcacheIOStreams.sweepOrphanChunks(cache).getSkippedStreamEntryCount());
+        Assert.assertEquals(chunkCount + 1, cache.getSize());
+        Assert.assertEquals(0, new EhcacheStreamUtilsInternal(cache).getStreamMasterFromCache("key1").getMultipartUploadCount());
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+
+        try {
+            multipartUpload.complete(true);
+            Assert.fail("The released upload should not be completed");
+        } catch (EhcacheStreamIllegalStateException e) {
+            //expected
+        }
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+    }
+
+    @Test
+    public void testBackgroundSweep() throws Exception {
+        putOrphanChunk("key1", 0);
+        putOrphanChunk("key1", 1);
+
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setOrphanSweepInterval(100L);
+        EhcacheIOStreams.configure(cache, configuration);
+
+        EhcacheStreamOrphanChunkSweeper sweeper = EhcacheStreamManager.getInstance(cache).getOrphanChunkSweeper();
+        long deadline = System.currentTimeMillis() + 10000L;
+        //the totals get updated once the sweep is done, after the removals
+        while (sweeper.getTotalOrphanChunkCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(2, sweeper.getTotalOrphanChunkCount());
+        Assert.assertEquals(2 * ORPHAN_SIZE, sweeper.getTotalReclaimedBytes());
+    }
+
+    private void putOrphanChunk(Object cacheKey, int chunkIndex) {
+        cache.put(new Element(new EhcacheStreamChunkKey(cacheKey, chunkIndex), new EhcacheStreamChunk(new byte[ORPHAN_SIZE])));
+    }
+
+    private byte[] newData(long seed) {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    //returns the chunk count of the written stream entry
+    private int writeStreamEntry(Object cacheKey, byte[] data) throws Exception {
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, cacheKey, true, CHUNK_SIZE);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+
+        int chunkCount = EhcacheIOStreams.getStreamInfos(cache, Collections.singletonList(cacheKey)).get(cacheKey).getChunkCount();
+        Assert.assertTrue(chunkCount > 1);
+        return chunkCount;
+    }
+
+    private byte[] readStreamEntry(Object cacheKey) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = EhcacheIOStreams.getInputStream(cache, cacheKey);
+        try {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return bos.toByteArray();
+    }
+}
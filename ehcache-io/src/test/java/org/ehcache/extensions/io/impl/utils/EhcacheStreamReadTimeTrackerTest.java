@@ -0,0 +1,162 @@
+package org.ehcache.extensions.io.impl.utils;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamConfiguration;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Created by fabien.sanglier on 11/22/18.
+ */
+public class EhcacheStreamReadTimeTrackerTest {
+    private static final long FLUSH_INTERVAL = 200L;
+    private static final int CHUNK_SIZE = 500;
+    private static final int DATA_SIZE = 5000;
+
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("readTimeTrackerTest"));
+        cache = new Cache(new CacheConfiguration("readTimeTrackerTestCache", 0));
+        cacheManager.addCache(cache);
+    }
+
+    @After
+    public void cleanup() {
+        cacheManager.shutdown();
+    }
+
+    private void configure(long flushInterval) {
+        EhcacheStreamConfiguration configuration = new EhcacheStreamConfiguration();
+        configuration.setConcurrencyMode(PropertyUtils.ConcurrencyMode.WRITE_PRIORITY);
+        configuration.setInputStreamReadTimeFlushInterval(flushInterval);
+        EhcacheIOStreams.configure(cache, configuration);
+    }
+
+    @Test
+    public void testReadDoesNotWriteMaster() throws Exception {
+        //long interval: only the explicit flush below
+        configure(60000L);
+
+        byte[] data = newData(1);
+        writeStreamEntry("key1", data);
+        EhcacheStreamMaster before = getStreamMaster("key1");
+        Assert.assertEquals(0, before.getLastReadTime());
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(data, readStreamEntry("key1"));
+        }
+
+        //the reads did not touch the master
+        Assert.assertEquals(before, getStreamMaster("key1"));
+
+        //all the reads coalesced into a single master update
+        EhcacheStreamReadTimeTracker tracker = EhcacheStreamManager.getInstance(cache).getReadTimeTracker();
+        Assert.assertEquals(1, tracker.getPendingCount());
+        Assert.assertEquals(1, tracker.flush());
+        Assert.assertEquals(0, tracker.getPendingCount());
+
+        EhcacheStreamMaster after = getStreamMaster("key1");
+        Assert.assertTrue(after.getLastReadTime() > 0);
+        Assert.assertTrue(before.equalsNoReadWriteTimes(after));
+        Assert.assertEquals(before.getLastWrittenTime(), after.getLastWrittenTime());
+    }
+
+    @Test
+    public void testBackgroundFlush() throws Exception {
+        configure(FLUSH_INTERVAL);
+
+        byte[] data = newData(1);
+        writeStreamEntry("key1", data);
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (getStreamMaster("key1").getLastReadTime() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+
+        Assert.assertTrue(getStreamMaster("key1").getLastReadTime() > 0);
+    }
+
+    @Test
+    public void testFlushSkipsStreamEntriesBeingWritten() throws Exception {
+        configure(60000L);
+
+        writeStreamEntry("key1", newData(1));
+        EhcacheStreamReadTimeTracker tracker = EhcacheStreamManager.getInstance(cache).getReadTimeTracker();
+        tracker.recordRead("key1");
+
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, "key1", false, CHUNK_SIZE);
+        try {
+            os.write(newData(2));
+
+            //kept for the next flush
+            Assert.assertEquals(0, tracker.flush());
+            Assert.assertEquals(1, tracker.getPendingCount());
+        } finally {
+            os.close();
+        }
+
+        Assert.assertEquals(1, tracker.flush());
+        Assert.assertTrue(getStreamMaster("key1").getLastReadTime() > 0);
+    }
+
+    @Test
+    public void testReadTimeStampedOnOpenByDefault() throws Exception {
+        configure(0L);
+        Assert.assertNull(EhcacheStreamManager.getInstance(cache).getReadTimeTracker());
+
+        byte[] data = newData(1);
+        writeStreamEntry("key1", data);
+        Assert.assertArrayEquals(data, readStreamEntry("key1"));
+        Assert.assertTrue(getStreamMaster("key1").getLastReadTime() > 0);
+    }
+
+    private EhcacheStreamMaster getStreamMaster(Object cacheKey) {
+        return new EhcacheStreamUtilsInternal(cache).getStreamMasterFromCache(cacheKey);
+    }
+
+    private byte[] newData(long seed) {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private void writeStreamEntry(Object cacheKey, byte[] data) throws Exception {
+        OutputStream os = EhcacheIOStreams.getOutputStream(cache, cacheKey, true, CHUNK_SIZE);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] readStreamEntry(Object cacheKey) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = EhcacheIOStreams.getInputStream(cache, cacheKey);
+        try {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer)) > -1) {
+                bos.write(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return bos.toByteArray();
+    }
+}
@@ -1,7 +1,18 @@
 package org.ehcache.extensions.io.impl.utils;
 
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.event.NotificationScope;
 import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamEntryInfo;
+import org.ehcache.extensions.io.EhcacheStreamException;
+import org.ehcache.extensions.io.EhcacheStreamIllegalStateException;
+import org.ehcache.extensions.io.EhcacheStreamKeyPage;
 import org.ehcache.extensions.io.EhcacheStreamingTestsBase;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamChunkKey;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -10,7 +21,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
@@ -79,6 +98,129 @@ public class EhcacheStreamUtilsTest extends EhcacheStreamingTestsBase {
         Assert.assertEquals(0, getCache().getSize());
     }
 
+    @Test
+    public void testRemoveStreamEntries() throws Exception {
+        logger.info("============ testRemoveStreamEntries ====================");
+
+        long openTimeout = 10000L;
+        int iterations = 10;
+        int batchSize = 3;
+
+        List keys = new ArrayList();
+        for (int i = 0; i < iterations; i++) {
+            String cacheKey = getCacheKey().toString() + i;
+            keys.add(cacheKey);
+
+            //only the even keys have a stream entry (of several chunks)
+            if(i % 2 == 0) {
+                OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), cacheKey, true, 100);
+                os.write(new byte[(i + 1) * 100]);
+                os.close();
+            }
+        }
+
+        Assert.assertTrue(getCache().getSize() >= iterations / 2);
+
+        int removedCount = EhcacheIOStreams.removeStreamEntries(getCache(), keys, batchSize, openTimeout);
+
+        Assert.assertEquals(iterations / 2, removedCount);
+        Assert.assertEquals(0, getCache().getSize());
+    }
+
+    @Test
+    public void testRemoveStreamEntriesWithOpenWrite() throws Exception {
+        logger.info("============ testRemoveStreamEntriesWithOpenWrite ====================");
+
+        final long openTimeout = 200L;
+        int iterations = 5;
+
+        final List keys = new ArrayList();
+        for (int i = 0; i < iterations; i++) {
+            String cacheKey = getCacheKey().toString() + i;
+            keys.add(cacheKey);
+
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), cacheKey, true, 100);
+            os.write(new byte[250]);
+            os.close();
+        }
+
+        //a write is still open on the first key: it cannot be removed, but all the others must be
+        //(removing from another thread, as the explicit ehcache locks are reentrant)
+        String lockedKey = keys.get(0).toString();
+        OutputStream lockedOs = EhcacheIOStreams.getOutputStream(getCache(), lockedKey, false, 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> removedCount = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return EhcacheIOStreams.removeStreamEntries(getCache(), keys, openTimeout);
+                }
+            });
+
+            try {
+                removedCount.get();
+                Assert.fail("Should have failed removing the locked stream entry");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof EhcacheStreamException);
+            }
+
+            Assert.assertEquals(Collections.singletonList(lockedKey), EhcacheIOStreams.getStreamEntryKeys(getCache(), false));
+        } finally {
+            lockedOs.close();
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(250, EhcacheIOStreams.getStreamInfos(getCache(), Collections.singletonList(lockedKey)).get(lockedKey).getSizeInBytes());
+    }
+
+    @Test
+    public void testRemoveStreamEntriesReleasesWritesOnFailure() throws Exception {
+        logger.info("============ testRemoveStreamEntriesReleasesWritesOnFailure ====================");
+
+        final long openTimeout = 1000L;
+        int iterations = 5;
+
+        List keys = new ArrayList();
+        for (int i = 0; i < iterations; i++) {
+            String cacheKey = getCacheKey().toString() + i;
+            keys.add(cacheKey);
+
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), cacheKey, true, 100);
+            os.write(new byte[5000]);
+            os.close();
+        }
+
+        //puts back the first removed chunk, so the removal verification fails
+        CacheEventListener chunkRestorer = new CacheEventListenerAdapter() {
+            private boolean restored = false;
+
+            @Override
+            public synchronized void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+                if (!restored && element.getObjectKey() instanceof EhcacheStreamChunkKey) {
+                    restored = true;
+                    cache.put(new Element(element.getObjectKey(), element.getObjectValue()));
+                }
+            }
+        };
+
+        getCache().getCacheEventNotificationService().registerListener(chunkRestorer, NotificationScope.LOCAL);
+        try {
+            EhcacheIOStreams.removeStreamEntries(getCache(), keys, openTimeout);
+            Assert.fail("Should have failed verifying the chunk removal");
+        } catch (EhcacheStreamIllegalStateException e) {
+            //expected
+        } finally {
+            getCache().getCacheEventNotificationService().unregisterListener(chunkRestorer);
+        }
+
+        //none of the stream entries is left unwritable
+        for (Object cacheKey : keys) {
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), cacheKey, true, 100, openTimeout);
+            os.write(new byte[250]);
+            os.close();
+        }
+    }
+
     @Test
     public void testContainsExistingStreamEntry() throws Exception {
         logger.info("============ testContainsExistingStreamEntry ====================");
@@ -137,6 +279,138 @@ public class EhcacheStreamUtilsTest extends EhcacheStreamingTestsBase {
         Assert.assertEquals(getCacheKey(), keys.get(0));
     }
 
+    @Test
+    public void testGetStreamEntryKeysByPage() throws Exception {
+        logger.info("============ testGetStreamEntryKeysByPage ====================");
+
+        boolean expirationCheck = false;
+        int iterations = 10;
+        int pageSize = 3;
+
+        for (int i = 0; i < iterations; i++) {
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey().toString() + i);
+            os.write(new byte[]{1, 2, 3});
+            os.close();
+        }
+
+        List keys = new ArrayList();
+        long cursor = 0;
+        EhcacheStreamKeyPage page;
+        do {
+            page = EhcacheIOStreams.getStreamEntryKeys(getCache(), expirationCheck, cursor, pageSize);
+            Assert.assertTrue(page.getKeys().size() <= pageSize);
+            keys.addAll(page.getKeys());
+            cursor = page.getNextCursor();
+        } while (page.hasMore());
+
+        Assert.assertEquals(iterations, keys.size());
+        for (int i = 0; i < iterations; i++) {
+            Assert.assertTrue(keys.contains(getCacheKey().toString() + i));
+        }
+    }
+
+    @Test
+    public void testGetStreamEntryKeysByPageWithoutIndex() throws Exception {
+        logger.info("============ testGetStreamEntryKeysByPageWithoutIndex ====================");
+
+        boolean expirationCheck = true;
+        int iterations = 10;
+        int pageSize = 3;
+
+        for (int i = 0; i < iterations; i++) {
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey().toString() + i);
+            os.write(new byte[]{1, 2, 3});
+            os.close();
+        }
+
+        //going through the search or scan fallback, and removing the listed keys while paging
+        EhcacheStreamUtilsInternal streamUtilsInternal = new EhcacheStreamUtilsInternal(getCache());
+        List keys = new ArrayList();
+        long cursor = 0;
+        EhcacheStreamKeyPage page;
+        do {
+            page = streamUtilsInternal.getStreamMasterPublicKeysPage(expirationCheck, null, cursor, pageSize);
+            for (Object key : page.getKeys()) {
+                Assert.assertFalse(keys.contains(key));
+                keys.add(key);
+                Assert.assertTrue(EhcacheIOStreams.removeStreamEntry(getCache(), key));
+            }
+            cursor = page.getNextCursor();
+        } while (page.hasMore());
+
+        Assert.assertEquals(iterations, keys.size());
+        Assert.assertEquals(0, getCache().getSize());
+    }
+
+    @Test
+    public void testGetStreamEntriesByBatch() throws Exception {
+        logger.info("============ testGetStreamEntriesByBatch ====================");
+
+        boolean expirationCheck = false;
+        int iterations = 10;
+        int batchSize = 3;
+
+        for (int i = 0; i < iterations; i++) {
+            OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey().toString() + i);
+            os.write(new byte[i + 1]);
+            os.close();
+        }
+
+        List keys = new ArrayList();
+        Iterator<EhcacheStreamEntryInfo> it = EhcacheIOStreams.getStreamEntries(getCache(), expirationCheck, batchSize);
+        while (it.hasNext()) {
+            EhcacheStreamEntryInfo streamEntryInfo = it.next();
+            keys.add(streamEntryInfo.getCacheKey());
+
+            int i = Integer.parseInt(streamEntryInfo.getCacheKey().toString().substring(getCacheKey().toString().length()));
+            Assert.assertEquals(i + 1, streamEntryInfo.getSizeInBytes());
+            Assert.assertEquals(1, streamEntryInfo.getChunkCount());
+            Assert.assertEquals(0, streamEntryInfo.getWriters());
+            Assert.assertTrue(streamEntryInfo.getLastWrittenTime() > 0);
+        }
+
+        Assert.assertEquals(iterations, keys.size());
+        for (int i = 0; i < iterations; i++) {
+            Assert.assertTrue(keys.contains(getCacheKey().toString() + i));
+        }
+    }
+
+    @Test
+    public void testGetStreamInfos() throws Exception {
+        logger.info("============ testGetStreamInfos ====================");
+
+        int iterations = 10;
+        int batchSize = 3;
+
+        List keys = new ArrayList();
+        for (int i = 0; i < iterations; i++) {
+            String cacheKey = getCacheKey().toString() + i;
+            keys.add(cacheKey);
+
+            //only the even keys have a stream entry
+            if(i % 2 == 0) {
+                OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), cacheKey);
+                os.write(new byte[i + 1]);
+                os.close();
+            }
+        }
+
+        Map<Object, EhcacheStreamEntryInfo> streamInfos = EhcacheIOStreams.getStreamInfos(getCache(), keys, batchSize);
+
+        Assert.assertEquals(keys, new ArrayList(streamInfos.keySet()));
+        for (int i = 0; i < iterations; i++) {
+            EhcacheStreamEntryInfo streamEntryInfo = streamInfos.get(keys.get(i));
+            if(i % 2 == 0) {
+                Assert.assertNotNull(streamEntryInfo);
+                Assert.assertEquals(i + 1, streamEntryInfo.getSizeInBytes());
+                Assert.assertEquals(0, streamEntryInfo.getReaders());
+                Assert.assertEquals(0, streamEntryInfo.getWriters());
+            } else {
+                Assert.assertNull(streamEntryInfo);
+            }
+        }
+    }
+
     @Test
     public void testGetAllStreamEntryKeysFilteredWritesOnly() throws Exception {
         logger.info("============ testGetAllStreamEntryKeysFilteredWritesOnly ====================");
@@ -1,7 +1,11 @@
 package org.ehcache.extensions.io.impl.writers;
 
 import org.ehcache.extensions.io.EhcacheIOStreams;
+import org.ehcache.extensions.io.EhcacheStreamIllegalArgumentException;
 import org.ehcache.extensions.io.EhcacheStreamingTestsBase;
+import org.ehcache.extensions.io.impl.model.EhcacheStreamMaster;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamManager;
+import org.ehcache.extensions.io.impl.utils.EhcacheStreamUtilsInternal;
 import org.ehcache.extensions.io.impl.utils.PropertyUtils;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -12,8 +16,12 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
@@ -435,4 +443,223 @@ public class EhcacheOutputStreamTest extends EhcacheStreamingTestsBase {
             Assert.assertNotEquals(fileFromDisk.getFromChecksum(), fileFromCache.getFromChecksum());
         }
     }
-}
\ No newline at end of file
+
+    private byte[] generateBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] readBytesFromCache() throws IOException {
+        try (
+                InputStream is = EhcacheIOStreams.getInputStream(getCache(), getCacheKey(), false);
+                ByteArrayOutputStream os = new ByteArrayOutputStream()
+        ) {
+            pipeStreamsWithBuffer(is, os, 1024);
+            return os.toByteArray();
+        }
+    }
+
+    @Test
+    public void testSmallPayloadStoredInline() throws IOException {
+        logger.info("============ testSmallPayloadStoredInline ====================");
+
+        byte[] payload = generateBytes(PropertyUtils.DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD / 2);
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey())) {
+            os.write(payload);
+        }
+
+        //only the master entry should be in cache
+        Assert.assertEquals(1, getCache().getSize());
+
+        EhcacheStreamMaster streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        Assert.assertTrue(streamMaster.hasInlineChunk());
+        Assert.assertEquals(1, streamMaster.getChunkCount());
+        Assert.assertEquals(0, streamMaster.getWriters());
+        Assert.assertEquals(0, streamMaster.getReaders());
+
+        Assert.assertArrayEquals(payload, readBytesFromCache());
+    }
+
+    @Test
+    public void testInlinePayloadMovedToChunksWhenGrowing() throws IOException {
+        logger.info("============ testInlinePayloadMovedToChunksWhenGrowing ====================");
+
+        byte[] payload1 = generateBytes(PropertyUtils.DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD * 3 / 4);
+        byte[] payload2 = generateBytes(PropertyUtils.DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD * 3 / 4 + 1);
+
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true)) {
+            os.write(payload1);
+        }
+        Assert.assertEquals(1, getCache().getSize());
+
+        //append: the total does not fit inline anymore
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), false)) {
+            os.write(payload2);
+        }
+
+        EhcacheStreamMaster streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        Assert.assertFalse(streamMaster.hasInlineChunk());
+        Assert.assertEquals(1 + streamMaster.getChunkCount(), getCache().getSize());
+        Assert.assertEquals(payload1.length + payload2.length, streamMaster.getChunksTotalSizeInBytes());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(payload1);
+        expected.write(payload2);
+        Assert.assertArrayEquals(expected.toByteArray(), readBytesFromCache());
+    }
+
+    private void assertChunksFilled(EhcacheStreamMaster streamMaster, int chunkSize, long totalSize) {
+        Assert.assertEquals(totalSize, streamMaster.getChunksTotalSizeInBytes());
+        Assert.assertEquals((int) ((totalSize + chunkSize - 1) / chunkSize), streamMaster.getChunkCount());
+
+        //all but the last chunk should be full
+        for (int i = 0; i < streamMaster.getChunkCount() - 1; i++) {
+            Assert.assertEquals(chunkSize, streamMaster.getChunkSizeInBytes(i));
+        }
+    }
+
+    @Test
+    public void testSmallAppendsMergedIntoLastChunk() throws IOException {
+        logger.info("============ testSmallAppendsMergedIntoLastChunk ====================");
+
+        int chunkSize = 8 * 1024;
+        int appends = 20;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < appends; i++) {
+            byte[] payload = generateBytes(1500 + i);
+            try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), false, chunkSize)) {
+                os.write(payload);
+            }
+            expected.write(payload);
+        }
+
+        EhcacheStreamMaster streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        assertChunksFilled(streamMaster, chunkSize, expected.size());
+
+        //the merged chunks replace the previous ones: no leftover chunk entry
+        Assert.assertEquals(1 + streamMaster.getChunkCount(), getCache().getSize());
+
+        Assert.assertArrayEquals(expected.toByteArray(), readBytesFromCache());
+    }
+
+    @Test
+    public void testCompactStreamEntry() throws IOException {
+        logger.info("============ testCompactStreamEntry ====================");
+
+        //many appends with a small buffer, then compacted into bigger chunks
+        int smallChunkSize = 1024;
+        int chunkSize = 8 * 1024;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            byte[] payload = generateBytes(1000 + i);
+            try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), false, smallChunkSize)) {
+                os.write(payload);
+            }
+            expected.write(payload);
+        }
+
+        EhcacheStreamMaster streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        int chunkCountBeforeCompaction = streamMaster.getChunkCount();
+        Assert.assertTrue(chunkCountBeforeCompaction > expected.size() / chunkSize + 1);
+
+        Assert.assertTrue(EhcacheIOStreams.compactStreamEntry(getCache(), getCacheKey(), chunkSize, PropertyUtils.getOutputStreamOpenTimeout()));
+
+        streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        assertChunksFilled(streamMaster, chunkSize, expected.size());
+        Assert.assertEquals(0, streamMaster.getWriters());
+        Assert.assertEquals(1 + streamMaster.getChunkCount(), getCache().getSize());
+        Assert.assertArrayEquals(expected.toByteArray(), readBytesFromCache());
+
+        //nothing left to compact
+        Assert.assertFalse(EhcacheIOStreams.compactStreamEntry(getCache(), getCacheKey(), chunkSize, PropertyUtils.getOutputStreamOpenTimeout()));
+        Assert.assertEquals(1 + streamMaster.getChunkCount(), getCache().getSize());
+    }
+
+    @Test
+    public void testCompactStreamEntryNotInCache() throws IOException {
+        logger.info("============ testCompactStreamEntryNotInCache ====================");
+
+        Assert.assertFalse(EhcacheIOStreams.compactStreamEntry(getCache(), getCacheKey()));
+        Assert.assertEquals(0, getCache().getSize());
+
+        //nothing left held on that key either
+        OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true, PropertyUtils.getOutputStreamBufferSize(), 1000L);
+        os.write(new byte[]{1, 2, 3});
+        os.close();
+        Assert.assertEquals(1, getCache().getSize());
+    }
+
+    @Test
+    public void testPutFile() throws IOException {
+        logger.info("============ testPutFile ====================");
+
+        //something to replace
+        try (OutputStream os = EhcacheIOStreams.getOutputStream(getCache(), getCacheKey(), true)) {
+            os.write(generateBytes(100 * 1024));
+        }
+
+        int chunkSize = 64 * 1024;
+        long fileSize = Files.size(IN_FILE_PATH);
+        Assert.assertEquals(fileSize, EhcacheIOStreams.putFile(getCache(), getCacheKey(), IN_FILE_PATH, chunkSize, 4, PropertyUtils.getOutputStreamOpenTimeout()));
+
+        EhcacheStreamMaster streamMaster = new EhcacheStreamUtilsInternal(getCache()).getStreamMasterFromCache(getCacheKey());
+        Assert.assertEquals((fileSize + chunkSize - 1) / chunkSize, streamMaster.getChunkCount());
+        Assert.assertEquals(fileSize, streamMaster.getChunksTotalSizeInBytes());
+        Assert.assertEquals(0, streamMaster.getWriters());
+        Assert.assertEquals(1 + streamMaster.getChunkCount(), getCache().getSize());
+
+        StreamCopyResultDescriptor cacheCopy = readFileFromCache(getCacheKey());
+        Assert.assertEquals(fileFromDisk.getFromChecksum(), cacheCopy.getToChecksum());
+    }
+
+    @Test
+    public void testPutFileSharesThreads() throws IOException {
+        logger.info("============ testPutFileSharesThreads ====================");
+
+        int chunkSize = 64 * 1024;
+        ThreadPoolExecutor putFileExecutor = (ThreadPoolExecutor) EhcacheStreamManager.getInstance(getCache()).getPutFileExecutor();
+
+        //more parts than putFile threads, twice: the parts queue up for the same threads
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(Files.size(IN_FILE_PATH), EhcacheIOStreams.putFile(getCache(), getCacheKey(), IN_FILE_PATH, chunkSize, 16, PropertyUtils.getOutputStreamOpenTimeout()));
+        }
+
+        Assert.assertSame(putFileExecutor, EhcacheStreamManager.getInstance(getCache()).getPutFileExecutor());
+        Assert.assertTrue(putFileExecutor.getLargestPoolSize() > 0);
+        Assert.assertTrue(putFileExecutor.getLargestPoolSize() <= PropertyUtils.getOutputStreamPutFileThreads());
+
+        StreamCopyResultDescriptor cacheCopy = readFileFromCache(getCacheKey());
+        Assert.assertEquals(fileFromDisk.getFromChecksum(), cacheCopy.getToChecksum());
+    }
+
+    @Test
+    public void testPutSmallFile() throws IOException {
+        logger.info("============ testPutSmallFile ====================");
+
+        byte[] payload = generateBytes(PropertyUtils.DEFAULT_OUTPUTSTREAM_INLINE_THRESHOLD / 2);
+        Path smallFile = Files.createTempFile("ehcache-io-putfile", ".bin");
+        try {
+            Files.write(smallFile, payload);
+
+            Assert.assertEquals(payload.length, EhcacheIOStreams.putFile(getCache(), getCacheKey(), smallFile));
+            Assert.assertEquals(1, getCache().getSize());
+            Assert.assertArrayEquals(payload, readBytesFromCache());
+        } finally {
+            Files.delete(smallFile);
+        }
+    }
+
+    @Test
+    public void testPutFileNotFound() throws IOException {
+        logger.info("============ testPutFileNotFound ====================");
+
+        try {
+            EhcacheIOStreams.putFile(getCache(), getCacheKey(), OUT_FILE_PATH.resolveSibling("does_not_exist.txt"));
+            Assert.fail("Should have failed: no such file");
+        } catch (EhcacheStreamIllegalArgumentException e) {
+            logger.debug("Expected exception: {}", e.getMessage());
+        }
+        Assert.assertEquals(0, getCache().getSize());
+    }
+}